@@ -18,13 +18,29 @@ package org.omadac.loader;
 
 import java.io.File;
 import java.io.FilenameFilter;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.HashMap;
 import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CompletionService;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorCompletionService;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
 
 import org.omadac.config.OmadacException;
-
+import org.omadac.loader.LoaderFileChunker.Chunk;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
 
 public abstract class AbstractFileImporter implements Runnable
 {
+    private static Logger log = LoggerFactory.getLogger(AbstractFileImporter.class);
+
     protected AbstractLineFilter filter;
 
     protected List<String> inputDirectories;
@@ -32,6 +48,10 @@ public abstract class AbstractFileImporter implements Runnable
     protected String outputDir;
 
     protected String schema;
+
+    protected int numThreads = 1;
+
+    protected long chunkSize;
     
     public AbstractFileImporter(AbstractLineFilter filter)
     {
@@ -48,10 +68,54 @@ public abstract class AbstractFileImporter implements Runnable
         return schema;
     }
 
+    /**
+     * Sets the number of files to be imported concurrently. Implementations of
+     * {@link #importFilteredFile(String, String)} must be thread-safe if this is greater
+     * than 1.
+     * @param numThreads  number of import threads
+     */
+    public void setNumThreads(int numThreads)
+    {
+        this.numThreads = numThreads;
+    }
+
     public abstract void importRawFile(File file, String tableName);
 
     public abstract void importFilteredFile(String fileName, String tableName);
 
+    /**
+     * Sets the size above which a loader file is split into chunks which are imported
+     * concurrently. Only effective with more than one thread.
+     * @param chunkSize  chunk size in bytes, or 0 to never split files
+     */
+    public void setChunkSize(long chunkSize)
+    {
+        this.chunkSize = chunkSize;
+    }
+
+    /**
+     * Checks if the given file can be imported in chunks by
+     * {@link #importFileChunk(File, String, Chunk)}. The default is false.
+     */
+    protected boolean isSplittable(File file)
+    {
+        return false;
+    }
+
+    /**
+     * Imports a chunk of a file split by {@link LoaderFileChunker}. Only called for files
+     * for which {@link #isSplittable(File)} returns true.
+     */
+    protected abstract void importFileChunk(File file, String tableName, Chunk chunk);
+
+    /**
+     * Checks if the given loader file is in binary format, based on its extension.
+     */
+    protected boolean isBinary(String fileName)
+    {
+        return fileName.matches(".*\\.bin(\\.gz|\\.zst)?");
+    }
+
     protected void preCheckLoaderFiles()
     {        
     }
@@ -67,10 +131,15 @@ public abstract class AbstractFileImporter implements Runnable
         return  schema + "." + getTableNameForFile(file);
     }
 
+    /**
+     * Derives the table name from a loader file name, stripping the extension {@code .txt} for
+     * text files or {@code .bin} for binary files, optionally followed by {@code .gz} or
+     * {@code .zst}.
+     */
     protected String getTableNameForFile(File file)
     {
         String name = file.getName();
-        String table = name.replaceFirst("\\.txt(\\.gz)?", "");
+        String table = name.replaceFirst("\\.(txt|bin)(\\.gz|\\.zst)?", "");
         if (!name.equals(table))
         {
             return table.toLowerCase();
@@ -124,7 +193,7 @@ public abstract class AbstractFileImporter implements Runnable
         {
                 public boolean accept(File file, String name)
                 {
-                    return name.matches(".*\\.txt(\\.gz)?");
+                    return name.matches(".*\\.(txt|bin)(\\.gz|\\.zst)?");
                 }
         });
         return files;
@@ -132,10 +201,167 @@ public abstract class AbstractFileImporter implements Runnable
 
     private void importFiles(File[] files)
     {
+        if (numThreads > 1)
+        {
+            importFilesConcurrently(files);
+            return;
+        }
+        
         for (File file : files)
         {
             String tableName = getTableNameForFile(file);
             importFilteredFile(file.getPath(), tableName);
         }
     }
+
+    /**
+     * Imports each file or file chunk in a separate task, with at most {@code numThreads}
+     * tasks running at the same time. The largest files are started first. Stops waiting for
+     * the remaining tasks on the first failure.
+     */
+    private void importFilesConcurrently(File[] files)
+    {
+        File[] sortedFiles = files.clone();
+        Arrays.sort(sortedFiles, new Comparator<File>()
+        {
+            @Override
+            public int compare(File left, File right)
+            {
+                return Long.valueOf(right.length()).compareTo(left.length());
+            }
+        });
+
+        List<Callable<String>> tasks = new ArrayList<Callable<String>>();
+        Map<String, Integer> numPendingTasks = new HashMap<String, Integer>();
+        for (File file : sortedFiles)
+        {
+            String tableName = getTableNameForFile(file);
+            List<Callable<String>> fileTasks = createTasks(file, tableName);
+            tasks.addAll(fileTasks);
+            numPendingTasks.put(tableName, fileTasks.size());
+        }
+        
+        int poolSize = Math.min(numThreads, tasks.size());
+        if (poolSize == 0)
+        {
+            return;
+        }
+        log.info("importing {} files in {} tasks with {} threads", 
+            new Object[] { files.length, tasks.size(), poolSize });
+        ExecutorService executor = Executors.newFixedThreadPool(poolSize);
+        CompletionService<String> completionService = 
+            new ExecutorCompletionService<String>(executor);
+        try
+        {
+            for (Callable<String> task : tasks)
+            {
+                completionService.submit(task);
+            }
+            int numTables = 0;
+            for (int i = 0; i < tasks.size(); i++)
+            {
+                String tableName = completionService.take().get();
+                int numPending = numPendingTasks.get(tableName) - 1;
+                numPendingTasks.put(tableName, numPending);
+                if (numPending == 0)
+                {
+                    numTables++;
+                    log.info("imported table {} ({} of {})", 
+                        new Object[] { tableName, numTables, files.length });
+                }
+            }
+        }
+        catch (InterruptedException exc)
+        {
+            Thread.currentThread().interrupt();
+            throw new OmadacException(exc);
+        }
+        catch (ExecutionException exc)
+        {
+            Throwable cause = exc.getCause();
+            if (cause instanceof OmadacException)
+            {
+                throw (OmadacException) cause;
+            }
+            throw new OmadacException(cause);
+        }
+        finally
+        {
+            executor.shutdownNow();
+        }
+    }
+
+    private List<Callable<String>> createTasks(File file, String tableName)
+    {
+        List<Callable<String>> tasks = new ArrayList<Callable<String>>();
+        if (chunkSize > 0 && file.length() > chunkSize && isSplittable(file))
+        {
+            try
+            {
+                List<Chunk> chunks = LoaderFileChunker.split(file, chunkSize);
+                log.info("splitting {} into {} chunks", file, chunks.size());
+                for (Chunk chunk : chunks)
+                {
+                    tasks.add(new ImportChunkTask(file, tableName, chunk));
+                }
+            }
+            catch (IOException exc)
+            {
+                throw new OmadacException(exc);
+            }
+        }
+        else
+        {
+            tasks.add(new ImportTask(file, tableName));
+        }
+        return tasks;
+    }
+
+    private class ImportTask implements Callable<String>
+    {
+        private File file;
+
+        private String tableName;
+
+        public ImportTask(File file, String tableName)
+        {
+            this.file = file;
+            this.tableName = tableName;
+        }
+
+        @Override
+        public String call()
+        {
+            long start = System.currentTimeMillis();
+            importFilteredFile(file.getPath(), tableName);
+            log.info("importing {} took {} ms", file, System.currentTimeMillis() - start);
+            return tableName;
+        }
+    }
+
+    private class ImportChunkTask implements Callable<String>
+    {
+        private File file;
+
+        private String tableName;
+
+        private Chunk chunk;
+
+        public ImportChunkTask(File file, String tableName, Chunk chunk)
+        {
+            this.file = file;
+            this.tableName = tableName;
+            this.chunk = chunk;
+        }
+
+        @Override
+        public String call()
+        {
+            long start = System.currentTimeMillis();
+            importFileChunk(file, tableName, chunk);
+            log.info("importing chunk {} of {} took {} ms", 
+                new Object[] { chunk, file, System.currentTimeMillis() - start });
+            return tableName;
+        }
+    }
 }
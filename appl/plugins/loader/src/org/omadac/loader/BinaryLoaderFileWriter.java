@@ -0,0 +1,175 @@
+/*
+ *    Omadac - The Open Map Database Compiler
+ *    http://omadac.org
+ * 
+ *    (C) 2010, Harald Wellmann and Contributors
+ *
+ *    This library is free software; you can redistribute it and/or
+ *    modify it under the terms of the GNU Lesser General Public
+ *    License as published by the Free Software Foundation;
+ *    version 2.1 of the License.
+ *
+ *    This library is distributed in the hope that it will be useful,
+ *    but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ *    Lesser General Public License for more details.
+ */
+package org.omadac.loader;
+
+import java.io.File;
+import java.io.FileNotFoundException;
+import java.io.FileOutputStream;
+import java.nio.channels.WritableByteChannel;
+
+import org.omadac.config.OmadacException;
+import org.omadac.loader.jmx.ImportMetrics;
+
+/**
+ * Writes a loader file in PostgreSQL binary COPY format. Each column is written as a length
+ * prefixed value in network byte order, so the server does not have to parse any numbers.
+ * The column types must match the table definition exactly, e.g. {@link ColumnType#INT8} for
+ * {@code bigint}.
+ * <p>
+ * Binary loader files use the extension {@code .bin} and are imported with
+ * {@code copy ... with binary}.
+ * 
+ * @author hwellmann
+ * 
+ */
+public class BinaryLoaderFileWriter extends LoaderFileWriter
+{
+    public static final String EXTENSION = ".bin";
+
+    /** File signature, followed by 32 bit flags and header extension length. */
+    private static final byte[] SIGNATURE = { 'P', 'G', 'C', 'O', 'P', 'Y', '\n', (byte) 0xFF,
+        '\r', '\n', 0 };
+
+    public enum ColumnType
+    {
+        /** smallint */
+        INT2,
+
+        /** integer */
+        INT4,
+
+        /** bigint */
+        INT8,
+
+        /** text or varchar */
+        TEXT
+    }
+
+    private ColumnType[] columnTypes;
+
+    private int column;
+
+    public BinaryLoaderFileWriter(File file, ColumnType... columnTypes)
+        throws FileNotFoundException
+    {
+        this(new FileOutputStream(file).getChannel(), DEFAULT_BUFFER_SIZE, columnTypes);
+        setCounter(ImportMetrics.getInstance().getLoaderFileCounter(file.getName()));
+    }
+
+    public BinaryLoaderFileWriter(WritableByteChannel channel, int bufferSize,
+        ColumnType... columnTypes)
+    {
+        super(channel, bufferSize);
+        this.columnTypes = columnTypes;
+        ensureCapacity(SIGNATURE.length + 8);
+        System.arraycopy(SIGNATURE, 0, buffer, pos, SIGNATURE.length);
+        pos += SIGNATURE.length;
+        putInt(0);
+        putInt(0);
+    }
+
+    private ColumnType startColumn()
+    {
+        if (column == columnTypes.length)
+        {
+            throw new OmadacException("too many columns, expected " + columnTypes.length);
+        }
+        ensureCapacity(MAX_ENCODED_SIZE);
+        if (column == 0)
+        {
+            putShort(columnTypes.length);
+        }
+        return columnTypes[column++];
+    }
+
+    @Override
+    public void writeColumn(long value)
+    {
+        switch (startColumn())
+        {
+            case INT2:
+                putInt(2);
+                putShort((int) value);
+                break;
+            case INT4:
+                putInt(4);
+                putInt((int) value);
+                break;
+            case INT8:
+                putInt(8);
+                putLong(value);
+                break;
+            default:
+                writeText(Long.toString(value));
+        }
+    }
+
+    @Override
+    public void writeColumn(int value)
+    {
+        writeColumn((long) value);
+    }
+
+    @Override
+    public void writeColumn(CharSequence value)
+    {
+        // like the text format with null as '', an empty string is stored as NULL
+        if (value == null || value.length() == 0)
+        {
+            startColumn();
+            putInt(-1);
+        }
+        else if (columnTypes[Math.min(column, columnTypes.length - 1)] == ColumnType.TEXT)
+        {
+            startColumn();
+            writeText(value);
+        }
+        else
+        {
+            writeColumn(Long.parseLong(value.toString()));
+        }
+    }
+
+    private void writeText(CharSequence value)
+    {
+        putInt(getUtf8Length(value));
+        writeUtf8(value, false);
+    }
+
+    @Override
+    public void terminateRow()
+    {
+        if (column != columnTypes.length)
+        {
+            throw new OmadacException("incomplete row, expected " + columnTypes.length
+                + " columns, got " + column);
+        }
+        column = 0;
+        countRow();
+    }
+
+    /**
+     * Writes the file trailer and closes the file.
+     */
+    @Override
+    public void close()
+    {
+        ensureCapacity(2);
+        putShort(-1);
+        super.close();
+    }
+}
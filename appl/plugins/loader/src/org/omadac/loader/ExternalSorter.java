@@ -0,0 +1,364 @@
+/*
+ *    Omadac - The Open Map Database Compiler
+ *    http://omadac.org
+ * 
+ *    (C) 2010, Harald Wellmann and Contributors
+ *
+ *    This library is free software; you can redistribute it and/or
+ *    modify it under the terms of the GNU Lesser General Public
+ *    License as published by the Free Software Foundation;
+ *    version 2.1 of the License.
+ *
+ *    This library is distributed in the hope that it will be useful,
+ *    but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ *    Lesser General Public License for more details.
+ */
+package org.omadac.loader;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInput;
+import java.io.DataInputStream;
+import java.io.DataOutput;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.PriorityQueue;
+
+import org.omadac.config.OmadacException;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Sorts a sequence of rows with bounded memory. Rows are collected in memory until their
+ * estimated size exceeds the memory budget. The rows are then sorted and spilled to a run file
+ * in the temporary directory. Finally, the runs are merged, with one read buffer per run file.
+ * At most {@value #MAX_FAN_IN} runs are merged at a time, to limit the number of open files. 
+ * If there are more runs, groups of runs are merged into larger runs in additional passes.
+ * <p>
+ * If no run was spilled, the rows are sorted in memory and never touch the disk.
+ * 
+ * @author hwellmann
+ * 
+ * @param <T>  row type
+ */
+public class ExternalSorter<T>
+{
+    private static Logger log = LoggerFactory.getLogger(ExternalSorter.class);
+
+    private static final int BUFFER_SIZE = 1 << 16;
+
+    /** Maximum number of runs merged at a time. */
+    private static final int MAX_FAN_IN = 100;
+
+    /**
+     * Binary encoding of rows in run files.
+     */
+    public interface RowCodec<T>
+    {
+        void write(DataOutput out, T row) throws IOException;
+
+        T read(DataInput in) throws IOException;
+
+        /**
+         * Returns the estimated number of bytes occupied by the given row in memory.
+         */
+        int estimateSize(T row);
+    }
+
+    /**
+     * Receives the sorted rows.
+     */
+    public interface RowHandler<T>
+    {
+        void handleRow(T row);
+    }
+
+    /**
+     * Sorted run file with its current row, used for merging.
+     */
+    private class Run
+    {
+        private File file;
+        private long numRows;
+        private DataInputStream is;
+        private T head;
+
+        public Run(File file, long numRows)
+        {
+            this.file = file;
+            this.numRows = numRows;
+        }
+
+        public void open() throws IOException
+        {
+            is = new DataInputStream(new BufferedInputStream(new FileInputStream(file),
+                BUFFER_SIZE));
+        }
+
+        /**
+         * Reads the next row into the head.
+         * @return false if the run is exhausted
+         */
+        public boolean advance() throws IOException
+        {
+            if (numRows == 0)
+            {
+                head = null;
+                return false;
+            }
+            head = codec.read(is);
+            numRows--;
+            return true;
+        }
+
+        public void close() throws IOException
+        {
+            if (is != null)
+            {
+                is.close();
+                is = null;
+            }
+            file.delete();
+        }
+    }
+
+    private Comparator<? super T> comparator;
+
+    private RowCodec<T> codec;
+
+    private File tmpDir;
+
+    private long memoryBudget;
+
+    private List<T> rows = new ArrayList<T>();
+
+    private long memorySize;
+
+    private List<Run> runs = new ArrayList<Run>();
+
+    private long numRows;
+
+    /**
+     * Creates a sorter.
+     * @param comparator  row order
+     * @param codec  encoding of rows in run files
+     * @param tmpDir  directory for run files, created if needed
+     * @param memoryBudget  maximum estimated size of the rows kept in memory, in bytes
+     */
+    public ExternalSorter(Comparator<? super T> comparator, RowCodec<T> codec, File tmpDir,
+        long memoryBudget)
+    {
+        this.comparator = comparator;
+        this.codec = codec;
+        this.tmpDir = tmpDir;
+        this.memoryBudget = memoryBudget;
+    }
+
+    public void add(T row)
+    {
+        rows.add(row);
+        numRows++;
+        memorySize += codec.estimateSize(row);
+        if (memorySize > memoryBudget)
+        {
+            spill();
+        }
+    }
+
+    public long getNumRows()
+    {
+        return numRows;
+    }
+
+    private void spill()
+    {
+        Collections.sort(rows, comparator);
+        tmpDir.mkdirs();
+        File file = null;
+        try
+        {
+            file = File.createTempFile("run", ".bin", tmpDir);
+            Run run = new Run(file, rows.size());
+            runs.add(run);
+            DataOutputStream os = new DataOutputStream(new BufferedOutputStream(
+                new FileOutputStream(file), BUFFER_SIZE));
+            try
+            {
+                for (T row : rows)
+                {
+                    codec.write(os, row);
+                }
+            }
+            finally
+            {
+                os.close();
+            }
+        }
+        catch (IOException exc)
+        {
+            discard();
+            throw new OmadacException("cannot write run file " + file, exc);
+        }
+        log.debug("spilled {} rows to {}", rows.size(), file);
+        rows.clear();
+        memorySize = 0;
+    }
+
+    /**
+     * Passes all rows in sorted order to the given handler and deletes all run files. The
+     * sorter is empty afterwards.
+     * @param handler  row handler
+     */
+    public void sort(RowHandler<T> handler)
+    {
+        if (runs.isEmpty())
+        {
+            Collections.sort(rows, comparator);
+            for (T row : rows)
+            {
+                handler.handleRow(row);
+            }
+            rows.clear();
+        }
+        else
+        {
+            if (!rows.isEmpty())
+            {
+                spill();
+            }
+            log.info("merging {} runs with {} rows", runs.size(), numRows);
+            try
+            {
+                while (runs.size() > MAX_FAN_IN)
+                {
+                    mergeGroup();
+                }
+                merge(new ArrayList<Run>(runs), handler);
+            }
+            catch (IOException exc)
+            {
+                throw new OmadacException("cannot merge run files", exc);
+            }
+            finally
+            {
+                discard();
+            }
+        }
+        memorySize = 0;
+        numRows = 0;
+    }
+
+    /**
+     * Merges the first {@value #MAX_FAN_IN} runs into a new run, which is appended to the 
+     * list of runs, so that each pass merges runs of similar size.
+     */
+    private void mergeGroup() throws IOException
+    {
+        List<Run> group = new ArrayList<Run>(runs.subList(0, MAX_FAN_IN));
+        runs.subList(0, MAX_FAN_IN).clear();
+        long numGroupRows = 0;
+        for (Run run : group)
+        {
+            numGroupRows += run.numRows;
+        }
+        File file = File.createTempFile("run", ".bin", tmpDir);
+        runs.add(new Run(file, numGroupRows));
+        final DataOutputStream os = new DataOutputStream(new BufferedOutputStream(
+            new FileOutputStream(file), BUFFER_SIZE));
+        try
+        {
+            merge(group, new RowHandler<T>()
+            {
+                @Override
+                public void handleRow(T row)
+                {
+                    try
+                    {
+                        codec.write(os, row);
+                    }
+                    catch (IOException exc)
+                    {
+                        throw new OmadacException("cannot write run file", exc);
+                    }
+                }
+            });
+        }
+        finally
+        {
+            os.close();
+        }
+        log.debug("merged {} runs to {}", group.size(), file);
+    }
+
+    /**
+     * Merges the given runs and deletes their files.
+     */
+    private void merge(List<Run> group, RowHandler<T> handler) throws IOException
+    {
+        PriorityQueue<Run> queue = new PriorityQueue<Run>(group.size(), new Comparator<Run>()
+        {
+            @Override
+            public int compare(Run left, Run right)
+            {
+                return comparator.compare(left.head, right.head);
+            }
+        });
+        try
+        {
+            for (Run run : group)
+            {
+                run.open();
+                if (run.advance())
+                {
+                    queue.add(run);
+                }
+            }
+            while (!queue.isEmpty())
+            {
+                Run run = queue.poll();
+                handler.handleRow(run.head);
+                if (run.advance())
+                {
+                    queue.add(run);
+                }
+            }
+        }
+        finally
+        {
+            for (Run run : group)
+            {
+                run.close();
+            }
+        }
+    }
+
+    /**
+     * Discards all rows and deletes all run files.
+     */
+    public void discard()
+    {
+        for (Run run : runs)
+        {
+            try
+            {
+                run.close();
+            }
+            catch (IOException exc)
+            {
+                log.warn("cannot close run file " + run.file, exc);
+            }
+        }
+        runs.clear();
+        rows.clear();
+        memorySize = 0;
+        numRows = 0;
+    }
+}
@@ -0,0 +1,131 @@
+/*
+ *    Omadac - The Open Map Database Compiler
+ *    http://omadac.org
+ * 
+ *    (C) 2010, Harald Wellmann and Contributors
+ *
+ *    This library is free software; you can redistribute it and/or
+ *    modify it under the terms of the GNU Lesser General Public
+ *    License as published by the Free Software Foundation;
+ *    version 2.1 of the License.
+ *
+ *    This library is distributed in the hope that it will be useful,
+ *    but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ *    Lesser General Public License for more details.
+ */
+package org.omadac.loader;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileChannel.MapMode;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Splits a text loader file into chunks of roughly equal size at line boundaries, so that the
+ * chunks can be imported concurrently. Only the regions around the split points are mapped
+ * into memory and scanned for the next line terminator; the file is never read as a whole.
+ * <p>
+ * This relies on the COPY text format, where line terminators within column values are
+ * escaped. Binary loader files cannot be split.
+ * 
+ * @author hwellmann
+ * 
+ */
+public class LoaderFileChunker
+{
+    private static final int SCAN_WINDOW = 1 << 16;
+
+    /**
+     * A byte range of a loader file, containing complete lines only.
+     */
+    public static class Chunk
+    {
+        private long offset;
+        private long length;
+
+        public Chunk(long offset, long length)
+        {
+            this.offset = offset;
+            this.length = length;
+        }
+
+        public long getOffset()
+        {
+            return offset;
+        }
+
+        public long getLength()
+        {
+            return length;
+        }
+
+        @Override
+        public String toString()
+        {
+            return "[" + offset + ", " + (offset + length) + ")";
+        }
+    }
+
+    /**
+     * Splits the given file into chunks of at least {@code chunkSize} bytes, except for the
+     * last one.
+     * 
+     * @param file  text loader file
+     * @param chunkSize  minimum chunk size in bytes
+     * @return chunks covering the whole file
+     * @throws IOException
+     */
+    public static List<Chunk> split(File file, long chunkSize) throws IOException
+    {
+        RandomAccessFile raf = new RandomAccessFile(file, "r");
+        try
+        {
+            FileChannel channel = raf.getChannel();
+            long size = channel.size();
+            List<Chunk> chunks = new ArrayList<Chunk>();
+            long start = 0;
+            while (start < size)
+            {
+                long end = start + chunkSize;
+                end = (end >= size) ? size : findNextLine(channel, end, size);
+                chunks.add(new Chunk(start, end - start));
+                start = end;
+            }
+            return chunks;
+        }
+        finally
+        {
+            raf.close();
+        }
+    }
+
+    /**
+     * Returns the offset of the line following the given position, or the file size if
+     * there is none.
+     */
+    private static long findNextLine(FileChannel channel, long pos, long size)
+        throws IOException
+    {
+        // start at the previous byte, in case pos is already the start of a line
+        long windowStart = pos - 1;
+        while (windowStart < size)
+        {
+            int windowSize = (int) Math.min(SCAN_WINDOW, size - windowStart);
+            MappedByteBuffer window = channel.map(MapMode.READ_ONLY, windowStart, windowSize);
+            for (int i = 0; i < windowSize; i++)
+            {
+                if (window.get(i) == '\n')
+                {
+                    return windowStart + i + 1;
+                }
+            }
+            windowStart += windowSize;
+        }
+        return size;
+    }
+}
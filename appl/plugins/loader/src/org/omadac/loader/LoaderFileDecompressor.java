@@ -0,0 +1,206 @@
+/*
+ *    Omadac - The Open Map Database Compiler
+ *    http://omadac.org
+ * 
+ *    (C) 2010, Harald Wellmann and Contributors
+ *
+ *    This library is free software; you can redistribute it and/or
+ *    modify it under the terms of the GNU Lesser General Public
+ *    License as published by the Free Software Foundation;
+ *    version 2.1 of the License.
+ *
+ *    This library is distributed in the hope that it will be useful,
+ *    but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ *    Lesser General Public License for more details.
+ */
+package org.omadac.loader;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.zip.GZIPInputStream;
+
+/**
+ * Opens compressed loader files as streams of decompressed bytes, so that they can be copied
+ * into the database without unpacking them to a temporary file first.
+ * <p>
+ * Files with extension {@code .gz} are decompressed in-process. Files with extension 
+ * {@code .zst} are decompressed by an external {@code zstd} process writing to a pipe.
+ * 
+ * @author hwellmann
+ * 
+ */
+public class LoaderFileDecompressor
+{
+    public static final String DEFAULT_ZSTD_COMMAND = "zstd";
+
+    private static final int BUFFER_SIZE = 1 << 16;
+
+    private String zstdCommand;
+
+    public LoaderFileDecompressor()
+    {
+        this(DEFAULT_ZSTD_COMMAND);
+    }
+
+    /**
+     * Creates a decompressor.
+     * @param zstdCommand  name or path of the zstd executable
+     */
+    public LoaderFileDecompressor(String zstdCommand)
+    {
+        this.zstdCommand = zstdCommand;
+    }
+
+    /**
+     * Checks if the given file name has the extension of a supported compression format.
+     */
+    public static boolean isCompressed(String fileName)
+    {
+        return fileName.endsWith(".gz") || fileName.endsWith(".zst");
+    }
+
+    /**
+     * Opens the given file, decompressing it if required.
+     * @param file  loader file
+     * @return stream of decompressed bytes. The caller must close the stream.
+     * @throws IOException
+     */
+    public InputStream open(File file) throws IOException
+    {
+        String name = file.getName();
+        if (name.endsWith(".zst"))
+        {
+            return openZstd(file);
+        }
+        InputStream is = new FileInputStream(file);
+        if (name.endsWith(".gz"))
+        {
+            try
+            {
+                return new GZIPInputStream(is, BUFFER_SIZE);
+            }
+            catch (IOException exc)
+            {
+                is.close();
+                throw exc;
+            }
+        }
+        return is;
+    }
+
+    private InputStream openZstd(File file) throws IOException
+    {
+        ProcessBuilder processBuilder = new ProcessBuilder(zstdCommand, "-d", "-c", "-q",
+            file.getPath());
+        Process process = processBuilder.start();
+        process.getOutputStream().close();
+        return new ProcessInputStream(process, zstdCommand + " " + file);
+    }
+
+    /**
+     * Standard output of a decompressor process. Closing the stream waits for the process
+     * to terminate and reports a non-zero exit status as an IOException, unless the stream
+     * was closed before the end of the data, in which case the process is destroyed.
+     */
+    private static class ProcessInputStream extends FilterInputStream
+    {
+        private Process process;
+        private String description;
+        private boolean eof;
+        private ByteArrayOutputStream errors = new ByteArrayOutputStream();
+        private Thread errorReader;
+
+        public ProcessInputStream(Process process, String description)
+        {
+            super(process.getInputStream());
+            this.process = process;
+            this.description = description;
+            
+            // drain stderr so that the process cannot block on a full pipe
+            errorReader = new Thread(new Runnable()
+            {
+                @Override
+                public void run()
+                {
+                    drainErrors();
+                }
+            }, "stderr " + description);
+            errorReader.setDaemon(true);
+            errorReader.start();
+        }
+
+        private void drainErrors()
+        {
+            InputStream es = process.getErrorStream();
+            byte[] buffer = new byte[1024];
+            try
+            {
+                int numBytes;
+                while ((numBytes = es.read(buffer)) >= 0)
+                {
+                    synchronized (errors)
+                    {
+                        errors.write(buffer, 0, numBytes);
+                    }
+                }
+            }
+            catch (IOException exc)
+            {
+                // process destroyed
+            }
+        }
+
+        @Override
+        public int read() throws IOException
+        {
+            int b = super.read();
+            eof |= (b < 0);
+            return b;
+        }
+
+        @Override
+        public int read(byte[] b, int off, int len) throws IOException
+        {
+            int numBytes = super.read(b, off, len);
+            eof |= (numBytes < 0);
+            return numBytes;
+        }
+
+        @Override
+        public void close() throws IOException
+        {
+            super.close();
+            if (!eof)
+            {
+                process.destroy();
+                return;
+            }
+            try
+            {
+                int status = process.waitFor();
+                errorReader.join();
+                if (status != 0)
+                {
+                    String message;
+                    synchronized (errors)
+                    {
+                        message = errors.toString("UTF-8").trim();
+                    }
+                    throw new IOException(String.format("%s failed with exit status %d: %s",
+                        description, status, message));
+                }
+            }
+            catch (InterruptedException exc)
+            {
+                Thread.currentThread().interrupt();
+                process.destroy();
+                throw new IOException(exc);
+            }
+        }
+    }
+}
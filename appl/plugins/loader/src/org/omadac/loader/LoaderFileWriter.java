@@ -18,44 +18,360 @@ package org.omadac.loader;
 
 import java.io.File;
 import java.io.FileNotFoundException;
-import java.io.PrintWriter;
-import java.io.UnsupportedEncodingException;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.WritableByteChannel;
 
+import org.omadac.config.OmadacException;
+import org.omadac.loader.jmx.ImportMetrics;
+import org.omadac.loader.jmx.TransferCounter;
+
+/**
+ * Writes a loader file in PostgreSQL COPY text format, i.e. UTF-8 encoded, tab separated
+ * columns, one row per line, with an empty column representing null.
+ * <p>
+ * Columns are encoded directly into a reusable byte buffer which is flushed to the
+ * underlying channel when full. Numbers are encoded without boxing or intermediate strings,
+ * and the characters backslash, tab, newline and carriage return are escaped inline.
+ * 
+ * @author hwellmann
+ * 
+ */
 public class LoaderFileWriter
 {
-    private PrintWriter writer;
+    public static final int DEFAULT_BUFFER_SIZE = 1 << 20;
+
+    /** Maximum number of bytes needed for one char or number, including escapes. */
+    protected static final int MAX_ENCODED_SIZE = 20;
+
+    private static final byte[] MIN_LONG = Long.toString(Long.MIN_VALUE).getBytes();
+
+    private WritableByteChannel channel;
+    protected byte[] buffer;
+    private ByteBuffer byteBuffer;
+    protected int pos;
+    private byte[] digits = new byte[MAX_ENCODED_SIZE];
+
     private boolean firstColumn = true;
     private long numRows;
+    private long numCountedRows;
+    private TransferCounter counter;
     
-    public LoaderFileWriter(File file) 
-        throws FileNotFoundException, UnsupportedEncodingException
+    public LoaderFileWriter(File file) throws FileNotFoundException
     {
-        writer = new PrintWriter(file, "UTF-8");
+        this(new FileOutputStream(file).getChannel());
+        setCounter(ImportMetrics.getInstance().getLoaderFileCounter(file.getName()));
     }
     
-    public void writeColumn(Object obj)
+    public LoaderFileWriter(WritableByteChannel channel)
+    {
+        this(channel, DEFAULT_BUFFER_SIZE);
+    }
+    
+    public LoaderFileWriter(WritableByteChannel channel, int bufferSize)
     {
+        this.channel = channel;
+        this.buffer = new byte[Math.max(bufferSize, MAX_ENCODED_SIZE)];
+        this.byteBuffer = ByteBuffer.wrap(buffer);
+    }
+
+    private void startColumn()
+    {
+        ensureCapacity(1);
         if (firstColumn)
         {
             firstColumn = false;
         }
         else
         {
-            writer.print('\t');
+            buffer[pos++] = '\t';
+        }
+    }
+    
+    public void writeColumn(long value)
+    {
+        startColumn();
+        ensureCapacity(MAX_ENCODED_SIZE);
+        if (value == Long.MIN_VALUE)
+        {
+            System.arraycopy(MIN_LONG, 0, buffer, pos, MIN_LONG.length);
+            pos += MIN_LONG.length;
+            return;
+        }
+        if (value < 0)
+        {
+            buffer[pos++] = '-';
+            value = -value;
+        }
+        int numDigits = 0;
+        do
+        {
+            digits[numDigits++] = (byte) ('0' + (value % 10));
+            value /= 10;
+        }
+        while (value != 0);
+        while (numDigits > 0)
+        {
+            buffer[pos++] = digits[--numDigits];
+        }
+    }
+    
+    public void writeColumn(int value)
+    {
+        writeColumn((long) value);
+    }
+    
+    /**
+     * Writes a text column. A null value is written as an empty column.
+     * @param value  column value, may be null
+     */
+    public void writeColumn(CharSequence value)
+    {
+        startColumn();
+        if (value != null)
+        {
+            writeUtf8(value, true);
+        }
+    }
+
+    /**
+     * Encodes the given characters in UTF-8, optionally escaping them for the COPY text
+     * format.
+     */
+    protected void writeUtf8(CharSequence value, boolean escape)
+    {
+        int length = value.length();
+        for (int i = 0; i < length; i++)
+        {
+            char c = value.charAt(i);
+            ensureCapacity(4);
+            if (c < 0x80)
+            {
+                if (escape)
+                {
+                    writeAscii(c);
+                }
+                else
+                {
+                    buffer[pos++] = (byte) c;
+                }
+            }
+            else if (c < 0x800)
+            {
+                buffer[pos++] = (byte) (0xC0 | (c >> 6));
+                buffer[pos++] = (byte) (0x80 | (c & 0x3F));
+            }
+            else if (Character.isHighSurrogate(c) && i + 1 < length 
+                && Character.isLowSurrogate(value.charAt(i + 1)))
+            {
+                int codePoint = Character.toCodePoint(c, value.charAt(++i));
+                buffer[pos++] = (byte) (0xF0 | (codePoint >> 18));
+                buffer[pos++] = (byte) (0x80 | ((codePoint >> 12) & 0x3F));
+                buffer[pos++] = (byte) (0x80 | ((codePoint >> 6) & 0x3F));
+                buffer[pos++] = (byte) (0x80 | (codePoint & 0x3F));
+            }
+            else if (c >= Character.MIN_SURROGATE && c <= Character.MAX_SURROGATE)
+            {
+                // unpaired surrogate, not representable in UTF-8
+                buffer[pos++] = '?';
+            }
+            else
+            {
+                buffer[pos++] = (byte) (0xE0 | (c >> 12));
+                buffer[pos++] = (byte) (0x80 | ((c >> 6) & 0x3F));
+                buffer[pos++] = (byte) (0x80 | (c & 0x3F));
+            }
+        }
+    }
+
+    /**
+     * Returns the number of bytes of the unescaped UTF-8 encoding of the given characters, as
+     * written by {@link #writeUtf8(CharSequence, boolean)}.
+     */
+    protected static int getUtf8Length(CharSequence value)
+    {
+        int length = value.length();
+        int numBytes = 0;
+        for (int i = 0; i < length; i++)
+        {
+            char c = value.charAt(i);
+            if (c < 0x80)
+            {
+                numBytes++;
+            }
+            else if (c < 0x800)
+            {
+                numBytes += 2;
+            }
+            else if (Character.isHighSurrogate(c) && i + 1 < length 
+                && Character.isLowSurrogate(value.charAt(i + 1)))
+            {
+                numBytes += 4;
+                i++;
+            }
+            else if (c >= Character.MIN_SURROGATE && c <= Character.MAX_SURROGATE)
+            {
+                numBytes++;
+            }
+            else
+            {
+                numBytes += 3;
+            }
+        }
+        return numBytes;
+    }
+
+    private void writeAscii(char c)
+    {
+        switch (c)
+        {
+            case '\\':
+                buffer[pos++] = '\\';
+                buffer[pos++] = '\\';
+                break;
+            case '\t':
+                buffer[pos++] = '\\';
+                buffer[pos++] = 't';
+                break;
+            case '\n':
+                buffer[pos++] = '\\';
+                buffer[pos++] = 'n';
+                break;
+            case '\r':
+                buffer[pos++] = '\\';
+                buffer[pos++] = 'r';
+                break;
+            default:
+                buffer[pos++] = (byte) c;
+        }
+    }
+    
+    /**
+     * Writes a column of any type, using the string representation for types without a
+     * specific overload. A null value is written as an empty column.
+     * @param obj  column value, may be null
+     */
+    public void writeColumn(Object obj)
+    {
+        if (obj instanceof Long || obj instanceof Integer 
+            || obj instanceof Short || obj instanceof Byte)
+        {
+            writeColumn(((Number) obj).longValue());
+        }
+        else if (obj instanceof CharSequence)
+        {
+            writeColumn((CharSequence) obj);
+        }
+        else
+        {
+            writeColumn(obj == null ? null : obj.toString());
         }
-        writer.print(obj);
     }
     
     public void terminateRow()
     {
-        writer.println();
+        ensureCapacity(1);
+        buffer[pos++] = '\n';
         numRows++;
         firstColumn = true;
     }
+
+    /**
+     * Counts a row terminated by a subclass with a different row format.
+     */
+    protected void countRow()
+    {
+        numRows++;
+    }
+
+    /**
+     * Writes a 16 bit integer in network byte order. The caller must ensure capacity.
+     */
+    protected void putShort(int value)
+    {
+        buffer[pos++] = (byte) (value >> 8);
+        buffer[pos++] = (byte) value;
+    }
+
+    /**
+     * Writes a 32 bit integer in network byte order. The caller must ensure capacity.
+     */
+    protected void putInt(int value)
+    {
+        buffer[pos++] = (byte) (value >> 24);
+        buffer[pos++] = (byte) (value >> 16);
+        buffer[pos++] = (byte) (value >> 8);
+        buffer[pos++] = (byte) value;
+    }
+
+    /**
+     * Writes a 64 bit integer in network byte order. The caller must ensure capacity.
+     */
+    protected void putLong(long value)
+    {
+        putInt((int) (value >> 32));
+        putInt((int) value);
+    }
+
+    /**
+     * Flushes the buffer if it cannot take the given number of bytes.
+     */
+    protected void ensureCapacity(int numBytes)
+    {
+        if (pos + numBytes > buffer.length)
+        {
+            flush();
+        }
+    }
+
+    /**
+     * Sets a counter for the bytes and rows written to the channel, which is updated on each
+     * flush. Writers for files count their bytes and rows by default.
+     * @param counter  transfer counter, or null
+     */
+    public void setCounter(TransferCounter counter)
+    {
+        this.counter = counter;
+    }
+
+    /**
+     * Writes the buffered data to the underlying channel.
+     */
+    public void flush()
+    {
+        if (counter != null)
+        {
+            counter.add(pos, numRows - numCountedRows);
+            numCountedRows = numRows;
+        }
+        byteBuffer.clear();
+        byteBuffer.limit(pos);
+        try
+        {
+            while (byteBuffer.hasRemaining())
+            {
+                channel.write(byteBuffer);
+            }
+        }
+        catch (IOException exc)
+        {
+            throw new OmadacException(exc);
+        }
+        pos = 0;
+    }
     
     public void close()
     {
-        writer.close();
+        flush();
+        try
+        {
+            channel.close();
+        }
+        catch (IOException exc)
+        {
+            throw new OmadacException(exc);
+        }
     }
     
     public long getNumRows()
@@ -0,0 +1,126 @@
+/*
+ *    Omadac - The Open Map Database Compiler
+ *    http://omadac.org
+ * 
+ *    (C) 2010, Harald Wellmann and Contributors
+ *
+ *    This library is free software; you can redistribute it and/or
+ *    modify it under the terms of the GNU Lesser General Public
+ *    License as published by the Free Software Foundation;
+ *    version 2.1 of the License.
+ *
+ *    This library is distributed in the hope that it will be useful,
+ *    but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ *    Lesser General Public License for more details.
+ */
+package org.omadac.loader.jmx;
+
+import java.util.Map;
+import java.util.TreeMap;
+
+/**
+ * Import MBean implementation for monitoring the import via JMX.
+ * @author hwellmann
+ *
+ */
+public class ImportMBeanImpl implements ImportMXBean
+{
+    private ImportMetrics metrics;
+
+    public ImportMBeanImpl(ImportMetrics metrics)
+    {
+        this.metrics = metrics;
+    }
+
+    @Override
+    public String getInputFile()
+    {
+        return metrics.getInputFile();
+    }
+
+    @Override
+    public long getInputSize()
+    {
+        return metrics.getInputSize();
+    }
+
+    @Override
+    public long getBytesRead()
+    {
+        return metrics.getBytesRead();
+    }
+
+    @Override
+    public double getPercentRead()
+    {
+        long size = metrics.getInputSize();
+        if (size <= 0)
+        {
+            return 0;
+        }
+        return 100.0 * metrics.getBytesRead() / size;
+    }
+
+    @Override
+    public long getEtaSeconds()
+    {
+        return metrics.getEtaSeconds();
+    }
+
+    @Override
+    public Map<String, Long> getElements()
+    {
+        return getRows(metrics.getElementCounters());
+    }
+
+    @Override
+    public Map<String, Double> getElementsPerSecond()
+    {
+        return getRowsPerSecond(metrics.getElementCounters());
+    }
+
+    @Override
+    public Map<String, Long> getLoaderFileBytes()
+    {
+        Map<String, Long> bytes = new TreeMap<String, Long>();
+        for (Map.Entry<String, TransferCounter> entry : 
+            metrics.getLoaderFileCounters().entrySet())
+        {
+            bytes.put(entry.getKey(), entry.getValue().getBytes());
+        }
+        return bytes;
+    }
+
+    @Override
+    public Map<String, Long> getCopyRows()
+    {
+        return getRows(metrics.getCopyCounters());
+    }
+
+    @Override
+    public Map<String, Double> getCopyRowsPerSecond()
+    {
+        return getRowsPerSecond(metrics.getCopyCounters());
+    }
+
+    private Map<String, Long> getRows(Map<String, TransferCounter> counters)
+    {
+        Map<String, Long> rows = new TreeMap<String, Long>();
+        for (Map.Entry<String, TransferCounter> entry : counters.entrySet())
+        {
+            rows.put(entry.getKey(), entry.getValue().getRows());
+        }
+        return rows;
+    }
+
+    private Map<String, Double> getRowsPerSecond(Map<String, TransferCounter> counters)
+    {
+        Map<String, Double> rates = new TreeMap<String, Double>();
+        for (Map.Entry<String, TransferCounter> entry : counters.entrySet())
+        {
+            rates.put(entry.getKey(), entry.getValue().getRowsPerSecond());
+        }
+        return rates;
+    }
+}
@@ -0,0 +1,38 @@
+/*
+ *    Omadac - The Open Map Database Compiler
+ *    http://omadac.org
+ * 
+ *    (C) 2010, Harald Wellmann and Contributors
+ *
+ *    This library is free software; you can redistribute it and/or
+ *    modify it under the terms of the GNU Lesser General Public
+ *    License as published by the Free Software Foundation;
+ *    version 2.1 of the License.
+ *
+ *    This library is distributed in the hope that it will be useful,
+ *    but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ *    Lesser General Public License for more details.
+ */
+package org.omadac.loader.jmx;
+
+import java.util.Map;
+
+/**
+ * Interface for monitoring the OSM import and the loader file import via JMX.
+ * @author hwellmann
+ *
+ */
+public interface ImportMXBean
+{
+    String getInputFile();
+    long getInputSize();
+    long getBytesRead();
+    double getPercentRead();
+    long getEtaSeconds();
+    Map<String, Long> getElements();
+    Map<String, Double> getElementsPerSecond();
+    Map<String, Long> getLoaderFileBytes();
+    Map<String, Long> getCopyRows();
+    Map<String, Double> getCopyRowsPerSecond();
+}
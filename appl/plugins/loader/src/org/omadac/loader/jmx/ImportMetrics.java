@@ -0,0 +1,187 @@
+/*
+ *    Omadac - The Open Map Database Compiler
+ *    http://omadac.org
+ * 
+ *    (C) 2010, Harald Wellmann and Contributors
+ *
+ *    This library is free software; you can redistribute it and/or
+ *    modify it under the terms of the GNU Lesser General Public
+ *    License as published by the Free Software Foundation;
+ *    version 2.1 of the License.
+ *
+ *    This library is distributed in the hope that it will be useful,
+ *    but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ *    Lesser General Public License for more details.
+ */
+package org.omadac.loader.jmx;
+
+import java.lang.management.ManagementFactory;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+import javax.management.JMException;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+import javax.management.StandardMBean;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Collects the throughput of the import stages: elements parsed per type, progress in the
+ * input file, bytes written per loader file and rows copied per table. There is a single
+ * instance per VM, which is registered as an MBean on first use.
+ * 
+ * @author hwellmann
+ * 
+ */
+public class ImportMetrics
+{
+    private static Logger log = LoggerFactory.getLogger(ImportMetrics.class);
+
+    private static ImportMetrics instance;
+
+    private Map<String, TransferCounter> elementCounters = 
+        new ConcurrentHashMap<String, TransferCounter>();
+
+    private Map<String, TransferCounter> loaderFileCounters = 
+        new ConcurrentHashMap<String, TransferCounter>();
+
+    private Map<String, TransferCounter> copyCounters = 
+        new ConcurrentHashMap<String, TransferCounter>();
+
+    private volatile String inputFile;
+
+    private volatile long inputSize;
+
+    private volatile long bytesRead;
+
+    private volatile long inputStartMillis;
+
+    public static synchronized ImportMetrics getInstance()
+    {
+        if (instance == null)
+        {
+            instance = new ImportMetrics();
+            instance.registerMBean();
+        }
+        return instance;
+    }
+
+    /**
+     * Registers an MBean for monitoring the import via JMX.
+     */
+    private void registerMBean()
+    {
+        MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+        ImportMBeanImpl beanImpl = new ImportMBeanImpl(this);
+        try
+        {
+            ObjectName objectName = new ObjectName("org.omadac:type=Import");
+            StandardMBean mBean = new StandardMBean(beanImpl, ImportMXBean.class, true);
+            server.registerMBean(mBean, objectName);
+        }
+        catch (JMException exc)
+        {
+            log.error("error registering Import MBean", exc);
+        }
+    }
+
+    /**
+     * Starts reading an input file, resetting the progress.
+     */
+    public void startInput(String fileName, long size)
+    {
+        inputFile = fileName;
+        inputSize = size;
+        bytesRead = 0;
+        inputStartMillis = System.currentTimeMillis();
+    }
+
+    public void setBytesRead(long bytesRead)
+    {
+        this.bytesRead = bytesRead;
+    }
+
+    public String getInputFile()
+    {
+        return inputFile;
+    }
+
+    public long getInputSize()
+    {
+        return inputSize;
+    }
+
+    public long getBytesRead()
+    {
+        return bytesRead;
+    }
+
+    /**
+     * Estimates the remaining time for reading the input file from the average read rate.
+     * @return seconds, or -1 if unknown
+     */
+    public long getEtaSeconds()
+    {
+        long read = bytesRead;
+        long millis = System.currentTimeMillis() - inputStartMillis;
+        if (read <= 0 || inputSize <= 0 || millis <= 0)
+        {
+            return -1;
+        }
+        return (long) ((double) millis * (inputSize - read) / read / 1000);
+    }
+
+    /**
+     * Returns the counter of parsed elements of the given type.
+     */
+    public TransferCounter getElementCounter(String elementType)
+    {
+        return getCounter(elementCounters, elementType);
+    }
+
+    /**
+     * Returns the counter of the bytes and rows written to the given loader file.
+     */
+    public TransferCounter getLoaderFileCounter(String fileName)
+    {
+        return getCounter(loaderFileCounters, fileName);
+    }
+
+    /**
+     * Returns the counter of the rows copied into the given table.
+     */
+    public TransferCounter getCopyCounter(String tableName)
+    {
+        return getCounter(copyCounters, tableName);
+    }
+
+    private synchronized TransferCounter getCounter(Map<String, TransferCounter> counters,
+        String name)
+    {
+        TransferCounter counter = counters.get(name);
+        if (counter == null)
+        {
+            counter = new TransferCounter();
+            counters.put(name, counter);
+        }
+        return counter;
+    }
+
+    public Map<String, TransferCounter> getElementCounters()
+    {
+        return elementCounters;
+    }
+
+    public Map<String, TransferCounter> getLoaderFileCounters()
+    {
+        return loaderFileCounters;
+    }
+
+    public Map<String, TransferCounter> getCopyCounters()
+    {
+        return copyCounters;
+    }
+}
@@ -0,0 +1,77 @@
+/*
+ *    Omadac - The Open Map Database Compiler
+ *    http://omadac.org
+ * 
+ *    (C) 2010, Harald Wellmann and Contributors
+ *
+ *    This library is free software; you can redistribute it and/or
+ *    modify it under the terms of the GNU Lesser General Public
+ *    License as published by the Free Software Foundation;
+ *    version 2.1 of the License.
+ *
+ *    This library is distributed in the hope that it will be useful,
+ *    but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ *    Lesser General Public License for more details.
+ */
+package org.omadac.loader.jmx;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Thread-safe counter of the bytes and rows transferred by one import stage, with the time 
+ * span of the transfer for computing rates. The time span starts with the first call of
+ * {@link #start()} or {@link #add(long, long)}.
+ * 
+ * @author hwellmann
+ * 
+ */
+public class TransferCounter
+{
+    private AtomicLong bytes = new AtomicLong();
+
+    private AtomicLong rows = new AtomicLong();
+
+    private AtomicLong startMillis = new AtomicLong();
+
+    private volatile long lastMillis;
+
+    /**
+     * Starts the time span, unless already started.
+     */
+    public void start()
+    {
+        startMillis.compareAndSet(0, System.currentTimeMillis());
+    }
+
+    public void add(long numBytes, long numRows)
+    {
+        start();
+        bytes.addAndGet(numBytes);
+        rows.addAndGet(numRows);
+        lastMillis = System.currentTimeMillis();
+    }
+
+    public long getBytes()
+    {
+        return bytes.get();
+    }
+
+    public long getRows()
+    {
+        return rows.get();
+    }
+
+    /**
+     * Returns the average number of rows per second between the start and the last addition.
+     */
+    public double getRowsPerSecond()
+    {
+        long millis = lastMillis - startMillis.get();
+        if (millis <= 0)
+        {
+            return 0;
+        }
+        return 1000.0 * rows.get() / millis;
+    }
+}
@@ -0,0 +1,113 @@
+/*
+ *    Omadac - The Open Map Database Compiler
+ *    http://omadac.org
+ * 
+ *    (C) 2010, Harald Wellmann and Contributors
+ *
+ *    This library is free software; you can redistribute it and/or
+ *    modify it under the terms of the GNU Lesser General Public
+ *    License as published by the Free Software Foundation;
+ *    version 2.1 of the License.
+ *
+ *    This library is distributed in the hope that it will be useful,
+ *    but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ *    Lesser General Public License for more details.
+ */
+package org.omadac.loader.postgresql;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.WritableByteChannel;
+import java.sql.SQLException;
+
+import org.postgresql.copy.CopyIn;
+
+/**
+ * Adapts a PostgreSQL {@code COPY ... FROM STDIN} operation to a channel, so that a
+ * {@link org.omadac.loader.LoaderFileWriter} can stream rows directly into a table. Closing the
+ * channel ends the COPY operation.
+ * 
+ * @author hwellmann
+ * 
+ */
+public class CopyInChannel implements WritableByteChannel
+{
+    private CopyIn copyIn;
+
+    private byte[] chunk;
+
+    public CopyInChannel(CopyIn copyIn)
+    {
+        this.copyIn = copyIn;
+    }
+
+    @Override
+    public int write(ByteBuffer src) throws IOException
+    {
+        int length = src.remaining();
+        try
+        {
+            if (src.hasArray())
+            {
+                copyIn.writeToCopy(src.array(), src.arrayOffset() + src.position(), length);
+                src.position(src.limit());
+            }
+            else
+            {
+                if (chunk == null || chunk.length < length)
+                {
+                    chunk = new byte[length];
+                }
+                src.get(chunk, 0, length);
+                copyIn.writeToCopy(chunk, 0, length);
+            }
+        }
+        catch (SQLException exc)
+        {
+            throw new IOException(exc);
+        }
+        return length;
+    }
+
+    @Override
+    public boolean isOpen()
+    {
+        return copyIn.isActive();
+    }
+
+    @Override
+    public void close() throws IOException
+    {
+        if (!copyIn.isActive())
+        {
+            return;
+        }
+        try
+        {
+            copyIn.endCopy();
+        }
+        catch (SQLException exc)
+        {
+            throw new IOException(exc);
+        }
+    }
+
+    /**
+     * Cancels the COPY operation, discarding all rows written so far.
+     */
+    public void cancel()
+    {
+        try
+        {
+            if (copyIn.isActive())
+            {
+                copyIn.cancelCopy();
+            }
+        }
+        catch (SQLException exc)
+        {
+            // nothing we can do, the connection is discarded anyway
+        }
+    }
+}
@@ -0,0 +1,51 @@
+/*
+ *    Omadac - The Open Map Database Compiler
+ *    http://omadac.org
+ * 
+ *    (C) 2010, Harald Wellmann and Contributors
+ *
+ *    This library is free software; you can redistribute it and/or
+ *    modify it under the terms of the GNU Lesser General Public
+ *    License as published by the Free Software Foundation;
+ *    version 2.1 of the License.
+ *
+ *    This library is distributed in the hope that it will be useful,
+ *    but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ *    Lesser General Public License for more details.
+ */
+package org.omadac.loader.postgresql;
+
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.SQLException;
+
+import org.omadac.config.jaxb.JdbcSettings;
+
+/**
+ * Opens plain PostgreSQL driver connections, bypassing the JPA connection pool. The copy API
+ * of the driver is only available on unwrapped connections.
+ * 
+ * @author hwellmann
+ * 
+ */
+public class PostgresqlConnectionFactory
+{
+    private JdbcSettings jdbc;
+
+    public PostgresqlConnectionFactory(JdbcSettings jdbc)
+    {
+        this.jdbc = jdbc;
+    }
+
+    public Connection createConnection() throws SQLException
+    {
+        String url = jdbc.getUrl();
+        if (url == null)
+        {
+            url = String.format("jdbc:%s://%s/%s", jdbc.getSubprotocol(), jdbc.getServer(),
+                jdbc.getDatabase());
+        }
+        return DriverManager.getConnection(url, jdbc.getUser(), jdbc.getPassword());
+    }
+}
@@ -0,0 +1,142 @@
+/*
+ *    Omadac - The Open Map Database Compiler
+ *    http://omadac.org
+ * 
+ *    (C) 2010, Harald Wellmann and Contributors
+ *
+ *    This library is free software; you can redistribute it and/or
+ *    modify it under the terms of the GNU Lesser General Public
+ *    License as published by the Free Software Foundation;
+ *    version 2.1 of the License.
+ *
+ *    This library is distributed in the hope that it will be useful,
+ *    but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ *    Lesser General Public License for more details.
+ */
+package org.omadac.loader.postgresql;
+
+import java.sql.Connection;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.omadac.config.OmadacException;
+import org.omadac.config.jaxb.JdbcSettings;
+import org.omadac.loader.BinaryLoaderFileWriter;
+import org.omadac.loader.BinaryLoaderFileWriter.ColumnType;
+import org.omadac.loader.LoaderFileWriter;
+import org.omadac.loader.jmx.ImportMetrics;
+import org.omadac.loader.jmx.TransferCounter;
+import org.postgresql.PGConnection;
+import org.postgresql.copy.CopyIn;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Opens {@link LoaderFileWriter}s which stream rows directly into database tables via
+ * {@code COPY ... FROM STDIN}, without intermediate loader files. PostgreSQL allows only one
+ * COPY operation per connection, so each table gets a dedicated connection in auto-commit
+ * mode. The rows of a table are committed when its writer is closed.
+ * 
+ * @author hwellmann
+ * 
+ */
+public class PostgresqlCopyStreams
+{
+    private static Logger log = LoggerFactory.getLogger(PostgresqlCopyStreams.class);
+
+    private PostgresqlConnectionFactory connectionFactory;
+
+    private String schemaName;
+
+    private int bufferSize;
+
+    private List<Connection> connections = new ArrayList<Connection>();
+
+    private List<CopyInChannel> channels = new ArrayList<CopyInChannel>();
+
+    /**
+     * @param jdbc  connection settings
+     * @param schemaName  schema of the target tables
+     * @param bufferSize  number of bytes buffered per table before sending them to the server
+     */
+    public PostgresqlCopyStreams(JdbcSettings jdbc, String schemaName, int bufferSize)
+    {
+        this.connectionFactory = new PostgresqlConnectionFactory(jdbc);
+        this.schemaName = schemaName;
+        this.bufferSize = bufferSize;
+    }
+
+    /**
+     * Opens a writer streaming rows in text format into the given table.
+     */
+    public LoaderFileWriter open(String tableName)
+    {
+        CopyInChannel channel = startCopy(tableName, "null as ''");
+        LoaderFileWriter writer = new LoaderFileWriter(channel, bufferSize);
+        writer.setCounter(getCopyCounter(tableName));
+        return writer;
+    }
+
+    /**
+     * Opens a writer streaming rows in binary format into the given table.
+     */
+    public LoaderFileWriter openBinary(String tableName, ColumnType... columnTypes)
+    {
+        CopyInChannel channel = startCopy(tableName, "with binary");
+        LoaderFileWriter writer = new BinaryLoaderFileWriter(channel, bufferSize, columnTypes);
+        writer.setCounter(getCopyCounter(tableName));
+        return writer;
+    }
+
+    private TransferCounter getCopyCounter(String tableName)
+    {
+        return ImportMetrics.getInstance().getCopyCounter(schemaName + "." + tableName);
+    }
+
+    private CopyInChannel startCopy(String tableName, String format)
+    {
+        String copySql = String.format("copy %s.%s from stdin %s", schemaName, tableName, 
+            format);
+        try
+        {
+            Connection dbc = connectionFactory.createConnection();
+            connections.add(dbc);
+            CopyIn copyIn = ((PGConnection) dbc).getCopyAPI().copyIn(copySql);
+            CopyInChannel channel = new CopyInChannel(copyIn);
+            channels.add(channel);
+            log.info("streaming rows into table {}.{}", schemaName, tableName);
+            return channel;
+        }
+        catch (SQLException exc)
+        {
+            throw new OmadacException(exc);
+        }
+    }
+
+    /**
+     * Closes all connections. Any COPY operation still in progress is cancelled, so this
+     * method should be called after all writers have been closed.
+     */
+    public void close()
+    {
+        for (CopyInChannel channel : channels)
+        {
+            channel.cancel();
+        }
+        for (Connection dbc : connections)
+        {
+            try
+            {
+                dbc.close();
+            }
+            catch (SQLException exc)
+            {
+                log.error("cannot close connection", exc);
+            }
+        }
+        channels.clear();
+        connections.clear();
+    }
+}
@@ -17,6 +17,11 @@
 package org.omadac.loader.postgresql;
 
 import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
 import java.sql.Connection;
 import java.sql.SQLException;
 import java.sql.Statement;
@@ -24,12 +29,19 @@ import java.util.List;
 
 import javax.persistence.EntityManager;
 
+import org.omadac.config.OmadacException;
 import org.omadac.config.jaxb.ImportSettings;
 import org.omadac.config.jaxb.OmadacSettings;
 import org.omadac.jpa.JpaUtil;
 import org.omadac.jpa.MetadataInspector;
 import org.omadac.loader.AbstractFileImporter;
+import org.omadac.loader.LoaderFileChunker.Chunk;
+import org.omadac.loader.LoaderFileDecompressor;
 import org.omadac.loader.TrivialLineFilter;
+import org.omadac.loader.jmx.ImportMetrics;
+import org.omadac.loader.jmx.TransferCounter;
+import org.postgresql.PGConnection;
+import org.postgresql.copy.CopyIn;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
@@ -37,6 +49,10 @@ public class PostgresqlFileImporter extends AbstractFileImporter
 {
     private static Logger log = LoggerFactory.getLogger(PostgresqlFileImporter.class);
 
+    private static final long DEFAULT_CHUNK_SIZE = 256L * 1024 * 1024;
+
+    private static final int COPY_BUFFER_SIZE = 1 << 16;
+
     private OmadacSettings config;
 
     private EntityManager em;
@@ -45,6 +61,8 @@ public class PostgresqlFileImporter extends AbstractFileImporter
 
     private MetadataInspector inspector;
 
+    private LoaderFileDecompressor decompressor = new LoaderFileDecompressor();
+
     public PostgresqlFileImporter(OmadacSettings config, EntityManager em)
     {
         super(new TrivialLineFilter());
@@ -58,6 +76,17 @@ public class PostgresqlFileImporter extends AbstractFileImporter
         ImportSettings importSettings = config.getImport();
         outputDir = config.getTmpDir();
         schemaName = importSettings.getSchema();
+        if (importSettings.getZstdCommand() != null)
+        {
+            decompressor = new LoaderFileDecompressor(importSettings.getZstdCommand());
+        }
+        if (Boolean.TRUE.equals(importSettings.isParallel()))
+        {
+            // leave one connection for the schema inspector
+            setNumThreads(Math.max(1, config.getServer().getJdbc().getMaxConnections() - 1));
+            Long size = importSettings.getChunkSize();
+            setChunkSize(size == null ? DEFAULT_CHUNK_SIZE : size);
+        }
 
         List<String> inputDirs = importSettings.getInputDir();
         processInputDirs(inputDirs);
@@ -74,52 +103,222 @@ public class PostgresqlFileImporter extends AbstractFileImporter
         return result;
     }
 
+    /**
+     * Streams the given file, decompressing it on the fly if required, into the table. No 
+     * temporary file is created.
+     */
     @Override
     public void importRawFile(File packedFile, String tableName)
     {
-        String packedFileName = packedFile.getName();
-        String unpackedFileName = packedFileName.replace(".gz$", "");
-        boolean unzip = !unpackedFileName.equals(packedFileName);
-        File unpackedFile = new File(outputDir, unpackedFileName);
+        importStream(packedFile, tableName);
+    }
 
-        if (!unpackedFile.exists())
+    /**
+     * Imports the given file on a connection of its own, so that this method can be called
+     * concurrently for different files. Uncompressed files are read by the server, compressed
+     * files are streamed by {@link #importRawFile(File, String)}.
+     */
+    @Override
+    public void importFilteredFile(String fileName, String tableName)
+    {
+        if (LoaderFileDecompressor.isCompressed(fileName))
         {
-            log.info("unpacking {} into {}", packedFile, unpackedFile);
-            filter.filter(packedFile, unpackedFile, unzip);
+            importStream(new File(fileName), tableName);
+            return;
         }
+        
+        EntityManager fileEm = JpaUtil.getNewEntityManager();
+        Connection dbc = null;
+        try
+        {
+            dbc = JpaUtil.getConnection(fileEm);
+            String format = isBinary(fileName) ? "with binary" : "null as ''";
+            String importSql = String.format("copy %s.%s from '%s' %s", 
+                schemaName, tableName, fileName.replaceAll("\\\\", "/"), format);
+            log.debug(importSql);
 
-        if (unpackedFile.length() == 0)
+            Statement st = dbc.createStatement();
+            log.info("importing {} into table {}", fileName, tableName);
+            TransferCounter counter = getCopyCounter(tableName);
+            counter.start();
+            int numRows = st.executeUpdate(importSql);
+            counter.add(0, numRows);
+            st.close();
+            fileEm.getTransaction().commit();
+        }
+        catch (SQLException exc)
         {
-            log.info("{} is empty", packedFile);
-            return;
+            fileEm.getTransaction().rollback();
+            throw new OmadacException("error importing " + fileName, exc);
         }
+        finally
+        {
+            fileEm.close();
+        }
+    }
 
-        importFilteredFile(unpackedFile.getPath(), tableName);
-
-        unpackedFile.delete();
+    /**
+     * Uncompressed text files can be split into chunks.
+     */
+    @Override
+    protected boolean isSplittable(File file)
+    {
+        return file.getName().endsWith(".txt");
     }
 
+    /**
+     * Streams the given chunk into the table via a client-side COPY on a dedicated
+     * connection.
+     */
     @Override
-    public void importFilteredFile(String fileName, String tableName)
+    protected void importFileChunk(final File file, String tableName, final Chunk chunk)
+    {
+        String copySql = String.format("copy %s.%s from stdin null as ''", 
+            schemaName, tableName);
+        copyIn(copySql, tableName, file + " " + chunk, new CopySource()
+        {
+            @Override
+            public void copyTo(CopyIn copyIn) throws IOException, SQLException
+            {
+                RandomAccessFile raf = new RandomAccessFile(file, "r");
+                try
+                {
+                    copyChunk(raf.getChannel(), chunk, copyIn);
+                }
+                finally
+                {
+                    raf.close();
+                }
+            }
+        });
+    }
+
+    /**
+     * Decompresses the given file and pipes the raw bytes into the table via a client-side 
+     * COPY on a dedicated connection. The data is never decoded into strings.
+     */
+    private void importStream(final File file, String tableName)
+    {
+        String format = isBinary(file.getName()) ? "with binary" : "null as ''";
+        String copySql = String.format("copy %s.%s from stdin %s", 
+            schemaName, tableName, format);
+        log.info("streaming {} into table {}", file, tableName);
+        copyIn(copySql, tableName, file.toString(), new CopySource()
+        {
+            @Override
+            public void copyTo(CopyIn copyIn) throws IOException, SQLException
+            {
+                InputStream is = decompressor.open(file);
+                try
+                {
+                    copyStream(is, copyIn);
+                }
+                finally
+                {
+                    is.close();
+                }
+            }
+        });
+    }
+
+    /**
+     * Supplies the data for a client-side COPY.
+     */
+    private interface CopySource
     {
+        void copyTo(CopyIn copyIn) throws IOException, SQLException;
+    }
+
+    private void copyIn(String copySql, String tableName, String description, 
+        CopySource source)
+    {
+        TransferCounter counter = getCopyCounter(tableName);
+        PostgresqlConnectionFactory connectionFactory = 
+            new PostgresqlConnectionFactory(config.getServer().getJdbc());
         Connection dbc = null;
         try
         {
-            dbc = JpaUtil.getConnection();
-            String importSql = String.format("copy %s.%s from '%s' null as ''", 
-                schemaName, tableName, fileName.replaceAll("\\\\", "/"));
-            log.debug(importSql);
+            dbc = connectionFactory.createConnection();
+            CopyIn copyIn = ((PGConnection) dbc).getCopyAPI().copyIn(copySql);
+            try
+            {
+                counter.start();
+                source.copyTo(copyIn);
+                long numRows = copyIn.endCopy();
+                counter.add(0, numRows);
+                log.debug("copied {} rows from {}", numRows, description);
+            }
+            finally
+            {
+                if (copyIn.isActive())
+                {
+                    copyIn.cancelCopy();
+                }
+            }
+        }
+        catch (IOException exc)
+        {
+            throw new OmadacException("error importing " + description, exc);
+        }
+        catch (SQLException exc)
+        {
+            throw new OmadacException("error importing " + description, exc);
+        }
+        finally
+        {
+            close(dbc);
+        }
+    }
 
-            Statement st = dbc.createStatement();
-            log.info("importing {} into table {}", fileName, tableName);
-            st.executeUpdate(importSql);
-            st.close();
-            JpaUtil.commit(dbc);
+    private TransferCounter getCopyCounter(String tableName)
+    {
+        return ImportMetrics.getInstance().getCopyCounter(schemaName + "." + tableName);
+    }
+
+    private void copyChunk(FileChannel channel, Chunk chunk, CopyIn copyIn) 
+        throws IOException, SQLException
+    {
+        byte[] buffer = new byte[COPY_BUFFER_SIZE];
+        ByteBuffer byteBuffer = ByteBuffer.wrap(buffer);
+        long pos = chunk.getOffset();
+        long end = pos + chunk.getLength();
+        while (pos < end)
+        {
+            byteBuffer.clear();
+            byteBuffer.limit((int) Math.min(buffer.length, end - pos));
+            int numBytes = channel.read(byteBuffer, pos);
+            if (numBytes < 0)
+            {
+                throw new IOException("unexpected end of file at offset " + pos);
+            }
+            copyIn.writeToCopy(buffer, 0, numBytes);
+            pos += numBytes;
+        }
+    }
+
+    private void copyStream(InputStream is, CopyIn copyIn) throws IOException, SQLException
+    {
+        byte[] buffer = new byte[COPY_BUFFER_SIZE];
+        int numBytes;
+        while ((numBytes = is.read(buffer)) >= 0)
+        {
+            copyIn.writeToCopy(buffer, 0, numBytes);
+        }
+    }
+
+    private void close(Connection dbc)
+    {
+        if (dbc == null)
+        {
+            return;
+        }
+        try
+        {
+            dbc.close();
         }
         catch (SQLException exc)
         {
-            log.error("error importing " + fileName, exc);
-            JpaUtil.rollback(dbc);
+            log.error("cannot close connection", exc);
         }
     }
 
@@ -16,8 +16,12 @@
  */
 package org.omadac.make;
 
+import java.util.Collection;
 import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
 
+import org.omadac.engine.Status;
+import org.omadac.engine.TargetInfo;
 import org.omadac.make.impl.SerializableRunnable;
 
 /**
@@ -32,6 +36,31 @@ public abstract class ComplexTarget extends Target
 {
     private static final long serialVersionUID = 1;
 
+    /**
+     * Preferred compilation time of a subtarget in milliseconds. Subtargets should be large
+     * enough to make the overhead per subtarget negligible, and small enough to keep all 
+     * worker threads busy until the end of the complex target.
+     */
+    private static final long SUBTARGET_DURATION = 10000;
+    
+    /** Maximum factor by which the range weight is adapted from one run to the next. */
+    private static final int MAX_ADAPTATION = 4;
+
+    /**
+     * Number of subtargets still running in the current make run. Completions are counted 
+     * down without locking, so that many small subtargets do not serialize the worker threads.
+     */
+    private transient AtomicInteger numPendingSubtargets;
+    
+    /** Number of subtargets in the previous run. */
+    private transient int numPreviousSubtargets;
+    
+    /** Number of subtargets in the previous run with known duration. */
+    private transient int numTimedSubtargets;
+    
+    /** Total duration of these subtargets in milliseconds. */
+    private transient long totalDuration;
+
     public ComplexTarget()
     {
     }
@@ -43,9 +72,115 @@ public abstract class ComplexTarget extends Target
     
     public abstract List<Target> split();
     
+    /**
+     * Returns the subtargets to be recompiled due to changed input, when this target is
+     * updated. Each subtarget is cleaned and recompiled, while this target is not cleaned.
+     * <p>
+     * The default implementation returns null, so that all subtargets are recompiled.
+     * 
+     * @param previousSubtargets  names of the subtargets of the previous compilation
+     * @return outdated subtargets, or null if this target cannot be updated incrementally
+     */
+    public List<Target> splitChanges(List<String> previousSubtargets)
+    {
+        return null;
+    }
+    
     public void merge()
     {        
     }
+
+    /**
+     * Sets the number of subtargets to be completed before this target is merged. Must be
+     * called before any subtarget is submitted.
+     * 
+     * @param numSubtargets  number of submitted subtargets
+     */
+    public void setNumPendingSubtargets(int numSubtargets)
+    {
+        numPendingSubtargets = new AtomicInteger(numSubtargets);
+    }
+
+    /**
+     * Adds a pending subtarget, when the subtargets are submitted while they are produced.
+     * This method is thread-safe.
+     */
+    public void addPendingSubtarget()
+    {
+        numPendingSubtargets.incrementAndGet();
+    }
+
+    /**
+     * Counts down the pending subtargets on completion of a subtarget. This method is 
+     * thread-safe.
+     * 
+     * @return true if the last pending subtarget has been completed
+     */
+    public boolean onSubtargetCompleted()
+    {
+        return numPendingSubtargets.decrementAndGet() == 0;
+    }
+    
+    /**
+     * Sets the infos of the subtargets of the previous run, to adapt the size of the
+     * subtargets to their durations. Called by the job manager before splitting this target.
+     * 
+     * @param infos  persisted subtarget infos
+     */
+    public void setPreviousSubtargets(Collection<TargetInfo> infos)
+    {
+        numPreviousSubtargets = infos.size();
+        numTimedSubtargets = 0;
+        totalDuration = 0;
+        for (TargetInfo info : infos)
+        {
+            if (info.getDuration() != null)
+            {
+                numTimedSubtargets++;
+                totalDuration += info.getDuration();
+            }
+        }
+    }
+
+    /**
+     * Returns the weight of a subtarget, for splitting this target into subtargets with 
+     * roughly equal weight. The weight is a measure for the work of compiling a subtarget,
+     * e.g. the number of way nodes. 
+     * <p>
+     * An incomplete target keeps the weight of the interrupted run, so that it is split
+     * into the same subtargets as before. Otherwise, without durations of a previous run, the
+     * default weight is returned. With durations, the weight per subtarget of the previous 
+     * run is scaled by the ratio of the preferred and the average duration per subtarget, 
+     * limited to a factor of {@value #MAX_ADAPTATION} in either direction. 
+     * <p>
+     * The returned weight is stored in the target info, to be persisted by the job manager.
+     * 
+     * @param totalWeight    total weight of this target
+     * @param defaultWeight  default weight per subtarget
+     * @return weight per subtarget
+     */
+    public long getRangeWeight(long totalWeight, long defaultWeight)
+    {
+        TargetInfo info = getInfo();
+        if (getStatus() == Status.INCOMPLETE)
+        {
+            return (info.getRangeWeight() == null) ? defaultWeight : info.getRangeWeight();
+        }
+        
+        long weight = defaultWeight;
+        if (numTimedSubtargets != 0 && totalWeight != 0)
+        {
+            long previousWeight = (info.getRangeWeight() == null) 
+                ? Math.max(1, totalWeight / numPreviousSubtargets) : info.getRangeWeight();
+            long averageDuration = Math.max(1, totalDuration / numTimedSubtargets);
+            weight = previousWeight * SUBTARGET_DURATION / averageDuration;
+            weight = Math.min(weight, previousWeight * MAX_ADAPTATION);
+            weight = Math.max(weight, previousWeight / MAX_ADAPTATION);
+            weight = Math.max(1, weight);
+        }
+        info.setRangeWeight(weight);
+        return weight;
+    }
     
     @Override
     public final void compile()
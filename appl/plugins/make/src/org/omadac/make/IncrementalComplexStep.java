@@ -0,0 +1,47 @@
+/*
+ *    Omadac - The Open Map Database Compiler
+ *    http://omadac.org
+ * 
+ *    (C) 2010, Harald Wellmann and Contributors
+ *
+ *    This library is free software; you can redistribute it and/or
+ *    modify it under the terms of the GNU Lesser General Public
+ *    License as published by the Free Software Foundation;
+ *    version 2.1 of the License.
+ *
+ *    This library is distributed in the hope that it will be useful,
+ *    but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ *    Lesser General Public License for more details.
+ */
+package org.omadac.make;
+
+import java.util.List;
+
+/**
+ * A complex step which can update an existing complex target by recompiling only the 
+ * subtargets affected by changes of its input, instead of cleaning and recompiling all
+ * subtargets.
+ * <p>
+ * When the complex target is to be updated, the job manager calls 
+ * {@link #splitChanges(Target, List)} instead of {@link #split(Target)}, and then cleans and
+ * compiles each returned subtarget with {@link #clean(Target)} and {@link #compile(Target)}.
+ * {@link #cleanAll(Target)} is not called in this case, and {@link #merge(Target)} must 
+ * tolerate being called on a target which has been merged before.
+ * 
+ * @author hwellmann
+ *
+ * @param <C>  complex target type
+ * @param <S>  subtarget type
+ */
+public interface IncrementalComplexStep<C extends Target, S extends Target> 
+    extends ComplexStep<C, S>
+{
+    /**
+     * Returns the subtargets to be recompiled due to changed input.
+     * @param target  complex target
+     * @param previousSubtargets  names of the subtargets of the previous compilation
+     * @return outdated subtargets, or null if the target cannot be updated incrementally
+     */
+    List<S> splitChanges(C target, List<String> previousSubtargets);
+}
@@ -0,0 +1,44 @@
+/*
+ *    Omadac - The Open Map Database Compiler
+ *    http://omadac.org
+ * 
+ *    (C) 2011, Harald Wellmann and Contributors
+ *
+ *    This library is free software; you can redistribute it and/or
+ *    modify it under the terms of the GNU Lesser General Public
+ *    License as published by the Free Software Foundation;
+ *    version 2.1 of the License.
+ *
+ *    This library is distributed in the hope that it will be useful,
+ *    but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ *    Lesser General Public License for more details.
+ */
+package org.omadac.make;
+
+import java.util.Iterator;
+
+/**
+ * A complex step producing its subtargets one by one. The job manager calls 
+ * {@link #splitIterator(Target)} instead of {@link #split(Target)} and submits each 
+ * subtarget as soon as the iterator returns it, so that the worker threads start compiling
+ * while the remaining subtargets are still being produced.
+ * <p>
+ * The iterator is consumed after {@code splitIterator()} has returned, outside of any
+ * transaction of the step, so it must not depend on an open database cursor of the step.
+ * 
+ * @author hwellmann
+ *
+ * @param <C>  complex target type
+ * @param <S>  subtarget type
+ */
+public interface StreamingComplexStep<C extends Target, S extends Target> 
+    extends ComplexStep<C, S>
+{
+    /**
+     * Returns an iterator over the subtargets of the given complex target.
+     * @param target  complex target
+     * @return subtarget iterator
+     */
+    Iterator<S> splitIterator(C target);
+}
@@ -83,6 +83,12 @@ public abstract class Target implements Serializable
     
     private transient Step step;
     
+    /**
+     * Scheduling priority, given by the expected remaining time of the make run in 
+     * milliseconds after starting this target. Targets with higher priority are started first.
+     */
+    private transient long priority;
+    
     /**
      * Creates an anonymous target.
      */
@@ -175,6 +181,16 @@ public abstract class Target implements Serializable
     
     
 
+    public long getPriority()
+    {
+        return priority;
+    }
+
+    public void setPriority(long priority)
+    {
+        this.priority = priority;
+    }
+
     public TargetInfo getInfo()
     {
         return info;
@@ -18,12 +18,22 @@ package org.omadac.make;
 
 import static org.omadac.engine.Status.MISSING;
 
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+import java.sql.Types;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
 import java.util.List;
+import java.util.Map;
 
 import javax.persistence.EntityManager;
 import javax.persistence.Query;
 
 import org.omadac.engine.TargetInfo;
+import org.omadac.jpa.JpaException;
+import org.omadac.jpa.JpaUtil;
 
 
 public class TargetDao 
@@ -76,10 +86,205 @@ public class TargetDao
         else
         {
             savedInfo.setStatus(target.getInfo().getStatus());
+            savedInfo.setDuration(target.getInfo().getDuration());
+            savedInfo.setRangeWeight(target.getInfo().getRangeWeight());
             target.setInfo(savedInfo);
         }
     }
     
+    /**
+     * Refreshes the status of the given subtargets of a complex target from persistent 
+     * storage, loading the status of all subtargets with a single query. Subtargets with
+     * names not starting with the name of the complex target and an underscore are refreshed
+     * individually.
+     * For internal use within the make engine.
+     * @param target      complex target
+     * @param subtargets  subtargets of the complex target
+     */
+    public void refreshSubtargetStatus(ComplexTarget target, List<? extends Target> subtargets)
+    {
+        Map<String, TargetInfo> infos = findSubtargetInfos(target);
+        for (Target subtarget : subtargets)
+        {
+            refreshSubtargetStatus(target, subtarget, infos);
+        }
+    }
+
+    /**
+     * Refreshes the status of a subtarget from the infos returned by 
+     * {@link #findSubtargetInfos(ComplexTarget)}. Subtargets with names not starting with
+     * the name of the complex target and an underscore are refreshed from persistent storage.
+     * For internal use within the make engine.
+     * @param target     complex target
+     * @param subtarget  subtarget of the complex target
+     * @param infos      persisted subtarget infos, indexed by name
+     */
+    public void refreshSubtargetStatus(ComplexTarget target, Target subtarget, 
+        Map<String, TargetInfo> infos)
+    {
+        if (!subtarget.getName().startsWith(target.getName() + "_"))
+        {
+            refreshTargetStatus(subtarget);
+            return;
+        }
+        TargetInfo info = infos.get(subtarget.getName());
+        if (info == null)
+        {
+            info = new TargetInfo(subtarget.getName());
+        }
+        subtarget.setInfo(info);
+    }
+
+    /**
+     * Loads the infos of all persisted subtargets of the given complex target, which are
+     * assumed to start with the name of the complex target followed by an underscore.
+     * @param target  complex target
+     * @return subtarget infos, indexed by name
+     */
+    @SuppressWarnings("unchecked")
+    public Map<String, TargetInfo> findSubtargetInfos(ComplexTarget target)
+    {
+        String prefix = target.getName() + "_";
+        Query query = em.createQuery("select ti from TargetInfo ti where ti.name like :prefix");
+        query.setParameter("prefix", prefix + "%");
+        List<TargetInfo> results = query.getResultList();
+        
+        Map<String, TargetInfo> infos = new HashMap<String, TargetInfo>(2 * results.size());
+        for (TargetInfo info : results)
+        {
+            infos.put(info.getName(), info);
+        }
+        return infos;
+    }
+
+    /**
+     * Persists the given target statuses and durations with batched JDBC statements, updating
+     * existing targets and inserting new targets.
+     * For internal use within the make engine.
+     * @param infos  target infos
+     */
+    public void saveStatus(Collection<TargetInfo> infos)
+    {
+        if (infos.isEmpty())
+        {
+            return;
+        }
+        List<TargetInfo> infoList = new ArrayList<TargetInfo>(infos);
+        Connection dbc = JpaUtil.getConnection(em);
+        try
+        {
+            PreparedStatement update = dbc.prepareStatement(
+                "update engine.target set status = ?, duration = ? where name = ?");
+            int[] counts;
+            try
+            {
+                for (TargetInfo info : infoList)
+                {
+                    update.setString(1, info.getStatus().name());
+                    setDuration(update, 2, info);
+                    update.setString(3, info.getName());
+                    update.addBatch();
+                }
+                counts = update.executeBatch();
+            }
+            finally
+            {
+                update.close();
+            }
+
+            List<TargetInfo> newInfos = new ArrayList<TargetInfo>();
+            for (int i = 0; i < counts.length; i++)
+            {
+                if (counts[i] == 0)
+                {
+                    newInfos.add(infoList.get(i));
+                }
+            }
+            if (newInfos.isEmpty())
+            {
+                return;
+            }
+            PreparedStatement insert = dbc.prepareStatement(
+                "insert into engine.target (name, status, duration) values (?, ?, ?)");
+            try
+            {
+                for (TargetInfo info : newInfos)
+                {
+                    insert.setString(1, info.getName());
+                    insert.setString(2, info.getStatus().name());
+                    setDuration(insert, 3, info);
+                    insert.addBatch();
+                }
+                insert.executeBatch();
+            }
+            finally
+            {
+                insert.close();
+            }
+        }
+        catch (SQLException exc)
+        {
+            throw new JpaException(exc);
+        }
+    }
+
+    private void setDuration(PreparedStatement statement, int index, TargetInfo info) 
+        throws SQLException
+    {
+        if (info.getDuration() == null)
+        {
+            statement.setNull(index, Types.BIGINT);
+        }
+        else
+        {
+            statement.setLong(index, info.getDuration());
+        }
+    }
+    
+    /**
+     * Deletes all persisted subtargets of the given complex target, when the target is split
+     * anew.
+     * For internal use within the make engine.
+     * @param target  complex target
+     * @return number of deleted subtargets
+     */
+    public int deleteSubtargets(ComplexTarget target)
+    {
+        // escape the underscore, which is a wildcard in a like pattern
+        String prefix = target.getName().replace("!", "!!").replace("_", "!_")
+            .replace("%", "!%") + "!_";
+        Query query = em.createQuery(
+            "delete from TargetInfo ti where ti.name like :prefix escape '!'");
+        query.setParameter("prefix", prefix + "%");
+        return query.executeUpdate();
+    }
+    
+    /**
+     * Returns the names of all persisted subtargets of the given complex target, which are
+     * assumed to start with the name of the complex target followed by an underscore.
+     * @param target  complex target
+     * @return subtarget names
+     */
+    @SuppressWarnings("unchecked")
+    public List<String> findSubtargetNames(ComplexTarget target)
+    {
+        String prefix = target.getName() + "_";
+        Query query = em.createQuery("select ti.name from TargetInfo ti where ti.name like :prefix");
+        query.setParameter("prefix", prefix + "%");
+        List<String> results = query.getResultList();
+        
+        // the underscore is a wildcard in a like pattern
+        List<String> names = new ArrayList<String>(results.size());
+        for (String name : results)
+        {
+            if (name.startsWith(prefix))
+            {
+                names.add(name);
+            }
+        }
+        return names;
+    }
+
     public void deleteAll() {
         String jpql = "delete ti from TargetInfo ti";
         em.createQuery(jpql).executeUpdate();
@@ -17,11 +17,13 @@
 package org.omadac.make.impl;
 
 import java.lang.management.ManagementFactory;
+import java.util.ArrayList;
 import java.util.Collection;
 import java.util.Collections;
 import java.util.List;
 import java.util.concurrent.BlockingQueue;
-import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.PriorityBlockingQueue;
+import java.util.concurrent.atomic.AtomicLong;
 
 import javax.management.JMException;
 import javax.management.MBeanServer;
@@ -59,6 +61,8 @@ public class GraphMakeEngine implements MakeEngine
 {
     private static Logger log = LoggerFactory.getLogger(GraphMakeEngine.class);
     
+    private static final int INITIAL_QUEUE_CAPACITY = 64;
+    
     private TargetDao targetDao;
 
     /** Job manager for executing actions. */
@@ -70,8 +74,11 @@ public class GraphMakeEngine implements MakeEngine
     /** File name of DOT file for rendering dependency graph. */
     private String dotOutput;
     
-    /** Queue of targets to be processed. */
-    private BlockingQueue<Target> pendingTargets;
+    /** Queue of targets to be processed, ordered by priority. */
+    private BlockingQueue<PendingTarget> pendingTargets;
+    
+    /** Number of queued targets, for ordering targets of equal priority. */
+    private AtomicLong numQueued;
 
     /** Default target which depends on all goals. */
     private Target defaultTarget;
@@ -86,7 +93,8 @@ public class GraphMakeEngine implements MakeEngine
     public GraphMakeEngine()
     {
         graph = new MakeGraph();
-        pendingTargets = new LinkedBlockingQueue<Target>();
+        pendingTargets = new PriorityBlockingQueue<PendingTarget>(INITIAL_QUEUE_CAPACITY);
+        numQueued = new AtomicLong();
         defaultTarget = new DefaultTarget();
     }
     
@@ -175,6 +183,7 @@ public class GraphMakeEngine implements MakeEngine
          * This is done within a single transaction for all targets. 
          */
         computeTargetStatus();                
+        computePriorities();
         updateTargets();
     }
 
@@ -186,11 +195,11 @@ public class GraphMakeEngine implements MakeEngine
             target.setExecutionContext(context);
         }
         target.setStatus(Status.COMPLETED);
-        pendingTargets.add(target);
+        enqueue(target);
         for (Target dep : getDependents(target))
         {
             log.debug("adding {} to queue", dep.getName());
-            pendingTargets.add(dep);
+            enqueue(dep);
         }
     }
 
@@ -206,7 +215,12 @@ public class GraphMakeEngine implements MakeEngine
             target = action.getTarget();
         }
         target.setStatus(Status.ERROR);
-        pendingTargets.add(target);
+        enqueue(target);
+    }
+
+    private void enqueue(Target target)
+    {
+        pendingTargets.add(new PendingTarget(target, numQueued.getAndIncrement()));
     }
 
     /**
@@ -270,6 +284,29 @@ public class GraphMakeEngine implements MakeEngine
         }
     }
 
+    /**
+     * Computes the target priorities from the durations of the previous run and reorders
+     * the outdated targets queued while computing the target status.
+     */
+    private void computePriorities()
+    {
+        graph.computePriorities();
+        List<PendingTarget> outdatedTargets = 
+            new ArrayList<PendingTarget>(pendingTargets.size());
+        pendingTargets.drainTo(outdatedTargets);
+        for (PendingTarget pending : outdatedTargets)
+        {
+            pendingTargets.add(new PendingTarget(pending.target, pending.sequenceNumber));
+        }
+
+        long criticalPath = 0;
+        for (Target target : graph.vertexSet())
+        {
+            criticalPath = Math.max(criticalPath, target.getPriority());
+        }
+        log.info("expected duration of critical path is {} ms", criticalPath);
+    }
+
     /**
      * Updates all targets, taking one target at a time from the pending target queue and
      * processing it, until the default target is up-to-date or the queue is empty.
@@ -277,7 +314,7 @@ public class GraphMakeEngine implements MakeEngine
     private void updateTargets()
     {
         assert !pendingTargets.isEmpty();
-        Target target = pendingTargets.peek();
+        Target target = pendingTargets.peek().target;
         
         if (target instanceof DefaultTarget)
         {
@@ -294,7 +331,7 @@ public class GraphMakeEngine implements MakeEngine
         {
             try
             {
-                target = pendingTargets.take();
+                target = pendingTargets.take().target;
             }
             catch (InterruptedException exc)
             {
@@ -394,7 +431,7 @@ public class GraphMakeEngine implements MakeEngine
     {
         if (canBuild(target))
         {
-            pendingTargets.add(target);
+            enqueue(target);
         }
     }
 
@@ -422,4 +459,48 @@ public class GraphMakeEngine implements MakeEngine
     {
         return target.getStep();
     }
+
+    /**
+     * Queue entry for a target. Completion and error events are taken before all other
+     * targets, so that a prerequisite is up to date before its dependents are processed.
+     * Other targets are ordered by descending priority, and in queue order for equal 
+     * priorities.
+     */
+    private static class PendingTarget implements Comparable<PendingTarget>
+    {
+        private Target target;
+        
+        private boolean event;
+
+        private long priority;
+
+        private long sequenceNumber;
+
+        public PendingTarget(Target target, long sequenceNumber)
+        {
+            this.target = target;
+            this.event = target.getStatus() == Status.COMPLETED 
+                || target.getStatus() == Status.ERROR;
+            this.priority = target.getPriority();
+            this.sequenceNumber = sequenceNumber;
+        }
+
+        @Override
+        public int compareTo(PendingTarget other)
+        {
+            if (event != other.event)
+            {
+                return event ? -1 : 1;
+            }
+            if (priority != other.priority)
+            {
+                return (priority > other.priority) ? -1 : 1;
+            }
+            if (sequenceNumber != other.sequenceNumber)
+            {
+                return (sequenceNumber < other.sequenceNumber) ? -1 : 1;
+            }
+            return 0;
+        }
+    }
 }
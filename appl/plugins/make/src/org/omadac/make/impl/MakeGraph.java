@@ -16,10 +16,13 @@
  */
 package org.omadac.make.impl;
 
+import org.omadac.engine.Status;
 import org.omadac.make.Target;
 
+import org.jgrapht.Graphs;
 import org.jgrapht.graph.DefaultDirectedGraph;
 import org.jgrapht.graph.DefaultEdge;
+import org.jgrapht.traverse.TopologicalOrderIterator;
 
 /**
  * Directed graph representation of targets and dependencies. The targets are the graph nodes.
@@ -37,4 +40,42 @@ public class MakeGraph extends DefaultDirectedGraph<Target, DefaultEdge>
     {
         super(DefaultEdge.class);
     }
+
+    /**
+     * Sets the priority of each target to the length of the longest path from the target to
+     * the root, where the length of a path is the sum of the expected durations of its 
+     * targets. This is the remaining time of the make run after starting the target, 
+     * assuming unlimited parallelism, so the targets on the critical path get the highest
+     * priority.
+     * <p>
+     * The expected duration of a target is the duration of its last run, or zero if the 
+     * target is up to date or has never been compiled. Must be called after the target
+     * status has been computed.
+     */
+    public void computePriorities()
+    {
+        // dependents precede their prerequisites in topological order
+        TopologicalOrderIterator<Target, DefaultEdge> it = 
+            new TopologicalOrderIterator<Target, DefaultEdge>(this);
+        while (it.hasNext())
+        {
+            Target target = it.next();
+            long remaining = 0;
+            for (Target dependent : Graphs.predecessorListOf(this, target))
+            {
+                remaining = Math.max(remaining, dependent.getPriority());
+            }
+            target.setPriority(remaining + getExpectedDuration(target));
+        }
+    }
+
+    private long getExpectedDuration(Target target)
+    {
+        Long duration = target.getInfo().getDuration();
+        if (target.getStatus() == Status.UPTODATE || duration == null)
+        {
+            return 0;
+        }
+        return duration;
+    }
 }
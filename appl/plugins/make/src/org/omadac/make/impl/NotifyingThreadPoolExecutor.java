@@ -16,13 +16,23 @@
  */
 package org.omadac.make.impl;
 
-import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.PriorityBlockingQueue;
+import java.util.concurrent.RunnableFuture;
 import java.util.concurrent.ThreadPoolExecutor;
 import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.omadac.make.Action;
 
 /**
  * A thread pool executor used by the ThreadPoolJobManager providing callbacks on after
- * execution.
+ * execution. The callbacks are not synchronized, the job manager handles concurrent 
+ * completions.
+ * <p>
+ * Queued actions are started in the order of the priority of their targets, and in 
+ * submission order for equal priorities. Actions must be submitted by 
+ * {@code submit(action, action)}.
  * 
  * @author hwellmann
  *
@@ -30,16 +40,63 @@ import java.util.concurrent.TimeUnit;
 public class NotifyingThreadPoolExecutor extends ThreadPoolExecutor
 {
     private ThreadPoolJobManager manager;
+    
+    /** Submission counter, for ordering actions of equal priority. */
+    private AtomicLong numSubmitted = new AtomicLong();
 
     public NotifyingThreadPoolExecutor(int numThreads, ThreadPoolJobManager jobManager)
     {
-        super(numThreads, numThreads, Long.MAX_VALUE, TimeUnit.SECONDS, new LinkedBlockingQueue<Runnable>());
+        super(numThreads, numThreads, Long.MAX_VALUE, TimeUnit.SECONDS, 
+            new PriorityBlockingQueue<Runnable>());
         this.manager = jobManager;
     }
 
     @Override
-    protected synchronized void afterExecute(Runnable r, Throwable t)
+    protected <T> RunnableFuture<T> newTaskFor(Runnable runnable, T value)
+    {
+        long priority = 0;
+        if (value instanceof Action)
+        {
+            priority = ((Action) value).getTarget().getPriority();
+        }
+        return new PrioritizedTask<T>(runnable, value, priority, numSubmitted.getAndIncrement());
+    }
+
+    @Override
+    protected void afterExecute(Runnable r, Throwable t)
     {
         manager.afterExecute(r, t);
     }
+
+    /**
+     * Future task ordered by descending priority and ascending sequence number.
+     */
+    private static class PrioritizedTask<T> extends FutureTask<T> 
+        implements Comparable<PrioritizedTask<?>>
+    {
+        private long priority;
+        
+        private long sequenceNumber;
+
+        public PrioritizedTask(Runnable runnable, T result, long priority, long sequenceNumber)
+        {
+            super(runnable, result);
+            this.priority = priority;
+            this.sequenceNumber = sequenceNumber;
+        }
+
+        @Override
+        public int compareTo(PrioritizedTask<?> other)
+        {
+            if (priority != other.priority)
+            {
+                return (priority > other.priority) ? -1 : 1;
+            }
+            if (sequenceNumber != other.sequenceNumber)
+            {
+                return (sequenceNumber < other.sequenceNumber) ? -1 : 1;
+            }
+            return 0;
+        }
+    }
 }
@@ -0,0 +1,171 @@
+/*
+ *    Omadac - The Open Map Database Compiler
+ *    http://omadac.org
+ * 
+ *    (C) 2011, Harald Wellmann and Contributors
+ *
+ *    This library is free software; you can redistribute it and/or
+ *    modify it under the terms of the GNU Lesser General Public
+ *    License as published by the Free Software Foundation;
+ *    version 2.1 of the License.
+ *
+ *    This library is distributed in the hope that it will be useful,
+ *    but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ *    Lesser General Public License for more details.
+ */
+package org.omadac.make.impl;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+
+import org.omadac.engine.TargetInfo;
+import org.omadac.make.Target;
+import org.omadac.make.TargetDao;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Collects status transitions of subtargets and persists them in batches on a background 
+ * thread, together with the duration of compiled subtargets. Repeated transitions of the same
+ * target between two flushes are coalesced, so only the latest status is written.
+ * <p>
+ * A status which has not been flushed is lost when the make engine is killed, so a subtarget
+ * may have been compiled although its persisted status is still missing or creating. The job
+ * manager therefore cleans every subtarget of an incomplete complex target before compiling
+ * it. Callers must {@link #flush()} before completing the complex target.
+ * 
+ * @author hwellmann
+ * 
+ */
+public class TargetStatusWriter
+{
+    private static Logger log = LoggerFactory.getLogger(TargetStatusWriter.class);
+
+    /** Flush interval in milliseconds. */
+    private static final long FLUSH_INTERVAL = 1000;
+
+    /** Number of pending transitions triggering an immediate flush. */
+    private static final int MAX_PENDING = 1000;
+
+    private TargetDao targetDao;
+
+    private ConcurrentMap<String, TargetInfo> pending = 
+        new ConcurrentHashMap<String, TargetInfo>();
+
+    private ScheduledExecutorService flusher;
+
+    private Runnable flushTask = new Runnable()
+    {
+        @Override
+        public void run()
+        {
+            try
+            {
+                flush();
+            }
+            // CHECKSTYLE:OFF
+            catch (Throwable exc)
+            // CHECKSTYLE:ON
+            {
+                log.error("cannot save target status", exc);
+            }
+        }
+    };
+
+    public TargetStatusWriter(TargetDao targetDao)
+    {
+        this.targetDao = targetDao;
+    }
+
+    public void start()
+    {
+        flusher = Executors.newSingleThreadScheduledExecutor(new ThreadFactory()
+        {
+            @Override
+            public Thread newThread(Runnable r)
+            {
+                Thread thread = new Thread(r, "TargetStatusWriter");
+                thread.setDaemon(true);
+                return thread;
+            }
+        });
+        flusher.scheduleWithFixedDelay(flushTask, FLUSH_INTERVAL, FLUSH_INTERVAL, 
+            TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * Stops the background thread and writes all pending transitions.
+     */
+    public void stop()
+    {
+        flusher.shutdown();
+        try
+        {
+            flusher.awaitTermination(1, TimeUnit.MINUTES);
+        }
+        catch (InterruptedException exc)
+        {
+            Thread.currentThread().interrupt();
+        }
+        flush();
+    }
+
+    /**
+     * Records the current status and duration of the given target, to be persisted by the
+     * next flush. The status is lost if the make engine is killed before the flush.
+     * This method is thread-safe and does not block.
+     * @param target  target
+     */
+    public void save(Target target)
+    {
+        TargetInfo info = new TargetInfo(target.getName());
+        info.setStatus(target.getStatus());
+        info.setDuration(target.getInfo().getDuration());
+        pending.put(target.getName(), info);
+        if (pending.size() >= MAX_PENDING && !flusher.isShutdown())
+        {
+            flusher.execute(flushTask);
+        }
+    }
+
+    /**
+     * Persists all pending transitions in one batch. Flushes are serialized, so that an
+     * older status never overwrites a newer one.
+     */
+    public synchronized void flush()
+    {
+        if (pending.isEmpty())
+        {
+            return;
+        }
+        Map<String, TargetInfo> batch = new HashMap<String, TargetInfo>();
+        for (Map.Entry<String, TargetInfo> entry : pending.entrySet())
+        {
+            // a newer status put concurrently remains pending for the next flush
+            if (pending.remove(entry.getKey(), entry.getValue()))
+            {
+                batch.put(entry.getKey(), entry.getValue());
+            }
+        }
+        try
+        {
+            targetDao.saveStatus(batch.values());
+        }
+        catch (RuntimeException exc)
+        {
+            for (Map.Entry<String, TargetInfo> entry : batch.entrySet())
+            {
+                pending.putIfAbsent(entry.getKey(), entry.getValue());
+            }
+            throw exc;
+        }
+        log.debug("saved status of {} targets", batch.size());
+    }
+}
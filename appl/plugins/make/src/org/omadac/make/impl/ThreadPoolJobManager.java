@@ -19,10 +19,12 @@ package org.omadac.make.impl;
 import static org.omadac.engine.Status.UPTODATE;
 
 import java.util.ArrayList;
-import java.util.HashMap;
+import java.util.Iterator;
 import java.util.List;
 import java.util.Map;
-import java.util.Vector;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.CopyOnWriteArrayList;
 import java.util.concurrent.ExecutionException;
 import java.util.concurrent.Future;
 import java.util.concurrent.ThreadPoolExecutor;
@@ -35,8 +37,10 @@ import org.omadac.make.ActionListener;
 import org.omadac.make.ComplexStep;
 import org.omadac.make.ComplexTarget;
 import org.omadac.make.ExecutionContext;
+import org.omadac.make.IncrementalComplexStep;
 import org.omadac.make.JobManager;
 import org.omadac.make.Step;
+import org.omadac.make.StreamingComplexStep;
 import org.omadac.make.Target;
 import org.omadac.make.TargetDao;
 import org.slf4j.Logger;
@@ -55,16 +59,10 @@ public class ThreadPoolJobManager implements JobManager
     private TargetDao targetDao;
    
     /**
-     * Maps complex targets to the number of pending subtargets. The map gets initialized with
-     * the number of subtargets of each complex target. The number gets decremented on completion
-     * of each subtarget. When the number is zero, the complex target is completed.
+     * Action listeners to be notified. Listeners are notified from the worker threads without
+     * locking, so the list is copied on modification.
      */
-    private Map<String, Integer> subtargetMap;
-    
-    /**
-     * Action listeners to be notified.
-     */
-    private Vector<ActionListener> listeners;
+    private List<ActionListener> listeners;
 
     /**
      * Executor for running actions.
@@ -79,10 +77,20 @@ public class ThreadPoolJobManager implements JobManager
     /** Number of worker threads. */
     private int numThreads;
 
+    /**
+     * Persists the status of subtargets in batches.
+     */
+    private TargetStatusWriter statusWriter;
+    
+    /**
+     * Start times of the running complex targets in milliseconds, indexed by target name. 
+     */
+    private ConcurrentMap<String, Long> startTimes;
+
     public ThreadPoolJobManager()
     {
-        this.subtargetMap = new HashMap<String, Integer>();
-        this.listeners = new Vector<ActionListener>(1);
+        this.listeners = new CopyOnWriteArrayList<ActionListener>();
+        this.startTimes = new ConcurrentHashMap<String, Long>();
     }
     
     /**
@@ -122,6 +130,8 @@ public class ThreadPoolJobManager implements JobManager
     public void start()
     {
         executor = new NotifyingThreadPoolExecutor(numThreads, this);
+        statusWriter = new TargetStatusWriter(targetDao);
+        statusWriter.start();
     }
 
     @Override
@@ -136,6 +146,7 @@ public class ThreadPoolJobManager implements JobManager
         {
             log.error("interrupted on shutdown", exc);
         }
+        statusWriter.stop();
     }
 
     @Override
@@ -163,24 +174,40 @@ public class ThreadPoolJobManager implements JobManager
             ComplexTarget complexTarget = (ComplexTarget) target;
             Action complexAction = complexTarget.getAction();
             log.info("submitting job for {}", complexTarget);
+            startTimes.put(complexTarget.getName(), System.currentTimeMillis());
 
             /*
              * Create subtargets and check status for each subtarget. There may be a large
              * number of subtargets, so we update all subtargets statuses within a single
              * transaction.
              */
-            List<Target> subtargets = complexTarget.split();
+            List<Target> subtargets = null;
+            if (complexTarget.getStatus() == Status.UPDATING)
+            {
+                subtargets = complexTarget.splitChanges(
+                    targetDao.findSubtargetNames(complexTarget));
+            }
+            boolean incremental = (subtargets != null);
+            if (incremental)
+            {
+                log.info("updating {} subtargets of {}", subtargets.size(), complexTarget);
+            }
+            else
+            {
+                subtargets = complexTarget.split();
+            }
+            targetDao.refreshSubtargetStatus(complexTarget, subtargets);
             List<Action> subactions = new ArrayList<Action>(subtargets.size());                      
             for (Target subtarget : subtargets)
             {
                 subtarget.setParent(complexTarget);
                 subtarget.setExecutionContext(context);
-                targetDao.refreshTargetStatus(subtarget);
+                subtarget.setPriority(complexTarget.getPriority());
                 
                 if (complexTarget.getStatus() == Status.UPDATING)
                 {
                     subtarget.setStatus(Status.OUTDATED);
-                    targetDao.saveStatus(subtarget);
+                    statusWriter.save(subtarget);
                 }
                 
                 /*
@@ -220,13 +247,13 @@ public class ThreadPoolJobManager implements JobManager
                 complexTarget.setStatus(Status.UPDATING);
             }
             
-            if (subtargets.isEmpty())
+            if (subactions.isEmpty())
             {
-                onCompleted(complexAction);
+                completeComplexTarget(complexTarget);
             }
             else
             {
-                submitComplexTargetAction(complexAction, subactions);
+                submitComplexTargetAction(complexAction, subactions, incremental);
             }
         }
         else
@@ -250,55 +277,58 @@ public class ThreadPoolJobManager implements JobManager
             ComplexTarget complexTarget = (ComplexTarget) action.getTarget();
             Action complexAction = complexTarget.getAction();
             log.info("submitting job for step {}", complexTarget);
+            startTimes.put(complexTarget.getName(), System.currentTimeMillis());
 
             /*
              * Create subtargets and check status for each subtarget. There may be a large
              * number of subtargets, so we update all subtargets statuses within a single
              * transaction.
              */
-            List<Target> subtargets = step.split(complexTarget);
-            List<Action> subactions = new ArrayList<Action>(subtargets.size());                      
-            for (Target subtarget : subtargets)
+            List<Target> subtargets = null;
+            if (complexTarget.getStatus() == Status.UPDATING 
+                && step instanceof IncrementalComplexStep)
             {
-                subtarget.setStep(step);
-                subtarget.setParent(complexTarget);
-                subtarget.setExecutionContext(context);
-                targetDao.refreshTargetStatus(subtarget);
-                
-                if (complexTarget.getStatus() == Status.UPDATING)
-                {
-                    subtarget.setStatus(Status.OUTDATED);
-                    targetDao.saveStatus(subtarget);
-                }
+                subtargets = ((IncrementalComplexStep) step).splitChanges(complexTarget, 
+                    targetDao.findSubtargetNames(complexTarget));
+            }
+            boolean incremental = (subtargets != null);
+            if (incremental)
+            {
+                log.info("updating {} subtargets of {}", subtargets.size(), complexTarget);
+            }
+            else
+            {
+                Map<String, TargetInfo> infos = targetDao.findSubtargetInfos(complexTarget);
+                complexTarget.setPreviousSubtargets(infos.values());
                 
                 /*
-                 * If the subtarget is up to date then the complex target must be incomplete, i.e.
-                 * a previous run of the make engine was interrupted. In this case, we leave the
-                 * subtarget unchanged.
+                 * A new split supersedes the subtargets of the previous run. An incomplete
+                 * target is split as in the interrupted run, so its compiled subtargets are
+                 * kept.
                  */
-                if (subtarget.getStatus() == Status.UPTODATE)
+                if (complexTarget.getStatus() != Status.INCOMPLETE)
                 {
-                    assert complexTarget.getStatus() == Status.INCOMPLETE;
-                    continue;
+                    int numDeleted = targetDao.deleteSubtargets(complexTarget);
+                    log.info("deleted {} previous subtargets of {}", numDeleted, complexTarget);
+                    infos.clear();
                 }
-
-                Action subaction = getAction(subtarget);
-                subaction.setTarget(subtarget);
-                subactions.add(subaction);
-                
-                /*
-                 * 
-                 */
-                if (subtarget.getStatus() == Status.MISSING)
+                if (step instanceof StreamingComplexStep)
                 {
-                    subtarget.setStatus(Status.CREATING);
+                    submitSubtargetStream(complexTarget, (StreamingComplexStep) step, infos);
+                    return;
                 }
-                else
+                subtargets = step.split(complexTarget);
+                targetDao.saveStatus(complexTarget);
+            }
+            targetDao.refreshSubtargetStatus(complexTarget, subtargets);
+            List<Action> subactions = new ArrayList<Action>(subtargets.size());                      
+            for (Target subtarget : subtargets)
+            {
+                Action subaction = prepareSubaction(complexTarget, subtarget, step);
+                if (subaction != null)
                 {
-                    subtarget.setStatus(Status.UPDATING);
+                    subactions.add(subaction);
                 }
-                targetDao.saveStatus(subtarget);
-                log.info("submitting job for {}", subtarget);
             }
             
             /*
@@ -309,27 +339,134 @@ public class ThreadPoolJobManager implements JobManager
                 //complexTarget.setStatus(Status.UPDATING);
             }
             
-            if (subtargets.isEmpty())
+            if (subactions.isEmpty())
             {
-                onCompleted(complexAction);
+                completeComplexTarget(complexTarget);
             }
             else
             {
-                submitComplexTargetAction(complexAction, subactions);
+                submitComplexTargetAction(complexAction, subactions, incremental);
+            }
+    }
+
+    /**
+     * Prepares the action for a subtarget of a complex step, with refreshed status.
+     * @return action, or null if the subtarget is up to date
+     */
+    private Action prepareSubaction(ComplexTarget complexTarget, Target subtarget, Step step)
+    {
+        subtarget.setStep(step);
+        subtarget.setParent(complexTarget);
+        subtarget.setExecutionContext(context);
+        subtarget.setPriority(complexTarget.getPriority());
+        
+        if (complexTarget.getStatus() == Status.UPDATING)
+        {
+            subtarget.setStatus(Status.OUTDATED);
+            statusWriter.save(subtarget);
+        }
+        
+        /*
+         * If the subtarget is up to date then the complex target must be incomplete, i.e.
+         * a previous run of the make engine was interrupted. In this case, we leave the
+         * subtarget unchanged.
+         */
+        if (subtarget.getStatus() == Status.UPTODATE)
+        {
+            assert complexTarget.getStatus() == Status.INCOMPLETE;
+            return null;
+        }
+
+        /*
+         * A subtarget of an incomplete target may have been compiled in the interrupted run
+         * even if its status is missing or creating, since statuses are saved in batches. 
+         * Such a subtarget is updated, i.e. cleaned before compiling. The status must be set
+         * before getting the action, which depends on the status.
+         */
+        if (subtarget.getStatus() == Status.MISSING 
+            && complexTarget.getStatus() != Status.INCOMPLETE)
+        {
+            subtarget.setStatus(Status.CREATING);
+        }
+        else
+        {
+            subtarget.setStatus(Status.UPDATING);
+        }
+        Action subaction = getAction(subtarget);
+        subaction.setTarget(subtarget);
+        statusWriter.save(subtarget);
+        log.info("submitting job for {}", subtarget);
+        return subaction;
+    }
+
+    /**
+     * Submits each subtarget of a streaming complex step as soon as the step has produced it.
+     * The pending subtargets are counted up while submitting, starting with one extra count
+     * for the split itself, which is counted down at the end, so that the complex target
+     * cannot be completed before all subtargets are known.
+     */
+    @SuppressWarnings("unchecked")
+    private void submitSubtargetStream(ComplexTarget complexTarget, StreamingComplexStep step,
+        Map<String, TargetInfo> infos)
+    {
+        complexTarget.setNumPendingSubtargets(1);
+        if (complexTarget.getStatus() == Status.UPDATING)
+        {
+            runComplexTargetAction(complexTarget);
+            if (executor.isShutdown())
+            {
+                return;
+            }
+        }
+
+        int numSubtargets = 0;
+        Iterator<Target> it = step.splitIterator(complexTarget);
+        targetDao.saveStatus(complexTarget);
+        while (it.hasNext())
+        {
+            Target subtarget = it.next();
+            targetDao.refreshSubtargetStatus(complexTarget, subtarget, infos);
+            Action subaction = prepareSubaction(complexTarget, subtarget, step);
+            if (subaction != null)
+            {
+                complexTarget.addPendingSubtarget();
+                executor.submit(subaction, subaction);
+                numSubtargets++;
             }
+        }
+        log.info("submitted {} subtargets of {}", numSubtargets, complexTarget);
+        
+        if (complexTarget.onSubtargetCompleted())
+        {
+            completeComplexTarget(complexTarget);
+        }
     }
 
-    private void submitComplexTargetAction(Action complexAction, List<Action> subactions)
+    private void completeComplexTarget(ComplexTarget complexTarget)
+    {
+        Long startTime = startTimes.remove(complexTarget.getName());
+        if (startTime != null)
+        {
+            complexTarget.getInfo().setDuration(System.currentTimeMillis() - startTime);
+        }
+        statusWriter.flush();
+        complexTarget.setStatus(Status.COMPLETED);
+        onCompleted(complexTarget.getAction());
+    }
+
+    private void submitComplexTargetAction(Action complexAction, List<Action> subactions,
+        boolean incremental)
     {
         ComplexTarget complexTarget = (ComplexTarget) complexAction.getTarget();
         
-        subtargetMap.put(complexTarget.getName(), subactions.size());
+        complexTarget.setNumPendingSubtargets(subactions.size());
     
         /*
          * For an updating complex target, we need to run the clean method before updating
-         * the subtargets.
+         * the subtargets, unless only the outdated subtargets are updated, each of which
+         * is cleaned individually.
          */
-        if (complexTarget.getStatus() == Status.UPDATING)
+        if (complexTarget.getStatus() == Status.UPDATING && !incremental)
         {
             runComplexTargetAction(complexTarget);
         }
@@ -361,12 +498,14 @@ public class ThreadPoolJobManager implements JobManager
 
     /**
      * Callback on action completion. For the last subtarget of a complex target, this will
-     * trigger a completion event for the complex target.
+     * trigger a completion event for the complex target. This method is called concurrently
+     * by the worker threads. The pending subtargets are counted down atomically, so exactly
+     * one thread completes the complex target.
      * @param r
      * @param t
      */
     @SuppressWarnings("unchecked")
-    protected synchronized void afterExecute(Runnable r, Throwable t)
+    protected void afterExecute(Runnable r, Throwable t)
     {
         Future<Action> future = (Future<Action>) r;
         try
@@ -377,13 +516,9 @@ public class ThreadPoolJobManager implements JobManager
             ComplexTarget parent = target.getParent();
             if (parent != null)
             {
-                String parentName = parent.getName();
-                int numPendingSubtargets = subtargetMap.get(parentName) - 1;
-                subtargetMap.put(parentName, numPendingSubtargets);
-                if (numPendingSubtargets == 0)
+                if (parent.onSubtargetCompleted())
                 {
-                    parent.setStatus(Status.COMPLETED);
-                    onCompleted(parent.getAction());
+                    completeComplexTarget(parent);
                 }
             }
             else
@@ -467,6 +602,22 @@ public class ThreadPoolJobManager implements JobManager
         return action;
     }
 
+    /**
+     * Saves the status of a compiled target. The status of a subtarget is saved in the next
+     * batch, the status of any other target is saved immediately.
+     */
+    private void saveStatus(Target target)
+    {
+        if (target.getParent() == null)
+        {
+            targetDao.saveStatus(target);
+        }
+        else
+        {
+            statusWriter.save(target);
+        }
+    }
+
     /**
      * Returns a runnable for creating this target, when it does not exist.
      * @return  creating action
@@ -480,6 +631,7 @@ public class ThreadPoolJobManager implements JobManager
             @Override
             public void run()
             {
+                long start = System.currentTimeMillis();
                 Step step = target.getStep();
                 if (step == null) {
                     target.compile();
@@ -487,8 +639,9 @@ public class ThreadPoolJobManager implements JobManager
                 else {
                     step.compile(target);
                 }
+                target.getInfo().setDuration(System.currentTimeMillis() - start);
                 target.setStatus(UPTODATE);
-                targetDao.saveStatus(target);
+                saveStatus(target);
             }
 
         };
@@ -519,10 +672,12 @@ public class ThreadPoolJobManager implements JobManager
                         complexStep.cleanAll(target);
                     }
                     else {
+                        long start = System.currentTimeMillis();
                         step.clean(target);
                         step.compile(target);
+                        target.getInfo().setDuration(System.currentTimeMillis() - start);
                         target.setStatus(UPTODATE);
-                        targetDao.saveStatus(target);
+                        saveStatus(target);
                     }
                 }
             }
@@ -30,6 +30,7 @@ public class TurnRestriction
     private NomLink fromLink;
     private NomLink toLink;
     private int type;
+    private long sourceId;
 
     public TurnRestriction()
     {
@@ -93,4 +94,14 @@ public class TurnRestriction
     {
         this.type = type;
     }
+
+    public long getSourceId()
+    {
+        return sourceId;
+    }
+
+    public void setSourceId(long sourceId)
+    {
+        this.sourceId = sourceId;
+    }
 }
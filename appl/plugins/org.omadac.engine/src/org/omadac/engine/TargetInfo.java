@@ -29,6 +29,12 @@ public class TargetInfo
     private String name;
     private Status status;
     
+    /** Compilation time of the last run in milliseconds, or null if unknown. */
+    private Long duration;
+    
+    /** Weight per subtarget of the last split of a complex target, or null if unknown. */
+    private Long rangeWeight;
+    
     public TargetInfo()
     {        
     }
@@ -58,4 +64,24 @@ public class TargetInfo
     {
         this.status = status;
     }
+
+    public Long getDuration()
+    {
+        return duration;
+    }
+
+    public void setDuration(Long duration)
+    {
+        this.duration = duration;
+    }
+
+    public Long getRangeWeight()
+    {
+        return rangeWeight;
+    }
+
+    public void setRangeWeight(Long rangeWeight)
+    {
+        this.rangeWeight = rangeWeight;
+    }
 }
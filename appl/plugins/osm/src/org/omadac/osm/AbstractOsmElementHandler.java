@@ -23,6 +23,14 @@ import org.omadac.osm.jaxb.Node;
 import org.omadac.osm.jaxb.Relation;
 import org.omadac.osm.jaxb.Way;
 
+/**
+ * Base class for handlers working on JAXB elements. Buffers received from the
+ * {@link OsmCursorParser} are converted to JAXB elements, so that subclasses can be used with
+ * either parser. Subclasses may override the buffer methods to avoid this conversion.
+ *
+ * @author hwellmann
+ *
+ */
 abstract public class AbstractOsmElementHandler implements OsmElementHandler
 {
     @Override
@@ -39,6 +47,24 @@ abstract public class AbstractOsmElementHandler implements OsmElementHandler
             handleBounds((Bounds) elem.getValue());
     }
 
+    @Override
+    public void handleNode(NodeBuffer node)
+    {
+        handleNode(node.toNode());
+    }
+
+    @Override
+    public void handleWay(WayBuffer way)
+    {
+        handleWay(way.toWay());
+    }
+
+    @Override
+    public void handleRelation(RelationBuffer relation)
+    {
+        handleRelation(relation.toRelation());
+    }
+
     abstract protected void handleNode(Node node);
     abstract protected void handleWay(Way way);
     abstract protected void handleRelation(Relation relation);
@@ -0,0 +1,100 @@
+/*
+ *    Omadac - The Open Map Database Compiler
+ *    http://omadac.org
+ * 
+ *    (C) 2010, Harald Wellmann and Contributors
+ *
+ *    This library is free software; you can redistribute it and/or
+ *    modify it under the terms of the GNU Lesser General Public
+ *    License as published by the Free Software Foundation;
+ *    version 2.1 of the License.
+ *
+ *    This library is distributed in the hope that it will be useful,
+ *    but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ *    Lesser General Public License for more details.
+ */
+package org.omadac.osm;
+
+import org.omadac.config.jaxb.JdbcSettings;
+import org.omadac.loader.BinaryLoaderFileWriter.ColumnType;
+import org.omadac.loader.LoaderFileWriter;
+import org.omadac.loader.postgresql.PostgresqlCopyStreams;
+
+/**
+ * Streams OSM elements directly into the tables of the {@code osm} schema via PostgreSQL
+ * {@code COPY ... FROM STDIN}, one COPY stream per table. The rows are the same as in the
+ * loader files written by the superclass, but they never touch the disk. Each stream buffers
+ * at most {@code bufferSize} bytes before sending them to the server.
+ * 
+ * @author hwellmann
+ * 
+ */
+public class CopyOsmElementHandler extends LoaderFileOsmElementHandler
+{
+    private PostgresqlCopyStreams streams;
+
+    public CopyOsmElementHandler(JdbcSettings jdbc, String schemaName, int bufferSize,
+        boolean binary)
+    {
+        this(jdbc, schemaName, bufferSize, binary, null);
+    }
+
+    /**
+     * Creates a handler streaming into the given schema.
+     * @param tagDictionary  if not null, node and way tags are additionally streamed in
+     *                       integer-coded form, and the dictionary is streamed on closing
+     */
+    public CopyOsmElementHandler(JdbcSettings jdbc, String schemaName, int bufferSize,
+        boolean binary, TagDictionary tagDictionary)
+    {
+        super(binary, tagDictionary);
+        streams = new PostgresqlCopyStreams(jdbc, schemaName, bufferSize);
+        try
+        {
+            openWriters();
+        }
+        catch (RuntimeException exc)
+        {
+            streams.close();
+            throw exc;
+        }
+    }
+
+    @Override
+    protected LoaderFileWriter createTextWriter(String tableName)
+    {
+        return streams.open(tableName);
+    }
+
+    @Override
+    protected LoaderFileWriter createBinaryWriter(String tableName, ColumnType[] columnTypes)
+    {
+        return streams.openBinary(tableName, columnTypes);
+    }
+
+    /**
+     * Ends all COPY operations, committing the rows, and closes the connections.
+     */
+    @Override
+    public void close()
+    {
+        try
+        {
+            super.close();
+        }
+        finally
+        {
+            streams.close();
+        }
+    }
+
+    /**
+     * Cancels all COPY operations, discarding the rows, and closes the connections.
+     */
+    public void abort()
+    {
+        discardSortBuffers();
+        streams.close();
+    }
+}
@@ -0,0 +1,108 @@
+/*
+ *    Omadac - The Open Map Database Compiler
+ *    http://omadac.org
+ * 
+ *    (C) 2010, Harald Wellmann and Contributors
+ *
+ *    This library is free software; you can redistribute it and/or
+ *    modify it under the terms of the GNU Lesser General Public
+ *    License as published by the Free Software Foundation;
+ *    version 2.1 of the License.
+ *
+ *    This library is distributed in the hope that it will be useful,
+ *    but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ *    Lesser General Public License for more details.
+ */
+package org.omadac.osm;
+
+import java.util.Arrays;
+import java.util.List;
+
+import org.omadac.osm.jaxb.Tag;
+
+/**
+ * Mutable buffer for the primitive fields of an OSM element. A parser reuses a single buffer
+ * per element type and refills it for each element, so handlers must copy any data they
+ * want to keep after the handler method returns.
+ *
+ * @author hwellmann
+ *
+ */
+public abstract class ElementBuffer
+{
+    protected static final int INITIAL_CAPACITY = 16;
+
+    private long id;
+
+    private int numTags;
+
+    private String[] tagKeys = new String[INITIAL_CAPACITY];
+
+    private String[] tagValues = new String[INITIAL_CAPACITY];
+
+    /**
+     * Resets the buffer before it is filled with the next element.
+     */
+    public void clear()
+    {
+        id = 0;
+        numTags = 0;
+    }
+
+    public long getId()
+    {
+        return id;
+    }
+
+    public void setId(long id)
+    {
+        this.id = id;
+    }
+
+    public void addTag(String key, String value)
+    {
+        if (numTags == tagKeys.length)
+        {
+            tagKeys = Arrays.copyOf(tagKeys, 2 * numTags);
+            tagValues = Arrays.copyOf(tagValues, 2 * numTags);
+        }
+        tagKeys[numTags] = key;
+        tagValues[numTags] = value;
+        numTags++;
+    }
+
+    public int getNumTags()
+    {
+        return numTags;
+    }
+
+    public String getTagKey(int index)
+    {
+        return tagKeys[index];
+    }
+
+    public String getTagValue(int index)
+    {
+        return tagValues[index];
+    }
+
+    protected void copyTagsFrom(List<Tag> tags)
+    {
+        for (Tag tag : tags)
+        {
+            addTag(tag.getK(), tag.getV());
+        }
+    }
+
+    protected void copyTagsTo(List<Tag> tags)
+    {
+        for (int i = 0; i < numTags; i++)
+        {
+            Tag tag = new Tag();
+            tag.setK(tagKeys[i]);
+            tag.setV(tagValues[i]);
+            tags.add(tag);
+        }
+    }
+}
@@ -0,0 +1,112 @@
+/*
+ *    Omadac - The Open Map Database Compiler
+ *    http://omadac.org
+ * 
+ *    (C) 2010, Harald Wellmann and Contributors
+ *
+ *    This library is free software; you can redistribute it and/or
+ *    modify it under the terms of the GNU Lesser General Public
+ *    License as published by the Free Software Foundation;
+ *    version 2.1 of the License.
+ *
+ *    This library is distributed in the hope that it will be useful,
+ *    but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ *    Lesser General Public License for more details.
+ */
+package org.omadac.osm;
+
+import javax.xml.bind.JAXBElement;
+
+import org.omadac.loader.jmx.ImportMetrics;
+import org.omadac.loader.jmx.TransferCounter;
+import org.omadac.osm.jaxb.Node;
+import org.omadac.osm.jaxb.Relation;
+import org.omadac.osm.jaxb.Way;
+
+/**
+ * Counts the elements passed on to another handler in the {@link ImportMetrics}. The counts
+ * are published in batches, and finally by {@link #flush()}.
+ * 
+ * @author hwellmann
+ * 
+ */
+public class ElementCounter implements OsmElementHandler
+{
+    private static final int BATCH_SIZE = 4096;
+
+    private OsmElementHandler delegate;
+
+    private TransferCounter[] counters;
+
+    private int[] counts = new int[3];
+
+    public ElementCounter(OsmElementHandler delegate)
+    {
+        this.delegate = delegate;
+        ImportMetrics metrics = ImportMetrics.getInstance();
+        counters = new TransferCounter[] { metrics.getElementCounter("node"),
+            metrics.getElementCounter("way"), metrics.getElementCounter("relation") };
+    }
+
+    @Override
+    public void handleElement(JAXBElement<?> elem)
+    {
+        Class<?> type = elem.getDeclaredType();
+        if (type == Node.class)
+        {
+            count(0);
+        }
+        else if (type == Way.class)
+        {
+            count(1);
+        }
+        else if (type == Relation.class)
+        {
+            count(2);
+        }
+        delegate.handleElement(elem);
+    }
+
+    @Override
+    public void handleNode(NodeBuffer node)
+    {
+        count(0);
+        delegate.handleNode(node);
+    }
+
+    @Override
+    public void handleWay(WayBuffer way)
+    {
+        count(1);
+        delegate.handleWay(way);
+    }
+
+    @Override
+    public void handleRelation(RelationBuffer relation)
+    {
+        count(2);
+        delegate.handleRelation(relation);
+    }
+
+    private void count(int type)
+    {
+        if (++counts[type] == BATCH_SIZE)
+        {
+            counters[type].add(0, BATCH_SIZE);
+            counts[type] = 0;
+        }
+    }
+
+    /**
+     * Publishes the remaining counts.
+     */
+    public void flush()
+    {
+        for (int type = 0; type < counts.length; type++)
+        {
+            counters[type].add(0, counts[type]);
+            counts[type] = 0;
+        }
+    }
+}
@@ -0,0 +1,327 @@
+/*
+ *    Omadac - The Open Map Database Compiler
+ *    http://omadac.org
+ * 
+ *    (C) 2011, Harald Wellmann and Contributors
+ *
+ *    This library is free software; you can redistribute it and/or
+ *    modify it under the terms of the GNU Lesser General Public
+ *    License as published by the Free Software Foundation;
+ *    version 2.1 of the License.
+ *
+ *    This library is distributed in the hope that it will be useful,
+ *    but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ *    Lesser General Public License for more details.
+ */
+package org.omadac.osm;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import javax.xml.bind.JAXBElement;
+
+import org.omadac.config.OmadacException;
+import org.omadac.osm.jaxb.Node;
+import org.omadac.osm.jaxb.Relation;
+import org.omadac.osm.jaxb.Way;
+import org.omadac.osm.pbf.PbfElementBlock;
+
+/**
+ * Dispatches the elements of a single parser pass to several handlers, each running on its
+ * own thread, so that one read of the input feeds loader files, the node location store and
+ * any other sink in parallel.
+ * <p>
+ * Elements are copied to batches, JAXB elements included, so that the handlers always 
+ * receive buffers. Each full batch is offered to a bounded queue per handler.
+ * The parser blocks when the queue of the slowest handler is full, so memory usage is 
+ * bounded by the queue capacity times the batch size. Each handler receives the elements in
+ * their original order. The handlers need not be thread-safe, but must not share state with
+ * each other.
+ * <p>
+ * When a handler fails, the next batch published by the parser throws an exception, so that
+ * parsing stops. {@link #close()} must be called after parsing, also on failure. It waits 
+ * until all handlers are finished and rethrows the first exception thrown by any handler.
+ * 
+ * @author hwellmann
+ * 
+ */
+public class ElementDispatcher implements OsmElementHandler
+{
+    public static final int DEFAULT_BATCH_SIZE = 1024;
+
+    public static final int DEFAULT_QUEUE_CAPACITY = 16;
+
+    private static final Batch END = new Batch();
+
+    private static final int NODE = 0;
+
+    private static final int WAY = 1;
+
+    private static final int RELATION = 2;
+
+    private List<BlockingQueue<Batch>> queues = new ArrayList<BlockingQueue<Batch>>();
+
+    private List<Future<Void>> consumers = new ArrayList<Future<Void>>();
+
+    private ExecutorService executor;
+
+    private int batchSize;
+
+    private Batch batch = new Batch();
+
+    private int lastType;
+
+    /** Set by a consumer when its handler has failed. */
+    private volatile boolean failed;
+
+    public ElementDispatcher(List<OsmElementHandler> handlers)
+    {
+        this(handlers, DEFAULT_BATCH_SIZE, DEFAULT_QUEUE_CAPACITY);
+    }
+
+    /**
+     * Creates a dispatcher and starts a thread for each handler.
+     * @param handlers       element handlers
+     * @param batchSize      number of elements per batch
+     * @param queueCapacity  maximum number of batches waiting for each handler
+     */
+    public ElementDispatcher(List<OsmElementHandler> handlers, int batchSize, 
+        int queueCapacity)
+    {
+        this.batchSize = batchSize;
+        executor = Executors.newFixedThreadPool(handlers.size());
+        for (OsmElementHandler handler : handlers)
+        {
+            BlockingQueue<Batch> queue = new ArrayBlockingQueue<Batch>(queueCapacity);
+            queues.add(queue);
+            consumers.add(executor.submit(new Consumer(handler, queue)));
+        }
+    }
+
+    /**
+     * Copies a JAXB node, way or relation to the current block, so that the handlers 
+     * receive it in a buffer. Other elements are ignored.
+     */
+    @Override
+    public void handleElement(JAXBElement<?> elem)
+    {
+        Class<?> type = elem.getDeclaredType();
+        if (type == Node.class)
+        {
+            getBlock(NODE).handleElement(elem);
+        }
+        else if (type == Way.class)
+        {
+            getBlock(WAY).handleElement(elem);
+        }
+        else if (type == Relation.class)
+        {
+            getBlock(RELATION).handleElement(elem);
+        }
+        else
+        {
+            return;
+        }
+        countBlockElement();
+    }
+
+    @Override
+    public void handleNode(NodeBuffer node)
+    {
+        getBlock(NODE).handleNode(node);
+        countBlockElement();
+    }
+
+    @Override
+    public void handleWay(WayBuffer way)
+    {
+        getBlock(WAY).handleWay(way);
+        countBlockElement();
+    }
+
+    @Override
+    public void handleRelation(RelationBuffer relation)
+    {
+        getBlock(RELATION).handleRelation(relation);
+        countBlockElement();
+    }
+
+    /**
+     * Returns the block for the next element of the given type. A block replays all nodes 
+     * before all ways and relations, so a new block is started when the element type 
+     * decreases, to preserve the element order.
+     */
+    private PbfElementBlock getBlock(int type)
+    {
+        if (batch.block != null && type < lastType)
+        {
+            publish();
+        }
+        if (batch.block == null)
+        {
+            batch.block = new PbfElementBlock();
+        }
+        lastType = type;
+        return batch.block;
+    }
+
+    private void countBlockElement()
+    {
+        if (++batch.size == batchSize)
+        {
+            publish();
+        }
+    }
+
+    /**
+     * Offers the current batch to all handlers, waiting for free space in each queue.
+     */
+    private void publish()
+    {
+        if (failed)
+        {
+            throw new OmadacException("element handler failed, parsing stopped");
+        }
+        if (batch.size > 0)
+        {
+            put(batch);
+        }
+        batch = new Batch();
+    }
+
+    private void put(Batch b)
+    {
+        try
+        {
+            for (BlockingQueue<Batch> queue : queues)
+            {
+                queue.put(b);
+            }
+        }
+        catch (InterruptedException exc)
+        {
+            Thread.currentThread().interrupt();
+            throw new OmadacException(exc);
+        }
+    }
+
+    /**
+     * Publishes the remaining elements and waits until all handlers are finished.
+     * @throws OmadacException  if a handler has failed
+     */
+    public void close()
+    {
+        if (!failed && batch.size > 0)
+        {
+            put(batch);
+        }
+        batch = new Batch();
+        put(END);
+        try
+        {
+            for (Future<Void> consumer : consumers)
+            {
+                consumer.get();
+            }
+        }
+        catch (InterruptedException exc)
+        {
+            Thread.currentThread().interrupt();
+            throw new OmadacException(exc);
+        }
+        catch (ExecutionException exc)
+        {
+            Throwable cause = exc.getCause();
+            if (cause instanceof RuntimeException)
+            {
+                throw (RuntimeException) cause;
+            }
+            if (cause instanceof Error)
+            {
+                throw (Error) cause;
+            }
+            throw new OmadacException(cause);
+        }
+        finally
+        {
+            executor.shutdown();
+        }
+    }
+
+    /**
+     * A batch of elements buffered in a block. Batches are immutable once published, so all
+     * handlers can replay the same batch.
+     */
+    private static class Batch
+    {
+        PbfElementBlock block;
+
+        int size;
+
+        void replay(OsmElementHandler handler)
+        {
+            block.replay(handler);
+        }
+    }
+
+    /**
+     * Replays the batches of one queue to its handler. After a failure, the dispatcher is 
+     * marked as failed and the remaining batches are discarded, so that the parser is not 
+     * blocked until it stops.
+     */
+    private class Consumer implements Callable<Void>
+    {
+        private OsmElementHandler handler;
+
+        private BlockingQueue<Batch> queue;
+
+        public Consumer(OsmElementHandler handler, BlockingQueue<Batch> queue)
+        {
+            this.handler = handler;
+            this.queue = queue;
+        }
+
+        @Override
+        public Void call() throws Exception
+        {
+            Throwable failure = null;
+            for (Batch b = queue.take(); b != END; b = queue.take())
+            {
+                if (failure == null)
+                {
+                    try
+                    {
+                        b.replay(handler);
+                    }
+                    catch (RuntimeException exc)
+                    {
+                        failure = exc;
+                        failed = true;
+                    }
+                    catch (Error exc)
+                    {
+                        failure = exc;
+                        failed = true;
+                    }
+                }
+            }
+            if (failure instanceof Error)
+            {
+                throw (Error) failure;
+            }
+            if (failure != null)
+            {
+                throw (RuntimeException) failure;
+            }
+            return null;
+        }
+    }
+}
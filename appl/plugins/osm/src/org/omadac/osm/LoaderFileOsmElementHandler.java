@@ -16,18 +16,23 @@
  */
 package org.omadac.osm;
 
+import java.io.DataInput;
+import java.io.DataOutput;
 import java.io.File;
 import java.io.FileNotFoundException;
-import java.io.UnsupportedEncodingException;
+import java.io.IOException;
+import java.util.Comparator;
 
 import org.omadac.config.OmadacException;
+import org.omadac.loader.BinaryLoaderFileWriter;
+import org.omadac.loader.BinaryLoaderFileWriter.ColumnType;
+import org.omadac.loader.ExternalSorter;
+import org.omadac.loader.ExternalSorter.RowCodec;
+import org.omadac.loader.ExternalSorter.RowHandler;
 import org.omadac.loader.LoaderFileWriter;
 import org.omadac.osm.jaxb.Bounds;
 import org.omadac.osm.jaxb.Node;
-import org.omadac.osm.jaxb.NodeRef;
 import org.omadac.osm.jaxb.Relation;
-import org.omadac.osm.jaxb.RelationMember;
-import org.omadac.osm.jaxb.Tag;
 import org.omadac.osm.jaxb.Way;
 
 public class LoaderFileOsmElementHandler extends AbstractOsmElementHandler
@@ -40,25 +45,178 @@ public class LoaderFileOsmElementHandler extends AbstractOsmElementHandler
     private LoaderFileWriter relationsWriter;
     private LoaderFileWriter relationTagsWriter;
     private LoaderFileWriter relationMembersWriter;
+    private LoaderFileWriter nodeTagCodesWriter;
+    private LoaderFileWriter wayTagCodesWriter;
+    private LoaderFileWriter tagDictWriter;
+
+    private NodeBuffer nodeBuffer = new NodeBuffer();
+    private WayBuffer wayBuffer = new WayBuffer();
+    private RelationBuffer relationBuffer = new RelationBuffer();
+
+    /** Column types of the tables which are written in binary format if enabled. */
+    private static final ColumnType[] NODES_COLUMNS = { ColumnType.INT8, ColumnType.INT4,
+        ColumnType.INT4 };
+    private static final ColumnType[] WAY_NODES_COLUMNS = { ColumnType.INT8, ColumnType.INT8,
+        ColumnType.INT8 };
+    private static final ColumnType[] RELATION_MEMBERS_COLUMNS = { ColumnType.INT8,
+        ColumnType.INT8, ColumnType.TEXT, ColumnType.INT2, ColumnType.INT4 };
 
     private String outputDir;
+
+    private boolean binary;
+    
+    private TagDictionary tagDictionary;
+    
+    private ExternalSorter<MemberRow> wayNodeSorter;
+    
+    private ExternalSorter<MemberRow> relationMemberSorter;
+    
+    /**
+     * Row of the way nodes or relation members. Way nodes have no role and no type.
+     */
+    private static class MemberRow
+    {
+        private long id;
+        private int seqNum;
+        private long ref;
+        private String role;
+        private int type;
+    }
+
+    private static final Comparator<MemberRow> MEMBER_ROW_ORDER = new Comparator<MemberRow>()
+    {
+        @Override
+        public int compare(MemberRow left, MemberRow right)
+        {
+            if (left.id != right.id)
+            {
+                return left.id < right.id ? -1 : 1;
+            }
+            return left.seqNum - right.seqNum;
+        }
+    };
+
+    private static final RowCodec<MemberRow> MEMBER_ROW_CODEC = new RowCodec<MemberRow>()
+    {
+        @Override
+        public void write(DataOutput out, MemberRow row) throws IOException
+        {
+            out.writeLong(row.id);
+            out.writeInt(row.seqNum);
+            out.writeLong(row.ref);
+            out.writeByte(row.type);
+            out.writeBoolean(row.role != null);
+            if (row.role != null)
+            {
+                out.writeUTF(row.role);
+            }
+        }
+
+        @Override
+        public MemberRow read(DataInput in) throws IOException
+        {
+            MemberRow row = new MemberRow();
+            row.id = in.readLong();
+            row.seqNum = in.readInt();
+            row.ref = in.readLong();
+            row.type = in.readByte();
+            if (in.readBoolean())
+            {
+                row.role = in.readUTF();
+            }
+            return row;
+        }
+
+        @Override
+        public int estimateSize(MemberRow row)
+        {
+            // object header, fields and list slot, plus the role string
+            int size = 56;
+            if (row.role != null)
+            {
+                size += 48 + 2 * row.role.length();
+            }
+            return size;
+        }
+    };
     
     public LoaderFileOsmElementHandler(String outputDir)
+    {
+        this(outputDir, false);
+    }
+    
+    /**
+     * Creates a handler writing loader files to the given directory.
+     * @param outputDir  output directory
+     * @param binary  write the nodes, way nodes and relation members in binary COPY format
+     */
+    public LoaderFileOsmElementHandler(String outputDir, boolean binary)
+    {
+        this(outputDir, binary, null);
+    }
+
+    /**
+     * Creates a handler writing loader files to the given directory.
+     * @param outputDir  output directory
+     * @param binary  write the nodes, way nodes and relation members in binary COPY format
+     * @param tagDictionary  if not null, node and way tags are additionally written in
+     *                       integer-coded form, and the dictionary is written on closing
+     */
+    public LoaderFileOsmElementHandler(String outputDir, boolean binary, 
+        TagDictionary tagDictionary)
     {
         this.outputDir = outputDir;
-        nodesWriter = createWriter("nodes.txt");
-        nodeTagsWriter = createWriter("node_tags.txt");
-        waysWriter = createWriter("ways.txt");
-        wayTagsWriter = createWriter("way_tags.txt");
-        wayNodesWriter = createWriter("way_nodes.txt");
-        relationsWriter = createWriter("relations.txt");
-        relationTagsWriter = createWriter("relation_tags.txt");
-        relationMembersWriter = createWriter("relation_members.txt");
+        this.binary = binary;
+        this.tagDictionary = tagDictionary;
+        openWriters();
+    }
+
+    /**
+     * Constructor for subclasses which do not write to files. Subclasses must call
+     * {@link #openWriters()} when ready.
+     */
+    protected LoaderFileOsmElementHandler(boolean binary, TagDictionary tagDictionary)
+    {
+        this.binary = binary;
+        this.tagDictionary = tagDictionary;
+    }
+
+    protected void openWriters()
+    {
+        nodesWriter = createWriter("nodes", NODES_COLUMNS);
+        nodeTagsWriter = createWriter("node_tags", null);
+        waysWriter = createWriter("ways", null);
+        wayTagsWriter = createWriter("way_tags", null);
+        wayNodesWriter = createWriter("way_nodes", WAY_NODES_COLUMNS);
+        relationsWriter = createWriter("relations", null);
+        relationTagsWriter = createWriter("relation_tags", null);
+        relationMembersWriter = createWriter("relation_members", RELATION_MEMBERS_COLUMNS);
+        if (tagDictionary != null)
+        {
+            nodeTagCodesWriter = createWriter("node_tag_codes", null);
+            wayTagCodesWriter = createWriter("way_tag_codes", null);
+            tagDictWriter = createWriter("tag_dict", null);
+        }
+    }
+
+    private LoaderFileWriter createWriter(String tableName, ColumnType[] columnTypes)
+    {
+        if (binary && columnTypes != null)
+        {
+            return createBinaryWriter(tableName, columnTypes);
+        }
+        return createTextWriter(tableName);
     }
     
-    private LoaderFileWriter createWriter(String fileName)
+    /**
+     * Creates the text format writer for the rows of the given table in the {@code osm}
+     * schema.
+     * @param tableName  table name
+     * @return writer
+     */
+    protected LoaderFileWriter createTextWriter(String tableName)
     {
-        File file = new File(outputDir, fileName);
+        File file = new File(outputDir, tableName + ".txt");
         try
         {
             LoaderFileWriter writer = new LoaderFileWriter(file);
@@ -68,14 +226,82 @@ public class LoaderFileOsmElementHandler extends AbstractOsmElementHandler
         {
             throw new OmadacException(exc);
         }
-        catch (UnsupportedEncodingException exc)
+    }
+    
+    /**
+     * Creates the binary format writer for the rows of the given table in the {@code osm}
+     * schema.
+     * @param tableName  table name
+     * @param columnTypes  column types of the table
+     * @return writer
+     */
+    protected LoaderFileWriter createBinaryWriter(String tableName, ColumnType[] columnTypes)
+    {
+        File file = new File(outputDir, tableName + BinaryLoaderFileWriter.EXTENSION);
+        try
+        {
+            return new BinaryLoaderFileWriter(file, columnTypes);
+        }
+        catch (FileNotFoundException exc)
         {
             throw new OmadacException(exc);
         }
     }
     
+    /**
+     * Writes the way nodes and the relation members sorted by id and sequence number, even if
+     * the input is not sorted. The rows are sorted with the given memory budget when the
+     * handler is closed, spilling sorted runs to the given directory.
+     * @param tmpDir  directory for temporary files
+     * @param memoryBudget  memory budget in bytes, shared by way nodes and relation members
+     */
+    public void setSortBuffers(File tmpDir, long memoryBudget)
+    {
+        wayNodeSorter = new ExternalSorter<MemberRow>(MEMBER_ROW_ORDER, MEMBER_ROW_CODEC, 
+            tmpDir, memoryBudget / 2);
+        relationMemberSorter = new ExternalSorter<MemberRow>(MEMBER_ROW_ORDER, 
+            MEMBER_ROW_CODEC, tmpDir, memoryBudget / 2);
+    }
+
+    /**
+     * Discards the rows collected for sorting, deleting all temporary files.
+     */
+    protected void discardSortBuffers()
+    {
+        if (wayNodeSorter != null)
+        {
+            wayNodeSorter.discard();
+            relationMemberSorter.discard();
+        }
+    }
+
+    private void writeSortedRows()
+    {
+        if (wayNodeSorter == null)
+        {
+            return;
+        }
+        wayNodeSorter.sort(new RowHandler<MemberRow>()
+        {
+            @Override
+            public void handleRow(MemberRow row)
+            {
+                writeWayNode(row.id, row.ref, row.seqNum);
+            }
+        });
+        relationMemberSorter.sort(new RowHandler<MemberRow>()
+        {
+            @Override
+            public void handleRow(MemberRow row)
+            {
+                writeRelationMember(row.id, row.ref, row.role, row.type, row.seqNum);
+            }
+        });
+    }
+
     public void close()
     {
+        writeSortedRows();
         nodesWriter.close();
         nodeTagsWriter.close();
         waysWriter.close();
@@ -84,24 +310,57 @@ public class LoaderFileOsmElementHandler extends AbstractOsmElementHandler
         relationsWriter.close();
         relationTagsWriter.close();
         relationMembersWriter.close();
+        if (tagDictionary != null)
+        {
+            nodeTagCodesWriter.close();
+            wayTagCodesWriter.close();
+            tagDictionary.write(tagDictWriter);
+            tagDictWriter.close();
+        }
     }
 
     @Override
     protected void handleNode(Node node)
     {
-        Long id = node.getId();
+        nodeBuffer.copyFrom(node);
+        handleNode(nodeBuffer);
+    }
+
+    @Override
+    public void handleNode(NodeBuffer node)
+    {
+        long id = node.getId();
         nodesWriter.writeColumn(id);
-        nodesWriter.writeColumn(transform(node.getLat()));
-        nodesWriter.writeColumn(transform(node.getLon()));
+        nodesWriter.writeColumn(transform(node.getLatitude()));
+        nodesWriter.writeColumn(transform(node.getLongitude()));
         nodesWriter.terminateRow();
         
-        for (Tag tag : node.getTag())
+        for (int i = 0; i < node.getNumTags(); i++)
         {
             nodeTagsWriter.writeColumn(id);
-            nodeTagsWriter.writeColumn(tag.getK());
-            nodeTagsWriter.writeColumn(tag.getV());
+            nodeTagsWriter.writeColumn(node.getTagKey(i));
+            nodeTagsWriter.writeColumn(node.getTagValue(i));
             nodeTagsWriter.terminateRow();
         }
+        if (tagDictionary != null)
+        {
+            writeTagCodes(nodeTagCodesWriter, node);
+        }
+    }
+
+    private void writeTagCodes(LoaderFileWriter writer, ElementBuffer element)
+    {
+        for (int i = 0; i < element.getNumTags(); i++)
+        {
+            String key = element.getTagKey(i);
+            String value = element.getTagValue(i);
+            int valueId = tagDictionary.getValueId(key, value);
+            writer.writeColumn(element.getId());
+            writer.writeColumn(tagDictionary.getKeyId(key));
+            writer.writeColumn(valueId);
+            writer.writeColumn(valueId == TagDictionary.UNCODED ? value : null);
+            writer.terminateRow();
+        }
     }
 
     private int transform(double d)
@@ -112,29 +371,54 @@ public class LoaderFileOsmElementHandler extends AbstractOsmElementHandler
     @Override
     protected void handleWay(Way way)
     {
-        Long id = way.getId();
+        wayBuffer.copyFrom(way);
+        handleWay(wayBuffer);
+    }
+
+    @Override
+    public void handleWay(WayBuffer way)
+    {
+        long id = way.getId();
         waysWriter.writeColumn(id);
         waysWriter.terminateRow();
 
-        for (Tag tag : way.getTag())
+        for (int i = 0; i < way.getNumTags(); i++)
         {
             wayTagsWriter.writeColumn(id);
-            wayTagsWriter.writeColumn(tag.getK());
-            wayTagsWriter.writeColumn(tag.getV());
+            wayTagsWriter.writeColumn(way.getTagKey(i));
+            wayTagsWriter.writeColumn(way.getTagValue(i));
             wayTagsWriter.terminateRow();
         }
+        if (tagDictionary != null)
+        {
+            writeTagCodes(wayTagCodesWriter, way);
+        }
         
-        int seqNum = 0;
-        for (NodeRef node : way.getNd())
+        for (int seqNum = 0; seqNum < way.getNumNodeRefs(); seqNum++)
         {
-            wayNodesWriter.writeColumn(id);
-            wayNodesWriter.writeColumn(node.getRef());
-            wayNodesWriter.writeColumn(seqNum);
-            wayNodesWriter.terminateRow();
-            seqNum++;
+            if (wayNodeSorter == null)
+            {
+                writeWayNode(id, way.getNodeRef(seqNum), seqNum);
+            }
+            else
+            {
+                MemberRow row = new MemberRow();
+                row.id = id;
+                row.ref = way.getNodeRef(seqNum);
+                row.seqNum = seqNum;
+                wayNodeSorter.add(row);
+            }
         }
     }
 
+    private void writeWayNode(long id, long nodeRef, int seqNum)
+    {
+        wayNodesWriter.writeColumn(id);
+        wayNodesWriter.writeColumn(nodeRef);
+        wayNodesWriter.writeColumn(seqNum);
+        wayNodesWriter.terminateRow();
+    }
+
     @Override
     protected void handleBounds(Bounds bounds)
     {
@@ -144,39 +428,53 @@ public class LoaderFileOsmElementHandler extends AbstractOsmElementHandler
     @Override
     protected void handleRelation(Relation relation)
     {
-        Long id = relation.getId();
+        relationBuffer.copyFrom(relation);
+        handleRelation(relationBuffer);
+    }
+
+    @Override
+    public void handleRelation(RelationBuffer relation)
+    {
+        long id = relation.getId();
         relationsWriter.writeColumn(id);
         relationsWriter.terminateRow();
 
-        for (Tag tag : relation.getTag())
+        for (int i = 0; i < relation.getNumTags(); i++)
         {
             relationTagsWriter.writeColumn(id);
-            relationTagsWriter.writeColumn(tag.getK());
-            relationTagsWriter.writeColumn(tag.getV());
+            relationTagsWriter.writeColumn(relation.getTagKey(i));
+            relationTagsWriter.writeColumn(relation.getTagValue(i));
             relationTagsWriter.terminateRow();
         }
         
-        int seqNum = 0;
-        for (RelationMember member : relation.getMember())
+        for (int seqNum = 0; seqNum < relation.getNumMembers(); seqNum++)
         {
-            relationMembersWriter.writeColumn(id);
-            relationMembersWriter.writeColumn(member.getRef());
-            relationMembersWriter.writeColumn(member.getRole());
-            relationMembersWriter.writeColumn(typeToNumber(member.getType()));
-            relationMembersWriter.writeColumn(seqNum);
-            relationMembersWriter.terminateRow();
-            seqNum++;
+            if (relationMemberSorter == null)
+            {
+                writeRelationMember(id, relation.getMemberRef(seqNum), 
+                    relation.getMemberRole(seqNum), relation.getMemberType(seqNum), seqNum);
+            }
+            else
+            {
+                MemberRow row = new MemberRow();
+                row.id = id;
+                row.ref = relation.getMemberRef(seqNum);
+                row.role = relation.getMemberRole(seqNum);
+                row.type = relation.getMemberType(seqNum);
+                row.seqNum = seqNum;
+                relationMemberSorter.add(row);
+            }
         }
     }
 
-    private int typeToNumber(String type)
+    private void writeRelationMember(long id, long memberRef, String role, int type, 
+        int seqNum)
     {
-        if ("node".equals(type))
-            return 1;
-        if ("way".equals(type))
-            return 2;
-        if ("relation".equals(type))
-            return 3;
-        throw new IllegalArgumentException(type);
+        relationMembersWriter.writeColumn(id);
+        relationMembersWriter.writeColumn(memberRef);
+        relationMembersWriter.writeColumn(role);
+        relationMembersWriter.writeColumn(type);
+        relationMembersWriter.writeColumn(seqNum);
+        relationMembersWriter.terminateRow();
     }
 }
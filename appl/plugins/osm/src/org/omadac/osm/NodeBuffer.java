@@ -0,0 +1,87 @@
+/*
+ *    Omadac - The Open Map Database Compiler
+ *    http://omadac.org
+ * 
+ *    (C) 2010, Harald Wellmann and Contributors
+ *
+ *    This library is free software; you can redistribute it and/or
+ *    modify it under the terms of the GNU Lesser General Public
+ *    License as published by the Free Software Foundation;
+ *    version 2.1 of the License.
+ *
+ *    This library is distributed in the hope that it will be useful,
+ *    but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ *    Lesser General Public License for more details.
+ */
+package org.omadac.osm;
+
+import org.omadac.osm.jaxb.Node;
+
+/**
+ * Mutable buffer for an OSM node.
+ *
+ * @author hwellmann
+ *
+ */
+public class NodeBuffer extends ElementBuffer
+{
+    private double latitude;
+
+    private double longitude;
+
+    @Override
+    public void clear()
+    {
+        super.clear();
+        latitude = 0;
+        longitude = 0;
+    }
+
+    public double getLatitude()
+    {
+        return latitude;
+    }
+
+    public void setLatitude(double latitude)
+    {
+        this.latitude = latitude;
+    }
+
+    public double getLongitude()
+    {
+        return longitude;
+    }
+
+    public void setLongitude(double longitude)
+    {
+        this.longitude = longitude;
+    }
+
+    /**
+     * Fills this buffer from a JAXB node.
+     * @param node  JAXB node
+     */
+    public void copyFrom(Node node)
+    {
+        clear();
+        setId(node.getId());
+        latitude = node.getLat();
+        longitude = node.getLon();
+        copyTagsFrom(node.getTag());
+    }
+
+    /**
+     * Creates a JAXB node from the contents of this buffer.
+     * @return new JAXB node
+     */
+    public Node toNode()
+    {
+        Node node = new Node();
+        node.setId(getId());
+        node.setLat(latitude);
+        node.setLon(longitude);
+        copyTagsTo(node.getTag());
+        return node;
+    }
+}
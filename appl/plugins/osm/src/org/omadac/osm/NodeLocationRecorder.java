@@ -0,0 +1,102 @@
+/*
+ *    Omadac - The Open Map Database Compiler
+ *    http://omadac.org
+ * 
+ *    (C) 2010, Harald Wellmann and Contributors
+ *
+ *    This library is free software; you can redistribute it and/or
+ *    modify it under the terms of the GNU Lesser General Public
+ *    License as published by the Free Software Foundation;
+ *    version 2.1 of the License.
+ *
+ *    This library is distributed in the hope that it will be useful,
+ *    but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ *    Lesser General Public License for more details.
+ */
+package org.omadac.osm;
+
+import javax.xml.bind.JAXBElement;
+
+import org.omadac.osm.jaxb.Node;
+import org.omadac.osm.location.NodeLocationStoreWriter;
+
+/**
+ * Records the location of each node in a node location store and passes all elements on to
+ * another handler, if any, so that the store is built in the same pass as the loader files or
+ * COPY streams.
+ * 
+ * @author hwellmann
+ * 
+ */
+public class NodeLocationRecorder implements OsmElementHandler
+{
+    private OsmElementHandler delegate;
+    
+    private NodeLocationStoreWriter writer;
+
+    public NodeLocationRecorder(OsmElementHandler delegate, NodeLocationStoreWriter writer)
+    {
+        this.delegate = delegate;
+        this.writer = writer;
+    }
+
+    /**
+     * Creates a recorder without a delegate, to be run as a separate handler of an 
+     * {@link ElementDispatcher}.
+     * @param writer  node location store writer
+     */
+    public NodeLocationRecorder(NodeLocationStoreWriter writer)
+    {
+        this(null, writer);
+    }
+
+    @Override
+    public void handleElement(JAXBElement<?> elem)
+    {
+        if (elem.getDeclaredType() == Node.class)
+        {
+            Node node = (Node) elem.getValue();
+            writer.put(node.getId(), transform(node.getLat()), 
+                transform(node.getLon()));
+        }
+        if (delegate != null)
+        {
+            delegate.handleElement(elem);
+        }
+    }
+
+    @Override
+    public void handleNode(NodeBuffer node)
+    {
+        writer.put(node.getId(), transform(node.getLatitude()), 
+            transform(node.getLongitude()));
+        if (delegate != null)
+        {
+            delegate.handleNode(node);
+        }
+    }
+
+    @Override
+    public void handleWay(WayBuffer way)
+    {
+        if (delegate != null)
+        {
+            delegate.handleWay(way);
+        }
+    }
+
+    @Override
+    public void handleRelation(RelationBuffer relation)
+    {
+        if (delegate != null)
+        {
+            delegate.handleRelation(relation);
+        }
+    }
+
+    private int transform(double d)
+    {
+        return (int) (d * 1E7);
+    }
+}
@@ -0,0 +1,483 @@
+/*
+ *    Omadac - The Open Map Database Compiler
+ *    http://omadac.org
+ * 
+ *    (C) 2010, Harald Wellmann and Contributors
+ *
+ *    This library is free software; you can redistribute it and/or
+ *    modify it under the terms of the GNU Lesser General Public
+ *    License as published by the Free Software Foundation;
+ *    version 2.1 of the License.
+ *
+ *    This library is distributed in the hope that it will be useful,
+ *    but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ *    Lesser General Public License for more details.
+ */
+package org.omadac.osm;
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+import java.sql.Types;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.Set;
+
+import javax.xml.bind.JAXBElement;
+
+import org.omadac.config.OmadacException;
+import org.omadac.osm.location.NodeLocationStoreWriter;
+import org.omadac.osm.jaxb.Node;
+import org.omadac.osm.jaxb.Relation;
+import org.omadac.osm.jaxb.Way;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Applies the elements of an OSM change file to the {@code osm} tables of an existing 
+ * database. Created and modified elements replace all rows of the given id, deleted elements
+ * remove them. 
+ * <p>
+ * Changes are collected in JDBC batches, which are executed when the batch size is reached, 
+ * when the element type or the action changes, or when an element occurs twice in the 
+ * same batch, so that the result is the same as applying the changes one by one. The type 
+ * and id of each changed element is recorded in the table {@code osm.changes}.
+ * <p>
+ * If the database has a tag dictionary, the integer-coded node and way tags are updated as
+ * well, and new keys and values are added to the dictionary. If a node location store is set,
+ * node changes are written through to the store as well. Unlike the database, the store is
+ * not transactional, so a change file which failed must be applied again.
+ * <p>
+ * The caller is responsible for committing the connection.
+ *
+ * @author hwellmann
+ *
+ */
+public class OsmChangeApplier implements OsmChangeHandler
+{
+    private static Logger log = LoggerFactory.getLogger(OsmChangeApplier.class);
+    
+    public static final int DEFAULT_BATCH_SIZE = 1000;
+    
+    private Connection dbc;
+    
+    private int batchSize;
+
+    private ElementStatements nodeStatements;
+    
+    private ElementStatements wayStatements;
+    
+    private ElementStatements relationStatements;
+    
+    private PreparedStatement changesInsert;
+
+    /** Tag dictionary of the database, or null. */
+    private TagDictionary tagDictionary;
+
+    /** Node location store to be updated, or null. */
+    private NodeLocationStoreWriter nodeLocations;
+    
+    private String schema;
+
+    /** Statements of the element type in the current batch, or null. */
+    private ElementStatements pending;
+
+    private Action action = Action.CREATE;
+    
+    private long[] numChanges = new long[Action.values().length];
+
+    private NodeBuffer nodeBuffer = new NodeBuffer();
+    
+    private WayBuffer wayBuffer = new WayBuffer();
+    
+    private RelationBuffer relationBuffer = new RelationBuffer();
+
+    /**
+     * Statements for deleting and inserting all rows of one element type.
+     */
+    private class ElementStatements
+    {
+        private int elementType;
+        private PreparedStatement[] deletes;
+        private PreparedStatement[] inserts;
+        private Set<Long> ids = new HashSet<Long>();
+
+        public ElementStatements(int elementType, String schema, String[] tables, 
+            String[] insertSqls) throws SQLException
+        {
+            this.elementType = elementType;
+            deletes = new PreparedStatement[tables.length];
+            for (int i = 0; i < tables.length; i++)
+            {
+                deletes[i] = dbc.prepareStatement(String.format(
+                    "delete from %s.%s where id = ?", schema, tables[i]));
+            }
+            inserts = new PreparedStatement[insertSqls.length];
+            for (int i = 0; i < insertSqls.length; i++)
+            {
+                inserts[i] = dbc.prepareStatement(String.format(insertSqls[i], schema));
+            }
+        }
+
+        /**
+         * Adds the deletion of all rows of the given element and records the change. The
+         * caller then adds the inserts, unless the element is deleted.
+         */
+        public void addDelete(long id) throws SQLException
+        {
+            for (PreparedStatement delete : deletes)
+            {
+                delete.setLong(1, id);
+                delete.addBatch();
+            }
+            changesInsert.setInt(1, elementType);
+            changesInsert.setLong(2, id);
+            changesInsert.addBatch();
+            ids.add(id);
+        }
+
+        public void execute() throws SQLException
+        {
+            for (PreparedStatement delete : deletes)
+            {
+                delete.executeBatch();
+            }
+            for (PreparedStatement insert : inserts)
+            {
+                insert.executeBatch();
+            }
+            changesInsert.executeBatch();
+            ids.clear();
+        }
+        
+        public void close() throws SQLException
+        {
+            for (PreparedStatement delete : deletes)
+            {
+                delete.close();
+            }
+            for (PreparedStatement insert : inserts)
+            {
+                insert.close();
+            }
+        }
+    }
+
+    /**
+     * Creates a change applier.
+     * @param dbc  database connection
+     * @param schema  schema of the OSM tables
+     * @param batchSize  maximum number of elements per batch
+     */
+    public OsmChangeApplier(Connection dbc, String schema, int batchSize)
+    {
+        this.dbc = dbc;
+        this.schema = schema;
+        this.batchSize = batchSize;
+        TagDictionary dict = TagDictionary.load(dbc, schema);
+        if (dict.size() > 0)
+        {
+            tagDictionary = dict;
+        }
+        try
+        {
+            nodeStatements = new ElementStatements(RelationBuffer.MEMBER_NODE, schema, 
+                withTagCodes(new String[] { "nodes", "node_tags" }, "node_tag_codes"), 
+                withTagCodes(new String[] { 
+                    "insert into %s.nodes (id, latitude, longitude) values (?, ?, ?)",
+                    "insert into %s.node_tags (id, k, v) values (?, ?, ?)" }, 
+                    "insert into %s.node_tag_codes (id, key_id, value_id, v) " 
+                    + "values (?, ?, ?, ?)"));
+            wayStatements = new ElementStatements(RelationBuffer.MEMBER_WAY, schema, 
+                withTagCodes(new String[] { "ways", "way_tags", "way_nodes" }, 
+                    "way_tag_codes"), 
+                withTagCodes(new String[] { 
+                    "insert into %s.ways (id) values (?)",
+                    "insert into %s.way_tags (id, k, v) values (?, ?, ?)",
+                    "insert into %s.way_nodes (id, node_id, sequence_id) values (?, ?, ?)" },
+                    "insert into %s.way_tag_codes (id, key_id, value_id, v) " 
+                    + "values (?, ?, ?, ?)"));
+            relationStatements = new ElementStatements(RelationBuffer.MEMBER_RELATION, schema, 
+                new String[] { "relations", "relation_tags", "relation_members" }, 
+                new String[] { 
+                    "insert into %s.relations (id) values (?)",
+                    "insert into %s.relation_tags (id, k, v) values (?, ?, ?)",
+                    "insert into %s.relation_members " 
+                    + "(id, member_id, member_role, member_type, sequence_id) "
+                    + "values (?, ?, ?, ?, ?)" });
+            changesInsert = dbc.prepareStatement(String.format(
+                "insert into %s.changes (element_type, id) values (?, ?)", schema));
+        }
+        catch (SQLException exc)
+        {
+            throw new OmadacException(exc);
+        }
+    }
+
+    /**
+     * Sets a node location store with the dense layout, to be updated with the node changes.
+     * @param nodeLocations  node location store, to be closed by the caller
+     */
+    public void setNodeLocations(NodeLocationStoreWriter nodeLocations)
+    {
+        this.nodeLocations = nodeLocations;
+    }
+
+    /**
+     * Appends the given table or statement if there is a tag dictionary.
+     */
+    private String[] withTagCodes(String[] items, String tagCodesItem)
+    {
+        if (tagDictionary == null)
+        {
+            return items;
+        }
+        String[] result = Arrays.copyOf(items, items.length + 1);
+        result[items.length] = tagCodesItem;
+        return result;
+    }
+
+    @Override
+    public void startAction(Action newAction)
+    {
+        if (newAction != action)
+        {
+            flush();
+            action = newAction;
+        }
+    }
+
+    @Override
+    public void handleElement(JAXBElement<?> elem)
+    {
+        Class<?> type = elem.getDeclaredType();
+        if (type == Node.class)
+        {
+            nodeBuffer.copyFrom((Node) elem.getValue());
+            handleNode(nodeBuffer);
+        }
+        else if (type == Way.class)
+        {
+            wayBuffer.copyFrom((Way) elem.getValue());
+            handleWay(wayBuffer);
+        }
+        else if (type == Relation.class)
+        {
+            relationBuffer.copyFrom((Relation) elem.getValue());
+            handleRelation(relationBuffer);
+        }
+    }
+
+    @Override
+    public void handleNode(NodeBuffer node)
+    {
+        try
+        {
+            long id = node.getId();
+            startElement(nodeStatements, id);
+            if (action == Action.DELETE)
+            {
+                if (nodeLocations != null)
+                {
+                    nodeLocations.remove(id);
+                }
+            }
+            else
+            {
+                int latitude = transform(node.getLatitude());
+                int longitude = transform(node.getLongitude());
+                PreparedStatement insert = nodeStatements.inserts[0];
+                insert.setLong(1, id);
+                insert.setInt(2, latitude);
+                insert.setInt(3, longitude);
+                insert.addBatch();
+                if (nodeLocations != null)
+                {
+                    nodeLocations.put(id, latitude, longitude);
+                }
+                addTags(nodeStatements.inserts[1], node);
+                if (tagDictionary != null)
+                {
+                    addTagCodes(nodeStatements.inserts[2], node);
+                }
+            }
+        }
+        catch (SQLException exc)
+        {
+            throw new OmadacException(exc);
+        }
+    }
+
+    @Override
+    public void handleWay(WayBuffer way)
+    {
+        try
+        {
+            long id = way.getId();
+            startElement(wayStatements, id);
+            if (action != Action.DELETE)
+            {
+                PreparedStatement insert = wayStatements.inserts[0];
+                insert.setLong(1, id);
+                insert.addBatch();
+                addTags(wayStatements.inserts[1], way);
+                
+                insert = wayStatements.inserts[2];
+                for (int seqNum = 0; seqNum < way.getNumNodeRefs(); seqNum++)
+                {
+                    insert.setLong(1, id);
+                    insert.setLong(2, way.getNodeRef(seqNum));
+                    insert.setLong(3, seqNum);
+                    insert.addBatch();
+                }
+                if (tagDictionary != null)
+                {
+                    addTagCodes(wayStatements.inserts[3], way);
+                }
+            }
+        }
+        catch (SQLException exc)
+        {
+            throw new OmadacException(exc);
+        }
+    }
+
+    @Override
+    public void handleRelation(RelationBuffer relation)
+    {
+        try
+        {
+            long id = relation.getId();
+            startElement(relationStatements, id);
+            if (action != Action.DELETE)
+            {
+                PreparedStatement insert = relationStatements.inserts[0];
+                insert.setLong(1, id);
+                insert.addBatch();
+                addTags(relationStatements.inserts[1], relation);
+
+                insert = relationStatements.inserts[2];
+                for (int seqNum = 0; seqNum < relation.getNumMembers(); seqNum++)
+                {
+                    insert.setLong(1, id);
+                    insert.setLong(2, relation.getMemberRef(seqNum));
+                    insert.setString(3, relation.getMemberRole(seqNum));
+                    insert.setInt(4, relation.getMemberType(seqNum));
+                    insert.setInt(5, seqNum);
+                    insert.addBatch();
+                }
+            }
+        }
+        catch (SQLException exc)
+        {
+            throw new OmadacException(exc);
+        }
+    }
+
+    private void startElement(ElementStatements statements, long id) throws SQLException
+    {
+        if (pending != statements || statements.ids.size() >= batchSize 
+            || statements.ids.contains(id))
+        {
+            flush();
+        }
+        pending = statements;
+        statements.addDelete(id);
+        numChanges[action.ordinal()]++;
+    }
+
+    private void addTags(PreparedStatement insert, ElementBuffer element) throws SQLException
+    {
+        for (int i = 0; i < element.getNumTags(); i++)
+        {
+            insert.setLong(1, element.getId());
+            insert.setString(2, element.getTagKey(i));
+            insert.setString(3, element.getTagValue(i));
+            insert.addBatch();
+        }
+    }
+
+    private void addTagCodes(PreparedStatement insert, ElementBuffer element) 
+        throws SQLException
+    {
+        for (int i = 0; i < element.getNumTags(); i++)
+        {
+            String key = element.getTagKey(i);
+            String value = element.getTagValue(i);
+            int valueId = tagDictionary.getValueId(key, value);
+            insert.setLong(1, element.getId());
+            insert.setInt(2, tagDictionary.getKeyId(key));
+            insert.setInt(3, valueId);
+            if (valueId == TagDictionary.UNCODED && value.length() > 0)
+            {
+                insert.setString(4, value);
+            }
+            else
+            {
+                insert.setNull(4, Types.VARCHAR);
+            }
+            insert.addBatch();
+        }
+    }
+
+    private int transform(double d)
+    {
+        return (int) (d * 1E7);
+    }
+
+    /**
+     * Executes the pending batch.
+     */
+    public void flush()
+    {
+        if (pending == null)
+        {
+            return;
+        }
+        try
+        {
+            pending.execute();
+            pending = null;
+        }
+        catch (SQLException exc)
+        {
+            throw new OmadacException(exc);
+        }
+    }
+
+    /**
+     * Executes the pending batch, stores new tag dictionary entries and closes all 
+     * statements. The connection remains open.
+     */
+    public void close()
+    {
+        flush();
+        if (tagDictionary != null)
+        {
+            tagDictionary.insert(dbc, schema);
+        }
+        try
+        {
+            nodeStatements.close();
+            wayStatements.close();
+            relationStatements.close();
+            changesInsert.close();
+        }
+        catch (SQLException exc)
+        {
+            throw new OmadacException(exc);
+        }
+        log.info("applied {} creations, {} modifications, {} deletions", new Object[] { 
+            numChanges[Action.CREATE.ordinal()], numChanges[Action.MODIFY.ordinal()], 
+            numChanges[Action.DELETE.ordinal()] });
+    }
+
+    /**
+     * Returns the number of elements changed by the given action so far.
+     */
+    public long getNumChanges(Action changeAction)
+    {
+        return numChanges[changeAction.ordinal()];
+    }
+}
@@ -0,0 +1,39 @@
+/*
+ *    Omadac - The Open Map Database Compiler
+ *    http://omadac.org
+ * 
+ *    (C) 2010, Harald Wellmann and Contributors
+ *
+ *    This library is free software; you can redistribute it and/or
+ *    modify it under the terms of the GNU Lesser General Public
+ *    License as published by the Free Software Foundation;
+ *    version 2.1 of the License.
+ *
+ *    This library is distributed in the hope that it will be useful,
+ *    but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ *    Lesser General Public License for more details.
+ */
+package org.omadac.osm;
+
+/**
+ * Receives the elements of an OSM change file ({@code .osc}). Before the elements of each
+ * {@code <create>}, {@code <modify>} or {@code <delete>} section, the {@link OsmCursorParser}
+ * announces the action which applies to them.
+ *
+ * @author hwellmann
+ *
+ */
+public interface OsmChangeHandler extends OsmElementHandler
+{
+    enum Action
+    {
+        CREATE, MODIFY, DELETE
+    }
+
+    /**
+     * Sets the action for the following elements.
+     * @param action  change action
+     */
+    void startAction(Action action);
+}
@@ -0,0 +1,267 @@
+/*
+ *    Omadac - The Open Map Database Compiler
+ *    http://omadac.org
+ * 
+ *    (C) 2010, Harald Wellmann and Contributors
+ *
+ *    This library is free software; you can redistribute it and/or
+ *    modify it under the terms of the GNU Lesser General Public
+ *    License as published by the Free Software Foundation;
+ *    version 2.1 of the License.
+ *
+ *    This library is distributed in the hope that it will be useful,
+ *    but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ *    Lesser General Public License for more details.
+ */
+package org.omadac.osm;
+
+import java.io.BufferedInputStream;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+
+import javax.xml.stream.XMLInputFactory;
+import javax.xml.stream.XMLStreamConstants;
+import javax.xml.stream.XMLStreamException;
+import javax.xml.stream.XMLStreamReader;
+
+import org.omadac.config.OmadacException;
+
+/**
+ * Parses an OSM XML file with a StAX cursor and passes the primitive element fields to an
+ * {@link OsmElementHandler}. Unlike {@link OsmStreamingParser}, this parser does not create
+ * any objects per element: the same node, way and relation buffers are refilled for each
+ * element.
+ * <p>
+ * OSM change files with an {@code <osmChange>} root element are accepted if the handler is
+ * an {@link OsmChangeHandler}.
+ *
+ * @author hwellmann
+ *
+ */
+public class OsmCursorParser
+{
+    private static final int BUFFER_SIZE = 1 << 16;
+
+    private OsmElementHandler handler;
+
+    private NodeBuffer node = new NodeBuffer();
+
+    private WayBuffer way = new WayBuffer();
+
+    private RelationBuffer relation = new RelationBuffer();
+
+    /** Set when parsing a change file. */
+    private OsmChangeHandler changeHandler;
+
+    /** Buffer of the top-level element currently being parsed, or null. */
+    private ElementBuffer current;
+
+    public OsmCursorParser(OsmElementHandler handler)
+    {
+        this.handler = handler;
+    }
+
+    public void parseXml(String fileName) throws IOException, XMLStreamException
+    {
+        InputStream is = new BufferedInputStream(new FileInputStream(fileName), BUFFER_SIZE);
+        try
+        {
+            parseXml(is);
+        }
+        finally
+        {
+            is.close();
+        }
+    }
+
+    public void parseXml(InputStream is) throws XMLStreamException
+    {
+        XMLInputFactory factory = XMLInputFactory.newInstance();
+        factory.setProperty(XMLInputFactory.SUPPORT_DTD, false);
+        XMLStreamReader reader = factory.createXMLStreamReader(is);
+        try
+        {
+            reader.nextTag();
+            String root = reader.getLocalName();
+            changeHandler = null;
+            if ("osmChange".equals(root))
+            {
+                if (!(handler instanceof OsmChangeHandler))
+                {
+                    throw new OmadacException("OSM change files require an OsmChangeHandler");
+                }
+                changeHandler = (OsmChangeHandler) handler;
+            }
+            else if (!"osm".equals(root))
+            {
+                throw new OmadacException("expected <osm> or <osmChange> root element");
+            }
+
+            current = null;
+            while (reader.hasNext())
+            {
+                int event = reader.next();
+                if (event == XMLStreamConstants.START_ELEMENT)
+                {
+                    startElement(reader);
+                }
+                else if (event == XMLStreamConstants.END_ELEMENT)
+                {
+                    endElement(reader);
+                }
+            }
+        }
+        finally
+        {
+            reader.close();
+        }
+    }
+
+    private void startElement(XMLStreamReader reader)
+    {
+        String name = reader.getLocalName();
+        if ("nd".equals(name))
+        {
+            if (current == way)
+            {
+                way.addNodeRef(Long.parseLong(reader.getAttributeValue(null, "ref")));
+            }
+        }
+        else if ("tag".equals(name))
+        {
+            if (current != null)
+            {
+                current.addTag(reader.getAttributeValue(null, "k"),
+                    reader.getAttributeValue(null, "v"));
+            }
+        }
+        else if ("node".equals(name))
+        {
+            readNode(reader);
+        }
+        else if ("way".equals(name))
+        {
+            way.clear();
+            way.setId(readId(reader));
+            current = way;
+        }
+        else if ("member".equals(name))
+        {
+            if (current == relation)
+            {
+                readMember(reader);
+            }
+        }
+        else if ("relation".equals(name))
+        {
+            relation.clear();
+            relation.setId(readId(reader));
+            current = relation;
+        }
+        else if (changeHandler != null)
+        {
+            startAction(name);
+        }
+    }
+
+    private void startAction(String name)
+    {
+        if ("create".equals(name))
+        {
+            changeHandler.startAction(OsmChangeHandler.Action.CREATE);
+        }
+        else if ("modify".equals(name))
+        {
+            changeHandler.startAction(OsmChangeHandler.Action.MODIFY);
+        }
+        else if ("delete".equals(name))
+        {
+            changeHandler.startAction(OsmChangeHandler.Action.DELETE);
+        }
+    }
+
+    private void endElement(XMLStreamReader reader)
+    {
+        if (current == null)
+        {
+            return;
+        }
+
+        String name = reader.getLocalName();
+        if (current == node && "node".equals(name))
+        {
+            handler.handleNode(node);
+            current = null;
+        }
+        else if (current == way && "way".equals(name))
+        {
+            handler.handleWay(way);
+            current = null;
+        }
+        else if (current == relation && "relation".equals(name))
+        {
+            handler.handleRelation(relation);
+            current = null;
+        }
+    }
+
+    private void readNode(XMLStreamReader reader)
+    {
+        node.clear();
+        int numAttributes = reader.getAttributeCount();
+        for (int i = 0; i < numAttributes; i++)
+        {
+            String attribute = reader.getAttributeLocalName(i);
+            if ("id".equals(attribute))
+            {
+                node.setId(Long.parseLong(reader.getAttributeValue(i)));
+            }
+            else if ("lat".equals(attribute))
+            {
+                node.setLatitude(Double.parseDouble(reader.getAttributeValue(i)));
+            }
+            else if ("lon".equals(attribute))
+            {
+                node.setLongitude(Double.parseDouble(reader.getAttributeValue(i)));
+            }
+        }
+        current = node;
+    }
+
+    private long readId(XMLStreamReader reader)
+    {
+        String id = reader.getAttributeValue(null, "id");
+        if (id == null)
+        {
+            throw new OmadacException("missing id on <" + reader.getLocalName() + ">");
+        }
+        return Long.parseLong(id);
+    }
+
+    private void readMember(XMLStreamReader reader)
+    {
+        long ref = 0;
+        int type = 0;
+        String role = null;
+        int numAttributes = reader.getAttributeCount();
+        for (int i = 0; i < numAttributes; i++)
+        {
+            String attribute = reader.getAttributeLocalName(i);
+            if ("ref".equals(attribute))
+            {
+                ref = Long.parseLong(reader.getAttributeValue(i));
+            }
+            else if ("type".equals(attribute))
+            {
+                type = RelationBuffer.typeToNumber(reader.getAttributeValue(i));
+            }
+            else if ("role".equals(attribute))
+            {
+                role = reader.getAttributeValue(i);
+            }
+        }
+        relation.addMember(ref, type, role);
+    }
+}
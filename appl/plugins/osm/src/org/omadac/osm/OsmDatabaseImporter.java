@@ -16,17 +16,29 @@
  */
 package org.omadac.osm;
 
+import java.io.BufferedInputStream;
 import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
 import java.net.URL;
+import java.util.List;
+import java.util.zip.GZIPInputStream;
 
 import javax.persistence.EntityManager;
+import javax.xml.stream.XMLStreamException;
 
 import org.omadac.config.ConfigManager;
 import org.omadac.config.OmadacException;
+import org.omadac.config.jaxb.ImportSettings;
 import org.omadac.config.jaxb.JdbcSettings;
 import org.omadac.config.jaxb.OmadacSettings;
+import org.omadac.config.jaxb.OsmSettings;
 import org.omadac.config.jaxb.PostgresSettings;
+import org.omadac.jpa.JpaUtil;
+import org.omadac.loader.LoaderFileWriter;
 import org.omadac.loader.postgresql.PostgresqlFileImporter;
+import org.omadac.osm.location.NodeLocationStoreWriter;
 import org.omadac.sql.SqlSchemaCreator;
 import org.omadac.sql.postgres.PostgresAdminTool;
 import org.slf4j.Logger;
@@ -70,6 +82,13 @@ public class OsmDatabaseImporter implements Runnable
     @Override
     public void run()
     {
+        OsmSettings osm = config.getImport().getOsm();
+        if (osm != null && !osm.getChangeInput().isEmpty())
+        {
+            applyChanges(osm.getChangeInput());
+            return;
+        }
+        
         JdbcSettings jdbcSettings = config.getServer().getJdbc();
         targetHost = jdbcSettings.getServer();
         targetDb = jdbcSettings.getDatabase();
@@ -95,18 +114,152 @@ public class OsmDatabaseImporter implements Runnable
         schemaCreator.loadSchema(xmlUrl);
         schemaCreator.createTables();
 
-        osmImport = new PostgresqlFileImporter(config, em);
-        osmImport.setSchema("osm");
-        osmImport.run();
+        if (osm != null && Boolean.TRUE.equals(osm.isDirectCopy()))
+        {
+            copyOsmFile(osm, jdbcSettings);
+        }
+        else
+        {
+            osmImport = new PostgresqlFileImporter(config, em);
+            osmImport.setSchema("osm");
+            osmImport.run();
+        }
 
-        schemaCreator.createPrimaryKeys();
-        schemaCreator.createIndexes();
+        createPrimaryKeysAndIndexes(schemaCreator);
         
         engineSchemaCreator.run();
         
         enablePostgis(pgAdmin);
     }
 
+    /**
+     * Builds primary keys and indexes after the bulk load, concurrently if configured.
+     */
+    private void createPrimaryKeysAndIndexes(SqlSchemaCreator schemaCreator)
+    {
+        ImportSettings importSettings = config.getImport();
+        Integer indexThreads = importSettings.getIndexThreads();
+        int numThreads = (indexThreads == null) ? 1 : indexThreads;
+        schemaCreator.createPrimaryKeysAndIndexes(numThreads, 
+            importSettings.getMaintenanceWorkMem());
+    }
+
+    /**
+     * Enables sorting of way nodes and relation members if a sort memory budget is configured.
+     * Temporary files are written to a subdirectory of the OSM temporary directory.
+     */
+    static void configureSortBuffers(LoaderFileOsmElementHandler handler, OsmSettings osm)
+    {
+        Integer sortMemory = osm.getSortMemory();
+        if (sortMemory != null && sortMemory > 0)
+        {
+            handler.setSortBuffers(new File(osm.getTmpDir(), "sort"), 
+                sortMemory * 1024L * 1024L);
+        }
+    }
+
+    /**
+     * Parses the OSM input file and streams the rows directly into the database, without
+     * intermediate loader files.
+     */
+    private void copyOsmFile(OsmSettings osm, JdbcSettings jdbcSettings)
+    {
+        TagDictionary tagDictionary = Boolean.TRUE.equals(osm.isTagDictionary()) 
+            ? new TagDictionary() : null;
+        CopyOsmElementHandler handler = new CopyOsmElementHandler(jdbcSettings, "osm",
+            LoaderFileWriter.DEFAULT_BUFFER_SIZE, Boolean.TRUE.equals(osm.isBinaryCopy()),
+            tagDictionary);
+        configureSortBuffers(handler, osm);
+        try
+        {
+            new OsmFileParser(osm).parse(handler);
+        }
+        catch (RuntimeException exc)
+        {
+            handler.abort();
+            throw exc;
+        }
+        handler.close();
+    }
+
+    /**
+     * Applies the given change files to the existing database, each in a transaction of its
+     * own. The changed elements are added to those recorded by previous runs, which are
+     * cleared by the {@code OsmChanges} target once all targets using them have been updated.
+     * A configured node location store is updated as well, which requires the dense layout.
+     */
+    private void applyChanges(List<String> changeFiles)
+    {
+        String nodeLocations = config.getImport().getOsm().getNodeLocations();
+        NodeLocationStoreWriter locationWriter = null;
+        if (nodeLocations != null)
+        {
+            log.info("updating node locations in {}", nodeLocations);
+            locationWriter = NodeLocationStoreWriter.openForUpdate(new File(nodeLocations));
+        }
+        try
+        {
+            for (String changeFile : changeFiles)
+            {
+                applyChangeFile(changeFile, locationWriter);
+            }
+        }
+        finally
+        {
+            if (locationWriter != null)
+            {
+                locationWriter.close();
+            }
+        }
+    }
+
+    private void applyChangeFile(String changeFile, NodeLocationStoreWriter locationWriter)
+    {
+        log.info("applying {}", changeFile);
+        EntityManager changeEm = JpaUtil.getNewEntityManager();
+        try
+        {
+            OsmChangeApplier applier = new OsmChangeApplier(JpaUtil.getConnection(changeEm),
+                "osm", OsmChangeApplier.DEFAULT_BATCH_SIZE);
+            applier.setNodeLocations(locationWriter);
+            InputStream is = new BufferedInputStream(new FileInputStream(changeFile), 
+                1 << 16);
+            try
+            {
+                if (changeFile.endsWith(".gz"))
+                {
+                    is = new GZIPInputStream(is);
+                }
+                new OsmCursorParser(applier).parseXml(is);
+            }
+            finally
+            {
+                is.close();
+            }
+            applier.close();
+            changeEm.getTransaction().commit();
+        }
+        catch (IOException exc)
+        {
+            changeEm.getTransaction().rollback();
+            throw new OmadacException("error applying " + changeFile, exc);
+        }
+        catch (XMLStreamException exc)
+        {
+            changeEm.getTransaction().rollback();
+            throw new OmadacException("error applying " + changeFile, exc);
+        }
+        catch (RuntimeException exc)
+        {
+            changeEm.getTransaction().rollback();
+            throw exc;
+        }
+        finally
+        {
+            changeEm.close();
+        }
+    }
+
     private void enablePostgis(PostgresAdminTool pgadmin)
     {
         pgadmin.executeSql(targetHost, targetDb, "create language plpgsql");
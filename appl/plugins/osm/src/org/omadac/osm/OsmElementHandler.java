@@ -18,7 +18,33 @@ package org.omadac.osm;
 
 import javax.xml.bind.JAXBElement;
 
+/**
+ * Receives the elements of an OSM file from a parser. The JAXB based
+ * {@link OsmStreamingParser} calls {@link #handleElement(JAXBElement)}, while the
+ * {@link OsmCursorParser} passes reusable buffers to the remaining methods.
+ *
+ * @author hwellmann
+ *
+ */
 public interface OsmElementHandler
 {
     void handleElement(JAXBElement<?> elem);
+
+    /**
+     * Handles a node. The buffer is reused by the caller after this method returns.
+     * @param node  node buffer
+     */
+    void handleNode(NodeBuffer node);
+
+    /**
+     * Handles a way. The buffer is reused by the caller after this method returns.
+     * @param way  way buffer
+     */
+    void handleWay(WayBuffer way);
+
+    /**
+     * Handles a relation. The buffer is reused by the caller after this method returns.
+     * @param relation  relation buffer
+     */
+    void handleRelation(RelationBuffer relation);
 }
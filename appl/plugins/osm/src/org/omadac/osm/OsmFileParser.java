@@ -0,0 +1,258 @@
+/*
+ *    Omadac - The Open Map Database Compiler
+ *    http://omadac.org
+ * 
+ *    (C) 2010, Harald Wellmann and Contributors
+ *
+ *    This library is free software; you can redistribute it and/or
+ *    modify it under the terms of the GNU Lesser General Public
+ *    License as published by the Free Software Foundation;
+ *    version 2.1 of the License.
+ *
+ *    This library is distributed in the hope that it will be useful,
+ *    but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ *    Lesser General Public License for more details.
+ */
+package org.omadac.osm;
+
+import java.io.BufferedInputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.Arrays;
+
+import javax.xml.stream.XMLStreamException;
+
+import org.omadac.config.OmadacException;
+import org.omadac.config.jaxb.OsmFilterSettings;
+import org.omadac.config.jaxb.OsmSettings;
+import org.omadac.loader.jmx.ImportMetrics;
+import org.omadac.osm.filter.BoundingBox;
+import org.omadac.osm.filter.ElementSelector;
+import org.omadac.osm.filter.PolygonRegion;
+import org.omadac.osm.filter.Region;
+import org.omadac.osm.location.NodeLocationStoreWriter;
+import org.omadac.osm.pbf.OsmPbfParser;
+import org.omadac.osm.pbf.ParallelPbfParser;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Parses the OSM input file configured in the {@link OsmSettings}, selecting the parser by
+ * the file extension. Files ending in {@code .pbf} are read as OSM PBF, all other files are
+ * read as OSM XML. Both formats are parsed in parallel unless restricted to a single thread.
+ * 
+ * @author hwellmann
+ * 
+ */
+public class OsmFileParser
+{
+    private static Logger log = LoggerFactory.getLogger(OsmFileParser.class);
+
+    private static final int BUFFER_SIZE = 1 << 16;
+
+    private OsmSettings osm;
+
+    public OsmFileParser(OsmSettings osm)
+    {
+        this.osm = osm;
+    }
+
+    /**
+     * Parses the input file. If a node location store is configured, it is built in the same
+     * pass. If a filter is configured, the file is parsed twice, and only the elements 
+     * selected by the first pass are passed to the handler. An additional pass selects 
+     * the missing member ways of selected relations.
+     * @param handler  element handler
+     */
+    public void parse(OsmElementHandler handler)
+    {
+        OsmFilterSettings filter = osm.getFilter();
+        if (filter == null)
+        {
+            parseWithLocations(handler);
+            return;
+        }
+
+        log.info("selecting elements");
+        ElementSelector selector = new ElementSelector(getRegion(filter), filter.getTagKey());
+        parseFile(selector);
+        if (selector.startMemberPass())
+        {
+            log.info("selecting relation members");
+            parseFile(selector);
+        }
+        parseWithLocations(selector.createFilter(handler));
+    }
+
+    private Region getRegion(OsmFilterSettings filter)
+    {
+        if (filter.getPolygonFile() != null)
+        {
+            return PolygonRegion.read(new File(filter.getPolygonFile()));
+        }
+        if (filter.getBbox() != null)
+        {
+            return BoundingBox.parse(filter.getBbox());
+        }
+        return null;
+    }
+
+    private void parseWithLocations(OsmElementHandler handler)
+    {
+        ElementCounter counter = new ElementCounter(handler);
+        String nodeLocations = osm.getNodeLocations();
+        if (nodeLocations == null)
+        {
+            parseFile(counter);
+        }
+        else
+        {
+            log.info("storing node locations in {}", nodeLocations);
+            NodeLocationStoreWriter writer = new NodeLocationStoreWriter(new File(nodeLocations), 
+                Boolean.TRUE.equals(osm.isSparseNodeLocations()));
+            try
+            {
+                if (getParserThreads() > 1)
+                {
+                    // build the node location store in parallel to the handler
+                    ElementDispatcher dispatcher = new ElementDispatcher(Arrays
+                        .<OsmElementHandler> asList(counter, new NodeLocationRecorder(writer)));
+                    try
+                    {
+                        parseFile(dispatcher);
+                    }
+                    finally
+                    {
+                        dispatcher.close();
+                    }
+                }
+                else
+                {
+                    parseFile(new NodeLocationRecorder(counter, writer));
+                }
+            }
+            finally
+            {
+                writer.close();
+            }
+        }
+        counter.flush();
+    }
+    
+    private void parseFile(OsmElementHandler handler)
+    {
+        String osmFile = osm.getXmlInput();
+        ImportMetrics.getInstance().startInput(osmFile, new File(osmFile).length());
+        try
+        {
+            log.info("parsing {}", osmFile);
+            int numThreads = getParserThreads();
+            if (!isPbf(osmFile) && numThreads > 1)
+            {
+                new ParallelXmlParser(handler, numThreads).parseXml(osmFile);
+            }
+            else
+            {
+                parseStream(handler, osmFile, numThreads);
+            }
+            log.info("finished parsing");
+        }
+        catch (IOException exc)
+        {
+            throw new OmadacException(exc);
+        }
+        catch (XMLStreamException exc)
+        {
+            throw new OmadacException(exc);
+        }
+    }
+
+    private void parseStream(OsmElementHandler handler, String osmFile, int numThreads)
+        throws IOException, XMLStreamException
+    {
+        InputStream is = new BufferedInputStream(new ProgressInputStream(
+            new FileInputStream(osmFile)), BUFFER_SIZE);
+        try
+        {
+            if (!isPbf(osmFile))
+            {
+                new OsmCursorParser(handler).parseXml(is);
+            }
+            else if (numThreads > 1)
+            {
+                new ParallelPbfParser(handler, numThreads).parsePbf(is);
+            }
+            else
+            {
+                new OsmPbfParser(handler).parsePbf(is);
+            }
+        }
+        finally
+        {
+            is.close();
+        }
+    }
+
+    private static boolean isPbf(String fileName)
+    {
+        return fileName.toLowerCase().endsWith(".pbf");
+    }
+
+    private int getParserThreads()
+    {
+        Integer numThreads = osm.getParserThreads();
+        if (numThreads == null)
+        {
+            return Runtime.getRuntime().availableProcessors();
+        }
+        return numThreads;
+    }
+
+    /**
+     * Reports the number of bytes read from the input file to the {@link ImportMetrics}.
+     */
+    private static class ProgressInputStream extends FilterInputStream
+    {
+        private long bytesRead;
+
+        public ProgressInputStream(InputStream in)
+        {
+            super(in);
+        }
+
+        @Override
+        public int read() throws IOException
+        {
+            int b = super.read();
+            if (b >= 0)
+            {
+                bytesRead++;
+            }
+            return b;
+        }
+
+        @Override
+        public int read(byte[] b, int off, int len) throws IOException
+        {
+            int numBytes = super.read(b, off, len);
+            if (numBytes > 0)
+            {
+                bytesRead += numBytes;
+                ImportMetrics.getInstance().setBytesRead(bytesRead);
+            }
+            return numBytes;
+        }
+
+        @Override
+        public long skip(long n) throws IOException
+        {
+            long numBytes = super.skip(n);
+            bytesRead += numBytes;
+            return numBytes;
+        }
+    }
+}
@@ -16,13 +16,7 @@
  */
 package org.omadac.osm;
 
-import java.io.IOException;
-
-import javax.xml.bind.JAXBException;
-import javax.xml.stream.XMLStreamException;
-
 import org.omadac.config.ConfigManager;
-import org.omadac.config.OmadacException;
 import org.omadac.config.jaxb.OmadacSettings;
 import org.omadac.config.jaxb.OsmSettings;
 import org.slf4j.Logger;
@@ -38,30 +32,16 @@ public class OsmLoaderFileCreator implements Runnable
     public void run()
     {
         OsmSettings osm = config.getImport().getOsm();
-        String osmFile = osm.getXmlInput();
         String dumpDir = osm.getDumpDir();
 
-        LoaderFileOsmElementHandler handler = new LoaderFileOsmElementHandler(dumpDir);
-        OsmStreamingParser parser = new OsmStreamingParser(handler);
-        try
-        {
-            log.info("parsing {}", osmFile);
-            log.info("dumping to {}", dumpDir);
-            parser.parseXml(osmFile);
-            log.info("finished parsing");
-        }
-        catch (JAXBException exc)
-        {
-            throw new OmadacException(exc);
-        }
-        catch (IOException exc)
-        {
-            throw new OmadacException(exc);
-        }
-        catch (XMLStreamException exc)
-        {
-            throw new OmadacException(exc);
-        }
+        boolean binary = Boolean.TRUE.equals(osm.isBinaryCopy());
+        TagDictionary tagDictionary = Boolean.TRUE.equals(osm.isTagDictionary()) 
+            ? new TagDictionary() : null;
+        LoaderFileOsmElementHandler handler = new LoaderFileOsmElementHandler(dumpDir, binary,
+            tagDictionary);
+        OsmDatabaseImporter.configureSortBuffers(handler, osm);
+        log.info("dumping to {}", dumpDir);
+        new OsmFileParser(osm).parse(handler);
         handler.close();
     }
     
@@ -0,0 +1,336 @@
+/*
+ *    Omadac - The Open Map Database Compiler
+ *    http://omadac.org
+ * 
+ *    (C) 2010, Harald Wellmann and Contributors
+ *
+ *    This library is free software; you can redistribute it and/or
+ *    modify it under the terms of the GNU Lesser General Public
+ *    License as published by the Free Software Foundation;
+ *    version 2.1 of the License.
+ *
+ *    This library is distributed in the hope that it will be useful,
+ *    but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ *    Lesser General Public License for more details.
+ */
+package org.omadac.osm;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.RandomAccessFile;
+import java.io.SequenceInputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileChannel.MapMode;
+import java.util.ArrayList;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import javax.xml.stream.XMLStreamException;
+
+import org.omadac.config.OmadacException;
+import org.omadac.loader.jmx.ImportMetrics;
+import org.omadac.osm.pbf.PbfElementBlock;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Parses an uncompressed OSM XML file on multiple cores. The file is split into chunks at
+ * the start tags of top-level {@code <node>}, {@code <way>} and {@code <relation>} elements.
+ * Each chunk is memory-mapped and parsed by an {@link OsmCursorParser} on a worker thread,
+ * wrapped in a synthetic {@code <osm>} root element, into a {@link PbfElementBlock}. The 
+ * calling thread replays the blocks to the handler in file order, so the handler is only 
+ * ever called from the calling thread and need not be thread-safe.
+ * <p>
+ * Within a chunk, all nodes are replayed before the ways and relations. For OSM files sorted
+ * by type and id, as usual, the handler receives the elements in the same order as from the
+ * sequential parser.
+ * <p>
+ * The number of parsed chunks waiting for the handler is bounded, so a slow handler throttles
+ * the workers.
+ * 
+ * @author hwellmann
+ * 
+ */
+public class ParallelXmlParser
+{
+    private static Logger log = LoggerFactory.getLogger(ParallelXmlParser.class);
+
+    public static final int DEFAULT_CHUNK_SIZE = 8 << 20;
+
+    private static final int WINDOW_SIZE = 1 << 16;
+
+    /** Longest tag prefix to be matched, {@code <relation} plus delimiter. */
+    private static final int MAX_PATTERN_LENGTH = 10;
+
+    private static final byte[][] SPLIT_TAGS = { "<node".getBytes(), "<way".getBytes(),
+        "<relation".getBytes() };
+
+    private static final byte[] ROOT_START = "<osm>".getBytes();
+
+    private static final byte[] ROOT_END = "</osm>".getBytes();
+
+    private OsmElementHandler handler;
+
+    private int numThreads;
+
+    private long chunkSize;
+
+    public ParallelXmlParser(OsmElementHandler handler, int numThreads)
+    {
+        this(handler, numThreads, DEFAULT_CHUNK_SIZE);
+    }
+
+    /**
+     * Creates a parser.
+     * @param handler  element handler
+     * @param numThreads  number of worker threads
+     * @param chunkSize  approximate size of the chunks in bytes
+     */
+    public ParallelXmlParser(OsmElementHandler handler, int numThreads, long chunkSize)
+    {
+        this.handler = handler;
+        this.numThreads = numThreads;
+        this.chunkSize = chunkSize;
+    }
+
+    public void parseXml(String fileName) throws IOException
+    {
+        RandomAccessFile file = new RandomAccessFile(fileName, "r");
+        try
+        {
+            FileChannel channel = file.getChannel();
+            List<Long> splits = findSplits(channel);
+            log.info("parsing {} XML chunks with {} threads", splits.size() - 1, numThreads);
+            parseChunks(channel, splits);
+        }
+        finally
+        {
+            file.close();
+        }
+    }
+
+    /**
+     * Finds the chunk boundaries, starting with 0 and ending with the file size. Each inner
+     * boundary is the position of the first top-level start tag after a multiple of the chunk
+     * size.
+     */
+    private List<Long> findSplits(FileChannel channel) throws IOException
+    {
+        long size = channel.size();
+        List<Long> splits = new ArrayList<Long>();
+        splits.add(0L);
+        long pos = chunkSize;
+        while (pos < size)
+        {
+            long split = findSplit(channel, pos);
+            if (split < 0)
+            {
+                break;
+            }
+            splits.add(split);
+            pos = split + chunkSize;
+        }
+        splits.add(size);
+        return splits;
+    }
+
+    /**
+     * Returns the position of the first top-level start tag at or after the given position, 
+     * or -1.
+     */
+    private long findSplit(FileChannel channel, long start) throws IOException
+    {
+        ByteBuffer window = ByteBuffer.allocate(WINDOW_SIZE);
+        long pos = start;
+        while (true)
+        {
+            window.clear();
+            int numBytes = channel.read(window, pos);
+            if (numBytes <= 0)
+            {
+                return -1;
+            }
+            byte[] bytes = window.array();
+            for (int i = 0; i < numBytes; i++)
+            {
+                if (bytes[i] == '<' && isSplitTag(bytes, i, numBytes))
+                {
+                    return pos + i;
+                }
+            }
+            if (numBytes <= MAX_PATTERN_LENGTH)
+            {
+                return -1;
+            }
+            // overlap windows, so that no tag is cut off
+            pos += numBytes - MAX_PATTERN_LENGTH;
+        }
+    }
+
+    private static boolean isSplitTag(byte[] bytes, int offset, int length)
+    {
+        for (byte[] tag : SPLIT_TAGS)
+        {
+            int end = offset + tag.length;
+            if (end >= length)
+            {
+                continue;
+            }
+            boolean match = true;
+            for (int j = 1; j < tag.length && match; j++)
+            {
+                match = bytes[offset + j] == tag[j];
+            }
+            if (match && isDelimiter(bytes[end]))
+            {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private static boolean isDelimiter(byte b)
+    {
+        return b == ' ' || b == '\t' || b == '\n' || b == '\r' || b == '>' || b == '/';
+    }
+
+    private void parseChunks(FileChannel channel, List<Long> splits) throws IOException
+    {
+        int numChunks = splits.size() - 1;
+        ExecutorService workers = Executors.newFixedThreadPool(numThreads);
+        LinkedList<Future<PbfElementBlock>> pending = new LinkedList<Future<PbfElementBlock>>();
+        int maxPending = 4 * numThreads;
+        int next = 0;
+        int replayed = 0;
+        try
+        {
+            while (next < numChunks || !pending.isEmpty())
+            {
+                while (next < numChunks && pending.size() < maxPending)
+                {
+                    pending.add(workers.submit(new ParseTask(channel, splits.get(next), 
+                        splits.get(next + 1), next == 0, next == numChunks - 1)));
+                    next++;
+                }
+                pending.removeFirst().get().replay(handler);
+                replayed++;
+                ImportMetrics.getInstance().setBytesRead(splits.get(replayed));
+            }
+        }
+        catch (InterruptedException exc)
+        {
+            Thread.currentThread().interrupt();
+            throw new OmadacException(exc);
+        }
+        catch (ExecutionException exc)
+        {
+            Throwable cause = exc.getCause();
+            if (cause instanceof RuntimeException)
+            {
+                throw (RuntimeException) cause;
+            }
+            if (cause instanceof Error)
+            {
+                throw (Error) cause;
+            }
+            throw new OmadacException(cause);
+        }
+        finally
+        {
+            workers.shutdownNow();
+        }
+    }
+
+    /**
+     * Parses one chunk. All chunks but the first get a synthetic root start tag, all chunks
+     * but the last a synthetic root end tag.
+     */
+    private static class ParseTask implements Callable<PbfElementBlock>
+    {
+        private FileChannel channel;
+        private long start;
+        private long end;
+        private boolean first;
+        private boolean last;
+
+        public ParseTask(FileChannel channel, long start, long end, boolean first, 
+            boolean last)
+        {
+            this.channel = channel;
+            this.start = start;
+            this.end = end;
+            this.first = first;
+            this.last = last;
+        }
+
+        @Override
+        public PbfElementBlock call() throws IOException
+        {
+            ByteBuffer chunk = channel.map(MapMode.READ_ONLY, start, end - start);
+            InputStream is = new ByteBufferInputStream(chunk);
+            if (!first)
+            {
+                is = new SequenceInputStream(new ByteArrayInputStream(ROOT_START), is);
+            }
+            if (!last)
+            {
+                is = new SequenceInputStream(is, new ByteArrayInputStream(ROOT_END));
+            }
+            PbfElementBlock block = new PbfElementBlock();
+            try
+            {
+                new OsmCursorParser(block).parseXml(is);
+            }
+            catch (XMLStreamException exc)
+            {
+                throw new OmadacException("cannot parse XML chunk at offset " + start, exc);
+            }
+            return block;
+        }
+    }
+
+    /**
+     * Input stream reading the remaining bytes of a buffer.
+     */
+    private static class ByteBufferInputStream extends InputStream
+    {
+        private ByteBuffer buffer;
+
+        public ByteBufferInputStream(ByteBuffer buffer)
+        {
+            this.buffer = buffer;
+        }
+
+        @Override
+        public int read()
+        {
+            return buffer.hasRemaining() ? buffer.get() & 0xFF : -1;
+        }
+
+        @Override
+        public int read(byte[] bytes, int offset, int length)
+        {
+            if (!buffer.hasRemaining())
+            {
+                return -1;
+            }
+            int numBytes = Math.min(length, buffer.remaining());
+            buffer.get(bytes, offset, numBytes);
+            return numBytes;
+        }
+
+        @Override
+        public int available()
+        {
+            return buffer.remaining();
+        }
+    }
+}
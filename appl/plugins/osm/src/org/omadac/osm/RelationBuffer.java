@@ -0,0 +1,146 @@
+/*
+ *    Omadac - The Open Map Database Compiler
+ *    http://omadac.org
+ * 
+ *    (C) 2010, Harald Wellmann and Contributors
+ *
+ *    This library is free software; you can redistribute it and/or
+ *    modify it under the terms of the GNU Lesser General Public
+ *    License as published by the Free Software Foundation;
+ *    version 2.1 of the License.
+ *
+ *    This library is distributed in the hope that it will be useful,
+ *    but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ *    Lesser General Public License for more details.
+ */
+package org.omadac.osm;
+
+import java.util.Arrays;
+
+import org.omadac.osm.jaxb.Relation;
+import org.omadac.osm.jaxb.RelationMember;
+
+/**
+ * Mutable buffer for an OSM relation. Member types are encoded as the numbers used in the
+ * {@code osm.relation_members} table.
+ *
+ * @author hwellmann
+ *
+ */
+public class RelationBuffer extends ElementBuffer
+{
+    public static final int MEMBER_NODE = 1;
+    public static final int MEMBER_WAY = 2;
+    public static final int MEMBER_RELATION = 3;
+
+    private int numMembers;
+
+    private long[] memberRefs = new long[INITIAL_CAPACITY];
+
+    private int[] memberTypes = new int[INITIAL_CAPACITY];
+
+    private String[] memberRoles = new String[INITIAL_CAPACITY];
+
+    @Override
+    public void clear()
+    {
+        super.clear();
+        numMembers = 0;
+    }
+
+    public void addMember(long ref, int type, String role)
+    {
+        if (numMembers == memberRefs.length)
+        {
+            memberRefs = Arrays.copyOf(memberRefs, 2 * numMembers);
+            memberTypes = Arrays.copyOf(memberTypes, 2 * numMembers);
+            memberRoles = Arrays.copyOf(memberRoles, 2 * numMembers);
+        }
+        memberRefs[numMembers] = ref;
+        memberTypes[numMembers] = type;
+        memberRoles[numMembers] = role;
+        numMembers++;
+    }
+
+    public int getNumMembers()
+    {
+        return numMembers;
+    }
+
+    public long getMemberRef(int index)
+    {
+        return memberRefs[index];
+    }
+
+    public int getMemberType(int index)
+    {
+        return memberTypes[index];
+    }
+
+    public String getMemberRole(int index)
+    {
+        return memberRoles[index];
+    }
+
+    /**
+     * Fills this buffer from a JAXB relation.
+     * @param relation  JAXB relation
+     */
+    public void copyFrom(Relation relation)
+    {
+        clear();
+        setId(relation.getId());
+        for (RelationMember member : relation.getMember())
+        {
+            addMember(member.getRef(), typeToNumber(member.getType()), member.getRole());
+        }
+        copyTagsFrom(relation.getTag());
+    }
+
+    /**
+     * Creates a JAXB relation from the contents of this buffer.
+     * @return new JAXB relation
+     */
+    public Relation toRelation()
+    {
+        Relation relation = new Relation();
+        relation.setId(getId());
+        for (int i = 0; i < numMembers; i++)
+        {
+            RelationMember member = new RelationMember();
+            member.setRef(memberRefs[i]);
+            member.setType(numberToType(memberTypes[i]));
+            member.setRole(memberRoles[i]);
+            relation.getMember().add(member);
+        }
+        copyTagsTo(relation.getTag());
+        return relation;
+    }
+
+    public static int typeToNumber(String type)
+    {
+        if ("node".equals(type))
+            return MEMBER_NODE;
+        if ("way".equals(type))
+            return MEMBER_WAY;
+        if ("relation".equals(type))
+            return MEMBER_RELATION;
+        throw new IllegalArgumentException(type);
+    }
+
+    public static String numberToType(int type)
+    {
+        switch (type)
+        {
+            case MEMBER_NODE:
+                return "node";
+            case MEMBER_WAY:
+                return "way";
+            case MEMBER_RELATION:
+                return "relation";
+            default:
+                throw new IllegalArgumentException(Integer.toString(type));
+        }
+    }
+}
@@ -0,0 +1,227 @@
+/*
+ *    Omadac - The Open Map Database Compiler
+ *    http://omadac.org
+ * 
+ *    (C) 2010, Harald Wellmann and Contributors
+ *
+ *    This library is free software; you can redistribute it and/or
+ *    modify it under the terms of the GNU Lesser General Public
+ *    License as published by the Free Software Foundation;
+ *    version 2.1 of the License.
+ *
+ *    This library is distributed in the hope that it will be useful,
+ *    but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ *    Lesser General Public License for more details.
+ */
+package org.omadac.osm;
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.sql.Types;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.omadac.config.OmadacException;
+import org.omadac.loader.LoaderFileWriter;
+
+/**
+ * Dictionary mapping OSM tag keys and frequent tag values to small integer ids, stored in
+ * the table {@code osm.tag_dict}. Each key gets an id when it is first seen. Values get an
+ * id of their own as long as their key has less than {@link #MAX_VALUES_PER_KEY} coded values,
+ * so that enumerated values like {@code highway=residential} are coded, while most values
+ * of keys like {@code name} are not.
+ * <p>
+ * A key entry has a null value. Empty and long values are never coded. Value id 0 denotes
+ * an uncoded value, which is stored as text in the tag code tables. Coded and empty values
+ * are stored as null, the representation of an empty column in loader files.
+ * <p>
+ * This class is not thread-safe.
+ * 
+ * @author hwellmann
+ * 
+ */
+public class TagDictionary
+{
+    public static final int MAX_VALUES_PER_KEY = 1000;
+
+    public static final int MAX_VALUE_LENGTH = 255;
+
+    /** Value id of uncoded values. */
+    public static final int UNCODED = 0;
+
+    private Map<String, Integer> keyIds = new HashMap<String, Integer>();
+
+    private Map<String, Map<String, Integer>> valueIds = 
+        new HashMap<String, Map<String, Integer>>();
+
+    /** Key and value of each entry, indexed by id - 1. */
+    private List<String[]> entries = new ArrayList<String[]>();
+
+    /** Number of entries already stored in the database. */
+    private int numStoredEntries;
+
+    /**
+     * Returns the id of the given key, adding the key to the dictionary if needed.
+     */
+    public int getKeyId(String key)
+    {
+        Integer id = keyIds.get(key);
+        if (id == null)
+        {
+            id = addEntry(key, null);
+            keyIds.put(key, id);
+            valueIds.put(key, new HashMap<String, Integer>());
+        }
+        return id;
+    }
+
+    /**
+     * Returns the id of the given value of the given key, adding the value to the dictionary
+     * if it qualifies for coding.
+     * @return value id, or {@link #UNCODED}
+     */
+    public int getValueId(String key, String value)
+    {
+        getKeyId(key);
+        Map<String, Integer> ids = valueIds.get(key);
+        Integer id = ids.get(value);
+        if (id == null)
+        {
+            if (ids.size() >= MAX_VALUES_PER_KEY || value.length() == 0
+                || value.length() > MAX_VALUE_LENGTH)
+            {
+                return UNCODED;
+            }
+            id = addEntry(key, value);
+            ids.put(value, id);
+        }
+        return id;
+    }
+
+    private int addEntry(String key, String value)
+    {
+        entries.add(new String[] { key, value });
+        return entries.size();
+    }
+
+    public int size()
+    {
+        return entries.size();
+    }
+
+    /**
+     * Writes the entries not yet stored to a loader file for {@code osm.tag_dict}.
+     */
+    public void write(LoaderFileWriter writer)
+    {
+        for (int i = numStoredEntries; i < entries.size(); i++)
+        {
+            String[] entry = entries.get(i);
+            writer.writeColumn(i + 1);
+            writer.writeColumn(entry[0]);
+            writer.writeColumn(entry[1]);
+            writer.terminateRow();
+        }
+        numStoredEntries = entries.size();
+    }
+
+    /**
+     * Inserts the entries not yet stored into {@code tag_dict}.
+     * @param dbc  database connection, to be committed by the caller
+     * @param schema  schema of the OSM tables
+     */
+    public void insert(Connection dbc, String schema)
+    {
+        try
+        {
+            PreparedStatement insert = dbc.prepareStatement(String.format(
+                "insert into %s.tag_dict (id, k, v) values (?, ?, ?)", schema));
+            try
+            {
+                for (int i = numStoredEntries; i < entries.size(); i++)
+                {
+                    String[] entry = entries.get(i);
+                    insert.setInt(1, i + 1);
+                    insert.setString(2, entry[0]);
+                    if (entry[1] == null)
+                    {
+                        insert.setNull(3, Types.VARCHAR);
+                    }
+                    else
+                    {
+                        insert.setString(3, entry[1]);
+                    }
+                    insert.addBatch();
+                }
+                insert.executeBatch();
+            }
+            finally
+            {
+                insert.close();
+            }
+        }
+        catch (SQLException exc)
+        {
+            throw new OmadacException(exc);
+        }
+        numStoredEntries = entries.size();
+    }
+
+    /**
+     * Loads the dictionary from {@code tag_dict}.
+     * @param dbc  database connection
+     * @param schema  schema of the OSM tables
+     * @return dictionary, which is empty if no tag dictionary was created on import
+     */
+    public static TagDictionary load(Connection dbc, String schema)
+    {
+        TagDictionary dict = new TagDictionary();
+        try
+        {
+            Statement st = dbc.createStatement();
+            try
+            {
+                ResultSet rs = st.executeQuery(String.format(
+                    "select id, k, v from %s.tag_dict order by id", schema));
+                while (rs.next())
+                {
+                    int id = rs.getInt(1);
+                    String key = rs.getString(2);
+                    String value = rs.getString(3);
+                    if (id != dict.entries.size() + 1)
+                    {
+                        throw new OmadacException("tag dictionary ids are not contiguous at " 
+                            + id);
+                    }
+                    dict.entries.add(new String[] { key, value });
+                    if (value == null)
+                    {
+                        dict.keyIds.put(key, id);
+                        dict.valueIds.put(key, new HashMap<String, Integer>());
+                    }
+                    else
+                    {
+                        dict.valueIds.get(key).put(value, id);
+                    }
+                }
+                rs.close();
+            }
+            finally
+            {
+                st.close();
+            }
+        }
+        catch (SQLException exc)
+        {
+            throw new OmadacException(exc);
+        }
+        dict.numStoredEntries = dict.entries.size();
+        return dict;
+    }
+}
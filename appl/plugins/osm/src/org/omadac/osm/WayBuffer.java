@@ -0,0 +1,94 @@
+/*
+ *    Omadac - The Open Map Database Compiler
+ *    http://omadac.org
+ * 
+ *    (C) 2010, Harald Wellmann and Contributors
+ *
+ *    This library is free software; you can redistribute it and/or
+ *    modify it under the terms of the GNU Lesser General Public
+ *    License as published by the Free Software Foundation;
+ *    version 2.1 of the License.
+ *
+ *    This library is distributed in the hope that it will be useful,
+ *    but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ *    Lesser General Public License for more details.
+ */
+package org.omadac.osm;
+
+import java.util.Arrays;
+
+import org.omadac.osm.jaxb.NodeRef;
+import org.omadac.osm.jaxb.Way;
+
+/**
+ * Mutable buffer for an OSM way. Node references are kept in a primitive array.
+ *
+ * @author hwellmann
+ *
+ */
+public class WayBuffer extends ElementBuffer
+{
+    private int numNodeRefs;
+
+    private long[] nodeRefs = new long[INITIAL_CAPACITY];
+
+    @Override
+    public void clear()
+    {
+        super.clear();
+        numNodeRefs = 0;
+    }
+
+    public void addNodeRef(long ref)
+    {
+        if (numNodeRefs == nodeRefs.length)
+        {
+            nodeRefs = Arrays.copyOf(nodeRefs, 2 * numNodeRefs);
+        }
+        nodeRefs[numNodeRefs++] = ref;
+    }
+
+    public int getNumNodeRefs()
+    {
+        return numNodeRefs;
+    }
+
+    public long getNodeRef(int index)
+    {
+        return nodeRefs[index];
+    }
+
+    /**
+     * Fills this buffer from a JAXB way.
+     * @param way  JAXB way
+     */
+    public void copyFrom(Way way)
+    {
+        clear();
+        setId(way.getId());
+        for (NodeRef nodeRef : way.getNd())
+        {
+            addNodeRef(nodeRef.getRef());
+        }
+        copyTagsFrom(way.getTag());
+    }
+
+    /**
+     * Creates a JAXB way from the contents of this buffer.
+     * @return new JAXB way
+     */
+    public Way toWay()
+    {
+        Way way = new Way();
+        way.setId(getId());
+        for (int i = 0; i < numNodeRefs; i++)
+        {
+            NodeRef nodeRef = new NodeRef();
+            nodeRef.setRef(nodeRefs[i]);
+            way.getNd().add(nodeRef);
+        }
+        copyTagsTo(way.getTag());
+        return way;
+    }
+}
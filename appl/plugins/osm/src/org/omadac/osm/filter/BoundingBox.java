@@ -0,0 +1,74 @@
+/*
+ *    Omadac - The Open Map Database Compiler
+ *    http://omadac.org
+ * 
+ *    (C) 2010, Harald Wellmann and Contributors
+ *
+ *    This library is free software; you can redistribute it and/or
+ *    modify it under the terms of the GNU Lesser General Public
+ *    License as published by the Free Software Foundation;
+ *    version 2.1 of the License.
+ *
+ *    This library is distributed in the hope that it will be useful,
+ *    but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ *    Lesser General Public License for more details.
+ */
+package org.omadac.osm.filter;
+
+import org.omadac.config.OmadacException;
+
+/**
+ * Rectangular region bounded by meridians and parallels.
+ * 
+ * @author hwellmann
+ * 
+ */
+public class BoundingBox implements Region
+{
+    private double minLatitude;
+    private double minLongitude;
+    private double maxLatitude;
+    private double maxLongitude;
+
+    public BoundingBox(double minLatitude, double minLongitude, double maxLatitude,
+        double maxLongitude)
+    {
+        this.minLatitude = minLatitude;
+        this.minLongitude = minLongitude;
+        this.maxLatitude = maxLatitude;
+        this.maxLongitude = maxLongitude;
+    }
+
+    /**
+     * Parses a bounding box in the order used by the OSM API, 
+     * {@code minLon,minLat,maxLon,maxLat}.
+     * @param bbox  comma separated bounds in degrees
+     * @return bounding box
+     */
+    public static BoundingBox parse(String bbox)
+    {
+        String[] parts = bbox.split(",");
+        if (parts.length != 4)
+        {
+            throw new OmadacException("invalid bounding box: " + bbox);
+        }
+        try
+        {
+            return new BoundingBox(Double.parseDouble(parts[1].trim()), 
+                Double.parseDouble(parts[0].trim()), Double.parseDouble(parts[3].trim()), 
+                Double.parseDouble(parts[2].trim()));
+        }
+        catch (NumberFormatException exc)
+        {
+            throw new OmadacException("invalid bounding box: " + bbox, exc);
+        }
+    }
+
+    @Override
+    public boolean contains(double latitude, double longitude)
+    {
+        return minLatitude <= latitude && latitude <= maxLatitude 
+            && minLongitude <= longitude && longitude <= maxLongitude;
+    }
+}
@@ -0,0 +1,108 @@
+/*
+ *    Omadac - The Open Map Database Compiler
+ *    http://omadac.org
+ * 
+ *    (C) 2010, Harald Wellmann and Contributors
+ *
+ *    This library is free software; you can redistribute it and/or
+ *    modify it under the terms of the GNU Lesser General Public
+ *    License as published by the Free Software Foundation;
+ *    version 2.1 of the License.
+ *
+ *    This library is distributed in the hope that it will be useful,
+ *    but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ *    Lesser General Public License for more details.
+ */
+package org.omadac.osm.filter;
+
+import javax.xml.bind.JAXBElement;
+
+import org.omadac.osm.NodeBuffer;
+import org.omadac.osm.OsmElementHandler;
+import org.omadac.osm.RelationBuffer;
+import org.omadac.osm.WayBuffer;
+import org.omadac.osm.jaxb.Node;
+import org.omadac.osm.jaxb.Relation;
+import org.omadac.osm.jaxb.Way;
+
+/**
+ * Passes the elements selected by an {@link ElementSelector} on to another handler and
+ * drops all other elements.
+ * 
+ * @author hwellmann
+ * 
+ */
+public class ElementFilter implements OsmElementHandler
+{
+    private OsmElementHandler delegate;
+
+    private IdSet nodes;
+
+    private IdSet ways;
+
+    private IdSet relations;
+
+    ElementFilter(OsmElementHandler delegate, IdSet nodes, IdSet ways, IdSet relations)
+    {
+        this.delegate = delegate;
+        this.nodes = nodes;
+        this.ways = ways;
+        this.relations = relations;
+    }
+
+    @Override
+    public void handleElement(JAXBElement<?> elem)
+    {
+        Class<?> type = elem.getDeclaredType();
+        if (type == Node.class)
+        {
+            if (!nodes.contains(((Node) elem.getValue()).getId()))
+            {
+                return;
+            }
+        }
+        else if (type == Way.class)
+        {
+            if (!ways.contains(((Way) elem.getValue()).getId()))
+            {
+                return;
+            }
+        }
+        else if (type == Relation.class)
+        {
+            if (!relations.contains(((Relation) elem.getValue()).getId()))
+            {
+                return;
+            }
+        }
+        delegate.handleElement(elem);
+    }
+
+    @Override
+    public void handleNode(NodeBuffer node)
+    {
+        if (nodes.contains(node.getId()))
+        {
+            delegate.handleNode(node);
+        }
+    }
+
+    @Override
+    public void handleWay(WayBuffer way)
+    {
+        if (ways.contains(way.getId()))
+        {
+            delegate.handleWay(way);
+        }
+    }
+
+    @Override
+    public void handleRelation(RelationBuffer relation)
+    {
+        if (relations.contains(relation.getId()))
+        {
+            delegate.handleRelation(relation);
+        }
+    }
+}
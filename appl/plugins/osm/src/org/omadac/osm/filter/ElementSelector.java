@@ -0,0 +1,279 @@
+/*
+ *    Omadac - The Open Map Database Compiler
+ *    http://omadac.org
+ * 
+ *    (C) 2010, Harald Wellmann and Contributors
+ *
+ *    This library is free software; you can redistribute it and/or
+ *    modify it under the terms of the GNU Lesser General Public
+ *    License as published by the Free Software Foundation;
+ *    version 2.1 of the License.
+ *
+ *    This library is distributed in the hope that it will be useful,
+ *    but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ *    Lesser General Public License for more details.
+ */
+package org.omadac.osm.filter;
+
+import java.util.Collection;
+import java.util.HashSet;
+import java.util.Set;
+
+import javax.xml.bind.JAXBElement;
+
+import org.omadac.osm.ElementBuffer;
+import org.omadac.osm.NodeBuffer;
+import org.omadac.osm.OsmElementHandler;
+import org.omadac.osm.RelationBuffer;
+import org.omadac.osm.WayBuffer;
+import org.omadac.osm.jaxb.Node;
+import org.omadac.osm.jaxb.Relation;
+import org.omadac.osm.jaxb.Way;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * First pass of a two-pass element filter. Selects the elements to be kept, which are then 
+ * passed on by an {@link ElementFilter} in a second pass over the same input.
+ * <p>
+ * A way is kept if it has a relevant tag and references at least one node inside the
+ * region. All nodes of a kept way are kept, even if they are outside the region, so that
+ * the geometry of the way is complete. A node is also kept if it is inside the region and
+ * has a relevant tag. A relation is kept if it has a relevant tag and a kept member or a
+ * member way inside the region. 
+ * <p>
+ * Member ways of kept relations, e.g. the untagged outer ways of a multipolygon, are only
+ * known after the ways have been parsed. If there are such member ways which have not been
+ * kept, {@link #startMemberPass()} requests another pass over the input, which keeps these
+ * ways and their nodes. Members of nested relations are not completed.
+ * <p>
+ * The input must be sorted by element type, as usual for OSM files, since ways are checked
+ * against the nodes seen before. Without a region, all locations are inside. Without tag
+ * keys, all elements are relevant, so that the filter is a pure region extract.
+ * 
+ * @author hwellmann
+ * 
+ */
+public class ElementSelector implements OsmElementHandler
+{
+    private static Logger log = LoggerFactory.getLogger(ElementSelector.class);
+
+    private Region region;
+
+    private Set<String> tagKeys;
+
+    private IdSet regionNodes = new IdSet();
+
+    private IdSet nodes = new IdSet();
+
+    private IdSet ways = new IdSet();
+
+    private IdSet relations = new IdSet();
+
+    /** Ways with a node inside the region, whether relevant or not. */
+    private IdSet regionWays = new IdSet();
+
+    /** Member ways of kept relations, which have not been kept in the first pass. */
+    private IdSet memberWays = new IdSet();
+
+    /** Is this the pass selecting the member ways? */
+    private boolean memberPass;
+
+    private NodeBuffer nodeBuffer = new NodeBuffer();
+
+    private WayBuffer wayBuffer = new WayBuffer();
+
+    private RelationBuffer relationBuffer = new RelationBuffer();
+
+    /**
+     * Creates a selector.
+     * @param region  region, or null for the whole input
+     * @param tagKeys  keys of relevant tags, or an empty collection if all elements are
+     *                 relevant
+     */
+    public ElementSelector(Region region, Collection<String> tagKeys)
+    {
+        this.region = region;
+        this.tagKeys = new HashSet<String>(tagKeys);
+    }
+
+    @Override
+    public void handleElement(JAXBElement<?> elem)
+    {
+        Class<?> type = elem.getDeclaredType();
+        if (type == Node.class)
+        {
+            nodeBuffer.copyFrom((Node) elem.getValue());
+            handleNode(nodeBuffer);
+        }
+        else if (type == Way.class)
+        {
+            wayBuffer.copyFrom((Way) elem.getValue());
+            handleWay(wayBuffer);
+        }
+        else if (type == Relation.class)
+        {
+            relationBuffer.copyFrom((Relation) elem.getValue());
+            handleRelation(relationBuffer);
+        }
+    }
+
+    @Override
+    public void handleNode(NodeBuffer node)
+    {
+        if (memberPass)
+        {
+            return;
+        }
+        if (region == null || region.contains(node.getLatitude(), node.getLongitude()))
+        {
+            if (region != null)
+            {
+                regionNodes.add(node.getId());
+            }
+            if (isRelevant(node))
+            {
+                nodes.add(node.getId());
+            }
+        }
+    }
+
+    @Override
+    public void handleWay(WayBuffer way)
+    {
+        if (memberPass)
+        {
+            if (memberWays.contains(way.getId()))
+            {
+                keepWay(way);
+            }
+            return;
+        }
+        if (!isInRegion(way))
+        {
+            return;
+        }
+        if (region != null)
+        {
+            regionWays.add(way.getId());
+        }
+        if (isRelevant(way))
+        {
+            keepWay(way);
+        }
+    }
+
+    private void keepWay(WayBuffer way)
+    {
+        ways.add(way.getId());
+        for (int i = 0; i < way.getNumNodeRefs(); i++)
+        {
+            nodes.add(way.getNodeRef(i));
+        }
+    }
+
+    private boolean isInRegion(WayBuffer way)
+    {
+        if (region == null)
+        {
+            return true;
+        }
+        for (int i = 0; i < way.getNumNodeRefs(); i++)
+        {
+            if (regionNodes.contains(way.getNodeRef(i)))
+            {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    @Override
+    public void handleRelation(RelationBuffer relation)
+    {
+        if (memberPass || !isRelevant(relation))
+        {
+            return;
+        }
+        for (int i = 0; i < relation.getNumMembers(); i++)
+        {
+            if (isKept(relation.getMemberType(i), relation.getMemberRef(i)))
+            {
+                relations.add(relation.getId());
+                addMemberWays(relation);
+                return;
+            }
+        }
+    }
+
+    private void addMemberWays(RelationBuffer relation)
+    {
+        for (int i = 0; i < relation.getNumMembers(); i++)
+        {
+            long ref = relation.getMemberRef(i);
+            if (relation.getMemberType(i) == RelationBuffer.MEMBER_WAY && !ways.contains(ref))
+            {
+                memberWays.add(ref);
+            }
+        }
+    }
+
+    private boolean isKept(int memberType, long ref)
+    {
+        switch (memberType)
+        {
+            case RelationBuffer.MEMBER_NODE:
+                return nodes.contains(ref);
+            case RelationBuffer.MEMBER_WAY:
+                return ways.contains(ref) || region == null || regionWays.contains(ref);
+            case RelationBuffer.MEMBER_RELATION:
+                return relations.contains(ref);
+            default:
+                return false;
+        }
+    }
+
+    private boolean isRelevant(ElementBuffer element)
+    {
+        if (tagKeys.isEmpty())
+        {
+            return true;
+        }
+        for (int i = 0; i < element.getNumTags(); i++)
+        {
+            if (tagKeys.contains(element.getTagKey(i)))
+            {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Prepares the pass selecting the member ways of the kept relations which have not been 
+     * kept in the first pass. The input must then be parsed again with this selector.
+     * @return true if the member pass is required
+     */
+    public boolean startMemberPass()
+    {
+        regionWays = null;
+        memberPass = true;
+        log.info("selecting {} missing relation member ways", memberWays.size());
+        return memberWays.size() != 0;
+    }
+
+    /**
+     * Creates the filter for the second pass, passing the selected elements to the given
+     * handler.
+     */
+    public ElementFilter createFilter(OsmElementHandler delegate)
+    {
+        log.info("selected {} nodes, {} ways, {} relations", new Object[] { nodes.size(),
+            ways.size(), relations.size() });
+        regionNodes = null;
+        regionWays = null;
+        memberWays = null;
+        return new ElementFilter(delegate, nodes, ways, relations);
+    }
+}
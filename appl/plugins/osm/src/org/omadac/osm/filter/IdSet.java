@@ -0,0 +1,78 @@
+/*
+ *    Omadac - The Open Map Database Compiler
+ *    http://omadac.org
+ * 
+ *    (C) 2010, Harald Wellmann and Contributors
+ *
+ *    This library is free software; you can redistribute it and/or
+ *    modify it under the terms of the GNU Lesser General Public
+ *    License as published by the Free Software Foundation;
+ *    version 2.1 of the License.
+ *
+ *    This library is distributed in the hope that it will be useful,
+ *    but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ *    Lesser General Public License for more details.
+ */
+package org.omadac.osm.filter;
+
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Set of OSM ids, stored as a bitmap allocated in pages of 65536 ids, so that the memory
+ * is proportional to the id ranges actually used.
+ * 
+ * @author hwellmann
+ * 
+ */
+public class IdSet
+{
+    private static final int PAGE_BITS = 16;
+
+    private static final int PAGE_MASK = (1 << PAGE_BITS) - 1;
+
+    private Map<Long, long[]> pages = new HashMap<Long, long[]>();
+
+    private long size;
+
+    /**
+     * Adds an id.
+     * @return true if the id was not yet contained
+     */
+    public boolean add(long id)
+    {
+        Long pageIndex = id >> PAGE_BITS;
+        long[] page = pages.get(pageIndex);
+        if (page == null)
+        {
+            page = new long[(PAGE_MASK + 1) / 64];
+            pages.put(pageIndex, page);
+        }
+        int bit = (int) (id & PAGE_MASK);
+        long mask = 1L << (bit & 63);
+        if ((page[bit >> 6] & mask) != 0)
+        {
+            return false;
+        }
+        page[bit >> 6] |= mask;
+        size++;
+        return true;
+    }
+
+    public boolean contains(long id)
+    {
+        long[] page = pages.get(id >> PAGE_BITS);
+        if (page == null)
+        {
+            return false;
+        }
+        int bit = (int) (id & PAGE_MASK);
+        return (page[bit >> 6] & (1L << (bit & 63))) != 0;
+    }
+
+    public long size()
+    {
+        return size;
+    }
+}
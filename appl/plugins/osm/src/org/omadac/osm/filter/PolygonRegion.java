@@ -0,0 +1,156 @@
+/*
+ *    Omadac - The Open Map Database Compiler
+ *    http://omadac.org
+ * 
+ *    (C) 2010, Harald Wellmann and Contributors
+ *
+ *    This library is free software; you can redistribute it and/or
+ *    modify it under the terms of the GNU Lesser General Public
+ *    License as published by the Free Software Foundation;
+ *    version 2.1 of the License.
+ *
+ *    This library is distributed in the hope that it will be useful,
+ *    but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ *    Lesser General Public License for more details.
+ */
+package org.omadac.osm.filter;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileReader;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.omadac.config.OmadacException;
+
+/**
+ * Region bounded by one or more polygons, read from a polygon filter file as used by
+ * Osmosis. Each section of the file is a ring of {@code longitude latitude} lines ending with
+ * {@code END}. Sections whose name starts with {@code !} are holes.
+ * <p>
+ * A location is contained in the region if it is inside an odd number of rings, so that
+ * holes and disjoint polygons are handled alike. A bounding box of all rings is checked
+ * first.
+ * 
+ * @author hwellmann
+ * 
+ */
+public class PolygonRegion implements Region
+{
+    /** Latitudes and longitudes of each ring, alternating. */
+    private List<double[]> rings;
+
+    private BoundingBox bounds;
+
+    public PolygonRegion(List<double[]> rings)
+    {
+        this.rings = rings;
+        double minLat = Double.MAX_VALUE;
+        double minLon = Double.MAX_VALUE;
+        double maxLat = -Double.MAX_VALUE;
+        double maxLon = -Double.MAX_VALUE;
+        for (double[] ring : rings)
+        {
+            for (int i = 0; i < ring.length; i += 2)
+            {
+                minLat = Math.min(minLat, ring[i]);
+                maxLat = Math.max(maxLat, ring[i]);
+                minLon = Math.min(minLon, ring[i + 1]);
+                maxLon = Math.max(maxLon, ring[i + 1]);
+            }
+        }
+        bounds = new BoundingBox(minLat, minLon, maxLat, maxLon);
+    }
+
+    /**
+     * Reads a polygon filter file.
+     * @param file  polygon file
+     * @return region
+     */
+    public static PolygonRegion read(File file)
+    {
+        List<double[]> rings = new ArrayList<double[]>();
+        try
+        {
+            BufferedReader reader = new BufferedReader(new FileReader(file));
+            try
+            {
+                // first line is the name of the region
+                reader.readLine();
+                String line;
+                while ((line = reader.readLine()) != null && !line.trim().equals("END"))
+                {
+                    rings.add(readRing(reader));
+                }
+            }
+            finally
+            {
+                reader.close();
+            }
+        }
+        catch (IOException exc)
+        {
+            throw new OmadacException("cannot read " + file, exc);
+        }
+        catch (NumberFormatException exc)
+        {
+            throw new OmadacException("invalid polygon file " + file, exc);
+        }
+        if (rings.isEmpty())
+        {
+            throw new OmadacException("no polygons in " + file);
+        }
+        return new PolygonRegion(rings);
+    }
+
+    private static double[] readRing(BufferedReader reader) throws IOException
+    {
+        List<Double> coords = new ArrayList<Double>();
+        String line;
+        while ((line = reader.readLine()) != null && !line.trim().equals("END"))
+        {
+            String[] parts = line.trim().split("\\s+");
+            if (parts.length < 2)
+            {
+                continue;
+            }
+            coords.add(Double.parseDouble(parts[1]));
+            coords.add(Double.parseDouble(parts[0]));
+        }
+        double[] ring = new double[coords.size()];
+        for (int i = 0; i < ring.length; i++)
+        {
+            ring[i] = coords.get(i);
+        }
+        return ring;
+    }
+
+    @Override
+    public boolean contains(double latitude, double longitude)
+    {
+        if (!bounds.contains(latitude, longitude))
+        {
+            return false;
+        }
+        boolean inside = false;
+        for (double[] ring : rings)
+        {
+            int n = ring.length;
+            for (int i = 0, j = n - 2; i < n; j = i, i += 2)
+            {
+                double latI = ring[i];
+                double lonI = ring[i + 1];
+                double latJ = ring[j];
+                double lonJ = ring[j + 1];
+                if ((latI > latitude) != (latJ > latitude)
+                    && longitude < (lonJ - lonI) * (latitude - latI) / (latJ - latI) + lonI)
+                {
+                    inside = !inside;
+                }
+            }
+        }
+        return inside;
+    }
+}
@@ -0,0 +1,49 @@
+/*
+ *    Omadac - The Open Map Database Compiler
+ *    http://omadac.org
+ * 
+ *    (C) 2010, Harald Wellmann and Contributors
+ *
+ *    This library is free software; you can redistribute it and/or
+ *    modify it under the terms of the GNU Lesser General Public
+ *    License as published by the Free Software Foundation;
+ *    version 2.1 of the License.
+ *
+ *    This library is distributed in the hope that it will be useful,
+ *    but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ *    Lesser General Public License for more details.
+ */
+package org.omadac.osm.location;
+
+import java.io.IOException;
+
+/**
+ * Node location store with the dense layout, indexed directly by node id.
+ * 
+ * @author hwellmann
+ * 
+ */
+class DenseNodeLocationStore extends NodeLocationStore
+{
+    public DenseNodeLocationStore(MappedFile file, long numEntries)
+    {
+        super(file, numEntries);
+    }
+
+    @Override
+    protected long lookup(long nodeId) throws IOException
+    {
+        if (nodeId < 0 || nodeId >= numEntries)
+        {
+            return UNKNOWN;
+        }
+        long offset = HEADER_SIZE + 8 * nodeId;
+        int latitude = file.getInt(offset);
+        if (latitude == 0)
+        {
+            return UNKNOWN;
+        }
+        return pack(latitude - LATITUDE_OFFSET, file.getInt(offset + 4));
+    }
+}
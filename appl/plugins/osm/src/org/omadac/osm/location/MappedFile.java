@@ -0,0 +1,155 @@
+/*
+ *    Omadac - The Open Map Database Compiler
+ *    http://omadac.org
+ * 
+ *    (C) 2010, Harald Wellmann and Contributors
+ *
+ *    This library is free software; you can redistribute it and/or
+ *    modify it under the terms of the GNU Lesser General Public
+ *    License as published by the Free Software Foundation;
+ *    version 2.1 of the License.
+ *
+ *    This library is distributed in the hope that it will be useful,
+ *    but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ *    Lesser General Public License for more details.
+ */
+package org.omadac.osm.location;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileChannel.MapMode;
+import java.util.Arrays;
+
+/**
+ * A file mapped into memory in segments, so that it may exceed the 2 GB limit of a single
+ * {@link MappedByteBuffer}. Segments are mapped on first access. Values must not straddle a
+ * segment boundary, which holds for aligned ints and longs.
+ * <p>
+ * Reads use absolute positions only and are thread-safe once the segments are mapped.
+ * 
+ * @author hwellmann
+ * 
+ */
+class MappedFile
+{
+    private static final int SEGMENT_BITS = 27;
+
+    private static final long SEGMENT_SIZE = 1L << SEGMENT_BITS;
+
+    private static final long SEGMENT_MASK = SEGMENT_SIZE - 1;
+
+    private RandomAccessFile raf;
+
+    private FileChannel channel;
+
+    private boolean writable;
+
+    private long size;
+
+    private volatile MappedByteBuffer[] segments = new MappedByteBuffer[0];
+
+    /**
+     * Maps the given file.
+     * @param file  file
+     * @param writable  if true, the file is created if required and grows on writes beyond its
+     *                  end, in whole segments. Otherwise, the file is mapped read-only.
+     * @throws IOException
+     */
+    public MappedFile(File file, boolean writable) throws IOException
+    {
+        this.writable = writable;
+        this.raf = new RandomAccessFile(file, writable ? "rw" : "r");
+        this.channel = raf.getChannel();
+        this.size = channel.size();
+    }
+
+    /**
+     * Returns the file size when the file was opened. Only meaningful for read-only files.
+     */
+    public long size()
+    {
+        return size;
+    }
+
+    public int getInt(long offset) throws IOException
+    {
+        return segment(offset).getInt((int) (offset & SEGMENT_MASK));
+    }
+
+    public long getLong(long offset) throws IOException
+    {
+        return segment(offset).getLong((int) (offset & SEGMENT_MASK));
+    }
+
+    public void putInt(long offset, int value) throws IOException
+    {
+        segment(offset).putInt((int) (offset & SEGMENT_MASK), value);
+    }
+
+    public void putLong(long offset, long value) throws IOException
+    {
+        segment(offset).putLong((int) (offset & SEGMENT_MASK), value);
+    }
+
+    private MappedByteBuffer segment(long offset) throws IOException
+    {
+        int index = (int) (offset >>> SEGMENT_BITS);
+        if (index < segments.length && segments[index] != null)
+        {
+            return segments[index];
+        }
+        return mapSegment(index);
+    }
+
+    private synchronized MappedByteBuffer mapSegment(int index) throws IOException
+    {
+        if (index >= segments.length)
+        {
+            segments = Arrays.copyOf(segments, Math.max(index + 1, 2 * segments.length));
+        }
+        if (segments[index] == null)
+        {
+            long start = index * SEGMENT_SIZE;
+            MappedByteBuffer segment;
+            if (writable)
+            {
+                segment = channel.map(MapMode.READ_WRITE, start, SEGMENT_SIZE);
+            }
+            else
+            {
+                if (start >= size)
+                {
+                    throw new IOException("offset " + start + " beyond end of file");
+                }
+                segment = channel.map(MapMode.READ_ONLY, start, Math.min(SEGMENT_SIZE, 
+                    size - start));
+            }
+            segments[index] = segment;
+        }
+        return segments[index];
+    }
+
+    /**
+     * Writes modified segments back to the file and closes it.
+     * @throws IOException
+     */
+    public synchronized void close() throws IOException
+    {
+        if (writable)
+        {
+            for (MappedByteBuffer segment : segments)
+            {
+                if (segment != null)
+                {
+                    segment.force();
+                }
+            }
+        }
+        segments = new MappedByteBuffer[0];
+        raf.close();
+    }
+}
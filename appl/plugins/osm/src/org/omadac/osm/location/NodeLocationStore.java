@@ -0,0 +1,166 @@
+/*
+ *    Omadac - The Open Map Database Compiler
+ *    http://omadac.org
+ * 
+ *    (C) 2010, Harald Wellmann and Contributors
+ *
+ *    This library is free software; you can redistribute it and/or
+ *    modify it under the terms of the GNU Lesser General Public
+ *    License as published by the Free Software Foundation;
+ *    version 2.1 of the License.
+ *
+ *    This library is distributed in the hope that it will be useful,
+ *    but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ *    Lesser General Public License for more details.
+ */
+package org.omadac.osm.location;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+
+import org.omadac.config.OmadacException;
+
+/**
+ * File-backed store of node locations by node id, for resolving way geometries in-process
+ * instead of joining way nodes with nodes in the database. Locations are stored as packed 
+ * ints in units of 1E-7 degrees, like the {@code osm.nodes} table.
+ * <p>
+ * A store is written once by a {@link NodeLocationStoreWriter} while parsing an OSM file,
+ * and may then be opened for reading by any number of threads. A store with the dense 
+ * layout is updated when change files are applied.
+ * <p>
+ * The file starts with a header of {@value #HEADER_SIZE} bytes: a magic number, the layout
+ * and the number of entries. In the dense layout, the entry for node id {@code n} is at 
+ * offset {@code HEADER_SIZE + 8*n}, containing the latitude, shifted by 
+ * {@value #LATITUDE_OFFSET} so that zero marks a missing node, and the longitude. In the 
+ * sparse layout for extracts, the file contains a sorted array of entries of 16 bytes, 
+ * consisting of the node id, latitude and longitude, which is searched by bisection.
+ * 
+ * @author hwellmann
+ * 
+ */
+public abstract class NodeLocationStore
+{
+    /** Returned by {@link #get(long)} for nodes not contained in the store. */
+    public static final long UNKNOWN = Long.MIN_VALUE;
+
+    static final int MAGIC = 0x4f4d4e4c;
+    
+    static final int DENSE = 0;
+    
+    static final int SPARSE = 1;
+
+    static final int HEADER_SIZE = 16;
+    
+    static final int LATITUDE_OFFSET = 1000000000;
+    
+    protected MappedFile file;
+    
+    protected long numEntries;
+
+    protected NodeLocationStore(MappedFile file, long numEntries)
+    {
+        this.file = file;
+        this.numEntries = numEntries;
+    }
+
+    /**
+     * Opens the given store file for reading.
+     * @param storeFile  file written by a {@link NodeLocationStoreWriter}
+     * @return store
+     */
+    public static NodeLocationStore open(File storeFile)
+    {
+        try
+        {
+            RandomAccessFile raf = new RandomAccessFile(storeFile, "r");
+            int magic;
+            int layout;
+            long numEntries;
+            try
+            {
+                magic = raf.readInt();
+                layout = raf.readInt();
+                numEntries = raf.readLong();
+            }
+            finally
+            {
+                raf.close();
+            }
+            if (magic != MAGIC)
+            {
+                throw new OmadacException(storeFile + " is not a node location store");
+            }
+            
+            MappedFile mappedFile = new MappedFile(storeFile, false);
+            if (layout == SPARSE)
+            {
+                return new SparseNodeLocationStore(mappedFile, numEntries);
+            }
+            return new DenseNodeLocationStore(mappedFile, numEntries);
+        }
+        catch (IOException exc)
+        {
+            throw new OmadacException(exc);
+        }
+    }
+
+    /**
+     * Packs a location into a long.
+     * @param latitude  latitude in 1E-7 degrees
+     * @param longitude  longitude in 1E-7 degrees
+     * @return packed location
+     */
+    public static long pack(int latitude, int longitude)
+    {
+        return ((long) latitude << 32) | (longitude & 0xFFFFFFFFL);
+    }
+
+    public static int getLatitude(long location)
+    {
+        return (int) (location >> 32);
+    }
+
+    public static int getLongitude(long location)
+    {
+        return (int) location;
+    }
+
+    /**
+     * Returns the location of the given node.
+     * @param nodeId  node id
+     * @return location packed by {@link #pack(int, int)}, or {@link #UNKNOWN}
+     */
+    public long get(long nodeId)
+    {
+        try
+        {
+            return lookup(nodeId);
+        }
+        catch (IOException exc)
+        {
+            throw new OmadacException(exc);
+        }
+    }
+
+    protected abstract long lookup(long nodeId) throws IOException;
+
+    public long getNumEntries()
+    {
+        return numEntries;
+    }
+    
+    public void close()
+    {
+        try
+        {
+            file.close();
+        }
+        catch (IOException exc)
+        {
+            throw new OmadacException(exc);
+        }
+    }
+}
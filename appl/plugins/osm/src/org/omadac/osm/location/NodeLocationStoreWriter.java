@@ -0,0 +1,244 @@
+/*
+ *    Omadac - The Open Map Database Compiler
+ *    http://omadac.org
+ * 
+ *    (C) 2010, Harald Wellmann and Contributors
+ *
+ *    This library is free software; you can redistribute it and/or
+ *    modify it under the terms of the GNU Lesser General Public
+ *    License as published by the Free Software Foundation;
+ *    version 2.1 of the License.
+ *
+ *    This library is distributed in the hope that it will be useful,
+ *    but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ *    Lesser General Public License for more details.
+ */
+package org.omadac.osm.location;
+
+import static org.omadac.osm.location.NodeLocationStore.DENSE;
+import static org.omadac.osm.location.NodeLocationStore.HEADER_SIZE;
+import static org.omadac.osm.location.NodeLocationStore.LATITUDE_OFFSET;
+import static org.omadac.osm.location.NodeLocationStore.MAGIC;
+import static org.omadac.osm.location.NodeLocationStore.SPARSE;
+
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+
+import org.omadac.config.OmadacException;
+
+/**
+ * Writes a {@link NodeLocationStore} file. The dense layout is written through a memory 
+ * mapping and accepts nodes in any order, but no negative ids. Its file size is proportional
+ * to the largest node id, so it is meant for planet-sized input. The sparse layout is written
+ * sequentially and requires nodes in ascending id order, as in OSM files. 
+ * <p>
+ * An existing store with the dense layout can be opened with {@link #openForUpdate(File)} to
+ * apply node changes. The sparse layout cannot be updated.
+ * 
+ * @author hwellmann
+ * 
+ */
+public class NodeLocationStoreWriter
+{
+    private File storeFile;
+    
+    private boolean sparse;
+    
+    private MappedFile mappedFile;
+    
+    private DataOutputStream os;
+    
+    private long numEntries;
+    
+    private long lastId = Long.MIN_VALUE;
+
+    /**
+     * Creates a store file, replacing any existing file.
+     * @param storeFile  store file
+     * @param sparse  use the sparse layout
+     */
+    public NodeLocationStoreWriter(File storeFile, boolean sparse)
+    {
+        this.storeFile = storeFile;
+        this.sparse = sparse;
+        try
+        {
+            if (storeFile.exists() && !storeFile.delete())
+            {
+                throw new IOException("cannot delete " + storeFile);
+            }
+            if (sparse)
+            {
+                os = new DataOutputStream(new BufferedOutputStream(
+                    new FileOutputStream(storeFile), 1 << 16));
+                os.write(new byte[HEADER_SIZE]);
+            }
+            else
+            {
+                mappedFile = new MappedFile(storeFile, true);
+            }
+        }
+        catch (IOException exc)
+        {
+            throw new OmadacException(exc);
+        }
+    }
+
+    private NodeLocationStoreWriter(File storeFile, MappedFile mappedFile, long numEntries)
+    {
+        this.storeFile = storeFile;
+        this.mappedFile = mappedFile;
+        this.numEntries = numEntries;
+    }
+
+    /**
+     * Opens an existing store for updating the locations of created, modified and deleted
+     * nodes.
+     * @param storeFile  store file with the dense layout
+     * @return writer, to be closed by the caller
+     */
+    public static NodeLocationStoreWriter openForUpdate(File storeFile)
+    {
+        try
+        {
+            RandomAccessFile raf = new RandomAccessFile(storeFile, "r");
+            int magic;
+            int layout;
+            long numEntries;
+            try
+            {
+                magic = raf.readInt();
+                layout = raf.readInt();
+                numEntries = raf.readLong();
+            }
+            finally
+            {
+                raf.close();
+            }
+            if (magic != MAGIC)
+            {
+                throw new OmadacException(storeFile + " is not a node location store");
+            }
+            if (layout != DENSE)
+            {
+                throw new OmadacException(storeFile 
+                    + " has the sparse layout, which cannot be updated");
+            }
+            return new NodeLocationStoreWriter(storeFile, new MappedFile(storeFile, true), 
+                numEntries);
+        }
+        catch (IOException exc)
+        {
+            throw new OmadacException(exc);
+        }
+    }
+
+    /**
+     * Stores the location of a node.
+     * @param nodeId  node id
+     * @param latitude  latitude in 1E-7 degrees
+     * @param longitude  longitude in 1E-7 degrees
+     */
+    public void put(long nodeId, int latitude, int longitude)
+    {
+        try
+        {
+            if (sparse)
+            {
+                if (nodeId <= lastId)
+                {
+                    throw new OmadacException("node " + nodeId 
+                        + " out of order, the sparse layout requires ascending ids");
+                }
+                os.writeLong(nodeId);
+                os.writeInt(latitude);
+                os.writeInt(longitude);
+                lastId = nodeId;
+                numEntries++;
+            }
+            else
+            {
+                if (nodeId < 0)
+                {
+                    throw new OmadacException("negative node id " + nodeId 
+                        + " requires the sparse layout");
+                }
+                long offset = HEADER_SIZE + 8 * nodeId;
+                mappedFile.putInt(offset, latitude + LATITUDE_OFFSET);
+                mappedFile.putInt(offset + 4, longitude);
+                numEntries = Math.max(numEntries, nodeId + 1);
+            }
+        }
+        catch (IOException exc)
+        {
+            throw new OmadacException(exc);
+        }
+    }
+
+    /**
+     * Removes the location of a node. Only supported by the dense layout.
+     * @param nodeId  node id
+     */
+    public void remove(long nodeId)
+    {
+        if (sparse)
+        {
+            throw new OmadacException("removing nodes requires the dense layout");
+        }
+        if (nodeId < 0 || nodeId >= numEntries)
+        {
+            return;
+        }
+        try
+        {
+            long offset = HEADER_SIZE + 8 * nodeId;
+            mappedFile.putInt(offset, 0);
+            mappedFile.putInt(offset + 4, 0);
+        }
+        catch (IOException exc)
+        {
+            throw new OmadacException(exc);
+        }
+    }
+
+    /**
+     * Writes the header and closes the file.
+     */
+    public void close()
+    {
+        try
+        {
+            if (sparse)
+            {
+                os.close();
+                RandomAccessFile raf = new RandomAccessFile(storeFile, "rw");
+                try
+                {
+                    raf.writeInt(MAGIC);
+                    raf.writeInt(SPARSE);
+                    raf.writeLong(numEntries);
+                }
+                finally
+                {
+                    raf.close();
+                }
+            }
+            else
+            {
+                mappedFile.putInt(0, MAGIC);
+                mappedFile.putInt(4, DENSE);
+                mappedFile.putLong(8, numEntries);
+                mappedFile.close();
+            }
+        }
+        catch (IOException exc)
+        {
+            throw new OmadacException(exc);
+        }
+    }
+}
@@ -0,0 +1,61 @@
+/*
+ *    Omadac - The Open Map Database Compiler
+ *    http://omadac.org
+ * 
+ *    (C) 2010, Harald Wellmann and Contributors
+ *
+ *    This library is free software; you can redistribute it and/or
+ *    modify it under the terms of the GNU Lesser General Public
+ *    License as published by the Free Software Foundation;
+ *    version 2.1 of the License.
+ *
+ *    This library is distributed in the hope that it will be useful,
+ *    but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ *    Lesser General Public License for more details.
+ */
+package org.omadac.osm.location;
+
+import java.io.IOException;
+
+/**
+ * Node location store with the sparse layout, searching a sorted array of node ids.
+ * 
+ * @author hwellmann
+ * 
+ */
+class SparseNodeLocationStore extends NodeLocationStore
+{
+    static final int ENTRY_SIZE = 16;
+    
+    public SparseNodeLocationStore(MappedFile file, long numEntries)
+    {
+        super(file, numEntries);
+    }
+
+    @Override
+    protected long lookup(long nodeId) throws IOException
+    {
+        long low = 0;
+        long high = numEntries - 1;
+        while (low <= high)
+        {
+            long mid = (low + high) >>> 1;
+            long offset = HEADER_SIZE + ENTRY_SIZE * mid;
+            long id = file.getLong(offset);
+            if (id < nodeId)
+            {
+                low = mid + 1;
+            }
+            else if (id > nodeId)
+            {
+                high = mid - 1;
+            }
+            else
+            {
+                return pack(file.getInt(offset + 8), file.getInt(offset + 12));
+            }
+        }
+        return UNKNOWN;
+    }
+}
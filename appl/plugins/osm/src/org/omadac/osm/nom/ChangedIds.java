@@ -0,0 +1,212 @@
+/*
+ *    Omadac - The Open Map Database Compiler
+ *    http://omadac.org
+ * 
+ *    (C) 2010, Harald Wellmann and Contributors
+ *
+ *    This library is free software; you can redistribute it and/or
+ *    modify it under the terms of the GNU Lesser General Public
+ *    License as published by the Free Software Foundation;
+ *    version 2.1 of the License.
+ *
+ *    This library is distributed in the hope that it will be useful,
+ *    but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ *    Lesser General Public License for more details.
+ */
+package org.omadac.osm.nom;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+
+import javax.persistence.EntityManager;
+import javax.persistence.Query;
+
+import org.omadac.jpa.JpaUtil;
+import org.omadac.make.util.NumberRange;
+
+/**
+ * Sorted set of OSM ids affected by the changes recorded in {@code osm.changes}, used for
+ * selecting the outdated subtargets of a complex target split into id ranges.
+ * 
+ * @author hwellmann
+ * 
+ */
+public class ChangedIds
+{
+    private long[] ids;
+
+    /**
+     * Creates a set of changed ids.
+     * @param sortedIds  ids in ascending order
+     */
+    public ChangedIds(List<Long> sortedIds)
+    {
+        ids = new long[sortedIds.size()];
+        for (int i = 0; i < ids.length; i++)
+        {
+            ids[i] = sortedIds.get(i);
+        }
+    }
+
+    /**
+     * Loads the ids of changed ways and of ways referencing changed nodes.
+     * @param em  entity manager
+     * @return way ids, or null if there are no recorded changes
+     */
+    public static ChangedIds forWays(EntityManager em)
+    {
+        return load(em, "select c.id from osm.changes c where c.element_type = 2 "
+            + "union "
+            + "select wn.id from osm.changes c "
+            + "join osm.way_nodes wn "
+            + "on wn.node_id = c.id "
+            + "where c.element_type = 1 "
+            + "order by 1");
+    }
+
+    /**
+     * Loads the ids of changed nodes.
+     * @param em  entity manager
+     * @return node ids, or null if there are no recorded changes
+     */
+    public static ChangedIds forNodes(EntityManager em)
+    {
+        return load(em, "select distinct c.id from osm.changes c where c.element_type = 1 "
+            + "order by c.id");
+    }
+
+    private static ChangedIds load(EntityManager em, String sql)
+    {
+        if (!JpaUtil.getMetadataInspector(em).hasTable("osm", "changes"))
+        {
+            return null;
+        }
+        Query query = em.createNativeQuery(sql);
+
+        @SuppressWarnings("unchecked")
+        List<Long> results = query.getResultList();
+        if (results.isEmpty())
+        {
+            return null;
+        }
+        return new ChangedIds(results);
+    }
+
+    public int size()
+    {
+        return ids.length;
+    }
+
+    /**
+     * Checks if the given range contains any changed id.
+     */
+    public boolean intersects(NumberRange<Long> range)
+    {
+        int index = Arrays.binarySearch(ids, range.getMinId());
+        if (index >= 0)
+        {
+            return true;
+        }
+        int insertionPoint = -index - 1;
+        return insertionPoint < ids.length && ids[insertionPoint] <= range.getMaxId();
+    }
+
+    /**
+     * Returns the ranges to be recompiled: all previous ranges containing a changed id, and
+     * new ranges for changed ids not contained in any previous range.
+     * 
+     * @param previousSubtargets  names of the previous subtargets, ending with the bounds of
+     *                            their ranges, as in {@code NomLinks_100_199}
+     * @param rangeSize  maximum number of changed ids in each new range
+     * @return outdated ranges
+     */
+    public List<NumberRange<Long>> getOutdatedRanges(List<String> previousSubtargets, 
+        int rangeSize)
+    {
+        List<NumberRange<Long>> ranges = new ArrayList<NumberRange<Long>>();
+        for (String name : previousSubtargets)
+        {
+            NumberRange<Long> range = parseRange(name);
+            if (range != null)
+            {
+                ranges.add(range);
+            }
+        }
+        Collections.sort(ranges, new Comparator<NumberRange<Long>>()
+        {
+            @Override
+            public int compare(NumberRange<Long> left, NumberRange<Long> right)
+            {
+                return left.getMinId().compareTo(right.getMinId());
+            }
+        });
+        
+        List<NumberRange<Long>> outdated = new ArrayList<NumberRange<Long>>();
+        for (NumberRange<Long> range : ranges)
+        {
+            if (intersects(range))
+            {
+                outdated.add(range);
+            }
+        }
+
+        /*
+         * Ids and ranges are sorted and ranges are disjoint: a single pass suffices.
+         * Uncovered ids are split per gap between previous ranges, so that new ranges
+         * never overlap previous ones.
+         */
+        List<Long> uncovered = new ArrayList<Long>();
+        int rangeIndex = 0;
+        for (long id : ids)
+        {
+            int gapIndex = rangeIndex;
+            while (rangeIndex < ranges.size() && ranges.get(rangeIndex).getMaxId() < id)
+            {
+                rangeIndex++;
+            }
+            if (rangeIndex != gapIndex)
+            {
+                outdated.addAll(NumberRange.split(uncovered, rangeSize));
+                uncovered.clear();
+            }
+            if (rangeIndex == ranges.size() || ranges.get(rangeIndex).getMinId() > id)
+            {
+                uncovered.add(id);
+            }
+        }
+        outdated.addAll(NumberRange.split(uncovered, rangeSize));
+        return outdated;
+    }
+
+    /**
+     * Parses the range bounds from a subtarget name.
+     * @return range, or null if the name does not end with two numbers
+     */
+    static NumberRange<Long> parseRange(String name)
+    {
+        int maxStart = name.lastIndexOf('_');
+        if (maxStart <= 0)
+        {
+            return null;
+        }
+        int minStart = name.lastIndexOf('_', maxStart - 1);
+        if (minStart < 0)
+        {
+            return null;
+        }
+        try
+        {
+            long minId = Long.parseLong(name.substring(minStart + 1, maxStart));
+            long maxId = Long.parseLong(name.substring(maxStart + 1));
+            return new NumberRange<Long>(minId, maxId);
+        }
+        catch (NumberFormatException exc)
+        {
+            return null;
+        }
+    }
+}
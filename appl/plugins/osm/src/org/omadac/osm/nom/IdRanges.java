@@ -0,0 +1,323 @@
+/*
+ *    Omadac - The Open Map Database Compiler
+ *    http://omadac.org
+ * 
+ *    (C) 2011, Harald Wellmann and Contributors
+ *
+ *    This library is free software; you can redistribute it and/or
+ *    modify it under the terms of the GNU Lesser General Public
+ *    License as published by the Free Software Foundation;
+ *    version 2.1 of the License.
+ *
+ *    This library is distributed in the hope that it will be useful,
+ *    but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ *    Lesser General Public License for more details.
+ */
+package org.omadac.osm.nom;
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.NoSuchElementException;
+
+import javax.persistence.EntityManager;
+import javax.persistence.Query;
+
+import org.omadac.config.OmadacException;
+import org.omadac.jpa.JpaUtil;
+import org.omadac.make.ComplexTarget;
+import org.omadac.make.util.NumberRange;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Splits the IDs selected by a query into ranges on the database server. The IDs are 
+ * numbered by a window function and grouped into buckets, so that only the bounds of each
+ * range are transferred, and not every single ID.
+ * <p>
+ * For streaming complex steps, {@link #iterateByWeight(EntityManager, ComplexTarget, String, 
+ * long, Object...)} returns the ranges through a server-side cursor while the query is
+ * still running.
+ * 
+ * @author hwellmann
+ * 
+ */
+public class IdRanges
+{
+    private static Logger log = LoggerFactory.getLogger(IdRanges.class);
+
+    /** Number of rows fetched per round trip by the range cursor. */
+    private static final int FETCH_SIZE = 100;
+
+    private IdRanges()
+    {
+    }
+
+    /**
+     * Splits the IDs selected by the given native query into ranges, such that each range 
+     * (possibly except the last one) contains the given number of IDs. The result is the same
+     * as for {@link NumberRange#split(List, int)} applied to the sorted list of IDs.
+     * 
+     * @param em         entity manager
+     * @param idQuery    native query selecting distinct IDs in a column named {@code id}, 
+     *                   without an order by clause
+     * @param rangeSize  number of IDs per range
+     * @param params     values of the positional parameters of the query
+     * @return ranges in ascending order
+     */
+    public static List<NumberRange<Long>> split(EntityManager em, String idQuery, 
+        int rangeSize, Object... params)
+    {
+        String sql = "select min(id), max(id) from "
+            + "(select id, (row_number() over (order by id) - 1) / " + rangeSize 
+            + " as bucket from (" + idQuery + ") ids) numbered "
+            + "group by bucket order by bucket";
+        return getRanges(createQuery(em, sql, params));
+    }
+
+    /**
+     * Splits the IDs selected by the given native query into ranges of roughly equal weight,
+     * where the weight of an ID measures the work of compiling the given element, e.g. the 
+     * number of nodes of a way. The IDs are split in ascending order, starting a new range 
+     * whenever the cumulated weight exceeds a multiple of the range weight. An ID with a 
+     * weight exceeding the range weight may thus form a range of its own.
+     * <p>
+     * The range weight is obtained from 
+     * {@link ComplexTarget#getRangeWeight(long, long)}, which adapts the default range 
+     * weight to the durations of the subtargets in the previous run.
+     * 
+     * @param em             entity manager
+     * @param target         complex target to be split
+     * @param weightQuery    native query selecting distinct IDs in a column named {@code id}
+     *                       and their positive weight in a column named {@code weight}, 
+     *                       without an order by clause
+     * @param defaultWeight  default weight per range
+     * @param params         values of the positional parameters of the query
+     * @return ranges in ascending order
+     */
+    public static List<NumberRange<Long>> splitByWeight(EntityManager em, 
+        ComplexTarget target, String weightQuery, long defaultWeight, Object... params)
+    {
+        long rangeWeight = getRangeWeight(em, target, weightQuery, defaultWeight, params);
+        String sql = "select min(id), max(id) from (" 
+            + bucketQuery(weightQuery, rangeWeight) + ") numbered "
+            + "group by bucket order by bucket";
+        return getRanges(createQuery(em, sql, params));
+    }
+
+    /**
+     * Splits the IDs selected by the given native query into ranges of roughly equal weight,
+     * like {@link #splitByWeight(EntityManager, ComplexTarget, String, long, Object...)}, 
+     * but returns the ranges one by one. Only the first and the last ID of each range are
+     * selected, and they are fetched through a server-side cursor, so that a range is 
+     * returned as soon as the server has numbered its IDs, before the query has completed. 
+     * <p>
+     * The cursor is opened on first use, with an entity manager and a transaction of its 
+     * own, so that the iterator may be consumed after the transaction of the caller has 
+     * ended. It is closed when the iterator is exhausted or fails.
+     * 
+     * @param em             entity manager, for computing the range weight
+     * @param target         complex target to be split
+     * @param weightQuery    native query selecting distinct IDs in a column named {@code id}
+     *                       and their positive weight in a column named {@code weight}, 
+     *                       without an order by clause, with positional parameters in 
+     *                       ascending order
+     * @param defaultWeight  default weight per range
+     * @param params         values of the positional parameters of the query
+     * @return iterator over the ranges in ascending order
+     */
+    public static Iterator<NumberRange<Long>> iterateByWeight(EntityManager em, 
+        ComplexTarget target, String weightQuery, long defaultWeight, Object... params)
+    {
+        long rangeWeight = getRangeWeight(em, target, weightQuery, defaultWeight, params);
+        String sql = "select id, bucket from "
+            + "(select id, bucket, lag(bucket) over (order by id) as previous, "
+            + "lead(bucket) over (order by id) as next from (" 
+            + bucketQuery(weightQuery, rangeWeight) + ") numbered) bounds "
+            + "where previous is distinct from bucket or next is distinct from bucket "
+            + "order by id";
+        return new RangeCursor(sql.replaceAll("\\?\\d+", "?"), params);
+    }
+
+    private static long getRangeWeight(EntityManager em, ComplexTarget target, 
+        String weightQuery, long defaultWeight, Object... params)
+    {
+        String sql = "select coalesce(sum(weight), 0) from (" + weightQuery + ") weights";
+        Number totalWeight = (Number) createQuery(em, sql, params).getSingleResult();
+        long rangeWeight = target.getRangeWeight(totalWeight.longValue(), defaultWeight);
+        log.info("splitting {} with weight {} per range", target, rangeWeight);
+        return rangeWeight;
+    }
+
+    /**
+     * Returns a query numbering the buckets of the IDs selected by the given weight query.
+     */
+    private static String bucketQuery(String weightQuery, long rangeWeight)
+    {
+        return "select id, floor((sum(weight) over (order by id) - weight) / " + rangeWeight
+            + ") as bucket from (" + weightQuery + ") weights";
+    }
+
+    private static Query createQuery(EntityManager em, String sql, Object... params)
+    {
+        Query query = em.createNativeQuery(sql);
+        for (int i = 0; i < params.length; i++)
+        {
+            query.setParameter(i + 1, params[i]);
+        }
+        return query;
+    }
+
+    private static List<NumberRange<Long>> getRanges(Query query)
+    {
+        @SuppressWarnings("unchecked")
+        List<Object[]> results = query.getResultList();
+        List<NumberRange<Long>> ranges = new ArrayList<NumberRange<Long>>(results.size());
+        for (Object[] result : results)
+        {
+            ranges.add(new NumberRange<Long>((Long) result[0], (Long) result[1]));
+        }
+        return ranges;
+    }
+
+    /**
+     * Iterates over the ranges of ID buckets, given by rows with the first and the last ID 
+     * of each bucket, which coincide for buckets with a single ID.
+     */
+    private static class RangeCursor implements Iterator<NumberRange<Long>>
+    {
+        private String sql;
+
+        private Object[] params;
+
+        private EntityManager em;
+
+        private PreparedStatement st;
+
+        private ResultSet rs;
+
+        /** True if the result set is positioned on a row not yet consumed. */
+        private boolean onRow;
+
+        private boolean exhausted;
+
+        public RangeCursor(String sql, Object[] params)
+        {
+            this.sql = sql;
+            this.params = params;
+        }
+
+        @Override
+        public boolean hasNext()
+        {
+            if (exhausted)
+            {
+                return false;
+            }
+            try
+            {
+                if (rs == null)
+                {
+                    open();
+                }
+                if (!onRow)
+                {
+                    onRow = rs.next();
+                }
+                if (!onRow)
+                {
+                    close(true);
+                }
+                return onRow;
+            }
+            catch (SQLException exc)
+            {
+                close(false);
+                throw new OmadacException(exc);
+            }
+        }
+
+        @Override
+        public NumberRange<Long> next()
+        {
+            if (!hasNext())
+            {
+                throw new NoSuchElementException();
+            }
+            try
+            {
+                long minId = rs.getLong(1);
+                long bucket = rs.getLong(2);
+                long maxId = minId;
+                onRow = rs.next();
+                if (onRow && rs.getLong(2) == bucket)
+                {
+                    maxId = rs.getLong(1);
+                    onRow = false;
+                }
+                return new NumberRange<Long>(minId, maxId);
+            }
+            catch (SQLException exc)
+            {
+                close(false);
+                throw new OmadacException(exc);
+            }
+        }
+
+        @Override
+        public void remove()
+        {
+            throw new UnsupportedOperationException();
+        }
+
+        private void open() throws SQLException
+        {
+            em = JpaUtil.getNewEntityManager();
+            Connection dbc = JpaUtil.getConnection(em);
+            st = dbc.prepareStatement(sql);
+            for (int i = 0; i < params.length; i++)
+            {
+                st.setObject(i + 1, params[i]);
+            }
+            // a positive fetch size within a transaction makes the driver use a cursor
+            st.setFetchSize(FETCH_SIZE);
+            rs = st.executeQuery();
+        }
+
+        private void close(boolean commit)
+        {
+            exhausted = true;
+            try
+            {
+                if (st != null)
+                {
+                    st.close();
+                }
+                if (commit)
+                {
+                    em.getTransaction().commit();
+                }
+                else if (em != null)
+                {
+                    em.getTransaction().rollback();
+                }
+            }
+            catch (SQLException exc)
+            {
+                throw new OmadacException(exc);
+            }
+            finally
+            {
+                if (em != null)
+                {
+                    em.close();
+                }
+            }
+        }
+    }
+}
@@ -1,5 +1,9 @@
 package org.omadac.osm.nom;
 
+import java.io.IOException;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
 import java.util.Collection;
 import java.util.List;
 import java.util.Map;
@@ -7,9 +11,13 @@ import java.util.Map;
 import javax.persistence.EntityManager;
 import javax.persistence.Query;
 
+import org.omadac.config.OmadacException;
+import org.omadac.jpa.JpaUtil;
 import org.omadac.make.util.NumberRange;
+import org.omadac.nom.NomArea;
 import org.omadac.nom.NomJunction;
 import org.omadac.nom.NomLink;
+import org.omadac.nom.convert.ByteArrayPackedGeometryWriter;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
@@ -79,4 +87,109 @@ public class LinkDao
         }
         log.info("done");
     }
+
+    /**
+     * Inserts the given areas with a batched JDBC statement, avoiding a round trip per area
+     * for the generated identity, and then adds the rows of {@code nom.area} for all areas
+     * with a source ID in the given range. The range must not contain any previously saved 
+     * areas, and the ids of the areas are not set.
+     * @param areas  new areas
+     * @param range  range of relation IDs containing the source IDs of the areas
+     */
+    public void saveAreas(Collection<NomArea> areas, NumberRange<Long> range)
+    {
+        if (areas.isEmpty())
+        {
+            return;
+        }
+        Connection dbc = JpaUtil.getConnection(em);
+        ByteArrayPackedGeometryWriter writer = new ByteArrayPackedGeometryWriter();
+        try
+        {
+            PreparedStatement insert = dbc.prepareStatement("insert into nom.feature "
+                + "(discriminator, feature_type, source_id, geometry) values ('A', ?, ?, ?)");
+            try
+            {
+                for (NomArea area : areas)
+                {
+                    writer.reset();
+                    writer.write(area.getGeometry());
+                    insert.setInt(1, area.getFeatureType());
+                    insert.setLong(2, area.getSourceId());
+                    insert.setBytes(3, writer.toByteArray());
+                    insert.addBatch();
+                }
+                insert.executeBatch();
+            }
+            finally
+            {
+                insert.close();
+            }
+            
+            insert = dbc.prepareStatement("insert into nom.area (feature_id) "
+                + "select f.feature_id from nom.feature f "
+                + "where f.discriminator = 'A' and f.source_id between ? and ?");
+            try
+            {
+                insert.setLong(1, range.getMinId());
+                insert.setLong(2, range.getMaxId());
+                insert.executeUpdate();
+            }
+            finally
+            {
+                insert.close();
+            }
+        }
+        catch (IOException exc)
+        {
+            throw new OmadacException(exc);
+        }
+        catch (SQLException exc)
+        {
+            throw new OmadacException(exc);
+        }
+    }
+
+    /**
+     * Inserts turn restrictions of the given type with a batched JDBC statement, avoiding a
+     * round trip per restriction for the generated identity. 
+     * @param type  restriction type
+     * @param restrictions  junction ID, from link ID, to link ID and relation ID of each new
+     *                      turn restriction
+     */
+    public void saveTurnRestrictions(int type, Collection<long[]> restrictions)
+    {
+        if (restrictions.isEmpty())
+        {
+            return;
+        }
+        Connection dbc = JpaUtil.getConnection(em);
+        try
+        {
+            PreparedStatement insert = dbc.prepareStatement("insert into nom.turn_restriction "
+                + "(restriction_type, junction_id, from_link_id, to_link_id, source_id) "
+                + "values (?, ?, ?, ?, ?)");
+            try
+            {
+                for (long[] restriction : restrictions)
+                {
+                    insert.setInt(1, type);
+                    insert.setLong(2, restriction[0]);
+                    insert.setLong(3, restriction[1]);
+                    insert.setLong(4, restriction[2]);
+                    insert.setLong(5, restriction[3]);
+                    insert.addBatch();
+                }
+                insert.executeBatch();
+            }
+            finally
+            {
+                insert.close();
+            }
+        }
+        catch (SQLException exc)
+        {
+            throw new OmadacException(exc);
+        }
+    }
 }
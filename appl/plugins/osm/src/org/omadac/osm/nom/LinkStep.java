@@ -18,6 +18,7 @@ package org.omadac.osm.nom;
 
 import java.util.ArrayList;
 import java.util.HashMap;
+import java.util.Iterator;
 import java.util.List;
 import java.util.Map;
 
@@ -28,7 +29,8 @@ import org.omadac.geom.CoordinateListSequence;
 import org.omadac.geom.LineNormalizer;
 import org.omadac.jpa.JpaUtil;
 import org.omadac.jpa.MetadataInspector;
-import org.omadac.make.ComplexStep;
+import org.omadac.make.IncrementalComplexStep;
+import org.omadac.make.StreamingComplexStep;
 import org.omadac.make.util.NumberRange;
 import org.omadac.nom.NomFeatureType;
 import org.omadac.nom.NomJunction;
@@ -45,12 +47,16 @@ import com.vividsolutions.jts.geom.GeometryFactory;
 import com.vividsolutions.jts.geom.LineString;
 
 @Pooled
-public class LinkStep implements ComplexStep<LinkComplexTarget, LinkSubtarget> 
+public class LinkStep implements IncrementalComplexStep<LinkComplexTarget, LinkSubtarget>,
+    StreamingComplexStep<LinkComplexTarget, LinkSubtarget>
 {
     private static Logger log = LoggerFactory.getLogger(LinkStep.class);
 
     private static final int NUM_LINKS = 100;
 
+    /** Default number of highway nodes per subtarget. */
+    private static final long RANGE_WEIGHT = 1000;
+
     private EntityManager em;
 
     private Map<String, RoadAttributes> highwayTypeMap;
@@ -107,18 +113,69 @@ public class LinkStep implements ComplexStep<LinkComplexTarget, LinkSubtarget>
     
     @Override
     public List<LinkSubtarget> split(LinkComplexTarget target)
+    {
+        List<LinkSubtarget> subtargets = new ArrayList<LinkSubtarget>();
+        Iterator<LinkSubtarget> it = splitIterator(target);
+        while (it.hasNext())
+        {
+            subtargets.add(it.next());
+        }
+        return subtargets;
+    }
+
+    @Override
+    public Iterator<LinkSubtarget> splitIterator(LinkComplexTarget target)
     {
         persistRoadAttributes();
         
+        final Iterator<NumberRange<Long>> ranges = getRanges(target);
+        return new Iterator<LinkSubtarget>()
+        {
+            @Override
+            public boolean hasNext()
+            {
+                return ranges.hasNext();
+            }
+
+            @Override
+            public LinkSubtarget next()
+            {
+                LinkSubtarget subtarget = new LinkSubtarget(ranges.next());
+                subtarget.setStep(LinkStep.this);
+                return subtarget;
+            }
+
+            @Override
+            public void remove()
+            {
+                throw new UnsupportedOperationException();
+            }
+        };
+    }
+
+    /**
+     * Returns the previous subtargets containing changed ways or ways with changed nodes,
+     * and new subtargets for changed ways outside of these.
+     */
+    @Override
+    public List<LinkSubtarget> splitChanges(LinkComplexTarget target, 
+        List<String> previousSubtargets)
+    {
+        ChangedIds changedIds = ChangedIds.forWays(em);
+        if (changedIds == null || previousSubtargets.isEmpty())
+        {
+            return null;
+        }
+        
         List<LinkSubtarget> subtargets = new ArrayList<LinkSubtarget>();
-        List<NumberRange<Long>> ranges = getRanges(NUM_LINKS);
-        for (NumberRange<Long> range : ranges)
+        for (NumberRange<Long> range : changedIds.getOutdatedRanges(previousSubtargets, 
+            NUM_LINKS))
         {
             LinkSubtarget subtarget = new LinkSubtarget(range);
             subtarget.setStep(this);
             subtargets.add(subtarget);
         }
-        
+        log.info("{} changed ways in {} subtargets", changedIds.size(), subtargets.size());
         return subtargets;
     }
 
@@ -126,10 +183,14 @@ public class LinkStep implements ComplexStep<LinkComplexTarget, LinkSubtarget>
     public void merge(LinkComplexTarget target)
     {
         em.clear();
-        em.createNativeQuery(
-            "alter table nom.link "
-            + "add constraint pk_link "
-            + "primary key (feature_id)").executeUpdate();
+        MetadataInspector inspector = JpaUtil.getMetadataInspector(em);
+        if (!inspector.hasPrimaryKey("nom", "link"))
+        {
+            em.createNativeQuery(
+                "alter table nom.link "
+                + "add constraint pk_link "
+                + "primary key (feature_id)").executeUpdate();
+        }
     }
 
     @Override
@@ -150,11 +211,26 @@ public class LinkStep implements ComplexStep<LinkComplexTarget, LinkSubtarget>
         log.info("done");
     }
 
+    /**
+     * Deletes the links created from the ways of the given subtarget.
+     */
     @Override
     public void clean(LinkSubtarget target)
     {
-        // TODO Auto-generated method stub
-        
+        String features = "select f.feature_id from nom.feature f "
+            + "where f.discriminator = 'L' and f.source_id between ?1 and ?2";
+        String[] sqls = {
+            "delete from nom.link_junction where link_id in (" + features + ")",
+            "delete from nom.link where feature_id in (" + features + ")",
+            "delete from nom.feature where discriminator = 'L' and source_id between ?1 and ?2" 
+        };
+        for (String sql : sqls)
+        {
+            Query query = em.createNativeQuery(sql);
+            query.setParameter(1, target.getRange().getMinId());
+            query.setParameter(2, target.getRange().getMaxId());
+            query.executeUpdate();
+        }
     }
 
     @Override
@@ -211,17 +287,27 @@ public class LinkStep implements ComplexStep<LinkComplexTarget, LinkSubtarget>
         }
     }
 
-    private List<NumberRange<Long>> getRanges(int rangeSize)
+    /**
+     * Splits the ids of all highways into ranges, weighted by the number of nodes of each
+     * highway. The integer-coded tags are used if the tag dictionary was created on import.
+     * The ranges are fetched while they are consumed.
+     */
+    private Iterator<NumberRange<Long>> getRanges(LinkComplexTarget target)
     {
-        Query query = em
-                .createNativeQuery("select distinct id from osm.way_tags wt "
-                        + "where wt.k = 'highway' order by id");
-        
-        @SuppressWarnings("unchecked")
-        List<Long> ids = query.getResultList();
-        
-        List<NumberRange<Long>> ranges = NumberRange.split(ids, rangeSize);
-        return ranges;
+        Query query = em.createNativeQuery("select id from osm.tag_dict "
+            + "where k = 'highway' and v is null");
+        List<?> keyIds = query.getResultList();
+        if (keyIds.isEmpty())
+        {
+            return IdRanges.iterateByWeight(em, target, "select wn.id, count(*) as weight "
+                + "from osm.way_nodes wn "
+                + "where wn.id in (select id from osm.way_tags wt where wt.k = 'highway') "
+                + "group by wn.id", RANGE_WEIGHT);
+        }
+        return IdRanges.iterateByWeight(em, target, "select wn.id, count(*) as weight "
+            + "from osm.way_nodes wn "
+            + "where wn.id in (select id from osm.way_tag_codes wt where wt.key_id = ?1) "
+            + "group by wn.id", RANGE_WEIGHT, keyIds.get(0));
     }
     
     
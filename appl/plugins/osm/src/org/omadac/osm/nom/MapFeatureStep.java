@@ -16,15 +16,23 @@
  */
 package org.omadac.osm.nom;
 
+import java.io.File;
 import java.util.ArrayList;
+import java.util.Iterator;
 import java.util.List;
 
 import javax.persistence.EntityManager;
 import javax.persistence.Query;
 
-import org.omadac.make.ComplexStep;
+import org.omadac.config.ConfigManager;
+import org.omadac.config.jaxb.OmadacSettings;
+import org.omadac.config.jaxb.OsmSettings;
+import org.omadac.jpa.JpaUtil;
+import org.omadac.make.IncrementalComplexStep;
+import org.omadac.make.StreamingComplexStep;
 import org.omadac.make.util.NumberRange;
 import org.omadac.nom.Feature;
+import org.omadac.osm.location.NodeLocationStore;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
@@ -33,19 +41,33 @@ import com.vividsolutions.jts.geom.Geometry;
 import com.vividsolutions.jts.geom.GeometryFactory;
 import com.vividsolutions.jts.geom.LinearRing;
 
-public class MapFeatureStep implements ComplexStep<MapFeatureComplexTarget, MapFeatureSubtarget> 
+public class MapFeatureStep 
+    implements IncrementalComplexStep<MapFeatureComplexTarget, MapFeatureSubtarget>,
+    StreamingComplexStep<MapFeatureComplexTarget, MapFeatureSubtarget>
 {
     private static Logger log = LoggerFactory.getLogger(MapFeatureStep.class);
     private static final int NUM_LINKS = 5000;
 
+    /** Default number of way nodes per subtarget. */
+    private static final long RANGE_WEIGHT = 50000;
+
     private EntityManager em;
 
     private GeometryFactory factory = new GeometryFactory();
 
+    private OmadacSettings config;
+    
+    private NodeLocationStore nodeLocationStore;
+
     public MapFeatureStep()
     {
     }
 
+    public void setConfigManager(ConfigManager configManager)
+    {
+        config = configManager.getConfiguration();
+    }
+
     public void setEntityManager(EntityManager em)
     {
         this.em = em;
@@ -55,22 +77,82 @@ public class MapFeatureStep implements ComplexStep<MapFeatureComplexTarget, MapF
     public List<MapFeatureSubtarget> split(MapFeatureComplexTarget target)
     {
         List<MapFeatureSubtarget> subtargets = new ArrayList<MapFeatureSubtarget>();
-        List<NumberRange<Long>> ranges = getRanges(NUM_LINKS);
-        for (NumberRange<Long> range : ranges)
+        Iterator<MapFeatureSubtarget> it = splitIterator(target);
+        while (it.hasNext())
         {
-            MapFeatureSubtarget subtarget = new MapFeatureSubtarget(range);
-            subtargets.add(subtarget);
+            subtargets.add(it.next());
         }
-        
         return subtargets;
     }
 
+    @Override
+    public Iterator<MapFeatureSubtarget> splitIterator(MapFeatureComplexTarget target)
+    {
+        em.clear();
+        final Iterator<NumberRange<Long>> ranges = getRanges(target);
+        return new Iterator<MapFeatureSubtarget>()
+        {
+            @Override
+            public boolean hasNext()
+            {
+                return ranges.hasNext();
+            }
+
+            @Override
+            public MapFeatureSubtarget next()
+            {
+                return new MapFeatureSubtarget(ranges.next());
+            }
+
+            @Override
+            public void remove()
+            {
+                throw new UnsupportedOperationException();
+            }
+        };
+    }
+
     @Override
     public void merge(MapFeatureComplexTarget target)
     {
-        em.createNativeQuery("ALTER TABLE nom.feature " +
-                "ADD CONSTRAINT pk_feature " +
-                "PRIMARY KEY(feature_id)").executeUpdate();
+        synchronized (this)
+        {
+            if (nodeLocationStore != null)
+            {
+                nodeLocationStore.close();
+                nodeLocationStore = null;
+            }
+        }
+        if (!JpaUtil.getMetadataInspector(em).hasPrimaryKey("nom", "feature"))
+        {
+            em.createNativeQuery("ALTER TABLE nom.feature " +
+                    "ADD CONSTRAINT pk_feature " +
+                    "PRIMARY KEY(feature_id)").executeUpdate();
+        }
+    }
+
+    /**
+     * Returns the previous subtargets containing changed ways or ways with changed nodes,
+     * and new subtargets for changed ways outside of these.
+     */
+    @Override
+    public List<MapFeatureSubtarget> splitChanges(MapFeatureComplexTarget target,
+        List<String> previousSubtargets)
+    {
+        ChangedIds changedIds = ChangedIds.forWays(em);
+        if (changedIds == null || previousSubtargets.isEmpty())
+        {
+            return null;
+        }
+        
+        List<MapFeatureSubtarget> subtargets = new ArrayList<MapFeatureSubtarget>();
+        for (NumberRange<Long> range : changedIds.getOutdatedRanges(previousSubtargets, 
+            NUM_LINKS))
+        {
+            subtargets.add(new MapFeatureSubtarget(range));
+        }
+        log.info("{} changed ways in {} subtargets", changedIds.size(), subtargets.size());
+        return subtargets;
     }
 
     @Override
@@ -78,7 +160,11 @@ public class MapFeatureStep implements ComplexStep<MapFeatureComplexTarget, MapF
     {        
         factory = new GeometryFactory();
         target.coords = new ArrayList<Coordinate>();
-        String sql = "select w.id as way_id, wn.sequence_id as seq_num, "
+        NodeLocationStore store = getNodeLocationStore();
+        String sql;
+        if (store == null)
+        {
+            sql = "select w.id as way_id, wn.sequence_id as seq_num, "
                 + "n.id as node_id, n.latitude, n.longitude "
                 + "from osm.ways w  " 
                 + "left join nom.link l "
@@ -90,6 +176,21 @@ public class MapFeatureStep implements ComplexStep<MapFeatureComplexTarget, MapF
                 + "where w.id between ?1 and ?2 " 
                 + "and l.feature_id is null "
                 + "order by w.id, seq_num";
+        }
+        else
+        {
+            // node locations are resolved from the store, without joining osm.nodes
+            sql = "select w.id as way_id, wn.sequence_id as seq_num, "
+                + "wn.node_id "
+                + "from osm.ways w  " 
+                + "left join nom.link l "
+                + "on w.id = l.feature_id " 
+                + "join osm.way_nodes wn "
+                + "on w.id = wn.id " 
+                + "where w.id between ?1 and ?2 " 
+                + "and l.feature_id is null "
+                + "order by w.id, seq_num";
+        }
 
         Query query = em.createNativeQuery(sql);
         query.setParameter(1, target.getRange().getMinId());
@@ -109,11 +210,25 @@ public class MapFeatureStep implements ComplexStep<MapFeatureComplexTarget, MapF
             wayId = (Long) result[0];
             long seqNum = (Long) result[1];
             nodeId = (Long) result[2];
-            latitude = (Integer) result[3];
-            longitude = (Integer) result[4];
+            if (store == null)
+            {
+                latitude = (Integer) result[3];
+                longitude = (Integer) result[4];
+            }
+            else
+            {
+                long location = store.get(nodeId);
+                if (location == NodeLocationStore.UNKNOWN)
+                {
+                    log.warn("way {} references unknown node {}", wayId, nodeId);
+                    continue;
+                }
+                latitude = NodeLocationStore.getLatitude(location);
+                longitude = NodeLocationStore.getLongitude(location);
+            }
             log.trace("{} {} {} {} {}", new Object[] { wayId, seqNum, nodeId, latitude, longitude });
 
-            if (seqNum == 0)
+            if (wayId != lastWayId)
             {
                 if (lastWayId != -1)
                 {
@@ -125,13 +240,43 @@ public class MapFeatureStep implements ComplexStep<MapFeatureComplexTarget, MapF
 
             target.coords.add(new Coordinate(longitude, latitude));
         }
-        createFeature(target, wayId);
+        if (lastWayId != -1)
+        {
+            createFeature(target, lastWayId);
+        }
         log.info("{} features", target.numFeatures );
     }
 
+    /**
+     * Opens the node location store on first use, if configured.
+     * @return store, or null
+     */
+    private synchronized NodeLocationStore getNodeLocationStore()
+    {
+        if (nodeLocationStore == null && config != null)
+        {
+            OsmSettings osm = config.getImport().getOsm();
+            if (osm != null && osm.getNodeLocations() != null)
+            {
+                log.info("resolving node locations from {}", osm.getNodeLocations());
+                nodeLocationStore = NodeLocationStore.open(new File(osm.getNodeLocations()));
+            }
+        }
+        return nodeLocationStore;
+    }
+
+    /**
+     * Deletes the features created from the ways of the given subtarget.
+     */
     @Override
     public void clean(MapFeatureSubtarget target)
     {
+        String sql = "delete from nom.feature where discriminator = 'F' "
+            + "and source_id between ?1 and ?2";
+        Query query = em.createNativeQuery(sql);
+        query.setParameter(1, target.getRange().getMinId());
+        query.setParameter(2, target.getRange().getMaxId());
+        query.executeUpdate();
     }
 
     @Override
@@ -141,22 +286,19 @@ public class MapFeatureStep implements ComplexStep<MapFeatureComplexTarget, MapF
         em.createNativeQuery(sql).executeUpdate();
     }
 
-    private List<NumberRange<Long>> getRanges(int rangeSize)
+    /**
+     * Splits the ids of all ways which are not links into ranges, weighted by the number of
+     * nodes of each way.
+     */
+    private Iterator<NumberRange<Long>> getRanges(MapFeatureComplexTarget target)
     {
-        String sql = "select w.id from osm.ways w  "
+        String sql = "select wn.id, count(*) as weight from osm.way_nodes wn "
             + "left join nom.link l "
-            + "on w.id = l.feature_id " 
+            + "on wn.id = l.feature_id " 
             + "where l.feature_id is null "
-            + "order by w.id"; 
+            + "group by wn.id"; 
 
-        em.clear();
-        Query query = em.createNativeQuery(sql);
-        
-        @SuppressWarnings("unchecked")
-        List<Long> ids = query.getResultList();
-        
-        List<NumberRange<Long>> ranges = NumberRange.split(ids, rangeSize);
-        return ranges;
+        return IdRanges.iterateByWeight(em, target, sql, RANGE_WEIGHT);
     }
     
     private void createFeature(MapFeatureSubtarget target, long wayId)
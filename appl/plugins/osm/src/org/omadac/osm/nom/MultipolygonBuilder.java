@@ -0,0 +1,289 @@
+/*
+ *    Omadac - The Open Map Database Compiler
+ *    http://omadac.org
+ * 
+ *    (C) 2011, Harald Wellmann and Contributors
+ *
+ *    This library is free software; you can redistribute it and/or
+ *    modify it under the terms of the GNU Lesser General Public
+ *    License as published by the Free Software Foundation;
+ *    version 2.1 of the License.
+ *
+ *    This library is distributed in the hope that it will be useful,
+ *    but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ *    Lesser General Public License for more details.
+ */
+package org.omadac.osm.nom;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Map;
+
+import org.omadac.osm.location.NodeLocationStore;
+
+/**
+ * Assembles the member ways of a multipolygon relation into areas. Ways are joined at
+ * shared end nodes to form closed rings. The rings are then nested by containment, ignoring
+ * the member roles, which are frequently wrong: a ring contained in an even number of other
+ * rings is the shell of an area, a ring contained in an odd number of rings is a hole in the
+ * innermost shell containing it.
+ * <p>
+ * Rings are represented by arrays of node IDs, with the same first and last node. Node
+ * locations are looked up in a map of locations packed by 
+ * {@link NodeLocationStore#pack(int, int)}.
+ * 
+ * @author hwellmann
+ * 
+ */
+public class MultipolygonBuilder
+{
+    /**
+     * An area with a shell and any number of holes.
+     */
+    public static class Area
+    {
+        private long[] shell;
+
+        private List<long[]> holes = new ArrayList<long[]>();
+
+        Area(long[] shell)
+        {
+            this.shell = shell;
+        }
+
+        public long[] getShell()
+        {
+            return shell;
+        }
+
+        public List<long[]> getHoles()
+        {
+            return holes;
+        }
+    }
+
+    private Map<Long, Long> nodeLocations;
+
+    private List<long[]> ways = new ArrayList<long[]>();
+
+    public MultipolygonBuilder(Map<Long, Long> nodeLocations)
+    {
+        this.nodeLocations = nodeLocations;
+    }
+
+    /**
+     * Adds a member way.
+     * @param nodeIds  node IDs of the way
+     */
+    public void addWay(long[] nodeIds)
+    {
+        if (nodeIds.length > 1)
+        {
+            ways.add(nodeIds);
+        }
+    }
+
+    /**
+     * Returns the location of a node of the areas built.
+     * @param nodeId  node ID
+     * @return location packed by {@link NodeLocationStore#pack(int, int)}
+     */
+    public long getLocation(long nodeId)
+    {
+        return nodeLocations.get(nodeId);
+    }
+
+    /**
+     * Removes all member ways, so that the builder can be reused for the next relation.
+     */
+    public void clear()
+    {
+        ways.clear();
+    }
+
+    /**
+     * Builds the areas from the member ways added since the last {@link #clear()}.
+     * @return areas, or null if the ways cannot be joined to closed rings, or if a node 
+     *         location is missing
+     */
+    public List<Area> build()
+    {
+        List<long[]> rings = buildRings();
+        if (rings == null)
+        {
+            return null;
+        }
+        for (long[] ring : rings)
+        {
+            for (long nodeId : ring)
+            {
+                if (!nodeLocations.containsKey(nodeId))
+                {
+                    return null;
+                }
+            }
+        }
+
+        int numRings = rings.size();
+        int[] depth = new int[numRings];
+        int[] parent = new int[numRings];
+        Arrays.fill(parent, -1);
+        for (int i = 0; i < numRings; i++)
+        {
+            for (int j = 0; j < numRings; j++)
+            {
+                if (i != j && contains(rings.get(j), rings.get(i)))
+                {
+                    depth[i]++;
+                }
+            }
+        }
+        for (int i = 0; i < numRings; i++)
+        {
+            for (int j = 0; j < numRings; j++)
+            {
+                if (depth[j] == depth[i] - 1 && contains(rings.get(j), rings.get(i)))
+                {
+                    parent[i] = j;
+                    break;
+                }
+            }
+        }
+
+        List<Area> areas = new ArrayList<Area>();
+        Area[] shells = new Area[numRings];
+        for (int i = 0; i < numRings; i++)
+        {
+            if (depth[i] % 2 == 0)
+            {
+                shells[i] = new Area(rings.get(i));
+                areas.add(shells[i]);
+            }
+        }
+        for (int i = 0; i < numRings; i++)
+        {
+            if (depth[i] % 2 == 1)
+            {
+                shells[parent[i]].holes.add(rings.get(i));
+            }
+        }
+        return areas;
+    }
+
+    /**
+     * Joins the ways to closed rings.
+     * @return rings, or null if a ring cannot be closed
+     */
+    private List<long[]> buildRings()
+    {
+        LinkedList<long[]> open = new LinkedList<long[]>(ways);
+        List<long[]> rings = new ArrayList<long[]>();
+        while (!open.isEmpty())
+        {
+            long[] ring = open.removeFirst();
+            while (ring[0] != ring[ring.length - 1])
+            {
+                long[] next = removeSuccessor(open, ring[ring.length - 1]);
+                if (next == null)
+                {
+                    return null;
+                }
+                long[] joined = Arrays.copyOf(ring, ring.length + next.length - 1);
+                System.arraycopy(next, 1, joined, ring.length, next.length - 1);
+                ring = joined;
+            }
+            if (ring.length < 4)
+            {
+                return null;
+            }
+            rings.add(ring);
+        }
+        return rings;
+    }
+
+    /**
+     * Removes a way starting or ending with the given node from the list.
+     * @return way starting with the given node, or null
+     */
+    private static long[] removeSuccessor(List<long[]> open, long nodeId)
+    {
+        for (int i = 0; i < open.size(); i++)
+        {
+            long[] way = open.get(i);
+            if (way[0] == nodeId)
+            {
+                open.remove(i);
+                return way;
+            }
+            if (way[way.length - 1] == nodeId)
+            {
+                open.remove(i);
+                long[] reversed = new long[way.length];
+                for (int k = 0; k < way.length; k++)
+                {
+                    reversed[k] = way[way.length - 1 - k];
+                }
+                return reversed;
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Checks if the outer ring contains the inner ring, testing the first node of the inner
+     * ring which is not shared with the outer ring. Rings sharing all nodes do not contain 
+     * each other.
+     */
+    private boolean contains(long[] outer, long[] inner)
+    {
+        for (long nodeId : inner)
+        {
+            if (!isVertex(outer, nodeId))
+            {
+                long location = nodeLocations.get(nodeId);
+                return contains(outer, NodeLocationStore.getLatitude(location),
+                    NodeLocationStore.getLongitude(location));
+            }
+        }
+        return false;
+    }
+
+    private static boolean isVertex(long[] ring, long nodeId)
+    {
+        for (long id : ring)
+        {
+            if (id == nodeId)
+            {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Even-odd test for a point in a ring.
+     */
+    private boolean contains(long[] ring, double latitude, double longitude)
+    {
+        boolean inside = false;
+        int n = ring.length;
+        for (int i = 0, j = n - 1; i < n; j = i++)
+        {
+            long locationI = nodeLocations.get(ring[i]);
+            long locationJ = nodeLocations.get(ring[j]);
+            double latI = NodeLocationStore.getLatitude(locationI);
+            double lonI = NodeLocationStore.getLongitude(locationI);
+            double latJ = NodeLocationStore.getLatitude(locationJ);
+            double lonJ = NodeLocationStore.getLongitude(locationJ);
+            if ((latI > latitude) != (latJ > latitude)
+                && longitude < (lonJ - lonI) * (latitude - latI) / (latJ - latI) + lonI)
+            {
+                inside = !inside;
+            }
+        }
+        return inside;
+    }
+}
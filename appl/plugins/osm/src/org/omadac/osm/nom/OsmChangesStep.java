@@ -0,0 +1,60 @@
+/*
+ *    Omadac - The Open Map Database Compiler
+ *    http://omadac.org
+ * 
+ *    (C) 2010, Harald Wellmann and Contributors
+ *
+ *    This library is free software; you can redistribute it and/or
+ *    modify it under the terms of the GNU Lesser General Public
+ *    License as published by the Free Software Foundation;
+ *    version 2.1 of the License.
+ *
+ *    This library is distributed in the hope that it will be useful,
+ *    but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ *    Lesser General Public License for more details.
+ */
+package org.omadac.osm.nom;
+
+import javax.persistence.EntityManager;
+
+import org.omadac.jpa.JpaUtil;
+import org.omadac.make.SimpleTarget;
+import org.omadac.make.Step;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Clears the changes recorded in {@code osm.changes} once all dependent targets have been
+ * updated. Change files applied later add their changes to an empty table again, and 
+ * complex targets forced without any recorded changes are recompiled completely.
+ * 
+ * @author hwellmann
+ *
+ */
+public class OsmChangesStep implements Step<SimpleTarget>
+{
+    private static Logger log = LoggerFactory.getLogger(OsmChangesStep.class);
+    
+    private EntityManager em;
+
+    public void setEntityManager(EntityManager em)
+    {
+        this.em = em;
+    }
+    
+    @Override
+    public void clean(SimpleTarget target)
+    {
+    }
+
+    @Override
+    public void compile(SimpleTarget target)
+    {
+        if (JpaUtil.getMetadataInspector(em).hasTable("osm", "changes"))
+        {
+            int numChanges = em.createNativeQuery("delete from osm.changes").executeUpdate();
+            log.info("cleared {} consumed changes", numChanges);
+        }
+    }
+}
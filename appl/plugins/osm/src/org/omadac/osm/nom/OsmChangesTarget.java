@@ -0,0 +1,37 @@
+/*
+ *    Omadac - The Open Map Database Compiler
+ *    http://omadac.org
+ * 
+ *    (C) 2010, Harald Wellmann and Contributors
+ *
+ *    This library is free software; you can redistribute it and/or
+ *    modify it under the terms of the GNU Lesser General Public
+ *    License as published by the Free Software Foundation;
+ *    version 2.1 of the License.
+ *
+ *    This library is distributed in the hope that it will be useful,
+ *    but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ *    Lesser General Public License for more details.
+ */
+package org.omadac.osm.nom;
+
+import org.omadac.make.SimpleTarget;
+
+/**
+ * Target representing the consumption of the changes recorded in {@code osm.changes}. It
+ * depends on all targets updated incrementally from these changes, so that the changes are
+ * cleared only after each of these targets has been updated.
+ * 
+ * @author hwellmann
+ *
+ */
+public class OsmChangesTarget extends SimpleTarget
+{
+    private static final long serialVersionUID = 1L;
+
+    public OsmChangesTarget()
+    {
+        super("OsmChanges");
+    }
+}
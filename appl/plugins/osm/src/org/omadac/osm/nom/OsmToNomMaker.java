@@ -21,6 +21,17 @@ import org.omadac.base.OmadacMaker;
 public class OsmToNomMaker extends OmadacMaker
 {
 
+    /**
+     * Adds the clearing of consumed OSM changes to the configured goals, so that the
+     * changes are cleared whenever all targets using them are up to date.
+     */
+    @Override
+    protected void defineGoals()
+    {
+        super.defineGoals();
+        addGoal("OsmChanges");
+    }
+
     @Override
     protected void defineDependencies()
     {
@@ -28,6 +39,8 @@ public class OsmToNomMaker extends OmadacMaker
         addDependency("NomJunctions", "NomFeatureTypes");
         addDependency("NomLinks", "NomJunctions");
         addDependency("NomMapFeatures", "NomLinks");
+        addDependency("NomRelations", "NomMapFeatures");
+        addDependency("OsmChanges", "NomLinks", "NomMapFeatures");
 //        addDependency("NomMapFeatureClassifier", "NomMapFeatures");
 //        addDependency("NomPointFeatures", "NomMapFeatureClassifier");
 //        
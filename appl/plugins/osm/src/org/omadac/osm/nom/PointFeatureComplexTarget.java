@@ -22,6 +22,7 @@ import java.util.List;
 import javax.persistence.EntityManager;
 import javax.persistence.Query;
 
+import org.omadac.jpa.JpaUtil;
 import org.omadac.make.ComplexTarget;
 import org.omadac.make.Target;
 import org.omadac.make.util.NumberRange;
@@ -52,13 +53,39 @@ public class PointFeatureComplexTarget extends ComplexTarget
     }
     
     
+    /**
+     * Returns the previous subtargets containing changed nodes, and new subtargets for
+     * changed nodes outside of these.
+     */
+    @Override
+    public List<Target> splitChanges(List<String> previousSubtargets)
+    {
+        ChangedIds changedIds = ChangedIds.forNodes(em);
+        em.getTransaction().commit();
+        if (changedIds == null || previousSubtargets.isEmpty())
+        {
+            return null;
+        }
+
+        List<Target> subtargets = new ArrayList<Target>();
+        for (NumberRange<Long> range : changedIds.getOutdatedRanges(previousSubtargets, 
+            NUM_NODES))
+        {
+            subtargets.add(new PointFeatureSubtarget(range));
+        }
+        return subtargets;
+    }
+    
     @Override
     public void merge()
     {
-        Query query = em.createNativeQuery("ALTER TABLE nom.poi " +
-                "ADD CONSTRAINT pk_poi " +
-                "PRIMARY KEY(feature_id)");
-        query.executeUpdate();
+        if (!JpaUtil.getMetadataInspector(em).hasPrimaryKey("nom", "poi"))
+        {
+            Query query = em.createNativeQuery("ALTER TABLE nom.poi " +
+                    "ADD CONSTRAINT pk_poi " +
+                    "PRIMARY KEY(feature_id)");
+            query.executeUpdate();
+        }
 
         em.getTransaction().commit();
     }    
@@ -66,6 +66,27 @@ public class PointFeatureSubtarget extends Target
         processResults(results);
     }
 
+    /**
+     * Deletes the POIs created from the nodes of this subtarget.
+     */
+    @Override
+    public void clean()
+    {
+        String[] sqls = {
+            "delete from nom.poi where feature_id in ("
+                + "select f.feature_id from nom.feature f "
+                + "where f.discriminator = 'P' and f.source_id between ?1 and ?2)",
+            "delete from nom.feature where discriminator = 'P' and source_id between ?1 and ?2" 
+        };
+        for (String sql : sqls)
+        {
+            Query query = em.createNativeQuery(sql);
+            query.setParameter(1, range.getMinId());
+            query.setParameter(2, range.getMaxId());
+            query.executeUpdate();
+        }
+    }
+
     private List<Object[]> readNodes()
     {
         String sql = "select n.id, n.longitude, n.latitude, nt.k, nt.v " 
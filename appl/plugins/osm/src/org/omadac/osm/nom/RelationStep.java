@@ -0,0 +1,564 @@
+/*
+ *    Omadac - The Open Map Database Compiler
+ *    http://omadac.org
+ * 
+ *    (C) 2011, Harald Wellmann and Contributors
+ *
+ *    This library is free software; you can redistribute it and/or
+ *    modify it under the terms of the GNU Lesser General Public
+ *    License as published by the Free Software Foundation;
+ *    version 2.1 of the License.
+ *
+ *    This library is distributed in the hope that it will be useful,
+ *    but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ *    Lesser General Public License for more details.
+ */
+package org.omadac.osm.nom;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import javax.persistence.EntityManager;
+import javax.persistence.Query;
+
+import org.omadac.config.ConfigManager;
+import org.omadac.config.jaxb.OmadacSettings;
+import org.omadac.config.jaxb.OsmSettings;
+import org.omadac.jpa.JpaUtil;
+import org.omadac.jpa.MetadataInspector;
+import org.omadac.make.ComplexStep;
+import org.omadac.make.util.NumberRange;
+import org.omadac.nom.NomArea;
+import org.omadac.nom.TurnRestriction;
+import org.omadac.osm.RelationBuffer;
+import org.omadac.osm.location.NodeLocationStore;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.vividsolutions.jts.geom.Coordinate;
+import com.vividsolutions.jts.geom.Geometry;
+import com.vividsolutions.jts.geom.GeometryFactory;
+import com.vividsolutions.jts.geom.LinearRing;
+import com.vividsolutions.jts.geom.Polygon;
+
+/**
+ * Assembles multipolygon relations to area features and restriction relations to turn
+ * restrictions. The relations are partitioned by ID ranges. For each range, the members,
+ * the nodes of the member ways and the links at the via nodes are loaded in batches, so the
+ * number of queries does not depend on the number of relations.
+ * 
+ * @author hwellmann
+ * 
+ */
+public class RelationStep implements ComplexStep<RelationComplexTarget, RelationSubtarget>
+{
+    private static Logger log = LoggerFactory.getLogger(RelationStep.class);
+
+    /** Default number of relation members per subtarget. */
+    private static final long RANGE_WEIGHT = 5000;
+
+    private static final String MULTIPOLYGON_WAYS = "select rm.member_id "
+        + "from osm.relation_members rm "
+        + "join osm.relation_tags rt "
+        + "on rm.id = rt.id and rt.k = 'type' and rt.v = 'multipolygon' "
+        + "where rm.member_type = 2 and rm.id between ?1 and ?2";
+
+    private EntityManager em;
+
+    private LinkDao linkDao;
+
+    private OmadacSettings config;
+
+    private NodeLocationStore nodeLocationStore;
+
+    private GeometryFactory factory = new GeometryFactory();
+
+    public void setConfigManager(ConfigManager configManager)
+    {
+        config = configManager.getConfiguration();
+    }
+
+    public void setEntityManager(EntityManager em)
+    {
+        this.em = em;
+    }
+
+    public void setLinkDao(LinkDao linkDao)
+    {
+        this.linkDao = linkDao;
+    }
+
+    @Override
+    public List<RelationSubtarget> split(RelationComplexTarget target)
+    {
+        String sql = "select rm.id, count(*) as weight from osm.relation_members rm "
+            + "where rm.id in (select id from osm.relation_tags "
+            + "where k = 'type' and v in ('multipolygon', 'restriction')) "
+            + "group by rm.id";
+
+        List<RelationSubtarget> subtargets = new ArrayList<RelationSubtarget>();
+        for (NumberRange<Long> range : IdRanges.splitByWeight(em, target, sql, RANGE_WEIGHT))
+        {
+            subtargets.add(new RelationSubtarget(range));
+        }
+        return subtargets;
+    }
+
+    @Override
+    public void merge(RelationComplexTarget target)
+    {
+        synchronized (this)
+        {
+            if (nodeLocationStore != null)
+            {
+                nodeLocationStore.close();
+                nodeLocationStore = null;
+            }
+        }
+        MetadataInspector inspector = JpaUtil.getMetadataInspector(em);
+        if (!inspector.hasPrimaryKey("nom", "area"))
+        {
+            em.createNativeQuery("alter table nom.area "
+                + "add constraint pk_area "
+                + "primary key (feature_id)").executeUpdate();
+        }
+        if (!inspector.hasPrimaryKey("nom", "turn_restriction"))
+        {
+            em.createNativeQuery("alter table nom.turn_restriction "
+                + "add constraint pk_turn_restriction "
+                + "primary key (restriction_id)").executeUpdate();
+        }
+    }
+
+    @Override
+    public void compile(RelationSubtarget target)
+    {
+        NumberRange<Long> range = target.getRange();
+        Map<Long, String> types = new HashMap<Long, String>();
+        Map<Long, String> restrictions = new HashMap<Long, String>();
+        loadTags(range, types, restrictions);
+
+        Map<Long, long[]> wayNodes = loadWayNodes(range);
+        Map<Long, Long> nodeLocations = loadNodeLocations(range, wayNodes);
+        Map<Long, List<long[]>> junctionLinks = loadJunctionLinks(range);
+
+        String sql = "select id, member_id, member_role, member_type "
+            + "from osm.relation_members "
+            + "where id between ?1 and ?2 "
+            + "order by id, sequence_id";
+        Query query = em.createNativeQuery(sql);
+        query.setParameter(1, range.getMinId());
+        query.setParameter(2, range.getMaxId());
+
+        @SuppressWarnings("unchecked")
+        List<Object[]> results = query.getResultList();
+
+        MultipolygonBuilder builder = new MultipolygonBuilder(nodeLocations);
+        Restriction restriction = new Restriction();
+        List<NomArea> areas = new ArrayList<NomArea>();
+        List<long[]> turnRestrictions = new ArrayList<long[]>();
+        long lastId = -1;
+        for (Object[] result : results)
+        {
+            long id = (Long) result[0];
+            if (id != lastId && lastId != -1)
+            {
+                createAreas(lastId, types.get(lastId), builder, areas);
+                createRestrictions(lastId, restrictions.get(lastId), restriction, 
+                    junctionLinks, turnRestrictions);
+            }
+            lastId = id;
+
+            long memberId = (Long) result[1];
+            String role = (String) result[2];
+            int memberType = ((Number) result[3]).intValue();
+            if ("multipolygon".equals(types.get(id)))
+            {
+                long[] nodeIds = wayNodes.get(memberId);
+                if (memberType == RelationBuffer.MEMBER_WAY && nodeIds != null)
+                {
+                    builder.addWay(nodeIds);
+                }
+            }
+            else if (restrictions.containsKey(id))
+            {
+                restriction.addMember(memberId, role, memberType);
+            }
+        }
+        if (lastId != -1)
+        {
+            createAreas(lastId, types.get(lastId), builder, areas);
+            createRestrictions(lastId, restrictions.get(lastId), restriction, junctionLinks,
+                turnRestrictions);
+        }
+        linkDao.saveAreas(areas, range);
+        linkDao.saveTurnRestrictions(TurnRestriction.CONDITION, turnRestrictions);
+        log.info("{} areas, {} turn restrictions", areas.size(), turnRestrictions.size());
+    }
+
+    /**
+     * Loads the relation types and the restriction values of turn restrictions.
+     */
+    private void loadTags(NumberRange<Long> range, Map<Long, String> types, 
+        Map<Long, String> restrictions)
+    {
+        String sql = "select id, k, v from osm.relation_tags "
+            + "where id between ?1 and ?2 and k in ('type', 'restriction')";
+        Query query = em.createNativeQuery(sql);
+        query.setParameter(1, range.getMinId());
+        query.setParameter(2, range.getMaxId());
+
+        @SuppressWarnings("unchecked")
+        List<Object[]> results = query.getResultList();
+        for (Object[] result : results)
+        {
+            Long id = (Long) result[0];
+            if ("type".equals(result[1]))
+            {
+                types.put(id, (String) result[2]);
+            }
+            else
+            {
+                restrictions.put(id, (String) result[2]);
+            }
+        }
+        for (Long id : new ArrayList<Long>(restrictions.keySet()))
+        {
+            if (!"restriction".equals(types.get(id)))
+            {
+                restrictions.remove(id);
+            }
+        }
+    }
+
+    /**
+     * Loads the nodes of all member ways of the multipolygons in the given range.
+     * @return map from way ID to node IDs
+     */
+    private Map<Long, long[]> loadWayNodes(NumberRange<Long> range)
+    {
+        String sql = "select wn.id, wn.node_id from osm.way_nodes wn "
+            + "where wn.id in (" + MULTIPOLYGON_WAYS + ") "
+            + "order by wn.id, wn.sequence_id";
+        Query query = em.createNativeQuery(sql);
+        query.setParameter(1, range.getMinId());
+        query.setParameter(2, range.getMaxId());
+
+        @SuppressWarnings("unchecked")
+        List<Object[]> results = query.getResultList();
+
+        Map<Long, long[]> wayNodes = new HashMap<Long, long[]>();
+        int start = 0;
+        for (int i = 1; i <= results.size(); i++)
+        {
+            if (i == results.size() || !results.get(i)[0].equals(results.get(start)[0]))
+            {
+                long[] nodeIds = new long[i - start];
+                for (int k = start; k < i; k++)
+                {
+                    nodeIds[k - start] = (Long) results.get(k)[1];
+                }
+                wayNodes.put((Long) results.get(start)[0], nodeIds);
+                start = i;
+            }
+        }
+        return wayNodes;
+    }
+
+    /**
+     * Loads the locations of all nodes of the given ways, from the node location store if
+     * configured, or else from the database.
+     * @return map from node ID to location packed by {@link NodeLocationStore#pack(int, int)}
+     */
+    private Map<Long, Long> loadNodeLocations(NumberRange<Long> range, 
+        Map<Long, long[]> wayNodes)
+    {
+        Map<Long, Long> nodeLocations = new HashMap<Long, Long>();
+        NodeLocationStore store = getNodeLocationStore();
+        if (store != null)
+        {
+            for (long[] nodeIds : wayNodes.values())
+            {
+                for (long nodeId : nodeIds)
+                {
+                    long location = store.get(nodeId);
+                    if (location != NodeLocationStore.UNKNOWN)
+                    {
+                        nodeLocations.put(nodeId, location);
+                    }
+                }
+            }
+            return nodeLocations;
+        }
+
+        String sql = "select n.id, n.latitude, n.longitude from osm.nodes n "
+            + "where n.id in (select wn.node_id from osm.way_nodes wn "
+            + "where wn.id in (" + MULTIPOLYGON_WAYS + "))";
+        Query query = em.createNativeQuery(sql);
+        query.setParameter(1, range.getMinId());
+        query.setParameter(2, range.getMaxId());
+
+        @SuppressWarnings("unchecked")
+        List<Object[]> results = query.getResultList();
+        for (Object[] result : results)
+        {
+            nodeLocations.put((Long) result[0], 
+                NodeLocationStore.pack((Integer) result[1], (Integer) result[2]));
+        }
+        return nodeLocations;
+    }
+
+    /**
+     * Loads the links at the junctions which are via nodes of turn restrictions in the given
+     * range.
+     * @return map from node ID to a list of junction ID, way ID and link ID triples
+     */
+    private Map<Long, List<long[]>> loadJunctionLinks(NumberRange<Long> range)
+    {
+        String sql = "select distinct j.source_id as node_id, j.feature_id as junction_id, "
+            + "l.source_id as way_id, l.feature_id as link_id "
+            + "from osm.relation_members rm "
+            + "join nom.feature j "
+            + "on j.discriminator = 'J' and j.source_id = rm.member_id "
+            + "join nom.link_junction lj "
+            + "on lj.junction_id = j.feature_id "
+            + "join nom.feature l "
+            + "on l.feature_id = lj.link_id "
+            + "where rm.member_type = 1 and rm.member_role = 'via' "
+            + "and rm.id between ?1 and ?2";
+        Query query = em.createNativeQuery(sql);
+        query.setParameter(1, range.getMinId());
+        query.setParameter(2, range.getMaxId());
+
+        @SuppressWarnings("unchecked")
+        List<Object[]> results = query.getResultList();
+
+        Map<Long, List<long[]>> junctionLinks = new HashMap<Long, List<long[]>>();
+        for (Object[] result : results)
+        {
+            Long nodeId = (Long) result[0];
+            List<long[]> links = junctionLinks.get(nodeId);
+            if (links == null)
+            {
+                links = new ArrayList<long[]>();
+                junctionLinks.put(nodeId, links);
+            }
+            links.add(new long[] { (Long) result[1], (Long) result[2], (Long) result[3] });
+        }
+        return junctionLinks;
+    }
+
+    /**
+     * Creates the area of a multipolygon relation and adds it to the given list, to be saved
+     * in one batch.
+     */
+    private void createAreas(long relationId, String type, MultipolygonBuilder builder, 
+        List<NomArea> areas)
+    {
+        if (!"multipolygon".equals(type))
+        {
+            return;
+        }
+        List<MultipolygonBuilder.Area> rings = builder.build();
+        builder.clear();
+        if (rings == null || rings.isEmpty())
+        {
+            log.warn("cannot assemble multipolygon relation {}", relationId);
+            return;
+        }
+
+        Polygon[] polygons = new Polygon[rings.size()];
+        for (int i = 0; i < polygons.length; i++)
+        {
+            MultipolygonBuilder.Area area = rings.get(i);
+            LinearRing[] holes = new LinearRing[area.getHoles().size()];
+            for (int k = 0; k < holes.length; k++)
+            {
+                holes[k] = createRing(area.getHoles().get(k), builder);
+            }
+            polygons[i] = factory.createPolygon(createRing(area.getShell(), builder), holes);
+        }
+        Geometry geom = (polygons.length == 1) ? polygons[0] 
+            : factory.createMultiPolygon(polygons);
+        if (!geom.isValid())
+        {
+            log.error("multipolygon relation {} has invalid geometry", relationId);
+            return;
+        }
+
+        // use a dummy feature type, as for the features created from ways
+        areas.add(new NomArea(0, relationId, geom));
+    }
+
+    private LinearRing createRing(long[] nodeIds, MultipolygonBuilder builder)
+    {
+        Coordinate[] coords = new Coordinate[nodeIds.length];
+        for (int i = 0; i < nodeIds.length; i++)
+        {
+            long location = builder.getLocation(nodeIds[i]);
+            coords[i] = new Coordinate(NodeLocationStore.getLongitude(location), 
+                NodeLocationStore.getLatitude(location));
+        }
+        return factory.createLinearRing(coords);
+    }
+
+    /**
+     * Creates turn restrictions for a restriction relation with a via node. A {@code no_*}
+     * restriction prohibits the turn from the link of the from way to the link of the to way
+     * at the via junction. An {@code only_*} restriction prohibits the turns to all other
+     * links at the via junction. The turn restrictions are added to the given list, to be
+     * saved in one batch.
+     */
+    private void createRestrictions(long relationId, String value, Restriction restriction, 
+        Map<Long, List<long[]>> junctionLinks, List<long[]> turnRestrictions)
+    {
+        if (value == null)
+        {
+            return;
+        }
+        boolean only = value.startsWith("only_");
+        if (!only && !value.startsWith("no_") || !restriction.isComplete())
+        {
+            log.debug("skipping restriction relation {}", relationId);
+            restriction.clear();
+            return;
+        }
+
+        List<long[]> links = junctionLinks.get(restriction.viaNode);
+        long[] from = null;
+        if (links != null)
+        {
+            for (long[] link : links)
+            {
+                if (link[1] == restriction.fromWay)
+                {
+                    from = link;
+                    break;
+                }
+            }
+        }
+        if (from == null || !hasWay(links, restriction.toWay))
+        {
+            log.warn("cannot resolve restriction relation {}", relationId);
+            restriction.clear();
+            return;
+        }
+
+        for (long[] to : links)
+        {
+            if (to != from && (to[1] == restriction.toWay) != only)
+            {
+                turnRestrictions.add(new long[] { from[0], from[2], to[2], relationId });
+            }
+        }
+        restriction.clear();
+    }
+
+    private static boolean hasWay(List<long[]> links, long wayId)
+    {
+        for (long[] link : links)
+        {
+            if (link[1] == wayId)
+            {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Opens the node location store on first use, if configured.
+     * @return store, or null
+     */
+    private synchronized NodeLocationStore getNodeLocationStore()
+    {
+        if (nodeLocationStore == null && config != null)
+        {
+            OsmSettings osm = config.getImport().getOsm();
+            if (osm != null && osm.getNodeLocations() != null)
+            {
+                log.info("resolving node locations from {}", osm.getNodeLocations());
+                nodeLocationStore = NodeLocationStore.open(new File(osm.getNodeLocations()));
+            }
+        }
+        return nodeLocationStore;
+    }
+
+    /**
+     * Deletes the areas and turn restrictions created from the relations of the given 
+     * subtarget.
+     */
+    @Override
+    public void clean(RelationSubtarget target)
+    {
+        String[] sqls = {
+            "delete from nom.turn_restriction where source_id between ?1 and ?2",
+            "delete from nom.area where feature_id in (select f.feature_id from nom.feature f "
+                + "where f.discriminator = 'A' and f.source_id between ?1 and ?2)",
+            "delete from nom.feature where discriminator = 'A' and source_id between ?1 and ?2"
+        };
+        for (String sql : sqls)
+        {
+            Query query = em.createNativeQuery(sql);
+            query.setParameter(1, target.getRange().getMinId());
+            query.setParameter(2, target.getRange().getMaxId());
+            query.executeUpdate();
+        }
+    }
+
+    @Override
+    public void cleanAll(RelationComplexTarget target)
+    {
+        MetadataInspector inspector = JpaUtil.getMetadataInspector(em);
+        inspector.cleanTable("nom", "turn_restriction");
+        inspector.cleanTable("nom", "area");
+
+        String sql = "delete from nom.feature where discriminator = 'A'";
+        em.createNativeQuery(sql).executeUpdate();
+    }
+
+    /**
+     * Collects the members of a restriction relation with a from way, a via node and a to
+     * way. Restrictions with via ways are not supported.
+     */
+    private static class Restriction
+    {
+        long fromWay = -1;
+
+        long viaNode = -1;
+
+        long toWay = -1;
+
+        void addMember(long memberId, String role, int memberType)
+        {
+            if ("from".equals(role) && memberType == RelationBuffer.MEMBER_WAY)
+            {
+                fromWay = memberId;
+            }
+            else if ("via".equals(role) && memberType == RelationBuffer.MEMBER_NODE)
+            {
+                viaNode = memberId;
+            }
+            else if ("to".equals(role) && memberType == RelationBuffer.MEMBER_WAY)
+            {
+                toWay = memberId;
+            }
+        }
+
+        boolean isComplete()
+        {
+            return fromWay != -1 && viaNode != -1 && toWay != -1;
+        }
+
+        void clear()
+        {
+            fromWay = -1;
+            viaNode = -1;
+            toWay = -1;
+        }
+    }
+}
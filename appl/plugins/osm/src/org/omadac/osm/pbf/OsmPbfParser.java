@@ -0,0 +1,84 @@
+/*
+ *    Omadac - The Open Map Database Compiler
+ *    http://omadac.org
+ * 
+ *    (C) 2010, Harald Wellmann and Contributors
+ *
+ *    This library is free software; you can redistribute it and/or
+ *    modify it under the terms of the GNU Lesser General Public
+ *    License as published by the Free Software Foundation;
+ *    version 2.1 of the License.
+ *
+ *    This library is distributed in the hope that it will be useful,
+ *    but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ *    Lesser General Public License for more details.
+ */
+package org.omadac.osm.pbf;
+
+import java.io.BufferedInputStream;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+
+import org.omadac.config.OmadacException;
+import org.omadac.osm.OsmElementHandler;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Parses an OSM PBF file and passes the elements to an {@link OsmElementHandler}, in the same
+ * way as {@link org.omadac.osm.OsmCursorParser} does for OSM XML files.
+ * 
+ * @author hwellmann
+ * 
+ */
+public class OsmPbfParser
+{
+    private static Logger log = LoggerFactory.getLogger(OsmPbfParser.class);
+
+    private static final int BUFFER_SIZE = 1 << 16;
+
+    private PbfBlockDecoder decoder;
+
+    public OsmPbfParser(OsmElementHandler handler)
+    {
+        this.decoder = new PbfBlockDecoder(handler);
+    }
+
+    public void parsePbf(String fileName) throws IOException
+    {
+        InputStream is = new BufferedInputStream(new FileInputStream(fileName), BUFFER_SIZE);
+        try
+        {
+            parsePbf(is);
+        }
+        finally
+        {
+            is.close();
+        }
+    }
+
+    public void parsePbf(InputStream is) throws IOException
+    {
+        PbfBlobReader reader = new PbfBlobReader(is);
+        PbfBlob blob = reader.next();
+        if (blob == null || !PbfBlob.TYPE_HEADER.equals(blob.getType()))
+        {
+            throw new OmadacException("PBF file does not start with an OSMHeader blob");
+        }
+        decoder.decodeHeader(blob.decompress());
+
+        while ((blob = reader.next()) != null)
+        {
+            if (PbfBlob.TYPE_DATA.equals(blob.getType()))
+            {
+                decoder.decodePrimitiveBlock(blob.decompress());
+            }
+            else
+            {
+                log.debug("skipping blob of type {}", blob.getType());
+            }
+        }
+    }
+}
@@ -0,0 +1,219 @@
+/*
+ *    Omadac - The Open Map Database Compiler
+ *    http://omadac.org
+ * 
+ *    (C) 2010, Harald Wellmann and Contributors
+ *
+ *    This library is free software; you can redistribute it and/or
+ *    modify it under the terms of the GNU Lesser General Public
+ *    License as published by the Free Software Foundation;
+ *    version 2.1 of the License.
+ *
+ *    This library is distributed in the hope that it will be useful,
+ *    but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ *    Lesser General Public License for more details.
+ */
+package org.omadac.osm.pbf;
+
+import java.io.BufferedInputStream;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.FutureTask;
+
+import org.omadac.config.OmadacException;
+import org.omadac.osm.OsmElementHandler;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Parses an OSM PBF file on multiple cores. A reader thread splits the file into blobs, a
+ * pool of worker threads inflates and decodes the blobs into {@link PbfElementBlock}s, and
+ * the calling thread passes the decoded blocks to the handler in file order. The handler is
+ * only ever called from the calling thread and need not be thread-safe.
+ * <p>
+ * The number of decoded blocks waiting for the handler is bounded, so a slow handler throttles
+ * the reader.
+ * 
+ * @author hwellmann
+ * 
+ */
+public class ParallelPbfParser
+{
+    private static Logger log = LoggerFactory.getLogger(ParallelPbfParser.class);
+
+    private static final int BUFFER_SIZE = 1 << 16;
+
+    /** Marks the end of the block queue. */
+    private static final Future<PbfElementBlock> END = new FutureTask<PbfElementBlock>(
+        new Runnable()
+        {
+            @Override
+            public void run()
+            {
+            }
+        }, null);
+
+    private OsmElementHandler handler;
+
+    private int numThreads;
+
+    private volatile Throwable readerFailure;
+
+    public ParallelPbfParser(OsmElementHandler handler, int numThreads)
+    {
+        this.handler = handler;
+        this.numThreads = numThreads;
+    }
+
+    public void parsePbf(String fileName) throws IOException
+    {
+        InputStream is = new BufferedInputStream(new FileInputStream(fileName), BUFFER_SIZE);
+        try
+        {
+            parsePbf(is);
+        }
+        finally
+        {
+            is.close();
+        }
+    }
+
+    public void parsePbf(InputStream is) throws IOException
+    {
+        PbfBlobReader reader = new PbfBlobReader(is);
+        PbfBlob blob = reader.next();
+        if (blob == null || !PbfBlob.TYPE_HEADER.equals(blob.getType()))
+        {
+            throw new OmadacException("PBF file does not start with an OSMHeader blob");
+        }
+        new PbfBlockDecoder(handler).decodeHeader(blob.decompress());
+
+        log.info("decoding PBF blocks with {} threads", numThreads);
+        ExecutorService workers = Executors.newFixedThreadPool(numThreads);
+        BlockingQueue<Future<PbfElementBlock>> pending =
+            new ArrayBlockingQueue<Future<PbfElementBlock>>(4 * numThreads);
+        Thread readerThread = startReader(reader, workers, pending);
+        try
+        {
+            Future<PbfElementBlock> future;
+            while ((future = pending.take()) != END)
+            {
+                future.get().replay(handler);
+            }
+            if (readerFailure != null)
+            {
+                throw readerFailure;
+            }
+        }
+        catch (InterruptedException exc)
+        {
+            Thread.currentThread().interrupt();
+            throw new OmadacException(exc);
+        }
+        catch (ExecutionException exc)
+        {
+            throw wrap(exc.getCause());
+        }
+        catch (IOException exc)
+        {
+            throw exc;
+        }
+        catch (Throwable exc)
+        {
+            throw wrap(exc);
+        }
+        finally
+        {
+            readerThread.interrupt();
+            workers.shutdownNow();
+        }
+    }
+
+    private Thread startReader(final PbfBlobReader reader, final ExecutorService workers,
+        final BlockingQueue<Future<PbfElementBlock>> pending)
+    {
+        Thread thread = new Thread("PBF reader")
+        {
+            @Override
+            public void run()
+            {
+                try
+                {
+                    PbfBlob blob;
+                    while ((blob = reader.next()) != null)
+                    {
+                        if (PbfBlob.TYPE_DATA.equals(blob.getType()))
+                        {
+                            pending.put(workers.submit(new DecodeTask(blob)));
+                        }
+                        else
+                        {
+                            log.debug("skipping blob of type {}", blob.getType());
+                        }
+                    }
+                }
+                catch (InterruptedException exc)
+                {
+                    // parser has given up, no need to report
+                    return;
+                }
+                catch (Throwable exc)
+                {
+                    readerFailure = exc;
+                }
+
+                try
+                {
+                    pending.put(END);
+                }
+                catch (InterruptedException exc)
+                {
+                    // parser has given up
+                }
+            }
+        };
+        thread.setDaemon(true);
+        thread.start();
+        return thread;
+    }
+
+    private static RuntimeException wrap(Throwable exc)
+    {
+        if (exc instanceof RuntimeException)
+        {
+            return (RuntimeException) exc;
+        }
+        if (exc instanceof Error)
+        {
+            throw (Error) exc;
+        }
+        return new OmadacException(exc);
+    }
+
+    private static class DecodeTask implements Callable<PbfElementBlock>
+    {
+        private PbfBlob blob;
+
+        public DecodeTask(PbfBlob blob)
+        {
+            this.blob = blob;
+        }
+
+        @Override
+        public PbfElementBlock call()
+        {
+            PbfElementBlock block = new PbfElementBlock();
+            new PbfBlockDecoder(block).decodePrimitiveBlock(blob.decompress());
+            return block;
+        }
+    }
+}
@@ -0,0 +1,117 @@
+/*
+ *    Omadac - The Open Map Database Compiler
+ *    http://omadac.org
+ * 
+ *    (C) 2010, Harald Wellmann and Contributors
+ *
+ *    This library is free software; you can redistribute it and/or
+ *    modify it under the terms of the GNU Lesser General Public
+ *    License as published by the Free Software Foundation;
+ *    version 2.1 of the License.
+ *
+ *    This library is distributed in the hope that it will be useful,
+ *    but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ *    Lesser General Public License for more details.
+ */
+package org.omadac.osm.pbf;
+
+import java.util.zip.DataFormatException;
+import java.util.zip.Inflater;
+
+import org.omadac.config.OmadacException;
+
+/**
+ * A blob of an OSM PBF file, as read from the file. The payload is kept in its encoded form,
+ * so that decompression can take place on a different thread than file reading.
+ * 
+ * @author hwellmann
+ * 
+ */
+public class PbfBlob
+{
+    public static final String TYPE_HEADER = "OSMHeader";
+    public static final String TYPE_DATA = "OSMData";
+
+    private String type;
+
+    private byte[] encoded;
+
+    public PbfBlob(String type, byte[] encoded)
+    {
+        this.type = type;
+        this.encoded = encoded;
+    }
+
+    public String getType()
+    {
+        return type;
+    }
+
+    /**
+     * Returns the uncompressed payload of this blob, i.e. a serialized HeaderBlock or
+     * PrimitiveBlock.
+     */
+    public byte[] decompress()
+    {
+        ProtobufInput in = new ProtobufInput(encoded);
+        byte[] raw = null;
+        byte[] zlibData = null;
+        int rawSize = 0;
+        int field;
+        while ((field = in.readTag()) != 0)
+        {
+            switch (field)
+            {
+                case 1:
+                    raw = in.readBytes();
+                    break;
+                case 2:
+                    rawSize = in.readInt32();
+                    break;
+                case 3:
+                    zlibData = in.readBytes();
+                    break;
+                case 4:
+                    throw new OmadacException("LZMA compressed blobs are not supported");
+                default:
+                    in.skipField();
+            }
+        }
+
+        if (raw != null)
+        {
+            return raw;
+        }
+        if (zlibData == null)
+        {
+            throw new OmadacException("blob has no data");
+        }
+        return inflate(zlibData, rawSize);
+    }
+
+    private static byte[] inflate(byte[] zlibData, int rawSize)
+    {
+        Inflater inflater = new Inflater();
+        try
+        {
+            inflater.setInput(zlibData);
+            byte[] data = new byte[rawSize];
+            int length = inflater.inflate(data);
+            if (length != rawSize || !inflater.finished())
+            {
+                throw new OmadacException("blob size mismatch: expected " + rawSize
+                    + " bytes, got " + length);
+            }
+            return data;
+        }
+        catch (DataFormatException exc)
+        {
+            throw new OmadacException(exc);
+        }
+        finally
+        {
+            inflater.end();
+        }
+    }
+}
@@ -0,0 +1,98 @@
+/*
+ *    Omadac - The Open Map Database Compiler
+ *    http://omadac.org
+ * 
+ *    (C) 2010, Harald Wellmann and Contributors
+ *
+ *    This library is free software; you can redistribute it and/or
+ *    modify it under the terms of the GNU Lesser General Public
+ *    License as published by the Free Software Foundation;
+ *    version 2.1 of the License.
+ *
+ *    This library is distributed in the hope that it will be useful,
+ *    but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ *    Lesser General Public License for more details.
+ */
+package org.omadac.osm.pbf;
+
+import java.io.DataInputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+
+import org.omadac.config.OmadacException;
+
+/**
+ * Splits an OSM PBF stream into blobs. Each blob is preceded by its length-prefixed
+ * BlobHeader.
+ * 
+ * @author hwellmann
+ * 
+ */
+public class PbfBlobReader
+{
+    /** Upper bounds recommended by the PBF specification. */
+    private static final int MAX_HEADER_SIZE = 64 * 1024;
+    private static final int MAX_BLOB_SIZE = 32 * 1024 * 1024;
+
+    private DataInputStream is;
+
+    public PbfBlobReader(InputStream is)
+    {
+        this.is = new DataInputStream(is);
+    }
+
+    /**
+     * Reads the next blob.
+     * 
+     * @return blob, or null at the end of the stream
+     * @throws IOException
+     */
+    public PbfBlob next() throws IOException
+    {
+        int headerSize;
+        try
+        {
+            headerSize = is.readInt();
+        }
+        catch (EOFException exc)
+        {
+            return null;
+        }
+        if (headerSize < 0 || headerSize > MAX_HEADER_SIZE)
+        {
+            throw new OmadacException("invalid blob header size " + headerSize);
+        }
+
+        byte[] header = new byte[headerSize];
+        is.readFully(header);
+
+        ProtobufInput in = new ProtobufInput(header);
+        String type = null;
+        int dataSize = -1;
+        int field;
+        while ((field = in.readTag()) != 0)
+        {
+            switch (field)
+            {
+                case 1:
+                    type = in.readString();
+                    break;
+                case 3:
+                    dataSize = in.readInt32();
+                    break;
+                default:
+                    in.skipField();
+            }
+        }
+        if (type == null || dataSize < 0 || dataSize > MAX_BLOB_SIZE)
+        {
+            throw new OmadacException("invalid blob header");
+        }
+
+        byte[] data = new byte[dataSize];
+        is.readFully(data);
+        return new PbfBlob(type, data);
+    }
+}
@@ -0,0 +1,408 @@
+/*
+ *    Omadac - The Open Map Database Compiler
+ *    http://omadac.org
+ * 
+ *    (C) 2010, Harald Wellmann and Contributors
+ *
+ *    This library is free software; you can redistribute it and/or
+ *    modify it under the terms of the GNU Lesser General Public
+ *    License as published by the Free Software Foundation;
+ *    version 2.1 of the License.
+ *
+ *    This library is distributed in the hope that it will be useful,
+ *    but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ *    Lesser General Public License for more details.
+ */
+package org.omadac.osm.pbf;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import org.omadac.config.OmadacException;
+import org.omadac.osm.ElementBuffer;
+import org.omadac.osm.NodeBuffer;
+import org.omadac.osm.OsmElementHandler;
+import org.omadac.osm.RelationBuffer;
+import org.omadac.osm.WayBuffer;
+
+/**
+ * Decodes the HeaderBlocks and PrimitiveBlocks of an OSM PBF file and passes the elements to
+ * an {@link OsmElementHandler}, reusing one buffer per element type. Dense nodes and all
+ * delta-coded fields are expanded to absolute values.
+ * 
+ * @author hwellmann
+ * 
+ */
+public class PbfBlockDecoder
+{
+    private static final String[] SUPPORTED_FEATURES = { "OsmSchema-V0.6", "DenseNodes" };
+
+    private OsmElementHandler handler;
+
+    private NodeBuffer node = new NodeBuffer();
+
+    private WayBuffer way = new WayBuffer();
+
+    private RelationBuffer relation = new RelationBuffer();
+
+    private String[] strings;
+
+    private long granularity;
+
+    private long latOffset;
+
+    private long lonOffset;
+
+    public PbfBlockDecoder(OsmElementHandler handler)
+    {
+        this.handler = handler;
+    }
+
+    /**
+     * Checks that all features required by the given HeaderBlock are supported.
+     */
+    public void decodeHeader(byte[] data)
+    {
+        ProtobufInput in = new ProtobufInput(data);
+        int field;
+        while ((field = in.readTag()) != 0)
+        {
+            if (field == 4)
+            {
+                String feature = in.readString();
+                if (!isSupported(feature))
+                {
+                    throw new OmadacException("unsupported PBF feature " + feature);
+                }
+            }
+            else
+            {
+                in.skipField();
+            }
+        }
+    }
+
+    private boolean isSupported(String feature)
+    {
+        for (String supported : SUPPORTED_FEATURES)
+        {
+            if (supported.equals(feature))
+            {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Decodes a PrimitiveBlock, invoking the handler for each element.
+     */
+    public void decodePrimitiveBlock(byte[] data)
+    {
+        strings = null;
+        granularity = 100;
+        latOffset = 0;
+        lonOffset = 0;
+
+        // the groups precede granularity and offsets in the encoded block
+        List<ProtobufInput> groups = new ArrayList<ProtobufInput>();
+        ProtobufInput in = new ProtobufInput(data);
+        int field;
+        while ((field = in.readTag()) != 0)
+        {
+            switch (field)
+            {
+                case 1:
+                    strings = readStringTable(in.readMessage());
+                    break;
+                case 2:
+                    groups.add(in.readMessage());
+                    break;
+                case 17:
+                    granularity = in.readInt32();
+                    break;
+                case 19:
+                    latOffset = in.readInt64();
+                    break;
+                case 20:
+                    lonOffset = in.readInt64();
+                    break;
+                default:
+                    in.skipField();
+            }
+        }
+        if (strings == null)
+        {
+            throw new OmadacException("primitive block without string table");
+        }
+
+        for (ProtobufInput group : groups)
+        {
+            decodeGroup(group);
+        }
+    }
+
+    private String[] readStringTable(ProtobufInput in)
+    {
+        List<String> table = new ArrayList<String>();
+        while (in.readTag() != 0)
+        {
+            table.add(in.readString());
+        }
+        return table.toArray(new String[table.size()]);
+    }
+
+    private void decodeGroup(ProtobufInput in)
+    {
+        int field;
+        while ((field = in.readTag()) != 0)
+        {
+            switch (field)
+            {
+                case 1:
+                    decodeNode(in.readMessage());
+                    break;
+                case 2:
+                    decodeDenseNodes(in.readMessage());
+                    break;
+                case 3:
+                    decodeWay(in.readMessage());
+                    break;
+                case 4:
+                    decodeRelation(in.readMessage());
+                    break;
+                default:
+                    in.skipField();
+            }
+        }
+    }
+
+    private void decodeNode(ProtobufInput in)
+    {
+        node.clear();
+        ProtobufInput keys = null;
+        ProtobufInput values = null;
+        int field;
+        while ((field = in.readTag()) != 0)
+        {
+            switch (field)
+            {
+                case 1:
+                    node.setId(in.readSInt64());
+                    break;
+                case 2:
+                    keys = in.readMessage();
+                    break;
+                case 3:
+                    values = in.readMessage();
+                    break;
+                case 8:
+                    node.setLatitude(toDegrees(latOffset, in.readSInt64()));
+                    break;
+                case 9:
+                    node.setLongitude(toDegrees(lonOffset, in.readSInt64()));
+                    break;
+                default:
+                    in.skipField();
+            }
+        }
+        addTags(node, keys, values);
+        handler.handleNode(node);
+    }
+
+    private void decodeDenseNodes(ProtobufInput in)
+    {
+        ProtobufInput ids = null;
+        ProtobufInput lats = null;
+        ProtobufInput lons = null;
+        ProtobufInput keysVals = null;
+        int field;
+        while ((field = in.readTag()) != 0)
+        {
+            switch (field)
+            {
+                case 1:
+                    ids = in.readMessage();
+                    break;
+                case 8:
+                    lats = in.readMessage();
+                    break;
+                case 9:
+                    lons = in.readMessage();
+                    break;
+                case 10:
+                    keysVals = in.readMessage();
+                    break;
+                default:
+                    in.skipField();
+            }
+        }
+        if (ids == null)
+        {
+            return;
+        }
+        if (lats == null || lons == null)
+        {
+            throw new OmadacException("dense nodes without coordinates");
+        }
+
+        long id = 0;
+        long lat = 0;
+        long lon = 0;
+        while (ids.hasMore())
+        {
+            id += ids.readSInt64();
+            lat += lats.readSInt64();
+            lon += lons.readSInt64();
+
+            node.clear();
+            node.setId(id);
+            node.setLatitude(toDegrees(latOffset, lat));
+            node.setLongitude(toDegrees(lonOffset, lon));
+            if (keysVals != null)
+            {
+                int key;
+                while (keysVals.hasMore() && (key = keysVals.readInt32()) != 0)
+                {
+                    node.addTag(strings[key], strings[keysVals.readInt32()]);
+                }
+            }
+            handler.handleNode(node);
+        }
+    }
+
+    private void decodeWay(ProtobufInput in)
+    {
+        way.clear();
+        ProtobufInput keys = null;
+        ProtobufInput values = null;
+        ProtobufInput refs = null;
+        int field;
+        while ((field = in.readTag()) != 0)
+        {
+            switch (field)
+            {
+                case 1:
+                    way.setId(in.readInt64());
+                    break;
+                case 2:
+                    keys = in.readMessage();
+                    break;
+                case 3:
+                    values = in.readMessage();
+                    break;
+                case 8:
+                    refs = in.readMessage();
+                    break;
+                default:
+                    in.skipField();
+            }
+        }
+        addTags(way, keys, values);
+        if (refs != null)
+        {
+            long ref = 0;
+            while (refs.hasMore())
+            {
+                ref += refs.readSInt64();
+                way.addNodeRef(ref);
+            }
+        }
+        handler.handleWay(way);
+    }
+
+    private void decodeRelation(ProtobufInput in)
+    {
+        relation.clear();
+        ProtobufInput keys = null;
+        ProtobufInput values = null;
+        ProtobufInput roles = null;
+        ProtobufInput memberIds = null;
+        ProtobufInput types = null;
+        int field;
+        while ((field = in.readTag()) != 0)
+        {
+            switch (field)
+            {
+                case 1:
+                    relation.setId(in.readInt64());
+                    break;
+                case 2:
+                    keys = in.readMessage();
+                    break;
+                case 3:
+                    values = in.readMessage();
+                    break;
+                case 8:
+                    roles = in.readMessage();
+                    break;
+                case 9:
+                    memberIds = in.readMessage();
+                    break;
+                case 10:
+                    types = in.readMessage();
+                    break;
+                default:
+                    in.skipField();
+            }
+        }
+        addTags(relation, keys, values);
+        if (memberIds != null)
+        {
+            if (roles == null || types == null)
+            {
+                throw new OmadacException("relation " + relation.getId()
+                    + " without member roles or types");
+            }
+            long ref = 0;
+            while (memberIds.hasMore())
+            {
+                ref += memberIds.readSInt64();
+                String role = strings[roles.readInt32()];
+                relation.addMember(ref, toMemberType(types.readInt32()), role);
+            }
+        }
+        handler.handleRelation(relation);
+    }
+
+    private void addTags(ElementBuffer element, ProtobufInput keys, ProtobufInput values)
+    {
+        if (keys == null)
+        {
+            return;
+        }
+        if (values == null)
+        {
+            throw new OmadacException("element " + element.getId() + " without tag values");
+        }
+        while (keys.hasMore())
+        {
+            element.addTag(strings[keys.readInt32()], strings[values.readInt32()]);
+        }
+    }
+
+    /**
+     * Converts a PrimitiveBlock member type (NODE = 0, WAY = 1, RELATION = 2) to the number
+     * used in the relation buffer.
+     */
+    private static int toMemberType(int type)
+    {
+        switch (type)
+        {
+            case 0:
+                return RelationBuffer.MEMBER_NODE;
+            case 1:
+                return RelationBuffer.MEMBER_WAY;
+            case 2:
+                return RelationBuffer.MEMBER_RELATION;
+            default:
+                throw new OmadacException("unknown member type " + type);
+        }
+    }
+
+    private double toDegrees(long offset, long value)
+    {
+        return (offset + granularity * value) / 1E9;
+    }
+}
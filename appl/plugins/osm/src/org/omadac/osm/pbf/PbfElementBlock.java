@@ -0,0 +1,275 @@
+/*
+ *    Omadac - The Open Map Database Compiler
+ *    http://omadac.org
+ * 
+ *    (C) 2010, Harald Wellmann and Contributors
+ *
+ *    This library is free software; you can redistribute it and/or
+ *    modify it under the terms of the GNU Lesser General Public
+ *    License as published by the Free Software Foundation;
+ *    version 2.1 of the License.
+ *
+ *    This library is distributed in the hope that it will be useful,
+ *    but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ *    Lesser General Public License for more details.
+ */
+package org.omadac.osm.pbf;
+
+import java.util.Arrays;
+
+import javax.xml.bind.JAXBElement;
+
+import org.omadac.osm.ElementBuffer;
+import org.omadac.osm.NodeBuffer;
+import org.omadac.osm.OsmElementHandler;
+import org.omadac.osm.RelationBuffer;
+import org.omadac.osm.WayBuffer;
+import org.omadac.osm.jaxb.Node;
+import org.omadac.osm.jaxb.Relation;
+import org.omadac.osm.jaxb.Way;
+
+/**
+ * Stores the decoded elements of one primitive block in flat arrays, so that a block can be
+ * decoded on a worker thread and replayed later to a handler which is not thread-safe.
+ * <p>
+ * Nodes, ways and relations are each replayed in their original order, but all nodes of the
+ * block are replayed before its ways and relations.
+ * 
+ * @author hwellmann
+ * 
+ */
+public class PbfElementBlock implements OsmElementHandler
+{
+    private static final int INITIAL_CAPACITY = 1024;
+
+    private int numNodes;
+    private long[] nodeIds = new long[INITIAL_CAPACITY];
+    private double[] latitudes = new double[INITIAL_CAPACITY];
+    private double[] longitudes = new double[INITIAL_CAPACITY];
+    private int[] nodeTagStarts = new int[INITIAL_CAPACITY];
+    private int[] nodeTagEnds = new int[INITIAL_CAPACITY];
+
+    private int numWays;
+    private long[] wayIds = new long[INITIAL_CAPACITY];
+    private int[] wayTagStarts = new int[INITIAL_CAPACITY];
+    private int[] wayTagEnds = new int[INITIAL_CAPACITY];
+    private int[] wayRefEnds = new int[INITIAL_CAPACITY];
+
+    private int numNodeRefs;
+    private long[] nodeRefs = new long[INITIAL_CAPACITY];
+
+    private int numRelations;
+    private long[] relationIds = new long[INITIAL_CAPACITY];
+    private int[] relationTagStarts = new int[INITIAL_CAPACITY];
+    private int[] relationTagEnds = new int[INITIAL_CAPACITY];
+    private int[] relationMemberEnds = new int[INITIAL_CAPACITY];
+
+    private int numMembers;
+    private long[] memberRefs = new long[INITIAL_CAPACITY];
+    private int[] memberTypes = new int[INITIAL_CAPACITY];
+    private String[] memberRoles = new String[INITIAL_CAPACITY];
+
+    private int numTags;
+    private String[] tagKeys = new String[INITIAL_CAPACITY];
+    private String[] tagValues = new String[INITIAL_CAPACITY];
+
+    private NodeBuffer nodeBuffer;
+
+    private WayBuffer wayBuffer;
+
+    private RelationBuffer relationBuffer;
+
+    /**
+     * Stores a JAXB node, way or relation like the corresponding buffer. Other elements
+     * are ignored.
+     */
+    @Override
+    public void handleElement(JAXBElement<?> elem)
+    {
+        Class<?> type = elem.getDeclaredType();
+        if (type == Node.class)
+        {
+            if (nodeBuffer == null)
+            {
+                nodeBuffer = new NodeBuffer();
+            }
+            nodeBuffer.copyFrom((Node) elem.getValue());
+            handleNode(nodeBuffer);
+        }
+        else if (type == Way.class)
+        {
+            if (wayBuffer == null)
+            {
+                wayBuffer = new WayBuffer();
+            }
+            wayBuffer.copyFrom((Way) elem.getValue());
+            handleWay(wayBuffer);
+        }
+        else if (type == Relation.class)
+        {
+            if (relationBuffer == null)
+            {
+                relationBuffer = new RelationBuffer();
+            }
+            relationBuffer.copyFrom((Relation) elem.getValue());
+            handleRelation(relationBuffer);
+        }
+    }
+
+    @Override
+    public void handleNode(NodeBuffer node)
+    {
+        if (numNodes == nodeIds.length)
+        {
+            int capacity = 2 * numNodes;
+            nodeIds = Arrays.copyOf(nodeIds, capacity);
+            latitudes = Arrays.copyOf(latitudes, capacity);
+            longitudes = Arrays.copyOf(longitudes, capacity);
+            nodeTagStarts = Arrays.copyOf(nodeTagStarts, capacity);
+            nodeTagEnds = Arrays.copyOf(nodeTagEnds, capacity);
+        }
+        nodeIds[numNodes] = node.getId();
+        latitudes[numNodes] = node.getLatitude();
+        longitudes[numNodes] = node.getLongitude();
+        nodeTagStarts[numNodes] = numTags;
+        addTags(node);
+        nodeTagEnds[numNodes] = numTags;
+        numNodes++;
+    }
+
+    @Override
+    public void handleWay(WayBuffer way)
+    {
+        if (numWays == wayIds.length)
+        {
+            int capacity = 2 * numWays;
+            wayIds = Arrays.copyOf(wayIds, capacity);
+            wayTagStarts = Arrays.copyOf(wayTagStarts, capacity);
+            wayTagEnds = Arrays.copyOf(wayTagEnds, capacity);
+            wayRefEnds = Arrays.copyOf(wayRefEnds, capacity);
+        }
+        wayIds[numWays] = way.getId();
+        wayTagStarts[numWays] = numTags;
+        addTags(way);
+        wayTagEnds[numWays] = numTags;
+
+        int n = way.getNumNodeRefs();
+        if (numNodeRefs + n > nodeRefs.length)
+        {
+            nodeRefs = Arrays.copyOf(nodeRefs, Math.max(2 * nodeRefs.length, numNodeRefs + n));
+        }
+        for (int i = 0; i < n; i++)
+        {
+            nodeRefs[numNodeRefs++] = way.getNodeRef(i);
+        }
+        wayRefEnds[numWays] = numNodeRefs;
+        numWays++;
+    }
+
+    @Override
+    public void handleRelation(RelationBuffer relation)
+    {
+        if (numRelations == relationIds.length)
+        {
+            int capacity = 2 * numRelations;
+            relationIds = Arrays.copyOf(relationIds, capacity);
+            relationTagStarts = Arrays.copyOf(relationTagStarts, capacity);
+            relationTagEnds = Arrays.copyOf(relationTagEnds, capacity);
+            relationMemberEnds = Arrays.copyOf(relationMemberEnds, capacity);
+        }
+        relationIds[numRelations] = relation.getId();
+        relationTagStarts[numRelations] = numTags;
+        addTags(relation);
+        relationTagEnds[numRelations] = numTags;
+
+        int n = relation.getNumMembers();
+        if (numMembers + n > memberRefs.length)
+        {
+            int capacity = Math.max(2 * memberRefs.length, numMembers + n);
+            memberRefs = Arrays.copyOf(memberRefs, capacity);
+            memberTypes = Arrays.copyOf(memberTypes, capacity);
+            memberRoles = Arrays.copyOf(memberRoles, capacity);
+        }
+        for (int i = 0; i < n; i++)
+        {
+            memberRefs[numMembers] = relation.getMemberRef(i);
+            memberTypes[numMembers] = relation.getMemberType(i);
+            memberRoles[numMembers] = relation.getMemberRole(i);
+            numMembers++;
+        }
+        relationMemberEnds[numRelations] = numMembers;
+        numRelations++;
+    }
+
+    private void addTags(ElementBuffer element)
+    {
+        int n = element.getNumTags();
+        if (numTags + n > tagKeys.length)
+        {
+            int capacity = Math.max(2 * tagKeys.length, numTags + n);
+            tagKeys = Arrays.copyOf(tagKeys, capacity);
+            tagValues = Arrays.copyOf(tagValues, capacity);
+        }
+        for (int i = 0; i < n; i++)
+        {
+            tagKeys[numTags] = element.getTagKey(i);
+            tagValues[numTags] = element.getTagValue(i);
+            numTags++;
+        }
+    }
+
+    /**
+     * Passes all elements of this block to the given handler.
+     */
+    public void replay(OsmElementHandler handler)
+    {
+        NodeBuffer node = new NodeBuffer();
+        for (int i = 0; i < numNodes; i++)
+        {
+            node.clear();
+            node.setId(nodeIds[i]);
+            node.setLatitude(latitudes[i]);
+            node.setLongitude(longitudes[i]);
+            copyTags(node, nodeTagStarts[i], nodeTagEnds[i]);
+            handler.handleNode(node);
+        }
+
+        WayBuffer way = new WayBuffer();
+        int ref = 0;
+        for (int i = 0; i < numWays; i++)
+        {
+            way.clear();
+            way.setId(wayIds[i]);
+            copyTags(way, wayTagStarts[i], wayTagEnds[i]);
+            for (; ref < wayRefEnds[i]; ref++)
+            {
+                way.addNodeRef(nodeRefs[ref]);
+            }
+            handler.handleWay(way);
+        }
+
+        RelationBuffer relation = new RelationBuffer();
+        int member = 0;
+        for (int i = 0; i < numRelations; i++)
+        {
+            relation.clear();
+            relation.setId(relationIds[i]);
+            copyTags(relation, relationTagStarts[i], relationTagEnds[i]);
+            for (; member < relationMemberEnds[i]; member++)
+            {
+                relation.addMember(memberRefs[member], memberTypes[member],
+                    memberRoles[member]);
+            }
+            handler.handleRelation(relation);
+        }
+    }
+
+    private void copyTags(ElementBuffer element, int start, int end)
+    {
+        for (int i = start; i < end; i++)
+        {
+            element.addTag(tagKeys[i], tagValues[i]);
+        }
+    }
+}
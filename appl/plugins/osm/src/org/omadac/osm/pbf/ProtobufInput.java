@@ -0,0 +1,189 @@
+/*
+ *    Omadac - The Open Map Database Compiler
+ *    http://omadac.org
+ * 
+ *    (C) 2010, Harald Wellmann and Contributors
+ *
+ *    This library is free software; you can redistribute it and/or
+ *    modify it under the terms of the GNU Lesser General Public
+ *    License as published by the Free Software Foundation;
+ *    version 2.1 of the License.
+ *
+ *    This library is distributed in the hope that it will be useful,
+ *    but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ *    Lesser General Public License for more details.
+ */
+package org.omadac.osm.pbf;
+
+import java.nio.charset.Charset;
+
+import org.omadac.config.OmadacException;
+
+/**
+ * Minimal reader for the protocol buffer wire format, operating on a byte array region. This
+ * covers exactly what is needed for decoding OSM PBF files, avoiding a dependency on the
+ * protobuf runtime and on generated message classes.
+ * 
+ * @author hwellmann
+ * 
+ */
+public class ProtobufInput
+{
+    public static final int WIRE_VARINT = 0;
+    public static final int WIRE_FIXED64 = 1;
+    public static final int WIRE_LENGTH_DELIMITED = 2;
+    public static final int WIRE_FIXED32 = 5;
+
+    private static final Charset UTF8 = Charset.forName("UTF-8");
+
+    private byte[] buffer;
+
+    private int pos;
+
+    private int limit;
+
+    private int tag;
+
+    public ProtobufInput(byte[] buffer)
+    {
+        this(buffer, 0, buffer.length);
+    }
+
+    public ProtobufInput(byte[] buffer, int offset, int length)
+    {
+        this.buffer = buffer;
+        this.pos = offset;
+        this.limit = offset + length;
+    }
+
+    /**
+     * Reads the next field key.
+     * 
+     * @return field number, or 0 at the end of the message
+     */
+    public int readTag()
+    {
+        if (pos >= limit)
+        {
+            tag = 0;
+            return 0;
+        }
+        tag = (int) readRawVarint();
+        return tag >>> 3;
+    }
+
+    public int getWireType()
+    {
+        return tag & 7;
+    }
+
+    public boolean hasMore()
+    {
+        return pos < limit;
+    }
+
+    public long readRawVarint()
+    {
+        long result = 0;
+        for (int shift = 0; shift < 64; shift += 7)
+        {
+            if (pos >= limit)
+            {
+                throw new OmadacException("truncated varint");
+            }
+            byte b = buffer[pos++];
+            result |= (long) (b & 0x7F) << shift;
+            if (b >= 0)
+            {
+                return result;
+            }
+        }
+        throw new OmadacException("malformed varint");
+    }
+
+    public int readInt32()
+    {
+        return (int) readRawVarint();
+    }
+
+    public long readInt64()
+    {
+        return readRawVarint();
+    }
+
+    public long readSInt64()
+    {
+        long n = readRawVarint();
+        return (n >>> 1) ^ -(n & 1);
+    }
+
+    public int readSInt32()
+    {
+        int n = (int) readRawVarint();
+        return (n >>> 1) ^ -(n & 1);
+    }
+
+    /**
+     * Reads the length prefix of a length-delimited field and returns a reader for the
+     * embedded region, advancing this reader past it.
+     */
+    public ProtobufInput readMessage()
+    {
+        int length = readLength();
+        ProtobufInput message = new ProtobufInput(buffer, pos, length);
+        pos += length;
+        return message;
+    }
+
+    public byte[] readBytes()
+    {
+        int length = readLength();
+        byte[] bytes = new byte[length];
+        System.arraycopy(buffer, pos, bytes, 0, length);
+        pos += length;
+        return bytes;
+    }
+
+    public String readString()
+    {
+        int length = readLength();
+        String s = new String(buffer, pos, length, UTF8);
+        pos += length;
+        return s;
+    }
+
+    /**
+     * Skips the value of the field whose key was read last.
+     */
+    public void skipField()
+    {
+        switch (getWireType())
+        {
+            case WIRE_VARINT:
+                readRawVarint();
+                break;
+            case WIRE_FIXED64:
+                pos += 8;
+                break;
+            case WIRE_LENGTH_DELIMITED:
+                pos += readLength();
+                break;
+            case WIRE_FIXED32:
+                pos += 4;
+                break;
+            default:
+                throw new OmadacException("unsupported wire type " + getWireType());
+        }
+    }
+
+    private int readLength()
+    {
+        int length = (int) readRawVarint();
+        if (length < 0 || pos + length > limit)
+        {
+            throw new OmadacException("invalid length " + length);
+        }
+        return length;
+    }
+}
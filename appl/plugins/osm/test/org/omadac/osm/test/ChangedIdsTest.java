@@ -0,0 +1,74 @@
+/*
+ *    Omadac - The Open Map Database Compiler
+ *    http://omadac.org
+ * 
+ *    (C) 2010, Harald Wellmann and Contributors
+ *
+ *    This library is free software; you can redistribute it and/or
+ *    modify it under the terms of the GNU Lesser General Public
+ *    License as published by the Free Software Foundation;
+ *    version 2.1 of the License.
+ *
+ *    This library is distributed in the hope that it will be useful,
+ *    but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ *    Lesser General Public License for more details.
+ */
+package org.omadac.osm.test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.util.Arrays;
+import java.util.List;
+
+import org.junit.Test;
+import org.omadac.make.util.NumberRange;
+import org.omadac.osm.nom.ChangedIds;
+
+
+public class ChangedIdsTest
+{
+    private ChangedIds changedIds = new ChangedIds(Arrays.asList(5L, 12L, 25L, 26L, 40L));
+    
+    @Test
+    public void intersects()
+    {
+        assertTrue(changedIds.intersects(new NumberRange<Long>(10L, 20L)));
+        assertTrue(changedIds.intersects(new NumberRange<Long>(40L, 50L)));
+        assertFalse(changedIds.intersects(new NumberRange<Long>(13L, 24L)));
+        assertFalse(changedIds.intersects(new NumberRange<Long>(41L, 50L)));
+    }
+
+    @Test
+    public void outdatedRanges()
+    {
+        List<String> previous = Arrays.asList("NomLinks_10_20", "NomLinks_30_39", 
+            "NomLinks_1_4");
+        List<NumberRange<Long>> ranges = changedIds.getOutdatedRanges(previous, 10);
+        
+        assertEquals(4, ranges.size());
+        assertRange(10, 20, ranges.get(0));
+        assertRange(5, 5, ranges.get(1));
+        assertRange(25, 26, ranges.get(2));
+        assertRange(40, 40, ranges.get(3));
+    }
+
+    @Test
+    public void outdatedRangesWithoutPreviousSubtargets()
+    {
+        List<String> previous = Arrays.asList();
+        List<NumberRange<Long>> ranges = changedIds.getOutdatedRanges(previous, 3);
+        
+        assertEquals(2, ranges.size());
+        assertRange(5, 25, ranges.get(0));
+        assertRange(26, 40, ranges.get(1));
+    }
+
+    private void assertRange(long minId, long maxId, NumberRange<Long> range)
+    {
+        assertEquals(minId, range.getMinId().longValue());
+        assertEquals(maxId, range.getMaxId().longValue());
+    }
+}
@@ -0,0 +1,182 @@
+/*
+ *    Omadac - The Open Map Database Compiler
+ *    http://omadac.org
+ * 
+ *    (C) 2011, Harald Wellmann and Contributors
+ *
+ *    This library is free software; you can redistribute it and/or
+ *    modify it under the terms of the GNU Lesser General Public
+ *    License as published by the Free Software Foundation;
+ *    version 2.1 of the License.
+ *
+ *    This library is distributed in the hope that it will be useful,
+ *    but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ *    Lesser General Public License for more details.
+ */
+package org.omadac.osm.test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.List;
+
+import javax.xml.bind.JAXBElement;
+import javax.xml.namespace.QName;
+import javax.xml.stream.XMLStreamException;
+
+import org.junit.Test;
+import org.omadac.config.OmadacException;
+import org.omadac.osm.ElementDispatcher;
+import org.omadac.osm.NodeBuffer;
+import org.omadac.osm.OsmCursorParser;
+import org.omadac.osm.OsmElementHandler;
+import org.omadac.osm.WayBuffer;
+import org.omadac.osm.jaxb.Node;
+import org.omadac.osm.jaxb.Way;
+
+
+public class ElementDispatcherTest
+{
+    @Test
+    public void dispatchToAllHandlers() throws IOException, XMLStreamException
+    {
+        StringBuilder osm = new StringBuilder("<osm version='0.6'>\n");
+        for (int i = 1; i <= 20; i++)
+        {
+            osm.append(String.format("<node id='%d' lat='53.%d' lon='9.%d'/>\n", i, i, i));
+        }
+        for (int i = 1; i <= 10; i++)
+        {
+            osm.append(String.format("<way id='%d'><nd ref='%d'/><nd ref='%d'/>"
+                + "<tag k='highway' v='residential'/></way>\n", i, i, i + 10));
+        }
+        osm.append("<relation id='1'><member type='way' ref='1' role='outer'/>"
+            + "<tag k='type' v='multipolygon'/></relation>\n</osm>\n");
+        byte[] bytes = osm.toString().getBytes("UTF-8");
+
+        RecordingOsmElementHandler expected = new RecordingOsmElementHandler();
+        new OsmCursorParser(expected).parseXml(new ByteArrayInputStream(bytes));
+        assertEquals(31, expected.getEvents().size());
+
+        RecordingOsmElementHandler first = new RecordingOsmElementHandler();
+        RecordingOsmElementHandler second = new RecordingOsmElementHandler();
+        // small batches and queues, so that the parser is blocked by the handlers
+        ElementDispatcher dispatcher = new ElementDispatcher(
+            Arrays.<OsmElementHandler> asList(first, second), 3, 1);
+        new OsmCursorParser(dispatcher).parseXml(new ByteArrayInputStream(bytes));
+        dispatcher.close();
+
+        assertEquals(expected.getEvents(), first.getEvents());
+        assertEquals(expected.getEvents(), second.getEvents());
+    }
+
+    @Test
+    public void preserveOrderOfMixedTypes()
+    {
+        RecordingOsmElementHandler expected = new RecordingOsmElementHandler();
+        RecordingOsmElementHandler handler = new RecordingOsmElementHandler();
+        ElementDispatcher dispatcher = new ElementDispatcher(
+            Arrays.<OsmElementHandler> asList(handler), 10, 2);
+        
+        NodeBuffer node = new NodeBuffer();
+        WayBuffer way = new WayBuffer();
+        for (int i = 1; i <= 3; i++)
+        {
+            node.clear();
+            node.setId(i);
+            expected.handleNode(node);
+            dispatcher.handleNode(node);
+            way.clear();
+            way.setId(i);
+            way.addNodeRef(i);
+            expected.handleWay(way);
+            dispatcher.handleWay(way);
+        }
+        dispatcher.close();
+
+        assertEquals(expected.getEvents(), handler.getEvents());
+    }
+
+    @Test
+    public void dispatchJaxbElements()
+    {
+        RecordingOsmElementHandler expected = new RecordingOsmElementHandler();
+        RecordingOsmElementHandler handler = new RecordingOsmElementHandler();
+        ElementDispatcher dispatcher = new ElementDispatcher(
+            Arrays.<OsmElementHandler> asList(handler), 2, 2);
+
+        NodeBuffer node = new NodeBuffer();
+        WayBuffer way = new WayBuffer();
+        for (int i = 1; i <= 3; i++)
+        {
+            node.clear();
+            node.setId(i);
+            node.setLatitude(53.5);
+            node.setLongitude(9.9);
+            node.addTag("name", "node" + i);
+            expected.handleNode(node);
+            dispatcher.handleElement(new JAXBElement<Node>(new QName("node"), Node.class, 
+                node.toNode()));
+        }
+        way.clear();
+        way.setId(1);
+        way.addNodeRef(1);
+        way.addNodeRef(3);
+        way.addTag("highway", "residential");
+        expected.handleWay(way);
+        dispatcher.handleElement(new JAXBElement<Way>(new QName("way"), Way.class, 
+            way.toWay()));
+        dispatcher.close();
+
+        assertEquals(expected.getEvents(), handler.getEvents());
+    }
+
+    @Test
+    public void rethrowHandlerFailure()
+    {
+        RecordingOsmElementHandler handler = new RecordingOsmElementHandler();
+        OsmElementHandler failing = new RecordingOsmElementHandler()
+        {
+            @Override
+            public void handleNode(NodeBuffer node)
+            {
+                throw new IllegalStateException("failed");
+            }
+        };
+        ElementDispatcher dispatcher = new ElementDispatcher(
+            Arrays.<OsmElementHandler> asList(handler, failing), 1, 1);
+        NodeBuffer node = new NodeBuffer();
+        int numNodes = 0;
+        try
+        {
+            // the parser is stopped soon after the failure
+            while (numNodes < 100000)
+            {
+                node.clear();
+                node.setId(++numNodes);
+                dispatcher.handleNode(node);
+            }
+            fail("parser not stopped");
+        }
+        catch (OmadacException exc)
+        {
+            assertTrue(numNodes < 100000);
+        }
+        try
+        {
+            dispatcher.close();
+            fail("exception expected");
+        }
+        catch (IllegalStateException exc)
+        {
+            assertEquals("failed", exc.getMessage());
+        }
+        List<String> events = handler.getEvents();
+        assertTrue(events.size() < numNodes);
+    }
+}
@@ -0,0 +1,207 @@
+/*
+ *    Omadac - The Open Map Database Compiler
+ *    http://omadac.org
+ * 
+ *    (C) 2010, Harald Wellmann and Contributors
+ *
+ *    This library is free software; you can redistribute it and/or
+ *    modify it under the terms of the GNU Lesser General Public
+ *    License as published by the Free Software Foundation;
+ *    version 2.1 of the License.
+ *
+ *    This library is distributed in the hope that it will be useful,
+ *    but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ *    Lesser General Public License for more details.
+ */
+package org.omadac.osm.test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.io.Writer;
+import java.util.Arrays;
+import java.util.List;
+
+import org.junit.Test;
+import org.omadac.osm.NodeBuffer;
+import org.omadac.osm.OsmElementHandler;
+import org.omadac.osm.RelationBuffer;
+import org.omadac.osm.WayBuffer;
+import org.omadac.osm.filter.BoundingBox;
+import org.omadac.osm.filter.ElementSelector;
+import org.omadac.osm.filter.PolygonRegion;
+
+
+public class ElementFilterTest
+{
+    private NodeBuffer node = new NodeBuffer();
+    private WayBuffer way = new WayBuffer();
+    private RelationBuffer relation = new RelationBuffer();
+
+    @Test
+    public void selectByRegionAndTags()
+    {
+        ElementSelector selector = new ElementSelector(BoundingBox.parse("8,50,9,51"), 
+            Arrays.asList("highway", "amenity"));
+        sendElements(selector);
+        RecordingOsmElementHandler recorder = new RecordingOsmElementHandler();
+        sendElements(selector.createFilter(recorder));
+        
+        List<String> events = recorder.getEvents();
+        assertEquals(6, events.size());
+        assertEquals("node 1 50.5 8.5 {}", events.get(0));
+        assertEquals("node 2 52.0 8.5 {}", events.get(1));
+        assertEquals("node 4 50.5 8.6 {amenity=cafe}", events.get(2));
+        assertEquals("way 10 [1, 2] {highway=primary}", events.get(3));
+        assertEquals("relation 20 [2:10:outer] {highway=pedestrian}", events.get(4));
+        assertEquals("relation 21 [3:20:] {amenity=parking}", events.get(5));
+    }
+
+    @Test
+    public void selectUntaggedMemberWays()
+    {
+        ElementSelector selector = new ElementSelector(BoundingBox.parse("8,50,9,51"), 
+            Arrays.asList("building"));
+        sendMultipolygon(selector);
+        assertTrue(selector.startMemberPass());
+        sendMultipolygon(selector);
+        RecordingOsmElementHandler recorder = new RecordingOsmElementHandler();
+        sendMultipolygon(selector.createFilter(recorder));
+        
+        List<String> events = recorder.getEvents();
+        assertEquals(7, events.size());
+        assertEquals("node 1 50.5 8.5 {}", events.get(0));
+        assertEquals("node 6 52.0 8.5 {}", events.get(3));
+        assertEquals("way 30 [1, 2, 3, 1] {}", events.get(4));
+        assertEquals("way 31 [6, 6] {}", events.get(5));
+        assertEquals("relation 40 [2:30:outer, 2:31:inner] {building=yes}", events.get(6));
+    }
+
+    private void sendMultipolygon(OsmElementHandler handler)
+    {
+        sendNode(handler, 1, 50.5, 8.5, null);
+        sendNode(handler, 2, 50.6, 8.5, null);
+        sendNode(handler, 3, 50.6, 8.6, null);
+        // outside, but referenced by a member way of relation 40
+        sendNode(handler, 6, 52.0, 8.5, null);
+        
+        way.clear();
+        way.setId(30);
+        way.addNodeRef(1);
+        way.addNodeRef(2);
+        way.addNodeRef(3);
+        way.addNodeRef(1);
+        handler.handleWay(way);
+
+        way.clear();
+        way.setId(31);
+        way.addNodeRef(6);
+        way.addNodeRef(6);
+        handler.handleWay(way);
+
+        relation.clear();
+        relation.setId(40);
+        relation.addMember(30, RelationBuffer.MEMBER_WAY, "outer");
+        relation.addMember(31, RelationBuffer.MEMBER_WAY, "inner");
+        relation.addTag("building", "yes");
+        handler.handleRelation(relation);
+
+        // no member inside the region
+        relation.clear();
+        relation.setId(41);
+        relation.addMember(31, RelationBuffer.MEMBER_WAY, "outer");
+        relation.addTag("building", "yes");
+        handler.handleRelation(relation);
+    }
+
+    private void sendElements(OsmElementHandler handler)
+    {
+        sendNode(handler, 1, 50.5, 8.5, null);
+        // outside, but referenced by way 10
+        sendNode(handler, 2, 52.0, 8.5, null);
+        sendNode(handler, 3, 52.0, 8.6, "amenity");
+        sendNode(handler, 4, 50.5, 8.6, "amenity");
+        sendNode(handler, 5, 50.5, 8.7, "name");
+        
+        way.clear();
+        way.setId(10);
+        way.addNodeRef(1);
+        way.addNodeRef(2);
+        way.addTag("highway", "primary");
+        handler.handleWay(way);
+
+        way.clear();
+        way.setId(11);
+        way.addNodeRef(2);
+        way.addNodeRef(3);
+        way.addTag("highway", "secondary");
+        handler.handleWay(way);
+
+        way.clear();
+        way.setId(12);
+        way.addNodeRef(1);
+        way.addNodeRef(5);
+        way.addTag("building", "yes");
+        handler.handleWay(way);
+
+        relation.clear();
+        relation.setId(20);
+        relation.addMember(10, RelationBuffer.MEMBER_WAY, "outer");
+        relation.addTag("highway", "pedestrian");
+        handler.handleRelation(relation);
+
+        relation.clear();
+        relation.setId(21);
+        relation.addMember(20, RelationBuffer.MEMBER_RELATION, "");
+        relation.addTag("amenity", "parking");
+        handler.handleRelation(relation);
+
+        relation.clear();
+        relation.setId(22);
+        relation.addMember(11, RelationBuffer.MEMBER_WAY, "");
+        relation.addTag("highway", "pedestrian");
+        handler.handleRelation(relation);
+    }
+
+    private void sendNode(OsmElementHandler handler, long id, double lat, double lon, 
+        String key)
+    {
+        node.clear();
+        node.setId(id);
+        node.setLatitude(lat);
+        node.setLongitude(lon);
+        if (key != null)
+        {
+            node.addTag(key, "cafe");
+        }
+        handler.handleNode(node);
+    }
+
+    @Test
+    public void polygonWithHole() throws IOException
+    {
+        File file = File.createTempFile("region", ".poly");
+        try
+        {
+            Writer writer = new FileWriter(file);
+            writer.write("region\n1\n  0.0 0.0\n  10.0 0.0\n  10.0 10.0\n  0.0 10.0\nEND\n"
+                + "!2\n  4.0 4.0\n  6.0 4.0\n  6.0 6.0\n  4.0 6.0\nEND\nEND\n");
+            writer.close();
+            PolygonRegion region = PolygonRegion.read(file);
+            assertTrue(region.contains(1.0, 1.0));
+            assertTrue(region.contains(8.0, 3.0));
+            assertFalse(region.contains(5.0, 5.0));
+            assertFalse(region.contains(11.0, 5.0));
+            assertFalse(region.contains(-1.0, 5.0));
+        }
+        finally
+        {
+            file.delete();
+        }
+    }
+}
@@ -0,0 +1,102 @@
+/*
+ *    Omadac - The Open Map Database Compiler
+ *    http://omadac.org
+ * 
+ *    (C) 2010, Harald Wellmann and Contributors
+ *
+ *    This library is free software; you can redistribute it and/or
+ *    modify it under the terms of the GNU Lesser General Public
+ *    License as published by the Free Software Foundation;
+ *    version 2.1 of the License.
+ *
+ *    This library is distributed in the hope that it will be useful,
+ *    but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ *    Lesser General Public License for more details.
+ */
+package org.omadac.osm.test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Random;
+
+import org.junit.Test;
+import org.omadac.loader.ExternalSorter;
+
+
+public class ExternalSorterTest
+{
+    private static class LongCodec implements ExternalSorter.RowCodec<Long>
+    {
+        @Override
+        public void write(DataOutput out, Long row) throws IOException
+        {
+            out.writeLong(row);
+        }
+
+        @Override
+        public Long read(DataInput in) throws IOException
+        {
+            return in.readLong();
+        }
+
+        @Override
+        public int estimateSize(Long row)
+        {
+            return 10;
+        }
+    }
+
+    private static class NaturalOrder implements Comparator<Long>
+    {
+        @Override
+        public int compare(Long left, Long right)
+        {
+            return left.compareTo(right);
+        }
+    }
+
+    @Test
+    public void mergeInSeveralPasses() throws IOException
+    {
+        File dir = File.createTempFile("sort", "");
+        dir.delete();
+
+        // about 300 runs of 101 rows, more than can be merged at a time
+        ExternalSorter<Long> sorter = new ExternalSorter<Long>(new NaturalOrder(), 
+            new LongCodec(), dir, 1000);
+        Random random = new Random(42);
+        List<Long> expected = new ArrayList<Long>();
+        for (int i = 0; i < 30000; i++)
+        {
+            long row = random.nextInt(100000);
+            expected.add(row);
+            sorter.add(row);
+        }
+        assertTrue(dir.list().length > 200);
+        Collections.sort(expected);
+
+        final List<Long> sorted = new ArrayList<Long>();
+        sorter.sort(new ExternalSorter.RowHandler<Long>()
+        {
+            @Override
+            public void handleRow(Long row)
+            {
+                sorted.add(row);
+            }
+        });
+
+        assertEquals(expected, sorted);
+        assertEquals(0, dir.list().length);
+        dir.delete();
+    }
+}
@@ -0,0 +1,100 @@
+/*
+ *    Omadac - The Open Map Database Compiler
+ *    http://omadac.org
+ * 
+ *    (C) 2011, Harald Wellmann and Contributors
+ *
+ *    This library is free software; you can redistribute it and/or
+ *    modify it under the terms of the GNU Lesser General Public
+ *    License as published by the Free Software Foundation;
+ *    version 2.1 of the License.
+ *
+ *    This library is distributed in the hope that it will be useful,
+ *    but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ *    Lesser General Public License for more details.
+ */
+package org.omadac.osm.test;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.junit.Test;
+import org.omadac.osm.location.NodeLocationStore;
+import org.omadac.osm.nom.MultipolygonBuilder;
+import org.omadac.osm.nom.MultipolygonBuilder.Area;
+
+
+public class MultipolygonBuilderTest
+{
+    private Map<Long, Long> locations = new HashMap<Long, Long>();
+
+    private MultipolygonBuilder builder = new MultipolygonBuilder(locations);
+
+    public MultipolygonBuilderTest()
+    {
+        // outer square 1-4, inner square 5-8, island 9-12 inside the inner square,
+        // separate square 13-16
+        addSquare(1, 0, 100);
+        addSquare(5, 20, 60);
+        addSquare(9, 30, 10);
+        addSquare(13, 200, 10);
+    }
+
+    private void addSquare(long firstNodeId, int min, int size)
+    {
+        int max = min + size;
+        locations.put(firstNodeId, NodeLocationStore.pack(min, min));
+        locations.put(firstNodeId + 1, NodeLocationStore.pack(min, max));
+        locations.put(firstNodeId + 2, NodeLocationStore.pack(max, max));
+        locations.put(firstNodeId + 3, NodeLocationStore.pack(max, min));
+    }
+
+    @Test
+    public void joinWaysToRings()
+    {
+        builder.addWay(new long[] { 1, 2, 3 });
+        builder.addWay(new long[] { 1, 4, 3 });
+        List<Area> areas = builder.build();
+
+        assertEquals(1, areas.size());
+        assertArrayEquals(new long[] { 1, 2, 3, 4, 1 }, areas.get(0).getShell());
+        assertEquals(0, areas.get(0).getHoles().size());
+    }
+
+    @Test
+    public void nestRings()
+    {
+        builder.addWay(new long[] { 9, 10, 11, 12, 9 });
+        builder.addWay(new long[] { 5, 6, 7, 8, 5 });
+        builder.addWay(new long[] { 13, 14, 15, 16, 13 });
+        builder.addWay(new long[] { 1, 2, 3, 4, 1 });
+        List<Area> areas = builder.build();
+
+        assertEquals(3, areas.size());
+        assertEquals(9, areas.get(0).getShell()[0]);
+        assertEquals(0, areas.get(0).getHoles().size());
+        assertEquals(13, areas.get(1).getShell()[0]);
+        assertEquals(0, areas.get(1).getHoles().size());
+        assertEquals(1, areas.get(2).getShell()[0]);
+        assertEquals(1, areas.get(2).getHoles().size());
+        assertEquals(5, areas.get(2).getHoles().get(0)[0]);
+    }
+
+    @Test
+    public void unclosedRing()
+    {
+        builder.addWay(new long[] { 1, 2, 3 });
+        builder.addWay(new long[] { 3, 4 });
+        assertNull(builder.build());
+
+        builder.clear();
+        builder.addWay(new long[] { 1, 2, 3, 4, 1 });
+        assertEquals(1, builder.build().size());
+    }
+}
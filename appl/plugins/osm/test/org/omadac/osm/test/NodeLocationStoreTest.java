@@ -0,0 +1,121 @@
+/*
+ *    Omadac - The Open Map Database Compiler
+ *    http://omadac.org
+ * 
+ *    (C) 2010, Harald Wellmann and Contributors
+ *
+ *    This library is free software; you can redistribute it and/or
+ *    modify it under the terms of the GNU Lesser General Public
+ *    License as published by the Free Software Foundation;
+ *    version 2.1 of the License.
+ *
+ *    This library is distributed in the hope that it will be useful,
+ *    but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ *    Lesser General Public License for more details.
+ */
+package org.omadac.osm.test;
+
+import static org.junit.Assert.assertEquals;
+
+import java.io.File;
+import java.io.IOException;
+
+import org.junit.Test;
+import org.omadac.config.OmadacException;
+import org.omadac.osm.location.NodeLocationStore;
+import org.omadac.osm.location.NodeLocationStoreWriter;
+
+
+public class NodeLocationStoreTest
+{
+    @Test
+    public void denseStore() throws IOException
+    {
+        checkStore(false);
+    }
+
+    @Test
+    public void sparseStore() throws IOException
+    {
+        checkStore(true);
+    }
+
+    @Test
+    public void updateDenseStore() throws IOException
+    {
+        File file = File.createTempFile("nodes", ".loc");
+        try
+        {
+            NodeLocationStoreWriter writer = new NodeLocationStoreWriter(file, false);
+            writer.put(3, 10, 20);
+            writer.put(1099, 535595882, 99280567);
+            writer.close();
+
+            writer = NodeLocationStoreWriter.openForUpdate(file);
+            writer.remove(3);
+            writer.put(1099, 535595883, 99280568);
+            writer.put(2000, -1, -2);
+            writer.remove(5000);
+            writer.close();
+
+            NodeLocationStore store = NodeLocationStore.open(file);
+            assertEquals(NodeLocationStore.UNKNOWN, store.get(3));
+            assertEquals(NodeLocationStore.pack(535595883, 99280568), store.get(1099));
+            assertEquals(NodeLocationStore.pack(-1, -2), store.get(2000));
+            assertEquals(2001, store.getNumEntries());
+            store.close();
+        }
+        finally
+        {
+            file.delete();
+        }
+    }
+
+    @Test(expected = OmadacException.class)
+    public void rejectSparseUpdate() throws IOException
+    {
+        File file = File.createTempFile("nodes", ".loc");
+        try
+        {
+            NodeLocationStoreWriter writer = new NodeLocationStoreWriter(file, true);
+            writer.put(3, 10, 20);
+            writer.close();
+            NodeLocationStoreWriter.openForUpdate(file);
+        }
+        finally
+        {
+            file.delete();
+        }
+    }
+
+    private void checkStore(boolean sparse) throws IOException
+    {
+        File file = File.createTempFile("nodes", ".loc");
+        try
+        {
+            NodeLocationStoreWriter writer = new NodeLocationStoreWriter(file, sparse);
+            writer.put(3, 0, 0);
+            writer.put(1099, 535595882, 99280567);
+            writer.put(1102, -900000000, -1800000000);
+            writer.close();
+
+            NodeLocationStore store = NodeLocationStore.open(file);
+            assertEquals(NodeLocationStore.pack(0, 0), store.get(3));
+            long location = store.get(1099);
+            assertEquals(535595882, NodeLocationStore.getLatitude(location));
+            assertEquals(99280567, NodeLocationStore.getLongitude(location));
+            location = store.get(1102);
+            assertEquals(-900000000, NodeLocationStore.getLatitude(location));
+            assertEquals(-1800000000, NodeLocationStore.getLongitude(location));
+            assertEquals(NodeLocationStore.UNKNOWN, store.get(2));
+            assertEquals(NodeLocationStore.UNKNOWN, store.get(1100));
+            assertEquals(NodeLocationStore.UNKNOWN, store.get(Long.MAX_VALUE));
+            store.close();
+        }
+        finally
+        {
+            file.delete();
+        }
+    }
+}
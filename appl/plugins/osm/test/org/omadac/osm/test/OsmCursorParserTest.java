@@ -0,0 +1,156 @@
+/*
+ *    Omadac - The Open Map Database Compiler
+ *    http://omadac.org
+ * 
+ *    (C) 2010, Harald Wellmann and Contributors
+ *
+ *    This library is free software; you can redistribute it and/or
+ *    modify it under the terms of the GNU Lesser General Public
+ *    License as published by the Free Software Foundation;
+ *    version 2.1 of the License.
+ *
+ *    This library is distributed in the hope that it will be useful,
+ *    but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ *    Lesser General Public License for more details.
+ */
+package org.omadac.osm.test;
+
+import static org.junit.Assert.assertEquals;
+
+import java.io.ByteArrayInputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.UnsupportedEncodingException;
+import java.util.List;
+
+import javax.xml.stream.XMLStreamException;
+
+import org.junit.Test;
+import org.omadac.config.OmadacException;
+import org.omadac.osm.OsmChangeHandler;
+import org.omadac.osm.OsmCursorParser;
+import org.omadac.osm.ParallelXmlParser;
+
+
+public class OsmCursorParserTest
+{
+    private static final String OSM =
+        "<?xml version='1.0' encoding='UTF-8'?>\n"
+        + "<osm version='0.6' generator='JOSM'>\n"
+        + "  <bounds minlat='53.56' minlon='9.92' maxlat='53.58' maxlon='9.97'/>\n"
+        + "  <node id='226978099' version='4' lat='53.5595882' lon='9.9280567'/>\n"
+        + "  <node id='226978102' lat='53.560249' lon='9.9281249'>\n"
+        + "    <tag k='amenity' v='café'/>\n"
+        + "  </node>\n"
+        + "  <way id='36770511'>\n"
+        + "    <nd ref='226978099'/>\n"
+        + "    <nd ref='226978102'/>\n"
+        + "    <tag k='highway' v='residential'/>\n"
+        + "    <tag k='name' v='Osterstraße'/>\n"
+        + "  </way>\n"
+        + "  <relation id='42'>\n"
+        + "    <member type='way' ref='36770511' role='outer'/>\n"
+        + "    <member type='node' ref='226978099' role=''/>\n"
+        + "    <tag k='type' v='multipolygon'/>\n"
+        + "  </relation>\n"
+        + "</osm>\n";
+
+    @Test
+    public void parseOsm() throws XMLStreamException, UnsupportedEncodingException
+    {
+        RecordingOsmElementHandler handler = new RecordingOsmElementHandler();
+        OsmCursorParser parser = new OsmCursorParser(handler);
+        parser.parseXml(new ByteArrayInputStream(OSM.getBytes("UTF-8")));
+
+        List<String> events = handler.getEvents();
+        assertEquals(4, events.size());
+        assertEquals("node 226978099 53.5595882 9.9280567 {}", events.get(0));
+        assertEquals("node 226978102 53.560249 9.9281249 {amenity=café}", events.get(1));
+        assertEquals("way 36770511 [226978099, 226978102] " 
+            + "{highway=residential, name=Osterstraße}", events.get(2));
+        assertEquals("relation 42 [2:36770511:outer, 1:226978099:] {type=multipolygon}", 
+            events.get(3));
+    }
+
+    @Test
+    public void parseOsmInParallel() throws XMLStreamException, IOException
+    {
+        RecordingOsmElementHandler expected = new RecordingOsmElementHandler();
+        new OsmCursorParser(expected).parseXml(
+            new ByteArrayInputStream(OSM.getBytes("UTF-8")));
+        
+        File file = File.createTempFile("parallel", ".osm");
+        try
+        {
+            OutputStream os = new FileOutputStream(file);
+            os.write(OSM.getBytes("UTF-8"));
+            os.close();
+
+            // tiny chunks, so that each element is parsed separately
+            for (int chunkSize = 1; chunkSize < OSM.length(); chunkSize += 50)
+            {
+                RecordingOsmElementHandler handler = new RecordingOsmElementHandler();
+                new ParallelXmlParser(handler, 3, chunkSize).parseXml(file.getPath());
+                assertEquals(expected.getEvents(), handler.getEvents());
+            }
+        }
+        finally
+        {
+            file.delete();
+        }
+    }
+
+    private static final String OSC =
+        "<?xml version='1.0' encoding='UTF-8'?>\n"
+        + "<osmChange version='0.6' generator='Osmosis'>\n"
+        + "  <create>\n"
+        + "    <node id='7' lat='53.5' lon='9.9'/>\n"
+        + "  </create>\n"
+        + "  <modify>\n"
+        + "    <way id='36770511'>\n"
+        + "      <nd ref='7'/>\n"
+        + "    </way>\n"
+        + "  </modify>\n"
+        + "  <delete>\n"
+        + "    <relation id='42'/>\n"
+        + "  </delete>\n"
+        + "</osmChange>\n";
+
+    private static class RecordingOsmChangeHandler extends RecordingOsmElementHandler 
+        implements OsmChangeHandler
+    {
+        @Override
+        public void startAction(Action action)
+        {
+            getEvents().add(action.toString());
+        }
+    }
+
+    @Test
+    public void parseOsmChange() throws XMLStreamException, UnsupportedEncodingException
+    {
+        RecordingOsmChangeHandler handler = new RecordingOsmChangeHandler();
+        OsmCursorParser parser = new OsmCursorParser(handler);
+        parser.parseXml(new ByteArrayInputStream(OSC.getBytes("UTF-8")));
+
+        List<String> events = handler.getEvents();
+        assertEquals(6, events.size());
+        assertEquals("CREATE", events.get(0));
+        assertEquals("node 7 53.5 9.9 {}", events.get(1));
+        assertEquals("MODIFY", events.get(2));
+        assertEquals("way 36770511 [7] {}", events.get(3));
+        assertEquals("DELETE", events.get(4));
+        assertEquals("relation 42 [] {}", events.get(5));
+    }
+
+    @Test(expected = OmadacException.class)
+    public void rejectOsmChangeWithoutChangeHandler() 
+        throws XMLStreamException, UnsupportedEncodingException
+    {
+        OsmCursorParser parser = new OsmCursorParser(new RecordingOsmElementHandler());
+        parser.parseXml(new ByteArrayInputStream(OSC.getBytes("UTF-8")));
+    }
+}
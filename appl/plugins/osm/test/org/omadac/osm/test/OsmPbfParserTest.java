@@ -0,0 +1,210 @@
+/*
+ *    Omadac - The Open Map Database Compiler
+ *    http://omadac.org
+ * 
+ *    (C) 2010, Harald Wellmann and Contributors
+ *
+ *    This library is free software; you can redistribute it and/or
+ *    modify it under the terms of the GNU Lesser General Public
+ *    License as published by the Free Software Foundation;
+ *    version 2.1 of the License.
+ *
+ *    This library is distributed in the hope that it will be useful,
+ *    but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ *    Lesser General Public License for more details.
+ */
+package org.omadac.osm.test;
+
+import static org.junit.Assert.assertEquals;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.util.List;
+import java.util.zip.Deflater;
+
+import org.junit.Test;
+import org.omadac.osm.pbf.OsmPbfParser;
+import org.omadac.osm.pbf.ParallelPbfParser;
+
+
+public class OsmPbfParserTest
+{
+    @Test
+    public void parsePbf() throws IOException
+    {
+        ByteArrayOutputStream os = new ByteArrayOutputStream();
+        DataOutputStream dos = new DataOutputStream(os);
+        writeBlob(dos, "OSMHeader", new Message().string(4, "OsmSchema-V0.6")
+            .string(4, "DenseNodes"));
+        writeBlob(dos, "OSMData", primitiveBlock(7));
+
+        RecordingOsmElementHandler handler = new RecordingOsmElementHandler();
+        OsmPbfParser parser = new OsmPbfParser(handler);
+        parser.parsePbf(new ByteArrayInputStream(os.toByteArray()));
+
+        List<String> events = handler.getEvents();
+        assertEquals(4, events.size());
+        assertEquals("node 100 53.5595882 9.9280567 {}", events.get(0));
+        assertEquals("node 102 53.560249 9.9281249 {amenity=cafe}", events.get(1));
+        assertEquals("way 7 [100, 102] {highway=residential}", events.get(2));
+        assertEquals("relation 42 [2:7:outer, 1:100:] {type=multipolygon}", events.get(3));
+    }
+
+    @Test
+    public void parsePbfInParallel() throws IOException
+    {
+        ByteArrayOutputStream os = new ByteArrayOutputStream();
+        DataOutputStream dos = new DataOutputStream(os);
+        writeBlob(dos, "OSMHeader", new Message().string(4, "OsmSchema-V0.6"));
+        for (int wayId = 1; wayId <= 50; wayId++)
+        {
+            writeBlob(dos, "OSMData", primitiveBlock(wayId));
+        }
+        byte[] pbf = os.toByteArray();
+
+        RecordingOsmElementHandler expected = new RecordingOsmElementHandler();
+        new OsmPbfParser(expected).parsePbf(new ByteArrayInputStream(pbf));
+
+        RecordingOsmElementHandler actual = new RecordingOsmElementHandler();
+        new ParallelPbfParser(actual, 4).parsePbf(new ByteArrayInputStream(pbf));
+
+        assertEquals(200, actual.getEvents().size());
+        assertEquals(expected.getEvents(), actual.getEvents());
+    }
+
+    private Message primitiveBlock(long wayId)
+    {
+        Message strings = new Message();
+        for (String s : new String[] { "", "amenity", "cafe", "highway", "residential",
+            "type", "multipolygon", "outer" })
+        {
+            strings.string(1, s);
+        }
+
+        // granularity 100, coordinates in units of 1E-7 degrees
+        Message dense = new Message()
+            .packedSInt64(1, 100, 2)
+            .packedSInt64(8, 535595882, 535602490 - 535595882)
+            .packedSInt64(9, 99280567, 99281249 - 99280567)
+            .packedInt(10, 0, 1, 2, 0);
+
+        Message way = new Message()
+            .int64(1, wayId)
+            .packedInt(2, 3)
+            .packedInt(3, 4)
+            .packedSInt64(8, 100, 2);
+
+        Message relation = new Message()
+            .int64(1, 42)
+            .packedInt(2, 5)
+            .packedInt(3, 6)
+            .packedInt(8, 7, 0)
+            .packedSInt64(9, wayId, 100 - wayId)
+            .packedInt(10, 1, 0);
+
+        return new Message()
+            .message(1, strings)
+            .message(2, new Message().message(2, dense))
+            .message(2, new Message().message(3, way).message(4, relation));
+    }
+
+    private void writeBlob(DataOutputStream dos, String type, Message payload)
+        throws IOException
+    {
+        byte[] raw = payload.toByteArray();
+        Deflater deflater = new Deflater();
+        deflater.setInput(raw);
+        deflater.finish();
+        byte[] compressed = new byte[raw.length + 64];
+        int length = deflater.deflate(compressed);
+        deflater.end();
+
+        ByteArrayOutputStream zlib = new ByteArrayOutputStream();
+        zlib.write(compressed, 0, length);
+        byte[] blob = new Message().int64(2, raw.length).bytes(3, zlib.toByteArray())
+            .toByteArray();
+        byte[] header = new Message().string(1, type).int64(3, blob.length).toByteArray();
+
+        dos.writeInt(header.length);
+        dos.write(header);
+        dos.write(blob);
+    }
+
+    /**
+     * Minimal protocol buffer encoder for building test input.
+     */
+    private static class Message
+    {
+        private ByteArrayOutputStream os = new ByteArrayOutputStream();
+
+        Message int64(int field, long value)
+        {
+            varint(field << 3);
+            varint(value);
+            return this;
+        }
+
+        Message bytes(int field, byte[] value)
+        {
+            varint((field << 3) | 2);
+            varint(value.length);
+            os.write(value, 0, value.length);
+            return this;
+        }
+
+        Message string(int field, String value)
+        {
+            try
+            {
+                return bytes(field, value.getBytes("UTF-8"));
+            }
+            catch (IOException exc)
+            {
+                throw new IllegalStateException(exc);
+            }
+        }
+
+        Message message(int field, Message value)
+        {
+            return bytes(field, value.toByteArray());
+        }
+
+        Message packedInt(int field, long... values)
+        {
+            Message packed = new Message();
+            for (long value : values)
+            {
+                packed.varint(value);
+            }
+            return message(field, packed);
+        }
+
+        Message packedSInt64(int field, long... values)
+        {
+            Message packed = new Message();
+            for (long value : values)
+            {
+                packed.varint((value << 1) ^ (value >> 63));
+            }
+            return message(field, packed);
+        }
+
+        byte[] toByteArray()
+        {
+            return os.toByteArray();
+        }
+
+        private void varint(long value)
+        {
+            while ((value & ~0x7FL) != 0)
+            {
+                os.write((int) ((value & 0x7F) | 0x80));
+                value >>>= 7;
+            }
+            os.write((int) value);
+        }
+    }
+}
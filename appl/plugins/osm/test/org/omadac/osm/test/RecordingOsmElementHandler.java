@@ -0,0 +1,97 @@
+/*
+ *    Omadac - The Open Map Database Compiler
+ *    http://omadac.org
+ * 
+ *    (C) 2010, Harald Wellmann and Contributors
+ *
+ *    This library is free software; you can redistribute it and/or
+ *    modify it under the terms of the GNU Lesser General Public
+ *    License as published by the Free Software Foundation;
+ *    version 2.1 of the License.
+ *
+ *    This library is distributed in the hope that it will be useful,
+ *    but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ *    Lesser General Public License for more details.
+ */
+package org.omadac.osm.test;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import javax.xml.bind.JAXBElement;
+
+import org.omadac.osm.ElementBuffer;
+import org.omadac.osm.NodeBuffer;
+import org.omadac.osm.OsmElementHandler;
+import org.omadac.osm.RelationBuffer;
+import org.omadac.osm.WayBuffer;
+
+/**
+ * Records a one-line string representation of each element passed to the buffer-based
+ * handler methods, for comparison in parser tests.
+ * 
+ * @author hwellmann
+ * 
+ */
+public class RecordingOsmElementHandler implements OsmElementHandler
+{
+    private List<String> events = new ArrayList<String>();
+
+    public List<String> getEvents()
+    {
+        return events;
+    }
+
+    @Override
+    public void handleElement(JAXBElement<?> elem)
+    {
+        throw new UnsupportedOperationException();
+    }
+
+    @Override
+    public void handleNode(NodeBuffer node)
+    {
+        events.add(String.format("node %d %s %s %s", node.getId(), node.getLatitude(),
+            node.getLongitude(), tags(node.getNumTags(), node)));
+    }
+
+    @Override
+    public void handleWay(WayBuffer way)
+    {
+        List<Long> refs = new ArrayList<Long>();
+        for (int i = 0; i < way.getNumNodeRefs(); i++)
+        {
+            refs.add(way.getNodeRef(i));
+        }
+        events.add(String.format("way %d %s %s", way.getId(), refs,
+            tags(way.getNumTags(), way)));
+    }
+
+    @Override
+    public void handleRelation(RelationBuffer relation)
+    {
+        List<String> members = new ArrayList<String>();
+        for (int i = 0; i < relation.getNumMembers(); i++)
+        {
+            members.add(relation.getMemberType(i) + ":" + relation.getMemberRef(i) + ":"
+                + relation.getMemberRole(i));
+        }
+        events.add(String.format("relation %d %s %s", relation.getId(), members,
+            tags(relation.getNumTags(), relation)));
+    }
+
+    private String tags(int numTags, ElementBuffer buffer)
+    {
+        StringBuilder sb = new StringBuilder("{");
+        for (int i = 0; i < numTags; i++)
+        {
+            if (i > 0)
+            {
+                sb.append(", ");
+            }
+            sb.append(buffer.getTagKey(i)).append('=').append(buffer.getTagValue(i));
+        }
+        return sb.append('}').toString();
+    }
+}
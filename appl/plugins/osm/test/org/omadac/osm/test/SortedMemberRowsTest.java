@@ -0,0 +1,107 @@
+/*
+ *    Omadac - The Open Map Database Compiler
+ *    http://omadac.org
+ * 
+ *    (C) 2010, Harald Wellmann and Contributors
+ *
+ *    This library is free software; you can redistribute it and/or
+ *    modify it under the terms of the GNU Lesser General Public
+ *    License as published by the Free Software Foundation;
+ *    version 2.1 of the License.
+ *
+ *    This library is distributed in the hope that it will be useful,
+ *    but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ *    Lesser General Public License for more details.
+ */
+package org.omadac.osm.test;
+
+import static org.junit.Assert.assertEquals;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileReader;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.junit.Test;
+import org.omadac.osm.LoaderFileOsmElementHandler;
+import org.omadac.osm.RelationBuffer;
+import org.omadac.osm.WayBuffer;
+
+
+public class SortedMemberRowsTest
+{
+    @Test
+    public void sortWayNodesAndRelationMembers() throws IOException
+    {
+        File dir = File.createTempFile("osm", "");
+        dir.delete();
+        dir.mkdirs();
+        File sortDir = new File(dir, "sort");
+        
+        LoaderFileOsmElementHandler handler = new LoaderFileOsmElementHandler(dir.getPath());
+        // small budget, so that several runs are spilled
+        handler.setSortBuffers(sortDir, 1000);
+        WayBuffer way = new WayBuffer();
+        for (long id = 100; id > 0; id--)
+        {
+            way.clear();
+            way.setId(id);
+            way.addNodeRef(1000 + id);
+            way.addNodeRef(2000 + id);
+            handler.handleWay(way);
+        }
+        RelationBuffer relation = new RelationBuffer();
+        relation.setId(7);
+        relation.addMember(42, RelationBuffer.MEMBER_WAY, "outer");
+        handler.handleRelation(relation);
+        relation.clear();
+        relation.setId(3);
+        relation.addMember(43, RelationBuffer.MEMBER_NODE, "");
+        handler.handleRelation(relation);
+        handler.close();
+        
+        assertEquals(0, sortDir.list().length);
+        List<String> wayNodes = readLines(new File(dir, "way_nodes.txt"));
+        assertEquals(200, wayNodes.size());
+        assertEquals("1\t1001\t0", wayNodes.get(0));
+        assertEquals("1\t2001\t1", wayNodes.get(1));
+        assertEquals("100\t2100\t1", wayNodes.get(199));
+        
+        List<String> members = readLines(new File(dir, "relation_members.txt"));
+        assertEquals("3\t43\t\t1\t0", members.get(0));
+        assertEquals("7\t42\touter\t2\t0", members.get(1));
+        
+        for (File file : sortDir.listFiles())
+        {
+            file.delete();
+        }
+        sortDir.delete();
+        for (File file : dir.listFiles())
+        {
+            file.delete();
+        }
+        dir.delete();
+    }
+
+    private List<String> readLines(File file) throws IOException
+    {
+        List<String> lines = new ArrayList<String>();
+        BufferedReader reader = new BufferedReader(new FileReader(file));
+        try
+        {
+            String line;
+            while ((line = reader.readLine()) != null)
+            {
+                lines.add(line);
+            }
+        }
+        finally
+        {
+            reader.close();
+        }
+        return lines;
+    }
+}
@@ -0,0 +1,160 @@
+/*
+ *    Omadac - The Open Map Database Compiler
+ *    http://omadac.org
+ * 
+ *    (C) 2010, Harald Wellmann and Contributors
+ *
+ *    This library is free software; you can redistribute it and/or
+ *    modify it under the terms of the GNU Lesser General Public
+ *    License as published by the Free Software Foundation;
+ *    version 2.1 of the License.
+ *
+ *    This library is distributed in the hope that it will be useful,
+ *    but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ *    Lesser General Public License for more details.
+ */
+package org.omadac.osm.test;
+
+import static org.junit.Assert.assertEquals;
+
+import java.io.ByteArrayOutputStream;
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.nio.channels.Channels;
+import java.sql.Connection;
+import java.sql.ResultSet;
+import java.sql.Statement;
+
+import org.junit.Test;
+import org.omadac.loader.LoaderFileWriter;
+import org.omadac.osm.TagDictionary;
+
+
+public class TagDictionaryTest
+{
+    @Test
+    public void codeKeysAndValues()
+    {
+        TagDictionary dict = new TagDictionary();
+        assertEquals(2, dict.getValueId("highway", "residential"));
+        assertEquals(1, dict.getKeyId("highway"));
+        assertEquals(3, dict.getValueId("highway", "primary"));
+        assertEquals(2, dict.getValueId("highway", "residential"));
+        assertEquals(TagDictionary.UNCODED, dict.getValueId("name", ""));
+        assertEquals(4, dict.getKeyId("name"));
+        assertEquals(4, dict.size());
+    }
+
+    @Test
+    public void limitValuesPerKey()
+    {
+        TagDictionary dict = new TagDictionary();
+        for (int i = 0; i < TagDictionary.MAX_VALUES_PER_KEY; i++)
+        {
+            assertEquals(i + 2, dict.getValueId("name", "name" + i));
+        }
+        assertEquals(TagDictionary.UNCODED, dict.getValueId("name", "Main Street"));
+        assertEquals(2, dict.getValueId("name", "name0"));
+    }
+
+    @Test
+    public void writeNewEntries()
+    {
+        TagDictionary dict = new TagDictionary();
+        dict.getValueId("highway", "residential");
+        ByteArrayOutputStream os = new ByteArrayOutputStream();
+        LoaderFileWriter writer = new LoaderFileWriter(Channels.newChannel(os));
+        dict.write(writer);
+        dict.getValueId("oneway", "yes");
+        dict.write(writer);
+        writer.close();
+        assertEquals("1\thighway\t\n2\thighway\tresidential\n3\toneway\t\n4\toneway\tyes\n", 
+            os.toString());
+    }
+
+    @Test
+    public void loadWrittenEntries()
+    {
+        TagDictionary dict = new TagDictionary();
+        dict.getValueId("highway", "residential");
+        dict.getValueId("oneway", "yes");
+        ByteArrayOutputStream os = new ByteArrayOutputStream();
+        LoaderFileWriter writer = new LoaderFileWriter(Channels.newChannel(os));
+        dict.write(writer);
+        writer.close();
+
+        TagDictionary loaded = TagDictionary.load(copyResult(os.toString()), "osm");
+        assertEquals(4, loaded.size());
+        assertEquals(1, loaded.getKeyId("highway"));
+        assertEquals(2, loaded.getValueId("highway", "residential"));
+        assertEquals(3, loaded.getKeyId("oneway"));
+        assertEquals(4, loaded.getValueId("oneway", "yes"));
+        assertEquals(5, loaded.getValueId("highway", "primary"));
+    }
+
+    /**
+     * Returns a connection whose queries return the rows of the given loader file, with
+     * empty columns read as null, as with {@code copy ... null as ''}.
+     */
+    private static Connection copyResult(String loaderFile)
+    {
+        final String[] lines = loaderFile.split("\n");
+        final InvocationHandler resultSet = new InvocationHandler()
+        {
+            private int row = -1;
+
+            public Object invoke(Object proxy, Method method, Object[] args)
+            {
+                if (method.getName().equals("next"))
+                {
+                    return ++row < lines.length;
+                }
+                if (method.getName().equals("getInt"))
+                {
+                    return Integer.valueOf(column(args));
+                }
+                if (method.getName().equals("getString"))
+                {
+                    String value = column(args);
+                    return value.length() == 0 ? null : value;
+                }
+                return null;
+            }
+
+            private String column(Object[] args)
+            {
+                return lines[row].split("\t", -1)[(Integer) args[0] - 1];
+            }
+        };
+        final InvocationHandler statement = new InvocationHandler()
+        {
+            public Object invoke(Object proxy, Method method, Object[] args)
+            {
+                if (method.getName().equals("executeQuery"))
+                {
+                    return proxy(ResultSet.class, resultSet);
+                }
+                return null;
+            }
+        };
+        return proxy(Connection.class, new InvocationHandler()
+        {
+            public Object invoke(Object proxy, Method method, Object[] args)
+            {
+                if (method.getName().equals("createStatement"))
+                {
+                    return proxy(Statement.class, statement);
+                }
+                return null;
+            }
+        });
+    }
+
+    private static <T> T proxy(Class<T> type, InvocationHandler handler)
+    {
+        return type.cast(Proxy.newProxyInstance(TagDictionaryTest.class.getClassLoader(),
+            new Class<?>[] { type }, handler));
+    }
+}
@@ -0,0 +1,213 @@
+/*
+ *    Omadac - The Open Map Database Compiler
+ *    http://omadac.org
+ * 
+ *    (C) 2010, Harald Wellmann and Contributors
+ *
+ *    This library is free software; you can redistribute it and/or
+ *    modify it under the terms of the GNU Lesser General Public
+ *    License as published by the Free Software Foundation;
+ *    version 2.1 of the License.
+ *
+ *    This library is distributed in the hope that it will be useful,
+ *    but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ *    Lesser General Public License for more details.
+ */
+package org.omadac.sql;
+
+import java.sql.Connection;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CompletionService;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorCompletionService;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+import javax.persistence.EntityManager;
+
+import org.omadac.config.OmadacException;
+import org.omadac.jpa.JpaUtil;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Executes a batch of independent DDL statements, like primary key constraints and indexes, 
+ * concurrently. Each statement runs in a transaction of its own on a new entity manager, so
+ * the number of threads should not exceed the number of available connections.
+ * <p>
+ * If a memory setting is given, each transaction starts with 
+ * {@code set local maintenance_work_mem}, which is specific to PostgreSQL and reverts at the
+ * end of the transaction.
+ * <p>
+ * The runner stops waiting for the remaining statements on the first failure. The duration
+ * of each statement is logged and retained for later inspection.
+ * 
+ * @author hwellmann
+ *
+ */
+public class ParallelDdlRunner
+{
+    private static Logger log = LoggerFactory.getLogger(ParallelDdlRunner.class);
+    
+    private int numThreads;
+    
+    private String maintenanceWorkMem;
+    
+    private Map<String, Long> durations = 
+        Collections.synchronizedMap(new LinkedHashMap<String, Long>());
+
+    /**
+     * Creates a runner.
+     * @param numThreads         maximum number of statements running at the same time
+     * @param maintenanceWorkMem value for PostgreSQL maintenance_work_mem, e.g. "1GB",
+     *                           or null to use the server default
+     */
+    public ParallelDdlRunner(int numThreads, String maintenanceWorkMem)
+    {
+        this.numThreads = Math.max(1, numThreads);
+        this.maintenanceWorkMem = maintenanceWorkMem;
+    }
+
+    /**
+     * Executes the given statements and returns when all of them are completed.
+     * @param statements  DDL statements without terminating semicolons. Blank statements
+     *                    are ignored.
+     */
+    public void execute(List<String> statements)
+    {
+        List<String> sqls = new ArrayList<String>();
+        for (String statement : statements)
+        {
+            String sql = statement.trim();
+            if (sql.length() > 0)
+            {
+                sqls.add(sql);
+            }
+        }
+        int poolSize = Math.min(numThreads, sqls.size());
+        if (poolSize == 0)
+        {
+            return;
+        }
+        
+        log.info("running {} DDL statements with {} threads", sqls.size(), poolSize);
+        long start = System.currentTimeMillis();
+        ExecutorService executor = Executors.newFixedThreadPool(poolSize);
+        CompletionService<String> completionService = 
+            new ExecutorCompletionService<String>(executor);
+        try
+        {
+            for (final String sql : sqls)
+            {
+                completionService.submit(new Callable<String>()
+                {
+                    @Override
+                    public String call()
+                    {
+                        runStatement(sql);
+                        return sql;
+                    }
+                });
+            }
+            for (int i = 0; i < sqls.size(); i++)
+            {
+                completionService.take().get();
+            }
+        }
+        catch (InterruptedException exc)
+        {
+            Thread.currentThread().interrupt();
+            throw new OmadacException(exc);
+        }
+        catch (ExecutionException exc)
+        {
+            Throwable cause = exc.getCause();
+            if (cause instanceof OmadacException)
+            {
+                throw (OmadacException) cause;
+            }
+            throw new OmadacException(cause);
+        }
+        finally
+        {
+            executor.shutdownNow();
+        }
+        long elapsed = System.currentTimeMillis() - start;
+        log.info("completed {} DDL statements in {} ms", sqls.size(), elapsed);
+    }
+
+    private void runStatement(String sql)
+    {
+        EntityManager em = JpaUtil.getNewEntityManager();
+        try
+        {
+            Connection dbc = JpaUtil.getConnection(em);
+            Statement st = dbc.createStatement();
+            if (maintenanceWorkMem != null)
+            {
+                st.executeUpdate(String.format("set local maintenance_work_mem = '%s'", 
+                    maintenanceWorkMem));
+            }
+            log.info("running SQL statement\n{};", sql);
+            long start = System.currentTimeMillis();
+            st.executeUpdate(sql);
+            st.close();
+            em.getTransaction().commit();
+            long elapsed = System.currentTimeMillis() - start;
+            durations.put(sql, elapsed);
+            log.info("{} ms for SQL statement\n{};", elapsed, sql);
+        }
+        catch (SQLException exc)
+        {
+            em.getTransaction().rollback();
+            throw new OmadacException("error in SQL statement:\n" + sql, exc);
+        }
+        finally
+        {
+            em.close();
+        }
+    }
+
+    /**
+     * Returns the duration in milliseconds of each completed statement, in order of
+     * completion.
+     * @return map from statement to duration
+     */
+    public Map<String, Long> getDurations()
+    {
+        synchronized (durations)
+        {
+            return new LinkedHashMap<String, Long>(durations);
+        }
+    }
+
+    /**
+     * Logs the completed statements, slowest first.
+     */
+    public void logDurations()
+    {
+        List<Map.Entry<String, Long>> entries = 
+            new ArrayList<Map.Entry<String, Long>>(getDurations().entrySet());
+        Collections.sort(entries, new Comparator<Map.Entry<String, Long>>()
+        {
+            @Override
+            public int compare(Map.Entry<String, Long> left, Map.Entry<String, Long> right)
+            {
+                return right.getValue().compareTo(left.getValue());
+            }
+        });
+        for (Map.Entry<String, Long> entry : entries)
+        {
+            log.info("{} ms: {}", entry.getValue(), entry.getKey());
+        }
+    }
+}
@@ -22,6 +22,7 @@ import java.io.StringReader;
 import java.io.StringWriter;
 import java.net.URL;
 import java.sql.Connection;
+import java.util.List;
 
 import javax.persistence.EntityManager;
 
@@ -33,10 +34,12 @@ public class SqlSchemaCreator
 {
     private EntityManager em;
     private SqlGenerator generator;
+    private String dialect;
     
     public SqlSchemaCreator(EntityManager em, String dialect)
     {
         this.em = em;
+        this.dialect = dialect;
         this.generator = new SqlGenerator(dialect);
     }
     
@@ -85,6 +88,34 @@ public class SqlSchemaCreator
         executeScript(reader);
     }
 
+    /**
+     * Creates all primary keys and then all indexes, running up to {@code numThreads} 
+     * statements concurrently, each on a connection of its own. Use this method after a bulk
+     * load instead of {@link #createPrimaryKeys()} and {@link #createIndexes()}.
+     * <p>
+     * Primary keys are completed before the first index is started, since adding a
+     * constraint locks the entire table.
+     * 
+     * @param numThreads          maximum number of concurrent statements
+     * @param maintenanceWorkMem  value of maintenance_work_mem for each statement, or null.
+     *                            Ignored for dialects other than PostgreSQL.
+     */
+    public void createPrimaryKeysAndIndexes(int numThreads, String maintenanceWorkMem)
+    {
+        String workMem = "postgresql".equals(dialect) ? maintenanceWorkMem : null;
+        ParallelDdlRunner runner = new ParallelDdlRunner(numThreads, workMem);
+        
+        StringWriter writer = new StringWriter();
+        generator.writeCreatePrimaryKeysScript(writer);
+        runner.execute(splitScript(writer));
+        
+        writer = new StringWriter();
+        generator.writeCreateIndexesScript(writer);
+        runner.execute(splitScript(writer));
+        
+        runner.logDurations();
+    }
+
     public void dropTables()
     {
         StringWriter writer = new StringWriter();
@@ -93,6 +124,18 @@ public class SqlSchemaCreator
         executeScript(reader);
     }
     
+    private List<String> splitScript(StringWriter writer)
+    {
+        try
+        {
+            return SqlScriptRunner.splitScript(new StringReader(writer.toString()));
+        }
+        catch (IOException exc)
+        {
+            throw new OmadacException(exc);
+        }
+    }
+
     private void executeScript(Reader reader)
     {
         Connection connection = JpaUtil.getConnection(em);
@@ -26,6 +26,8 @@ import java.net.URL;
 import java.sql.Connection;
 import java.sql.SQLException;
 import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.List;
 
 import org.omadac.config.OmadacException;
 
@@ -115,6 +117,24 @@ public class SqlScriptRunner
      */
     public void executeScript(Reader reader) throws IOException
     {
+        for (String sql : splitScript(reader))
+        {
+            runStatement(sql);
+        }
+    }
+
+    /**
+     * Splits a script from the given reader into statements, using the same rules as
+     * {@link #executeScript(Reader)}, and closes the reader. 
+     * 
+     * @param reader
+     *            script reader
+     * @return list of statements, without terminating semicolons
+     * @throws IOException
+     */
+    public static List<String> splitScript(Reader reader) throws IOException
+    {
+        List<String> statements = new ArrayList<String>();
         StringBuilder command = new StringBuilder();
         LexerStatus status = NORMAL;
         while (status != EOF)
@@ -166,7 +186,7 @@ public class SqlScriptRunner
                         break;
 
                     case ';':
-                        runStatement(command.toString());
+                        statements.add(command.toString());
                         command = new StringBuilder();
                         break;
 
@@ -176,6 +196,7 @@ public class SqlScriptRunner
             }
         }
         reader.close();
+        return statements;
     }
 
     /**